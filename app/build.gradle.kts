@@ -80,6 +80,20 @@ android {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
     }
+
+    // 宿主机基准测试：./gradlew :app:testPy311DebugUnitTest -Pbenchmark --tests "*AIPipelineBenchmark"
+    testOptions {
+        unitTests {
+            // 用到Android类（如Log）的测试在Robolectric中运行，不依赖返回默认值的桩实现
+            isIncludeAndroidResources = true
+            all {
+                it.systemProperty("benchmark", (project.findProperty("benchmark") != null).toString())
+                // 基准测试结果写入构建目录，不落在源码树中
+                it.systemProperty("benchmark.outputDir",
+                    project.layout.buildDirectory.dir("benchmark").get().asFile.absolutePath)
+            }
+        }
+    }
 }
 
 dependencies {
@@ -114,6 +128,9 @@ dependencies {
     implementation("io.github.Rosemoe.sora-editor:language-java:0.23.4")
     
     testImplementation(libs.junit)
+    testImplementation("org.robolectric:robolectric:4.14.1")
+    // 离线回放测试：本地假LLM服务商
+    testImplementation("com.squareup.okhttp3:mockwebserver:4.12.0")
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
 }
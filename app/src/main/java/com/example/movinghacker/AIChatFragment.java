@@ -1,5 +1,7 @@
 package com.example.movinghacker;
 
+import android.content.Intent;
+import android.graphics.Typeface;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -11,8 +13,14 @@ import android.widget.EditText;
 import android.widget.ImageButton;
 import android.widget.LinearLayout;
 import android.widget.ProgressBar;
+import android.widget.ScrollView;
+import android.widget.TextView;
 import android.widget.Toast;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
@@ -23,6 +31,12 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.movinghacker.ai.AIConfig;
 import com.example.movinghacker.ai.AIConfigManager;
+import com.example.movinghacker.ai.AgentTrace;
+import com.example.movinghacker.ai.AgentTracer;
+import com.example.movinghacker.ai.ChatConversation;
+import com.example.movinghacker.ai.ChatHistoryRepository;
+import com.example.movinghacker.ai.ChatMessage;
+import com.example.movinghacker.ai.ExchangeRecorder;
 import com.google.android.material.appbar.MaterialToolbar;
 import com.google.android.material.switchmaterial.SwitchMaterial;
 
@@ -30,6 +44,9 @@ import com.google.android.material.switchmaterial.SwitchMaterial;
  * AI聊天Fragment
  */
 public class AIChatFragment extends Fragment {
+
+    // 距离顶部少于该条数时预加载更早的消息
+    private static final int LOAD_OLDER_THRESHOLD = 10;
     
     private MaterialToolbar toolbar;
     private RecyclerView messageList;
@@ -42,6 +59,11 @@ public class AIChatFragment extends Fragment {
     
     private AIChatViewModel viewModel;
     private MessageAdapter messageAdapter;
+    private LinearLayoutManager layoutManager;
+    private String shownFirstMessageId;
+    private int shownMessageCount;
+    // 已请求加载较新的一页，下次更新列表时不滚动到底部
+    private boolean loadingNewerPage;
     private AIConfigManager configManager;
 
     @Override
@@ -95,7 +117,8 @@ public class AIChatFragment extends Fragment {
     private void setupRecyclerView() {
         messageAdapter = new MessageAdapter();
         messageList.setAdapter(messageAdapter);
-        messageList.setLayoutManager(new LinearLayoutManager(requireContext()));
+        layoutManager = new LinearLayoutManager(requireContext());
+        messageList.setLayoutManager(layoutManager);
         
         // 自动滚动到最新消息
         messageAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
@@ -104,6 +127,63 @@ public class AIChatFragment extends Fragment {
                 messageList.smoothScrollToPosition(messageAdapter.getItemCount() - 1);
             }
         });
+
+        // 向上滚动接近顶部时分页加载更早的消息，向下滚动接近底部时加载之前丢弃的较新消息
+        messageList.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy < 0 && layoutManager.findFirstVisibleItemPosition() < LOAD_OLDER_THRESHOLD) {
+                    viewModel.loadOlderMessages();
+                } else if (dy > 0 && layoutManager.findLastVisibleItemPosition()
+                        >= messageAdapter.getItemCount() - LOAD_OLDER_THRESHOLD) {
+                    if (viewModel.loadNewerMessages()) {
+                        loadingNewerPage = true;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 更新消息列表：头部插入或移除消息时保持当前可见位置，尾部追加新消息时滚动到底部
+     */
+    private void showMessages(List<ChatMessage> messages) {
+        int prepended = 0;
+        int removed = 0;
+        if (shownFirstMessageId != null && !messages.isEmpty()
+                && !shownFirstMessageId.equals(messages.get(0).getId())) {
+            prepended = Math.max(0, indexOf(messages, shownFirstMessageId));
+            if (prepended == 0) {
+                // 加载较新消息后，超出上限的最早消息被移除
+                removed = Math.max(0, messageAdapter.indexOf(messages.get(0).getId()));
+            }
+        }
+        boolean newerPage = loadingNewerPage;
+        loadingNewerPage = false;
+        boolean appended = prepended == 0 && removed == 0 && !newerPage && messages.size() > shownMessageCount;
+
+        int firstVisible = layoutManager.findFirstVisibleItemPosition();
+        View firstChild = messageList.getChildAt(0);
+        int offset = firstChild != null ? firstChild.getTop() : 0;
+
+        messageAdapter.setMessages(messages);
+        shownFirstMessageId = messages.isEmpty() ? null : messages.get(0).getId();
+        shownMessageCount = messages.size();
+
+        if ((prepended > 0 || removed > 0) && firstVisible != RecyclerView.NO_POSITION) {
+            layoutManager.scrollToPositionWithOffset(Math.max(0, firstVisible + prepended - removed), offset);
+        } else if (appended) {
+            messageList.scrollToPosition(messages.size() - 1);
+        }
+    }
+
+    private static int indexOf(List<ChatMessage> messages, String messageId) {
+        for (int i = 0; i < messages.size(); i++) {
+            if (messageId.equals(messages.get(i).getId())) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     private void setupListeners() {
@@ -138,7 +218,7 @@ public class AIChatFragment extends Fragment {
     private void observeViewModel() {
         // 观察消息列表
         viewModel.getMessages().observe(getViewLifecycleOwner(), messages -> {
-            messageAdapter.setMessages(messages);
+            showMessages(messages);
             
             // 显示/隐藏空状态
             if (messages.isEmpty()) {
@@ -164,6 +244,15 @@ public class AIChatFragment extends Fragment {
             messageInput.setEnabled(!isLoading);
         });
         
+        // 观察当前对话
+        viewModel.getCurrentConversation().observe(getViewLifecycleOwner(), conversation -> {
+            shownFirstMessageId = null;
+            shownMessageCount = 0;
+            if (conversation != null) {
+                toolbar.setSubtitle(conversation.getTitle());
+            }
+        });
+
         // 观察错误
         viewModel.getError().observe(getViewLifecycleOwner(), error -> {
             if (error != null && !error.isEmpty()) {
@@ -213,7 +302,7 @@ public class AIChatFragment extends Fragment {
     private void showClearHistoryDialog() {
         new AlertDialog.Builder(requireContext())
                 .setTitle("清空历史")
-                .setMessage("确定要清空所有聊天记录吗？")
+                .setMessage("确定要清空当前对话的聊天记录吗？")
                 .setPositiveButton("确定", (dialog, which) -> {
                     viewModel.clearHistory();
                     Toast.makeText(requireContext(), "历史记录已清空", Toast.LENGTH_SHORT).show();
@@ -222,12 +311,113 @@ public class AIChatFragment extends Fragment {
                 .show();
     }
 
+    private void showConversationsDialog() {
+        viewModel.getConversations(new ChatHistoryRepository.ConversationListCallback() {
+            @Override
+            public void onSuccess(List<ChatConversation> conversations) {
+                if (!isAdded()) {
+                    return;
+                }
+                requireActivity().runOnUiThread(() -> {
+                    String[] titles = new String[conversations.size()];
+                    for (int i = 0; i < conversations.size(); i++) {
+                        titles[i] = conversations.get(i).getTitle();
+                    }
+                    new AlertDialog.Builder(requireContext())
+                            .setTitle(R.string.ai_switch_conversation)
+                            .setItems(titles, (dialog, which) ->
+                                    viewModel.switchConversation(conversations.get(which).getId()))
+                            .setNegativeButton("取消", null)
+                            .show();
+                });
+            }
+
+            @Override
+            public void onError(String message) {
+                if (!isAdded()) {
+                    return;
+                }
+                requireActivity().runOnUiThread(() ->
+                        Toast.makeText(requireContext(), "加载对话列表失败: " + message, Toast.LENGTH_SHORT).show());
+            }
+        });
+    }
+
+    /**
+     * 调试面板：显示最近几次对话任务的阶段耗时、Token用量和重试次数，可导出JSON
+     */
+    private void showAgentTraceDialog() {
+        AgentTracer tracer = AgentTracer.getInstance();
+        List<AgentTrace> traces = tracer.getRecentTraces();
+        StringBuilder text = new StringBuilder();
+        if (traces.isEmpty()) {
+            text.append("暂无记录，发送一条消息后再查看");
+        }
+        for (AgentTrace trace : traces) {
+            text.append(trace.describe()).append('\n');
+        }
+
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        TextView textView = new TextView(requireContext());
+        textView.setText(text.toString());
+        textView.setTypeface(Typeface.MONOSPACE);
+        textView.setTextSize(11);
+        textView.setTextIsSelectable(true);
+        textView.setPadding(padding, padding, padding, padding);
+        ScrollView scrollView = new ScrollView(requireContext());
+        scrollView.addView(textView);
+
+        new AlertDialog.Builder(requireContext())
+                .setTitle(R.string.ai_agent_trace)
+                .setView(scrollView)
+                .setPositiveButton("导出JSON", (dialog, which) -> {
+                    Intent intent = new Intent(Intent.ACTION_SEND);
+                    intent.setType("application/json");
+                    intent.putExtra(Intent.EXTRA_SUBJECT, "agent_trace.json");
+                    intent.putExtra(Intent.EXTRA_TEXT, tracer.exportJson());
+                    startActivity(Intent.createChooser(intent, "导出运行追踪"));
+                })
+                .setNeutralButton("清空", (dialog, which) -> tracer.clear())
+                .setNegativeButton("关闭", null)
+                .show();
+    }
+
+    /**
+     * 开始/停止录制LLM请求和响应，样本写入应用外部存储的replay目录，供离线回放测试使用
+     */
+    private void toggleReplayRecording() {
+        ExchangeRecorder recorder = ExchangeRecorder.getInstance();
+        if (recorder.isRecording()) {
+            int count = recorder.getRecordedCount();
+            File file = recorder.stop();
+            Toast.makeText(requireContext(), "已录制" + count + "次请求：" + file.getAbsolutePath(),
+                    Toast.LENGTH_LONG).show();
+        } else {
+            try {
+                File file = recorder.start(new File(requireContext().getExternalFilesDir(null), "replay"));
+                Toast.makeText(requireContext(), "开始录制：" + file.getName(), Toast.LENGTH_SHORT).show();
+            } catch (IOException e) {
+                Toast.makeText(requireContext(), "无法开始录制：" + e.getMessage(), Toast.LENGTH_LONG).show();
+            }
+        }
+        requireActivity().invalidateOptionsMenu();
+    }
+
     @Override
     public void onCreateOptionsMenu(@NonNull Menu menu, @NonNull MenuInflater inflater) {
         inflater.inflate(R.menu.ai_chat_menu, menu);
         super.onCreateOptionsMenu(menu, inflater);
     }
 
+    @Override
+    public void onPrepareOptionsMenu(@NonNull Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+        MenuItem recordItem = menu.findItem(R.id.action_record_replay);
+        if (recordItem != null) {
+            recordItem.setChecked(ExchangeRecorder.getInstance().isRecording());
+        }
+    }
+
     @Override
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
         int id = item.getItemId();
@@ -235,6 +425,18 @@ public class AIChatFragment extends Fragment {
         if (id == R.id.action_config) {
             showConfigDialog();
             return true;
+        } else if (id == R.id.action_new_conversation) {
+            viewModel.newConversation();
+            return true;
+        } else if (id == R.id.action_switch_conversation) {
+            showConversationsDialog();
+            return true;
+        } else if (id == R.id.action_agent_trace) {
+            showAgentTraceDialog();
+            return true;
+        } else if (id == R.id.action_record_replay) {
+            toggleReplayRecording();
+            return true;
         } else if (id == R.id.action_clear_history) {
             showClearHistoryDialog();
             return true;
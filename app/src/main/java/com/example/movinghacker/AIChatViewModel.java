@@ -11,6 +11,7 @@ import com.example.movinghacker.ai.AIConfig;
 import com.example.movinghacker.ai.AIConfigManager;
 import com.example.movinghacker.ai.AIResponse;
 import com.example.movinghacker.ai.AIService;
+import com.example.movinghacker.ai.ChatConversation;
 import com.example.movinghacker.ai.ChatHistoryRepository;
 import com.example.movinghacker.ai.ChatMessage;
 import com.example.movinghacker.ai.FunctionCall;
@@ -18,21 +19,31 @@ import com.example.movinghacker.ai.FunctionResult;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  * AI聊天ViewModel
  */
 public class AIChatViewModel extends AndroidViewModel {
+
+    // 界面最多保留的消息数，超出时丢弃离当前浏览位置最远的一端，需要时重新分页加载
+    private static final int MAX_DISPLAYED_MESSAGES = ChatHistoryRepository.PAGE_SIZE * 4;
     
     private final MutableLiveData<List<ChatMessage>> messages = new MutableLiveData<>(new ArrayList<>());
     private final MutableLiveData<Boolean> loading = new MutableLiveData<>(false);
     private final MutableLiveData<String> error = new MutableLiveData<>();
+    private final MutableLiveData<ChatConversation> currentConversation = new MutableLiveData<>();
     
     private final AIConfigManager configManager;
     private final ChatHistoryRepository historyRepository;
     private final AIService aiService;
-    private AIService.StopToken activeStopToken;
-    private Thread activeThread;
+    private volatile AIService.StopToken activeStopToken;
+    private volatile Future<?> activeTask;
+    private volatile long conversationId = -1;
+    private volatile boolean hasMoreHistory;
+    // 界面已丢弃较新的消息（用户向上浏览了较早的历史）
+    private volatile boolean hasNewerHistory;
+    private volatile boolean loadingPage;
 
     public AIChatViewModel(@NonNull Application application) {
         super(application);
@@ -57,50 +68,232 @@ public class AIChatViewModel extends AndroidViewModel {
         return error;
     }
 
+    public LiveData<ChatConversation> getCurrentConversation() {
+        return currentConversation;
+    }
+
     private void loadHistory() {
-        List<ChatMessage> history = historyRepository.loadHistory();
-        messages.setValue(history);
+        historyRepository.loadActiveConversation(conversationCallback);
+    }
+
+    /**
+     * 对话加载完成后替换当前消息列表（仅包含最近一页）
+     */
+    private final ChatHistoryRepository.ConversationCallback conversationCallback =
+            new ChatHistoryRepository.ConversationCallback() {
+        @Override
+        public void onLoaded(ChatConversation conversation, List<ChatMessage> page, boolean hasMore) {
+            conversationId = conversation.getId();
+            hasMoreHistory = hasMore;
+            hasNewerHistory = false;
+            currentConversation.postValue(conversation);
+            messages.postValue(new ArrayList<>(page));
+        }
+
+        @Override
+        public void onError(String message) {
+            error.postValue("加载对话失败: " + message);
+        }
+    };
+
+    /**
+     * 加载更早的一页消息（用户滚动到列表顶部附近时调用）
+     */
+    public void loadOlderMessages() {
+        List<ChatMessage> current = messages.getValue();
+        if (!hasMoreHistory || loadingPage || Boolean.TRUE.equals(loading.getValue())
+                || current == null || current.isEmpty()) {
+            return;
+        }
+        loadingPage = true;
+        final long targetConversation = conversationId;
+        historyRepository.loadMessagesBefore(targetConversation, current.get(0).getId(),
+                new ChatHistoryRepository.MessagesCallback() {
+                    @Override
+                    public void onLoaded(List<ChatMessage> page, boolean hasMore) {
+                        if (targetConversation == conversationId) {
+                            hasMoreHistory = hasMore;
+                            List<ChatMessage> merged = new ArrayList<>(page);
+                            merged.addAll(current);
+                            if (merged.size() > MAX_DISPLAYED_MESSAGES) {
+                                merged = new ArrayList<>(merged.subList(0, MAX_DISPLAYED_MESSAGES));
+                                hasNewerHistory = true;
+                            }
+                            messages.postValue(merged);
+                        }
+                        loadingPage = false;
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                        loadingPage = false;
+                        error.postValue("加载历史消息失败: " + message);
+                    }
+                });
+    }
+
+    /**
+     * 加载之前因数量上限丢弃的较新一页消息（用户向上浏览后又滚动到列表底部附近时调用）
+     * @return 是否开始加载
+     */
+    public boolean loadNewerMessages() {
+        List<ChatMessage> current = messages.getValue();
+        if (!hasNewerHistory || loadingPage || Boolean.TRUE.equals(loading.getValue())
+                || current == null || current.isEmpty()) {
+            return false;
+        }
+        loadingPage = true;
+        final long targetConversation = conversationId;
+        historyRepository.loadMessagesAfter(targetConversation, current.get(current.size() - 1).getId(),
+                new ChatHistoryRepository.MessagesCallback() {
+                    @Override
+                    public void onLoaded(List<ChatMessage> page, boolean hasMore) {
+                        if (targetConversation == conversationId) {
+                            hasNewerHistory = hasMore;
+                            List<ChatMessage> merged = new ArrayList<>(current);
+                            merged.addAll(page);
+                            if (merged.size() > MAX_DISPLAYED_MESSAGES) {
+                                merged = new ArrayList<>(merged.subList(
+                                        merged.size() - MAX_DISPLAYED_MESSAGES, merged.size()));
+                                hasMoreHistory = true;
+                            }
+                            messages.postValue(merged);
+                        }
+                        loadingPage = false;
+                    }
+
+                    @Override
+                    public void onError(String message) {
+                        loadingPage = false;
+                        error.postValue("加载历史消息失败: " + message);
+                    }
+                });
+        return true;
+    }
+
+    public void getConversations(ChatHistoryRepository.ConversationListCallback callback) {
+        historyRepository.getConversations(callback);
+    }
+
+    public void newConversation() {
+        if (Boolean.TRUE.equals(loading.getValue())) {
+            return;
+        }
+        historyRepository.createConversation(conversationCallback);
+    }
+
+    public void switchConversation(long id) {
+        if (Boolean.TRUE.equals(loading.getValue()) || id == conversationId) {
+            return;
+        }
+        historyRepository.switchConversation(id, conversationCallback);
     }
 
     public void sendMessage(String content) {
         if (Boolean.TRUE.equals(loading.getValue())) {
             return;
         }
+        if (conversationId < 0) {
+            error.setValue("对话加载中，请稍候");
+            return;
+        }
+        final long targetConversation = conversationId;
         // 创建用户消息
         ChatMessage userMessage = ChatMessage.userMessage(content);
         
         List<ChatMessage> current = messages.getValue() != null ? messages.getValue() : new ArrayList<>();
-        final List<ChatMessage> conversation = new ArrayList<>(current);
-        conversation.add(userMessage);
-        messages.setValue(new ArrayList<>(conversation));
+        final List<ChatMessage> shown = new ArrayList<>(current);
+        shown.add(userMessage);
+        messages.setValue(new ArrayList<>(shown));
+        final boolean browsingOlder = hasNewerHistory;
         
         // 保存历史记录
-        historyRepository.saveHistory(conversation);
+        historyRepository.saveMessages(targetConversation, shown);
         
         // 设置加载状态
         loading.setValue(true);
-        activeStopToken = new AIService.StopToken();
-        
-        // 调用AI服务
-        activeThread = aiService.chatWithFunctionHandling(conversation, activeStopToken, new AIService.ChatCallback() {
+        final AIService.StopToken stopToken = new AIService.StopToken();
+        activeStopToken = stopToken;
+
+        // 上下文按固定窗口从数据库读取（包含刚保存的用户消息），与界面加载了多少页无关
+        historyRepository.loadContext(targetConversation, new ChatHistoryRepository.MessagesCallback() {
+            @Override
+            public void onLoaded(List<ChatMessage> context, boolean hasMore) {
+                // 界面上比上下文窗口更早的消息继续显示在前面
+                List<ChatMessage> older = new ArrayList<>();
+                int start = context.isEmpty() ? -1 : indexOf(shown, context.get(0).getId());
+                if (!browsingOlder && start > 0) {
+                    older.addAll(shown.subList(Math.max(0, start - (MAX_DISPLAYED_MESSAGES - context.size())), start));
+                }
+                hasNewerHistory = false;
+                hasMoreHistory = older.isEmpty() ? hasMore : (hasMoreHistory || older.size() < start);
+                startChat(targetConversation, older, new ArrayList<>(context), stopToken);
+            }
+
+            @Override
+            public void onError(String message) {
+                loading.postValue(false);
+                activeStopToken = null;
+                error.postValue("加载对话失败: " + message);
+            }
+        });
+    }
+
+    private static int indexOf(List<ChatMessage> list, String messageId) {
+        for (int i = 0; i < list.size(); i++) {
+            if (messageId != null && messageId.equals(list.get(i).getId())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 在上下文窗口上运行对话流程
+     * @param older 界面上显示在上下文之前的消息，只用于显示
+     * @param conversation 发送给模型的消息，AIService会向其中追加本轮产生的消息
+     */
+    private void startChat(long targetConversation, List<ChatMessage> older, List<ChatMessage> conversation,
+                           AIService.StopToken stopToken) {
+        // 调用AI服务（同一对话的终端命令在同一个常驻Shell中执行）
+        activeTask = aiService.chatWithFunctionHandling("conversation-" + targetConversation, conversation,
+                stopToken, new AIService.ChatCallback() {
+            // 当前轮次正在流式输出的回复消息
+            private ChatMessage streamingMessage;
+            private final StringBuilder streamingContent = new StringBuilder();
+
+            /**
+             * 界面显示的消息：较早的消息加上下文窗口，调用方持有conversation的锁
+             */
+            private List<ChatMessage> displayed() {
+                List<ChatMessage> list = new ArrayList<>(older.size() + conversation.size());
+                list.addAll(older);
+                list.addAll(conversation);
+                return list;
+            }
+
             @Override
             public void onSuccess(AIResponse response) {
                 loading.postValue(false);
                 activeStopToken = null;
-                activeThread = null;
+                activeTask = null;
                 
                 // 添加AI回复
                 if (response.hasContent()) {
-                    ChatMessage assistantMessage = ChatMessage.assistantMessage(response.getContent());
-                    
                     synchronized (conversation) {
-                        conversation.add(assistantMessage);
+                        if (streamingMessage != null) {
+                            // 流式输出已显示的消息直接替换为最终内容
+                            streamingMessage.setContent(response.getContent());
+                            streamingMessage = null;
+                        } else {
+                            conversation.add(ChatMessage.assistantMessage(response.getContent()));
+                        }
                         // 更新UI显示所有消息（包括function调用和结果）
-                        messages.postValue(new ArrayList<>(conversation));
+                        messages.postValue(displayed());
                     }
                     
                     // 保存历史
-                    historyRepository.saveHistory(conversation);
+                    historyRepository.saveMessages(targetConversation, conversation);
                 }
             }
 
@@ -108,7 +301,7 @@ public class AIChatViewModel extends AndroidViewModel {
             public void onError(Exception e) {
                 loading.postValue(false);
                 activeStopToken = null;
-                activeThread = null;
+                activeTask = null;
                 error.postValue("错误: " + e.getMessage());
                 
                 // 添加错误消息
@@ -116,9 +309,9 @@ public class AIChatViewModel extends AndroidViewModel {
                 
                 synchronized (conversation) {
                     conversation.add(errorMessage);
-                    messages.postValue(new ArrayList<>(conversation));
+                    messages.postValue(displayed());
                 }
-                historyRepository.saveHistory(conversation);
+                historyRepository.saveMessages(targetConversation, conversation);
             }
 
             @Override
@@ -126,7 +319,7 @@ public class AIChatViewModel extends AndroidViewModel {
                 // Function调用信息已在onThinking中显示
                 // 更新UI以显示function call消息
                 synchronized (conversation) {
-                    messages.postValue(new ArrayList<>(conversation));
+                    messages.postValue(displayed());
                 }
             }
 
@@ -135,7 +328,7 @@ public class AIChatViewModel extends AndroidViewModel {
                 // Function执行结果已在onThinking中显示
                 // 更新UI以显示function result消息
                 synchronized (conversation) {
-                    messages.postValue(new ArrayList<>(conversation));
+                    messages.postValue(displayed());
                 }
             }
 
@@ -145,24 +338,38 @@ public class AIChatViewModel extends AndroidViewModel {
                 ChatMessage thinkingMessage = ChatMessage.thinkingMessage(message, thinkingType);
                 
                 synchronized (conversation) {
+                    // 新的阶段开始，后续流式片段写入新消息
+                    streamingMessage = null;
                     conversation.add(thinkingMessage);
                     // 实时更新UI显示思考过程
-                    messages.postValue(new ArrayList<>(conversation));
+                    messages.postValue(displayed());
                 }
             }
 
             @Override
             public void onContextSummary(String summary) {
-                // 添加上下文总结消息
-                ChatMessage summaryMessage = ChatMessage.summaryMessage(summary);
-                
+                // 总结消息已由AIService加入对话（记录了覆盖到的消息），这里只刷新显示
                 synchronized (conversation) {
-                    conversation.add(summaryMessage);
-                    messages.postValue(new ArrayList<>(conversation));
+                    messages.postValue(displayed());
                 }
                 
                 // 保存历史（包含总结）
-                historyRepository.saveHistory(conversation);
+                historyRepository.saveMessages(targetConversation, conversation);
+            }
+
+            @Override
+            public void onContentDelta(String delta) {
+                synchronized (conversation) {
+                    if (streamingMessage == null) {
+                        streamingMessage = ChatMessage.assistantMessage("");
+                        streamingContent.setLength(0);
+                        conversation.add(streamingMessage);
+                    }
+                    streamingContent.append(delta);
+                    streamingMessage.setContent(streamingContent.toString());
+                    // postValue会合并主线程处理前的多次更新
+                    messages.postValue(displayed());
+                }
             }
         });
     }
@@ -171,8 +378,8 @@ public class AIChatViewModel extends AndroidViewModel {
         if (activeStopToken != null) {
             activeStopToken.stop();
         }
-        if (activeThread != null) {
-            activeThread.interrupt();
+        if (activeTask != null) {
+            activeTask.cancel(true);
         }
     }
 
@@ -182,7 +389,11 @@ public class AIChatViewModel extends AndroidViewModel {
     }
 
     public void clearHistory() {
-        historyRepository.clearHistory();
+        if (conversationId >= 0) {
+            historyRepository.clearConversation(conversationId);
+        }
+        hasMoreHistory = false;
+        hasNewerHistory = false;
         messages.setValue(new ArrayList<>());
     }
 }
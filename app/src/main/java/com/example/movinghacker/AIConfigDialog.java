@@ -11,6 +11,7 @@ import android.widget.Button;
 import android.widget.RadioButton;
 import android.widget.RadioGroup;
 import android.widget.Spinner;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
@@ -81,13 +82,23 @@ public class AIConfigDialog extends Dialog {
     private TextInputEditText apiUrlInput;
     private TextInputEditText apiKeyInput;
     private AutoCompleteTextView modelInput;
+    private TextInputEditText contextBudgetInput;
     private SwitchMaterial hackingModeSwitch;
+    private SwitchMaterial streamingSwitch;
+    private SwitchMaterial responseCacheSwitch;
+    private RadioGroup routingRadioGroup;
+    private TextInputEditText hedgeDelayInput;
+    private TextView fallbackListText;
+    private Button fallbackAddButton;
+    private Button fallbackClearButton;
     private Button cancelButton;
     private Button saveButton;
 
     private AIConfigManager configManager;
     private OnConfigSavedListener listener;
     private ArrayAdapter<String> modelSuggestionsAdapter;
+    // 编辑中的备用服务商列表，保存时写入配置
+    private final List<AIConfig> fallbackConfigs = new ArrayList<>();
 
     public interface OnConfigSavedListener {
         void onConfigSaved(AIConfig config);
@@ -118,7 +129,15 @@ public class AIConfigDialog extends Dialog {
         apiUrlInput = findViewById(R.id.api_url_input);
         apiKeyInput = findViewById(R.id.api_key_input);
         modelInput = findViewById(R.id.model_input);
+        contextBudgetInput = findViewById(R.id.context_budget_input);
         hackingModeSwitch = findViewById(R.id.hacking_mode_switch);
+        streamingSwitch = findViewById(R.id.streaming_switch);
+        responseCacheSwitch = findViewById(R.id.response_cache_switch);
+        routingRadioGroup = findViewById(R.id.routing_radio_group);
+        hedgeDelayInput = findViewById(R.id.hedge_delay_input);
+        fallbackListText = findViewById(R.id.fallback_list_text);
+        fallbackAddButton = findViewById(R.id.fallback_add_button);
+        fallbackClearButton = findViewById(R.id.fallback_clear_button);
         cancelButton = findViewById(R.id.cancel_button);
         saveButton = findViewById(R.id.save_button);
 
@@ -155,6 +174,18 @@ public class AIConfigDialog extends Dialog {
             apiKeyInput.setText(config.getApiKey());
             modelInput.setText(config.getModel());
             hackingModeSwitch.setChecked(config.isHackingMode());
+            streamingSwitch.setChecked(config.isStreaming());
+            responseCacheSwitch.setChecked(config.isResponseCache());
+            contextBudgetInput.setText(String.valueOf(config.getContextTokenBudget()));
+            if (AIConfig.ROUTING_FAILOVER.equals(config.getRoutingMode())) {
+                routingRadioGroup.check(R.id.routing_failover);
+            } else if (AIConfig.ROUTING_HEDGE.equals(config.getRoutingMode())) {
+                routingRadioGroup.check(R.id.routing_hedge);
+            } else {
+                routingRadioGroup.check(R.id.routing_single);
+            }
+            hedgeDelayInput.setText(String.valueOf(config.getHedgeDelayMs()));
+            fallbackConfigs.addAll(config.getFallbackConfigs());
         } else {
             // 设置默认值
             providerGemini.setChecked(true);
@@ -162,7 +193,13 @@ public class AIConfigDialog extends Dialog {
             updateModelSuggestions(GEMINI_MODELS);
             modelInput.setText("gemini-2.5-flash");
             hackingModeSwitch.setChecked(true);
+            streamingSwitch.setChecked(true);
+            responseCacheSwitch.setChecked(false);
+            contextBudgetInput.setText("0");
+            routingRadioGroup.check(R.id.routing_single);
+            hedgeDelayInput.setText(String.valueOf(AIConfig.DEFAULT_HEDGE_DELAY_MS));
         }
+        updateFallbackList();
 
     }
 
@@ -192,6 +229,42 @@ public class AIConfigDialog extends Dialog {
 
         cancelButton.setOnClickListener(v -> dismiss());
         saveButton.setOnClickListener(v -> saveConfig());
+        fallbackAddButton.setOnClickListener(v -> addFallback());
+        fallbackClearButton.setOnClickListener(v -> {
+            fallbackConfigs.clear();
+            updateFallbackList();
+        });
+    }
+
+    /**
+     * 把当前表单中的服务商加入备用列表，之后可切换回主服务商再保存
+     */
+    private void addFallback() {
+        AIConfig config = readProviderConfig();
+        if (config == null) {
+            return;
+        }
+        for (AIConfig existing : fallbackConfigs) {
+            if (existing.getBaseUrl().equals(config.getBaseUrl()) && existing.getModel().equals(config.getModel())) {
+                Toast.makeText(getContext(), "该服务商已在备用列表中", Toast.LENGTH_SHORT).show();
+                return;
+            }
+        }
+        fallbackConfigs.add(config);
+        updateFallbackList();
+        Toast.makeText(getContext(), "已添加备用: " + config.getDisplayName(), Toast.LENGTH_SHORT).show();
+    }
+
+    private void updateFallbackList() {
+        if (fallbackConfigs.isEmpty()) {
+            fallbackListText.setText(R.string.ai_fallback_empty);
+            return;
+        }
+        StringBuilder sb = new StringBuilder("备用服务商：");
+        for (int i = 0; i < fallbackConfigs.size(); i++) {
+            sb.append("\n").append(i + 1).append(". ").append(fallbackConfigs.get(i).getDisplayName());
+        }
+        fallbackListText.setText(sb.toString());
     }
 
     /**
@@ -203,7 +276,10 @@ public class AIConfigDialog extends Dialog {
         modelSuggestionsAdapter.notifyDataSetChanged();
     }
 
-    private void saveConfig() {
+    /**
+     * 读取并校验表单中的服务商信息，校验失败时提示并返回null
+     */
+    private AIConfig readProviderConfig() {
         String apiUrl = apiUrlInput.getText().toString().trim();
         String apiKey = apiKeyInput.getText().toString().trim();
         String model = modelInput.getText().toString().trim();
@@ -211,17 +287,17 @@ public class AIConfigDialog extends Dialog {
         // 验证输入
         if (apiUrl.isEmpty()) {
             Toast.makeText(getContext(), "请输入API地址", Toast.LENGTH_SHORT).show();
-            return;
+            return null;
         }
 
         if (apiKey.isEmpty()) {
             Toast.makeText(getContext(), "请输入API Key", Toast.LENGTH_SHORT).show();
-            return;
+            return null;
         }
 
         if (model == null || model.isEmpty()) {
             Toast.makeText(getContext(), "请输入模型名称", Toast.LENGTH_SHORT).show();
-            return;
+            return null;
         }
 
         // 确定provider
@@ -236,9 +312,44 @@ public class AIConfigDialog extends Dialog {
             provider = "zenmux";
         }
 
+        return new AIConfig(provider, apiKey, apiUrl, model);
+    }
+
+    private void saveConfig() {
+        String budgetText = contextBudgetInput.getText() != null
+                ? contextBudgetInput.getText().toString().trim() : "";
+        String hedgeText = hedgeDelayInput.getText() != null
+                ? hedgeDelayInput.getText().toString().trim() : "";
+
         // 创建配置对象
-        AIConfig config = new AIConfig(provider, apiKey, apiUrl, model);
+        AIConfig config = readProviderConfig();
+        if (config == null) {
+            return;
+        }
         config.setHackingMode(hackingModeSwitch.isChecked());
+        config.setStreaming(streamingSwitch.isChecked());
+        config.setResponseCache(responseCacheSwitch.isChecked());
+        try {
+            config.setContextTokenBudget(budgetText.isEmpty() ? 0 : Integer.parseInt(budgetText));
+        } catch (NumberFormatException e) {
+            Toast.makeText(getContext(), "上下文Token预算必须是整数", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        try {
+            config.setHedgeDelayMs(hedgeText.isEmpty() ? AIConfig.DEFAULT_HEDGE_DELAY_MS : Long.parseLong(hedgeText));
+        } catch (NumberFormatException e) {
+            Toast.makeText(getContext(), "对冲等待阈值必须是整数", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        int routingId = routingRadioGroup.getCheckedRadioButtonId();
+        if (routingId == R.id.routing_failover) {
+            config.setRoutingMode(AIConfig.ROUTING_FAILOVER);
+        } else if (routingId == R.id.routing_hedge) {
+            config.setRoutingMode(AIConfig.ROUTING_HEDGE);
+        } else {
+            config.setRoutingMode(AIConfig.ROUTING_SINGLE);
+        }
+        config.setFallbackConfigs(new ArrayList<>(fallbackConfigs));
 
         // 保存配置
         configManager.saveConfig(config);
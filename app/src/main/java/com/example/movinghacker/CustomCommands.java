@@ -29,10 +29,7 @@ public class CustomCommands {
 
     public CustomCommands(Context context) {
         this.context = context;
-        this.httpClient = new OkHttpClient.Builder()
-                .followRedirects(true)
-                .followSslRedirects(true)
-                .build();
+        this.httpClient = HttpClientProvider.getInstance().downloadClient();
     }
 
     public void setCurrentDirectory(String dir) {
@@ -5,8 +5,10 @@ import android.os.Environment;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -24,8 +26,12 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DualPaneFileManagerFragment extends Fragment {
 
@@ -47,6 +53,14 @@ public class DualPaneFileManagerFragment extends Fragment {
     
     private LinearLayout dragActionZone;
     private FileItem draggedItem = null;
+    private boolean draggedFromRemote = false;
+    
+    private View transferStatusBar;
+    private TextView transferStatusText;
+    private ProgressBar transferProgress;
+    private Button transferRetryButton;
+    private Button transferCancelButton;
+    private Button transferDismissButton;
     
     private View rightPreviewContainer;
     private TextView previewText;
@@ -72,6 +86,17 @@ public class DualPaneFileManagerFragment extends Fragment {
     private boolean isRightPanelRemote = false;
     private String leftRemotePath = "/";
     private String rightRemotePath = "/";
+    
+    // 各面板正在进行的远程列目录，新的请求取代旧的
+    private RemoteFileManager.RemoteCommand leftRemoteListing;
+    private RemoteFileManager.RemoteCommand rightRemoteListing;
+    
+    // 正在进行的单文件传输，界面销毁时取消
+    private final Set<TransferHandle> activeTransfers = ConcurrentHashMap.newKeySet();
+    
+    // 批量传输队列，绑定当前SSH连接，连接变化时重建
+    private TransferQueue transferQueue;
+    private boolean transferQueueWasIdle = true;
 
     @Nullable
     @Override
@@ -140,6 +165,13 @@ public class DualPaneFileManagerFragment extends Fragment {
         
         dragActionZone = view.findViewById(R.id.drag_action_zone);
         
+        transferStatusBar = view.findViewById(R.id.transfer_status_bar);
+        transferStatusText = view.findViewById(R.id.transfer_status_text);
+        transferProgress = view.findViewById(R.id.transfer_progress);
+        transferRetryButton = view.findViewById(R.id.transfer_retry_button);
+        transferCancelButton = view.findViewById(R.id.transfer_cancel_button);
+        transferDismissButton = view.findViewById(R.id.transfer_dismiss_button);
+        
         rightPreviewContainer = view.findViewById(R.id.right_preview_container);
         previewText = view.findViewById(R.id.preview_text);
         previewImage = view.findViewById(R.id.preview_image);
@@ -169,6 +201,7 @@ public class DualPaneFileManagerFragment extends Fragment {
             @Override
             public void onDragStarted(FileItem item) {
                 draggedItem = item;
+                draggedFromRemote = isLeftPanelRemote;
                 dragActionZone.setVisibility(View.VISIBLE);
             }
 
@@ -199,6 +232,7 @@ public class DualPaneFileManagerFragment extends Fragment {
             @Override
             public void onDragStarted(FileItem item) {
                 draggedItem = item;
+                draggedFromRemote = isRightPanelRemote;
                 dragActionZone.setVisibility(View.VISIBLE);
             }
 
@@ -236,6 +270,23 @@ public class DualPaneFileManagerFragment extends Fragment {
         
         // 设置拖放操作区域的监听器
         setupDragActionZone();
+        
+        transferRetryButton.setOnClickListener(v -> {
+            if (transferQueue != null) {
+                transferQueue.retryFailed();
+            }
+        });
+        transferCancelButton.setOnClickListener(v -> {
+            if (transferQueue != null) {
+                transferQueue.cancelAll();
+            }
+        });
+        transferDismissButton.setOnClickListener(v -> {
+            if (transferQueue != null) {
+                transferQueue.clearFinished();
+            }
+            transferStatusBar.setVisibility(View.GONE);
+        });
     }
     
     private void setupDragActionZone() {
@@ -263,7 +314,11 @@ public class DualPaneFileManagerFragment extends Fragment {
                         dragActionZone.setVisibility(View.GONE);
                         
                         // 打开文件操作菜单
-                        showFileOptions(draggedItem, isLeftPanelActive);
+                        if (draggedFromRemote) {
+                            showRemoteFileOptions(draggedItem, isLeftPanelActive);
+                        } else {
+                            showFileOptions(draggedItem, isLeftPanelActive);
+                        }
                     }
                     return true;
                     
@@ -831,10 +886,17 @@ public class DualPaneFileManagerFragment extends Fragment {
             }
         }
 
+        // 双屏模式下可以复制到另一侧（另一侧为远程时即上传）
+        if (isDualPaneMode) {
+            options = Arrays.copyOf(options, options.length + 1);
+            options[options.length - 1] = "复制到另一侧";
+        }
+        
+        String[] items = options;
         new AlertDialog.Builder(requireContext())
                 .setTitle(item.getName())
-                .setItems(options, (dialog, which) -> {
-                    handleFileOption(item, options[which], isLeftPanel);
+                .setItems(items, (dialog, which) -> {
+                    handleFileOption(item, items[which], isLeftPanel);
                 })
                 .show();
     }
@@ -867,6 +929,9 @@ public class DualPaneFileManagerFragment extends Fragment {
             case "信息":
                 showFileInfo(item);
                 break;
+            case "复制到另一侧":
+                enqueueTransfer(item.getFile().getAbsolutePath(), false, !isLeftPanel);
+                break;
         }
     }
 
@@ -1186,6 +1251,13 @@ public class DualPaneFileManagerFragment extends Fragment {
                 
                 android.content.ClipData.Item item = event.getClipData().getItemAt(0);
                 String sourcePath = item.getText().toString();
+                
+                // 本地和远程之间拖放：交给传输队列在后台复制
+                boolean targetRemote = isRightPanel ? isRightPanelRemote : isLeftPanelRemote;
+                if (draggedFromRemote || targetRemote) {
+                    return enqueueTransfer(sourcePath, draggedFromRemote, isRightPanel);
+                }
+                
                 File sourceFile = new File(sourcePath);
                 
                 if (!sourceFile.exists()) {
@@ -1214,6 +1286,106 @@ public class DualPaneFileManagerFragment extends Fragment {
         }
     }
     
+    /**
+     * 把文件或目录加入传输队列，复制到目标面板的当前目录
+     * @param sourceRemote 源路径是否为远程路径
+     * @param toRightPanel 目标是否为右侧面板
+     */
+    private boolean enqueueTransfer(String sourcePath, boolean sourceRemote, boolean toRightPanel) {
+        boolean targetRemote = toRightPanel ? isRightPanelRemote : isLeftPanelRemote;
+        if (sourceRemote && targetRemote) {
+            Toast.makeText(getContext(), "不支持远程到远程的复制", Toast.LENGTH_SHORT).show();
+            return false;
+        }
+        if ((sourceRemote || targetRemote) && (remoteFileManager == null || !remoteFileManager.isConnected())) {
+            Toast.makeText(getContext(), "未连接SSH", Toast.LENGTH_SHORT).show();
+            return false;
+        }
+        
+        TransferQueue.Kind kind;
+        String targetDirectory;
+        if (targetRemote) {
+            kind = TransferQueue.Kind.UPLOAD;
+            targetDirectory = toRightPanel ? rightRemotePath : leftRemotePath;
+        } else {
+            kind = sourceRemote ? TransferQueue.Kind.DOWNLOAD : TransferQueue.Kind.COPY;
+            targetDirectory = (toRightPanel ? rightCurrentDirectory : leftCurrentDirectory).getAbsolutePath();
+        }
+        if (!sourceRemote && !targetRemote && new File(sourcePath).getParent().equals(targetDirectory)) {
+            Toast.makeText(getContext(), "文件已在当前目录", Toast.LENGTH_SHORT).show();
+            return true;
+        }
+        if (kind == TransferQueue.Kind.COPY && TransferQueue.isInside(targetDirectory, sourcePath)) {
+            Toast.makeText(getContext(), "不能把文件夹复制到它自身的子目录中", Toast.LENGTH_SHORT).show();
+            return true;
+        }
+        
+        getTransferQueue().enqueue(kind, Collections.singletonList(sourcePath), targetDirectory);
+        return true;
+    }
+    
+    private TransferQueue getTransferQueue() {
+        if (transferQueue == null) {
+            transferQueue = new TransferQueue(remoteFileManager, queue -> {
+                TransferQueue.Summary summary = queue.getSummary();
+                View view = getView();
+                if (view != null) {
+                    view.post(() -> updateTransferStatus(summary));
+                }
+            });
+        }
+        return transferQueue;
+    }
+    
+    private void shutdownTransferQueue() {
+        if (transferQueue != null) {
+            transferQueue.shutdown();
+            transferQueue = null;
+        }
+        transferQueueWasIdle = true;
+        if (transferStatusBar != null) {
+            transferStatusBar.setVisibility(View.GONE);
+        }
+    }
+    
+    private void updateTransferStatus(TransferQueue.Summary summary) {
+        if (transferQueue == null) {
+            return;
+        }
+        transferStatusBar.setVisibility(View.VISIBLE);
+        boolean idle = summary.isIdle();
+        
+        StringBuilder status = new StringBuilder();
+        status.append(String.format(Locale.US, "传输 %d/%d 个文件%s  %s / %s",
+                summary.completedFiles, summary.totalFiles, summary.scanning ? "+" : "",
+                formatSize(summary.transferredBytes), formatSize(summary.totalBytes)));
+        if (!idle) {
+            status.append("  ").append(formatSize(summary.bytesPerSecond)).append("/s");
+        }
+        if (summary.failedFiles > 0) {
+            status.append("\n失败 ").append(summary.failedFiles).append(" 个");
+        }
+        for (TransferQueue.Task task : summary.running) {
+            status.append("\n").append(task.getName());
+            if (task.getSize() > 0) {
+                status.append(" ").append(task.getTransferred() * 100 / task.getSize()).append("%");
+            }
+        }
+        transferStatusText.setText(status.toString());
+        transferProgress.setProgress(summary.totalBytes > 0
+                ? (int) (summary.transferredBytes * 1000 / summary.totalBytes) : 0);
+        
+        transferRetryButton.setVisibility(idle && summary.failedFiles > 0 ? View.VISIBLE : View.GONE);
+        transferCancelButton.setVisibility(idle ? View.GONE : View.VISIBLE);
+        transferDismissButton.setVisibility(idle ? View.VISIBLE : View.GONE);
+        
+        // 一批传输结束后刷新一次文件列表
+        if (idle && !transferQueueWasIdle) {
+            refreshAll();
+        }
+        transferQueueWasIdle = idle;
+    }
+    
     private void connectSSH() {
         // 跳转到SSH连接选择界面
         SSHListFragment sshListFragment = new SSHListFragment();
@@ -1235,6 +1407,7 @@ public class DualPaneFileManagerFragment extends Fragment {
                 .setTitle("断开SSH连接")
                 .setMessage("确定要断开SSH连接吗？")
                 .setPositiveButton("断开", (dialog, which) -> {
+                    shutdownTransferQueue();
                     if (remoteFileManager != null) {
                         remoteFileManager.disconnect();
                         remoteFileManager = null;
@@ -1393,6 +1566,7 @@ public class DualPaneFileManagerFragment extends Fragment {
         progressDialog.setCancelable(false);
         progressDialog.show();
         
+        shutdownTransferQueue();
         remoteFileManager = new RemoteFileManager(host, port, username, password);
         
         remoteFileManager.connect(new RemoteFileManager.ConnectionCallback() {
@@ -1437,11 +1611,15 @@ public class DualPaneFileManagerFragment extends Fragment {
         progressDialog.setCancelable(false);
         progressDialog.show();
         
-        remoteFileManager.listFiles(remotePath, new RemoteFileManager.CommandCallback() {
+        RemoteFileManager.RemoteCommand previous = isLeftPanel ? leftRemoteListing : rightRemoteListing;
+        if (previous != null) {
+            previous.cancel();
+        }
+        
+        RemoteFileManager.RemoteCommand listing = remoteFileManager.listFiles(remotePath, new RemoteFileManager.ListCallback() {
             @Override
-            public void onSuccess(String output) {
-                // 解析 ls -la 输出
-                List<FileItem> fileItems = parseRemoteFileList(output, remotePath);
+            public void onSuccess(List<RemoteFileItem> files) {
+                List<FileItem> fileItems = toRemoteFileList(files, remotePath);
                 
                 requireActivity().runOnUiThread(() -> {
                     progressDialog.dismiss();
@@ -1453,15 +1631,22 @@ public class DualPaneFileManagerFragment extends Fragment {
             public void onError(String error) {
                 requireActivity().runOnUiThread(() -> {
                     progressDialog.dismiss();
-                    Toast.makeText(getContext(), "加载远程文件失败: " + error, Toast.LENGTH_SHORT).show();
+                    // 被新的列目录请求取代时不提示
+                    if (!RemoteFileManager.CANCELLED.equals(error)) {
+                        Toast.makeText(getContext(), "加载远程文件失败: " + error, Toast.LENGTH_SHORT).show();
+                    }
                 });
             }
         });
+        if (isLeftPanel) {
+            leftRemoteListing = listing;
+        } else {
+            rightRemoteListing = listing;
+        }
     }
     
-    private List<FileItem> parseRemoteFileList(String lsOutput, String currentPath) {
+    private List<FileItem> toRemoteFileList(List<RemoteFileItem> files, String currentPath) {
         List<FileItem> items = new ArrayList<>();
-        String[] lines = lsOutput.split("\n");
         
         // 添加返回上级目录选项
         if (!currentPath.equals("/")) {
@@ -1470,52 +1655,7 @@ public class DualPaneFileManagerFragment extends Fragment {
             items.add(parentItem);
         }
         
-        for (String line : lines) {
-            line = line.trim();
-            if (line.isEmpty() || line.startsWith("total")) {
-                continue;
-            }
-            
-            // 解析 ls -la 输出格式
-            // drwxr-xr-x 2 user group 4096 Jan 1 12:00 dirname
-            // -rw-r--r-- 1 user group 1234 Jan 1 12:00 filename
-            
-            String[] parts = line.split("\\s+");
-            if (parts.length < 9) {
-                continue;
-            }
-            
-            String permissions = parts[0];
-            boolean isDirectory = permissions.startsWith("d");
-            
-            // 文件名可能包含空格，需要从第9列开始拼接
-            StringBuilder nameBuilder = new StringBuilder();
-            for (int i = 8; i < parts.length; i++) {
-                if (i > 8) nameBuilder.append(" ");
-                nameBuilder.append(parts[i]);
-            }
-            String name = nameBuilder.toString();
-            
-            // 跳过 . 和 ..
-            if (name.equals(".") || name.equals("..")) {
-                continue;
-            }
-            
-            String fullPath = currentPath.endsWith("/") ? 
-                currentPath + name : currentPath + "/" + name;
-            
-            RemoteFileItem remoteItem = new RemoteFileItem(name, fullPath, isDirectory);
-            
-            // 解析文件大小
-            try {
-                long size = Long.parseLong(parts[4]);
-                remoteItem.setSize(size);
-            } catch (Exception e) {
-                // 忽略解析错误
-            }
-            
-            remoteItem.setPermissions(permissions);
-            
+        for (RemoteFileItem remoteItem : files) {
             items.add(remoteItem.toFileItem());
         }
         
@@ -1561,7 +1701,7 @@ public class DualPaneFileManagerFragment extends Fragment {
     }
     
     private void showRemoteFileOptions(FileItem item, boolean isLeftPanel) {
-        String[] options = {"预览", "下载到本地", "删除", "重命名", "信息"};
+        String[] options = {"预览", "下载到本地", "删除", "重命名", "信息", "复制到另一侧"};
         
         new AlertDialog.Builder(requireContext())
                 .setTitle(item.getName())
@@ -1582,6 +1722,9 @@ public class DualPaneFileManagerFragment extends Fragment {
                         case 4:
                             showRemoteFileInfo(item);
                             break;
+                        case 5:
+                            enqueueTransfer(item.getFile().getPath(), true, !isLeftPanel);
+                            break;
                     }
                 })
                 .show();
@@ -1633,62 +1776,156 @@ public class DualPaneFileManagerFragment extends Fragment {
         File targetFile = new File(targetDir, item.getName());
         
         if (targetFile.exists()) {
-            new AlertDialog.Builder(requireContext())
+            AlertDialog.Builder builder = new AlertDialog.Builder(requireContext())
                     .setTitle("文件已存在")
                     .setMessage("本地已存在同名文件，是否覆盖？")
                     .setPositiveButton("覆盖", (dialog, which) -> {
-                        performDownload(item, targetFile);
+                        performDownload(item, targetFile, false);
                     })
-                    .setNegativeButton("取消", null)
-                    .show();
+                    .setNegativeButton("取消", null);
+            // 本地文件比远程文件小，可能是上次未完成的下载
+            if (targetFile.length() < item.getSize()) {
+                builder.setNeutralButton("续传", (dialog, which) -> {
+                    performDownload(item, targetFile, true);
+                });
+            }
+            builder.show();
         } else {
-            performDownload(item, targetFile);
+            performDownload(item, targetFile, false);
         }
     }
     
-    private void performDownload(FileItem item, File targetFile) {
+    private void performDownload(FileItem item, File targetFile, boolean resume) {
+        android.app.ProgressDialog progressDialog = createTransferDialog("下载文件", "正在下载: " + item.getName());
+        TransferHandle handle = new TransferHandle(progressDialog);
+        
+        RemoteTransfer transfer = remoteFileManager.download(item.getFile().getPath(), targetFile, resume,
+                createTransferCallback(handle, "下载", item.getName(),
+                        () -> performDownload(item, targetFile, true)));
+        handle.attach(transfer);
+        showTransferDialog(progressDialog, transfer);
+    }
+    
+    /**
+     * 一次单文件传输及其进度对话框
+     * 传输可能在download()返回前就已结束，结束后不再登记
+     */
+    private final class TransferHandle {
+        final android.app.ProgressDialog dialog;
+        private RemoteTransfer transfer;
+        private boolean finished;
+        
+        TransferHandle(android.app.ProgressDialog dialog) {
+            this.dialog = dialog;
+        }
+        
+        synchronized void attach(RemoteTransfer transfer) {
+            this.transfer = transfer;
+            if (!finished) {
+                activeTransfers.add(this);
+            }
+        }
+        
+        synchronized void finish() {
+            finished = true;
+            activeTransfers.remove(this);
+        }
+        
+        synchronized void cancel() {
+            if (transfer != null) {
+                transfer.cancel();
+            }
+        }
+    }
+    
+    private android.app.ProgressDialog createTransferDialog(String title, String message) {
         android.app.ProgressDialog progressDialog = new android.app.ProgressDialog(requireContext());
-        progressDialog.setTitle("下载文件");
-        progressDialog.setMessage("正在下载: " + item.getName());
+        progressDialog.setTitle(title);
+        progressDialog.setMessage(message);
+        progressDialog.setProgressStyle(android.app.ProgressDialog.STYLE_HORIZONTAL);
+        progressDialog.setMax(100);
         progressDialog.setCancelable(false);
+        return progressDialog;
+    }
+    
+    private void showTransferDialog(android.app.ProgressDialog progressDialog, RemoteTransfer transfer) {
+        progressDialog.setButton(android.app.ProgressDialog.BUTTON_NEGATIVE, "取消",
+                (dialog, which) -> transfer.cancel());
         progressDialog.show();
-        
-        // 读取完整文件内容
-        remoteFileManager.readFile(item.getFile().getPath(), Integer.MAX_VALUE, new RemoteFileManager.CommandCallback() {
+    }
+    
+    /**
+     * 传输进度显示在对话框中；中断后询问是否从已传输的位置继续
+     */
+    private RemoteTransfer.TransferCallback createTransferCallback(TransferHandle handle,
+            String action, String name, Runnable resume) {
+        android.app.ProgressDialog progressDialog = handle.dialog;
+        return new RemoteTransfer.TransferCallback() {
             @Override
-            public void onSuccess(String content) {
-                // 写入本地文件
-                new Thread(() -> {
-                    try {
-                        java.io.FileOutputStream fos = new java.io.FileOutputStream(targetFile);
-                        fos.write(content.getBytes());
-                        fos.close();
-                        
-                        requireActivity().runOnUiThread(() -> {
-                            progressDialog.dismiss();
-                            Toast.makeText(getContext(), "下载成功: " + item.getName(), Toast.LENGTH_SHORT).show();
-                            refreshAll();
-                        });
-                        
-                    } catch (Exception e) {
-                        requireActivity().runOnUiThread(() -> {
-                            progressDialog.dismiss();
-                            Toast.makeText(getContext(), "保存失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
-                        });
+            public void onProgress(long transferred, long total, long bytesPerSecond) {
+                runIfAdded(() -> {
+                    if (total > 0) {
+                        progressDialog.setProgress((int) (transferred * 100 / total));
                     }
-                }).start();
+                    progressDialog.setMessage(String.format(Locale.US, "正在%s: %s\n%s / %s  %s/s", action, name,
+                            formatSize(transferred), total >= 0 ? formatSize(total) : "?",
+                            formatSize(bytesPerSecond)));
+                });
+            }
+            
+            @Override
+            public void onSuccess(long transferred) {
+                handle.finish();
+                runIfAdded(() -> {
+                    progressDialog.dismiss();
+                    Toast.makeText(getContext(), action + "成功: " + name, Toast.LENGTH_SHORT).show();
+                    refreshAll();
+                });
             }
             
             @Override
             public void onError(String error) {
-                requireActivity().runOnUiThread(() -> {
+                handle.finish();
+                runIfAdded(() -> {
                     progressDialog.dismiss();
-                    Toast.makeText(getContext(), "下载失败: " + error, Toast.LENGTH_SHORT).show();
+                    new AlertDialog.Builder(requireContext())
+                            .setTitle(action + "中断")
+                            .setMessage(name + ": " + error)
+                            .setPositiveButton("续传", (dialog, which) -> resume.run())
+                            .setNegativeButton("关闭", null)
+                            .show();
                 });
             }
+        };
+    }
+    
+    /**
+     * 在主线程执行界面更新；Fragment已离开界面时丢弃
+     */
+    private void runIfAdded(Runnable action) {
+        android.app.Activity activity = getActivity();
+        if (activity == null || !isAdded()) {
+            return;
+        }
+        activity.runOnUiThread(() -> {
+            if (isAdded()) {
+                action.run();
+            }
         });
     }
     
+    private String formatSize(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        } else if (bytes < 1024 * 1024) {
+            return String.format(Locale.US, "%.1f KB", bytes / 1024.0);
+        } else if (bytes < 1024 * 1024 * 1024) {
+            return String.format(Locale.US, "%.1f MB", bytes / (1024.0 * 1024));
+        } else {
+            return String.format(Locale.US, "%.1f GB", bytes / (1024.0 * 1024 * 1024));
+        }
+    }
+    
     private void deleteRemoteFile(FileItem item, boolean isLeftPanel) {
         new AlertDialog.Builder(requireContext())
                 .setTitle("确认删除")
@@ -1808,6 +2045,15 @@ public class DualPaneFileManagerFragment extends Fragment {
     public void onDestroy() {
         super.onDestroy();
         
+        // 取消未完成的单文件传输，已传输的部分保留供续传
+        for (TransferHandle handle : activeTransfers) {
+            handle.cancel();
+            handle.dialog.dismiss();
+        }
+        activeTransfers.clear();
+        
+        shutdownTransferQueue();
+        
         // 断开SSH连接
         if (remoteFileManager != null) {
             remoteFileManager.disconnect();
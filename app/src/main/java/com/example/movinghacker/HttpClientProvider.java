@@ -0,0 +1,322 @@
+package com.example.movinghacker;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.SocketFactory;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.ConnectionSpec;
+import okhttp3.Dispatcher;
+import okhttp3.Dns;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * 全局HTTP客户端提供者
+ * 所有子系统通过newBuilder派生各自的OkHttpClient，共享同一个连接池、调度器和DNS缓存，
+ * 这样AI请求、Web请求和终端命令之间可以复用已建立的TLS/HTTP2连接
+ */
+public class HttpClientProvider {
+
+    private static final int MAX_IDLE_CONNECTIONS = 8;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+    private static final int MAX_REQUESTS = 64;
+    private static final int MAX_REQUESTS_PER_HOST = 8;
+    private static final long DNS_TTL_MS = 60_000;
+
+    private static HttpClientProvider instance;
+
+    private final OkHttpClient baseClient;
+    private final ConnectionPool connectionPool;
+    private final PoolStatsListener statsListener;
+
+    private HttpClientProvider() {
+        connectionPool = new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES);
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+
+        statsListener = new PoolStatsListener();
+
+        baseClient = new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .dispatcher(dispatcher)
+                .dns(new CachingDns(Dns.SYSTEM, DNS_TTL_MS))
+                .eventListener(statsListener)
+                .socketFactory(new NoDelaySocketFactory())
+                .connectTimeout(30, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .writeTimeout(30, TimeUnit.SECONDS)
+                .build();
+    }
+
+    public static synchronized HttpClientProvider getInstance() {
+        if (instance == null) {
+            instance = new HttpClientProvider();
+        }
+        return instance;
+    }
+
+    /**
+     * 获取共享基础客户端的Builder，用于派生自定义客户端
+     */
+    public OkHttpClient.Builder newBuilder() {
+        return baseClient.newBuilder();
+    }
+
+    /**
+     * AI接口客户端（大模型生成较慢，读超时较长）
+     */
+    public OkHttpClient aiClient() {
+        return baseClient.newBuilder()
+                .connectTimeout(60, TimeUnit.SECONDS)
+                .readTimeout(60, TimeUnit.SECONDS)
+                .writeTimeout(60, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * Web请求模块客户端
+     */
+    public OkHttpClient webClient() {
+        return baseClient.newBuilder()
+                .connectTimeout(30, TimeUnit.SECONDS)
+                .readTimeout(30, TimeUnit.SECONDS)
+                .writeTimeout(30, TimeUnit.SECONDS)
+                // 显式启用HTTP/2和HTTP/1.1支持
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .connectionSpecs(Arrays.asList(
+                    ConnectionSpec.MODERN_TLS,
+                    ConnectionSpec.COMPATIBLE_TLS,
+                    ConnectionSpec.CLEARTEXT
+                ))
+                .build();
+    }
+
+    /**
+     * 下载客户端（wget/curl等终端命令）
+     */
+    public OkHttpClient downloadClient() {
+        return baseClient.newBuilder()
+                .followRedirects(true)
+                .followSslRedirects(true)
+                .build();
+    }
+
+    /**
+     * 获取连接池统计信息
+     */
+    public PoolStats getPoolStats() {
+        return new PoolStats(
+                statsListener.acquired.get(),
+                statsListener.reused.get(),
+                statsListener.dnsHits.get(),
+                statsListener.dnsLookups.get(),
+                connectionPool.connectionCount(),
+                connectionPool.idleConnectionCount());
+    }
+
+    /**
+     * 连接池统计数据
+     */
+    public static class PoolStats {
+        private final long acquired;
+        private final long reusedConnections;
+        private final long dnsHits;
+        private final long dnsLookups;
+        private final int connectionCount;
+        private final int idleConnectionCount;
+
+        PoolStats(long acquired, long reusedConnections, long dnsHits, long dnsLookups,
+                  int connectionCount, int idleConnectionCount) {
+            this.acquired = acquired;
+            this.reusedConnections = reusedConnections;
+            this.dnsHits = dnsHits;
+            this.dnsLookups = dnsLookups;
+            this.connectionCount = connectionCount;
+            this.idleConnectionCount = idleConnectionCount;
+        }
+
+        public long getAcquired() {
+            return acquired;
+        }
+
+        /**
+         * 新建连接后获取的次数
+         */
+        public long getNewConnections() {
+            return acquired - reusedConnections;
+        }
+
+        /**
+         * 直接获取池中已有连接（含HTTP/2连接上的新流）的次数
+         */
+        public long getReusedConnections() {
+            return reusedConnections;
+        }
+
+        /**
+         * 连接复用率（0~1），即复用次数占连接获取次数的比例，尚无请求时返回0
+         */
+        public double getHitRate() {
+            return acquired > 0 ? (double) getReusedConnections() / acquired : 0;
+        }
+
+        public double getDnsHitRate() {
+            return dnsLookups > 0 ? (double) dnsHits / dnsLookups : 0;
+        }
+
+        public int getConnectionCount() {
+            return connectionCount;
+        }
+
+        public int getIdleConnectionCount() {
+            return idleConnectionCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "PoolStats{acquired=%d, new=%d, reused=%d, hitRate=%.2f, dnsHitRate=%.2f, connections=%d, idle=%d}",
+                    acquired, getNewConnections(), reusedConnections, getHitRate(), getDnsHitRate(),
+                    connectionCount, idleConnectionCount);
+        }
+    }
+
+    /**
+     * 统计连接获取次数与其中复用已有连接的次数
+     * 同一次调用在获取连接前出现过connectStart（含失败后换路由重连）时算作新建连接，
+     * 否则是从池中取得的已有连接，HTTP/2连接上的每个新流都算一次复用
+     */
+    private static class PoolStatsListener extends EventListener {
+        final AtomicLong acquired = new AtomicLong();
+        final AtomicLong reused = new AtomicLong();
+        final AtomicLong dnsHits = new AtomicLong();
+        final AtomicLong dnsLookups = new AtomicLong();
+        // 已开始建立连接、尚未获取连接的调用
+        private final Set<Call> connecting = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connecting.add(call);
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            acquired.incrementAndGet();
+            // 重定向等后续请求再次获取连接时重新判断
+            if (!connecting.remove(call)) {
+                reused.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            connecting.remove(call);
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            connecting.remove(call);
+        }
+
+        @Override
+        public void canceled(Call call) {
+            connecting.remove(call);
+        }
+    }
+
+    /**
+     * 关闭Nagle算法的Socket工厂
+     * OkHttp分多次写出请求头和请求体，开启Nagle时后一次小写入要等对端ACK，遇到延迟确认会多等约40ms
+     */
+    private static class NoDelaySocketFactory extends SocketFactory {
+        private final SocketFactory delegate = SocketFactory.getDefault();
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return noDelay(delegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return noDelay(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return noDelay(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return noDelay(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            return noDelay(delegate.createSocket(address, port, localAddress, localPort));
+        }
+
+        private static Socket noDelay(Socket socket) throws IOException {
+            socket.setTcpNoDelay(true);
+            return socket;
+        }
+    }
+
+    /**
+     * 带TTL的DNS缓存
+     */
+    private class CachingDns implements Dns {
+        private final Dns delegate;
+        private final long ttlMs;
+        private final ConcurrentHashMap<String, CachedLookup> cache = new ConcurrentHashMap<>();
+
+        CachingDns(Dns delegate, long ttlMs) {
+            this.delegate = delegate;
+            this.ttlMs = ttlMs;
+        }
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            statsListener.dnsLookups.incrementAndGet();
+            long now = System.currentTimeMillis();
+            CachedLookup cached = cache.get(hostname);
+            if (cached != null && cached.expiresAt > now) {
+                statsListener.dnsHits.incrementAndGet();
+                return cached.addresses;
+            }
+            List<InetAddress> addresses = new ArrayList<>(delegate.lookup(hostname));
+            cache.put(hostname, new CachedLookup(addresses, now + ttlMs));
+            return addresses;
+        }
+    }
+
+    private static class CachedLookup {
+        final List<InetAddress> addresses;
+        final long expiresAt;
+
+        CachedLookup(List<InetAddress> addresses, long expiresAt) {
+            this.addresses = addresses;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
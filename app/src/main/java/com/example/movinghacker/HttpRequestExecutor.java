@@ -3,15 +3,11 @@ package com.example.movinghacker;
 import android.content.Context;
 
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
-import okhttp3.ConnectionSpec;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
-import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
@@ -21,18 +17,7 @@ public class HttpRequestExecutor {
     private Context context;
 
     public HttpRequestExecutor() {
-        this.client = new OkHttpClient.Builder()
-                .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(30, TimeUnit.SECONDS)
-                .writeTimeout(30, TimeUnit.SECONDS)
-                // 显式启用HTTP/2和HTTP/1.1支持
-                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
-                .connectionSpecs(Arrays.asList(
-                    ConnectionSpec.MODERN_TLS,
-                    ConnectionSpec.COMPATIBLE_TLS,
-                    ConnectionSpec.CLEARTEXT
-                ))
-                .build();
+        this.client = HttpClientProvider.getInstance().webClient();
     }
     
     public void setContext(Context context) {
@@ -88,6 +88,18 @@ public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder
         notifyDataSetChanged();
     }
 
+    /**
+     * 指定消息在列表中的位置，不存在时返回-1
+     */
+    public int indexOf(String messageId) {
+        for (int i = 0; i < messages.size(); i++) {
+            if (messages.get(i).getId() != null && messages.get(i).getId().equals(messageId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     public void addMessage(ChatMessage message) {
         messages.add(message);
         notifyItemInserted(messages.size() - 1);
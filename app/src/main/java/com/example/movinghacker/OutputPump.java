@@ -0,0 +1,137 @@
+package com.example.movinghacker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 终端输出读取泵
+ * 在读取线程上把字节流解码成文本交给回调：
+ * 读取和解码缓冲全程复用；UTF-8解码器保留被读取边界截断的多字节字符，留到下次读取时拼完整，
+ * 避免中文等字符在块边界处乱码；流中还有可读数据时继续累积，一批输出只回调一次；
+ * 回调方处理不过来（未确认的字符超过上限）时暂停读取，由管道把压力传回产生输出的进程
+ */
+class OutputPump {
+
+    interface Sink {
+        void onOutput(String text);
+    }
+
+    private static final int READ_BUFFER_BYTES = 8192;
+    // 单批最多字符数，超过后即使还有数据也先交出去
+    private static final int MAX_BATCH_CHARS = 32 * 1024;
+    // 未确认字符数上限
+    private static final int MAX_PENDING_CHARS = 256 * 1024;
+    private static final long WAIT_SLICE_MS = 100;
+
+    private final InputStream in;
+    private final Sink sink;
+    private final byte[] readBuffer = new byte[READ_BUFFER_BYTES];
+    private final ByteBuffer bytes = ByteBuffer.wrap(readBuffer);
+    private final CharBuffer chars = CharBuffer.allocate(READ_BUFFER_BYTES);
+    private final StringBuilder batch = new StringBuilder(READ_BUFFER_BYTES);
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final Object pendingLock = new Object();
+    private final boolean backPressure;
+    private int pendingChars;
+    private volatile boolean stopped;
+
+    /**
+     * @param backPressure 为true时回调方需在处理完输出后调用acknowledge()，否则超过上限后暂停读取
+     */
+    OutputPump(InputStream in, Sink sink, boolean backPressure) {
+        this.in = in;
+        this.sink = sink;
+        this.backPressure = backPressure;
+    }
+
+    /**
+     * 持续读取直到流结束或stop()，在读取线程上调用
+     */
+    void run() throws IOException {
+        int read;
+        while (!stopped && (read = in.read(readBuffer, bytes.position(), bytes.remaining())) != -1) {
+            bytes.position(bytes.position() + read);
+            decode(false);
+            if (batch.length() < MAX_BATCH_CHARS && in.available() > 0) {
+                continue;
+            }
+            dispatch();
+        }
+        if (!stopped) {
+            decode(true);
+            dispatch();
+        }
+    }
+
+    /**
+     * 回调方已处理完之前交出的全部输出
+     */
+    void acknowledge() {
+        synchronized (pendingLock) {
+            pendingChars = 0;
+            pendingLock.notifyAll();
+        }
+    }
+
+    void stop() {
+        stopped = true;
+        acknowledge();
+    }
+
+    private void decode(boolean endOfInput) {
+        bytes.flip();
+        CoderResult result;
+        do {
+            // 字符缓冲写满时返回溢出，取出后继续解码剩余字节
+            result = decoder.decode(bytes, chars, endOfInput);
+            chars.flip();
+            batch.append(chars);
+            chars.clear();
+        } while (result.isOverflow());
+        if (endOfInput) {
+            decoder.flush(chars);
+            chars.flip();
+            batch.append(chars);
+            chars.clear();
+            decoder.reset();
+        }
+        // 未解码完的半个字符移到开头，等待后续字节
+        bytes.compact();
+    }
+
+    private void dispatch() {
+        if (batch.length() == 0) {
+            return;
+        }
+        String text = batch.toString();
+        batch.setLength(0);
+        if (backPressure) {
+            awaitCapacity();
+            synchronized (pendingLock) {
+                pendingChars += text.length();
+            }
+        }
+        sink.onOutput(text);
+    }
+
+    private void awaitCapacity() {
+        synchronized (pendingLock) {
+            while (!stopped && pendingChars >= MAX_PENDING_CHARS) {
+                try {
+                    pendingLock.wait(WAIT_SLICE_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
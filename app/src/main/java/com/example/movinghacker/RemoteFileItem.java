@@ -13,6 +13,10 @@ public class RemoteFileItem {
     private long size;
     private long modifiedTime;
     private String permissions;
+    // 完整的st_mode（含文件类型位），未知时为0
+    private int mode;
+    // 符号链接指向的路径，不是链接时为null
+    private String symlinkTarget;
     
     public RemoteFileItem(String name, String path, boolean isDirectory) {
         this.name = name;
@@ -59,6 +63,22 @@ public class RemoteFileItem {
         this.permissions = permissions;
     }
     
+    public int getMode() {
+        return mode;
+    }
+    
+    public void setMode(int mode) {
+        this.mode = mode;
+    }
+    
+    public String getSymlinkTarget() {
+        return symlinkTarget;
+    }
+    
+    public void setSymlinkTarget(String symlinkTarget) {
+        this.symlinkTarget = symlinkTarget;
+    }
+    
     public String getFormattedSize() {
         if (isDirectory) return "-";
         
@@ -128,6 +148,11 @@ public class RemoteFileItem {
                 return RemoteFileItem.this.isDirectory;
             }
             
+            @Override
+            public long getSize() {
+                return size;
+            }
+            
             @Override
             public String getFormattedSize() {
                 return RemoteFileItem.this.getFormattedSize();
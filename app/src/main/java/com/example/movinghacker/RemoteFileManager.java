@@ -1,26 +1,95 @@
 package com.example.movinghacker;
 
+import android.util.Log;
+
+import com.jcraft.jsch.Channel;
 import com.jcraft.jsch.ChannelExec;
-import com.jcraft.jsch.JSch;
-import com.jcraft.jsch.Session;
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+import com.jcraft.jsch.SftpProgressMonitor;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 /**
- * 远程文件管理器 - 使用SSH命令管理远程文件
+ * 远程文件管理器
+ * 文件操作通过常驻的SFTP通道完成，直接得到结构化的文件属性；
+ * 服务器不提供SFTP子系统时退回到SSH命令（ls、head、rm、mv）
  */
 public class RemoteFileManager {
     
-    private Session session;
+    private static final String TAG = "RemoteFileManager";
+    private static final int CHANNEL_TIMEOUT_MS = 15000;
+    private static final long DEFAULT_COMMAND_TIMEOUT_MS = 120000;
+    private static final int COMMAND_THREADS = 4;
+    private static final int TRANSFER_THREADS = 2;
+    // 排队等待的操作数上限，超出时直接回调onError
+    private static final int COMMAND_QUEUE_CAPACITY = 64;
+    private static final int TRANSFER_QUEUE_CAPACITY = 16;
+    
+    /**
+     * 操作被取消时传给onError的信息
+     */
+    public static final String CANCELLED = "已取消";
+    
+    /**
+     * 排队的操作过多、被拒绝时传给onError的信息
+     */
+    public static final String REJECTED = "操作过多，请稍后重试";
+    
+    // 所有实例共享的有界线程池：快速切换目录时排队执行，不会无限制地创建线程和通道
+    private static final ThreadPoolExecutor COMMAND_EXECUTOR =
+            createExecutor(COMMAND_THREADS, COMMAND_QUEUE_CAPACITY, "remote-command");
+    // 单文件下载、上传耗时较长，单独排队，不占用浏览所用的线程
+    private static final ThreadPoolExecutor TRANSFER_EXECUTOR =
+            createExecutor(TRANSFER_THREADS, TRANSFER_QUEUE_CAPACITY, "remote-transfer");
+    // 读取命令的错误输出，标准输出在执行线程上读取
+    private static final ExecutorService STDERR_READERS = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "remote-stderr");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // 命令超时后关闭通道，阻塞中的读取随即返回
+    private static final ScheduledExecutorService TIMEOUTS = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "remote-timeout");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private volatile SSHSessionPool.Lease lease;
     private String host;
     private int port;
     private String username;
     private String password;
     
+    // ChannelSftp不是线程安全的，所有SFTP操作在此锁上串行执行
+    private final Object sftpLock = new Object();
+    private ChannelSftp sftpChannel;
+    private volatile boolean sftpUnavailable;
+    
     public RemoteFileManager(String host, int port, String username, String password) {
         this.host = host;
         this.port = port;
@@ -38,142 +107,848 @@ public class RemoteFileManager {
         void onError(String error);
     }
     
+    public interface ListCallback {
+        void onSuccess(List<RemoteFileItem> files);
+        void onError(String error);
+    }
+    
+    /**
+     * 命令执行的结构化回调
+     */
+    public interface CommandListener {
+        /**
+         * 每读到一行输出回调一次；标准输出在执行线程上、错误输出在读取线程上回调
+         * @param stderr 是否为错误输出
+         */
+        default void onLine(String line, boolean stderr) {
+        }
+        
+        void onComplete(CommandResult result);
+        void onError(String error);
+    }
+    
+    /**
+     * 命令执行结果
+     */
+    public static final class CommandResult {
+        public final String stdout;
+        public final String stderr;
+        // 命令的退出码，被信号终止或超时时为-1
+        public final int exitStatus;
+        public final boolean timedOut;
+        
+        CommandResult(String stdout, String stderr, int exitStatus, boolean timedOut) {
+            this.stdout = stdout;
+            this.stderr = stderr;
+            this.exitStatus = exitStatus;
+            this.timedOut = timedOut;
+        }
+        
+        public boolean isSuccess() {
+            return !timedOut && exitStatus == 0;
+        }
+    }
+    
+    /**
+     * 已提交操作的句柄，用于取消：尚在排队的操作不再执行，正在执行的命令关闭其通道
+     */
+    public static final class RemoteCommand {
+        private volatile boolean cancelled;
+        private volatile Channel channel;
+        
+        public void cancel() {
+            cancelled = true;
+            Channel current = channel;
+            if (current != null) {
+                current.disconnect();
+            }
+        }
+        
+        public boolean isCancelled() {
+            return cancelled;
+        }
+        
+        void attach(Channel channel) {
+            this.channel = channel;
+            if (cancelled) {
+                channel.disconnect();
+            }
+        }
+    }
+    
+    private interface Job {
+        void run(RemoteCommand handle) throws Exception;
+    }
+    
+    private interface SftpOperation<T> {
+        T run(ChannelSftp sftp) throws Exception;
+    }
+    
+    private interface ShellFallback<T> {
+        T run() throws Exception;
+    }
+    
+    /**
+     * 线程池中的操作；队列已满被拒绝时回调onError，不在提交线程上抛出异常
+     */
+    private static final class CallbackTask implements Runnable {
+        private final Runnable body;
+        private final Consumer<String> onError;
+        
+        CallbackTask(Runnable body, Consumer<String> onError) {
+            this.body = body;
+            this.onError = onError;
+        }
+        
+        @Override
+        public void run() {
+            body.run();
+        }
+        
+        void reject() {
+            onError.accept(REJECTED);
+        }
+    }
+    
     /**
      * 连接到SSH服务器
      */
     public void connect(ConnectionCallback callback) {
-        new Thread(() -> {
+        COMMAND_EXECUTOR.execute(new CallbackTask(() -> {
             try {
-                JSch jsch = new JSch();
-                session = jsch.getSession(username, host, port);
-                session.setPassword(password);
-                
-                java.util.Properties config = new java.util.Properties();
-                config.put("StrictHostKeyChecking", "no");
-                session.setConfig(config);
-                session.setTimeout(30000);
-                
-                session.connect();
+                // 从会话池获取会话，终端已连接同一主机时直接复用
+                if (lease != null) {
+                    lease.release();
+                }
+                lease = SSHSessionPool.getInstance().acquire(
+                        SSHSessionPool.Credentials.password(host, port, username, password));
+                // 提前打开SFTP通道，第一次浏览时不必再等待
+                synchronized (sftpLock) {
+                    sftp();
+                }
                 callback.onSuccess();
                 
             } catch (Exception e) {
                 callback.onError(e.getMessage());
             }
-        }).start();
+        }, callback::onError));
     }
     
     /**
      * 断开连接
      */
     public void disconnect() {
-        if (session != null && session.isConnected()) {
-            session.disconnect();
+        synchronized (sftpLock) {
+            if (sftpChannel != null) {
+                sftpChannel.disconnect();
+                sftpChannel = null;
+            }
+        }
+        // 会话留在池中供其他界面复用，空闲后由池关闭
+        if (lease != null) {
+            lease.release();
         }
     }
     
     public boolean isConnected() {
-        return session != null && session.isConnected();
+        SSHSessionPool.Lease current = lease;
+        return current != null && current.isConnected();
+    }
+    
+    private void requireConnected() throws IOException {
+        if (!isConnected()) {
+            throw new IOException("未连接到服务器");
+        }
     }
     
     /**
-     * 执行SSH命令
+     * 执行SSH命令，命令以非零退出码结束且没有标准输出时回调onError
      */
-    public void executeCommand(String command, CommandCallback callback) {
-        new Thread(() -> {
-            try {
-                if (!isConnected()) {
-                    callback.onError("未连接到服务器");
-                    return;
+    public RemoteCommand executeCommand(String command, CommandCallback callback) {
+        return execute(command, DEFAULT_COMMAND_TIMEOUT_MS, new CommandListener() {
+            @Override
+            public void onComplete(CommandResult result) {
+                try {
+                    callback.onSuccess(outputOf(result));
+                } catch (IOException e) {
+                    callback.onError(e.getMessage());
                 }
-                
-                ChannelExec channel = (ChannelExec) session.openChannel("exec");
-                channel.setCommand(command);
-                
-                InputStream in = channel.getInputStream();
-                InputStream err = channel.getErrStream();
-                
-                channel.connect();
-                
-                // 读取输出
-                BufferedReader reader = new BufferedReader(new InputStreamReader(in));
-                StringBuilder output = new StringBuilder();
-                String line;
-                
-                while ((line = reader.readLine()) != null) {
-                    output.append(line).append("\n");
-                }
-                
-                // 读取错误输出
-                BufferedReader errReader = new BufferedReader(new InputStreamReader(err));
-                StringBuilder errOutput = new StringBuilder();
-                
-                while ((line = errReader.readLine()) != null) {
-                    errOutput.append(line).append("\n");
+            }
+            
+            @Override
+            public void onError(String error) {
+                callback.onError(error);
+            }
+        });
+    }
+    
+    /**
+     * 执行SSH命令，逐行回调输出，结束后回调退出码和完整输出
+     * @param timeoutMs 超时时间，超时后关闭通道并以timedOut结果回调；0表示不限
+     */
+    public RemoteCommand execute(String command, long timeoutMs, CommandListener listener) {
+        return submit(COMMAND_EXECUTOR, listener::onError, handle -> {
+            requireConnected();
+            CommandResult result = runExec(command, timeoutMs, handle, listener);
+            if (handle.isCancelled()) {
+                listener.onError(CANCELLED);
+            } else {
+                listener.onComplete(result);
+            }
+        });
+    }
+    
+    /**
+     * 在线程池中执行操作；排队期间被取消的操作不再执行，出错或取消时回调onError
+     */
+    private RemoteCommand submit(Executor executor, Consumer<String> onError, Job job) {
+        RemoteCommand handle = new RemoteCommand();
+        executor.execute(new CallbackTask(() -> {
+            if (handle.isCancelled()) {
+                onError.accept(CANCELLED);
+                return;
+            }
+            try {
+                job.run(handle);
+            } catch (SftpException e) {
+                onError.accept(handle.isCancelled() ? CANCELLED : describe(e));
+            } catch (Exception e) {
+                onError.accept(handle.isCancelled() ? CANCELLED : e.getMessage());
+            }
+        }, onError));
+        return handle;
+    }
+    
+    /**
+     * 在当前线程执行命令并返回标准输出，供不支持SFTP时的退路使用
+     */
+    private String runCommand(String command) throws Exception {
+        return outputOf(runExec(command, DEFAULT_COMMAND_TIMEOUT_MS, null, null));
+    }
+    
+    private static String outputOf(CommandResult result) throws IOException {
+        if (result.timedOut) {
+            throw new IOException("命令执行超时");
+        }
+        if (result.exitStatus != 0 && result.stdout.isEmpty()) {
+            throw new IOException(!result.stderr.isEmpty() ? result.stderr : "命令退出码 " + result.exitStatus);
+        }
+        return result.stdout;
+    }
+    
+    /**
+     * 在新的exec通道中执行命令，直到命令结束、超时或取消
+     * 标准输出在当前线程、错误输出在读取线程上阻塞读取到流结束，任何一个流写满通道窗口都不会让另一个流卡住；
+     * 超时或取消时关闭通道，两个读取随即结束
+     */
+    private CommandResult runExec(String command, long timeoutMs, RemoteCommand handle,
+                                  CommandListener listener) throws Exception {
+        ChannelExec channel = (ChannelExec) lease.openChannel("exec");
+        channel.setCommand(command);
+        
+        InputStream in = channel.getInputStream();
+        InputStream err = channel.getErrStream();
+        
+        channel.connect(CHANNEL_TIMEOUT_MS);
+        if (handle != null) {
+            handle.attach(channel);
+        }
+        
+        OutputCollector stdout = new OutputCollector(listener, false);
+        OutputCollector stderr = new OutputCollector(listener, true);
+        AtomicBoolean expired = new AtomicBoolean();
+        ScheduledFuture<?> timeout = timeoutMs > 0 ? TIMEOUTS.schedule(() -> {
+            expired.set(true);
+            channel.disconnect();
+        }, timeoutMs, TimeUnit.MILLISECONDS) : null;
+        Future<?> errorReader = STDERR_READERS.submit(() -> {
+            stderr.readAll(err);
+            return null;
+        });
+        try {
+            stdout.readAll(in);
+            // 错误输出在通道关闭时结束，此时退出码已经收到
+            errorReader.get();
+        } catch (ExecutionException e) {
+            if (!expired.get() && (handle == null || !handle.isCancelled())) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+        } catch (IOException e) {
+            // 通道被关闭时读取也可能以异常结束
+            if (!expired.get() && (handle == null || !handle.isCancelled())) {
+                throw e;
+            }
+        } finally {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            channel.disconnect();
+        }
+        if (handle != null && handle.isCancelled()) {
+            throw new IOException(CANCELLED);
+        }
+        if (!errorReader.isDone()) {
+            // 超时后标准输出先结束，等待错误输出也读取完毕再取结果
+            try {
+                errorReader.get();
+            } catch (ExecutionException e) {
+                // 通道已被关闭，已读取的部分照常返回
+            }
+        }
+        stdout.finish();
+        stderr.finish();
+        // 超时前已收到退出码的命令按正常结束处理
+        boolean timedOut = expired.get() && channel.getExitStatus() < 0;
+        return new CommandResult(stdout.text(), stderr.text(),
+                timedOut ? -1 : channel.getExitStatus(), timedOut);
+    }
+    
+    /**
+     * 收集一个输出流的全部字节，并按换行切分回调
+     * UTF-8中换行字节不会出现在多字节字符内部，按字节切分不会截断字符
+     */
+    private static final class OutputCollector {
+        private final CommandListener listener;
+        private final boolean stderr;
+        private final ByteArrayOutputStream all = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private final byte[] buffer = new byte[8192];
+        
+        OutputCollector(CommandListener listener, boolean stderr) {
+            this.listener = listener;
+            this.stderr = stderr;
+        }
+        
+        /**
+         * 阻塞读取到流结束（远端发送EOF或通道关闭）
+         */
+        void readAll(InputStream in) throws IOException {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                all.write(buffer, 0, read);
+                if (listener != null) {
+                    split(read);
                 }
-                
-                channel.disconnect();
-                
-                if (errOutput.length() > 0 && output.length() == 0) {
-                    callback.onError(errOutput.toString());
-                } else {
-                    callback.onSuccess(output.toString());
+            }
+        }
+        
+        private void split(int length) {
+            int start = 0;
+            for (int i = 0; i < length; i++) {
+                if (buffer[i] == '\n') {
+                    line.write(buffer, start, i - start);
+                    emit();
+                    start = i + 1;
                 }
-                
-            } catch (Exception e) {
-                callback.onError(e.getMessage());
             }
-        }).start();
+            line.write(buffer, start, length - start);
+        }
+        
+        void finish() {
+            if (listener != null && line.size() > 0) {
+                emit();
+            }
+        }
+        
+        private void emit() {
+            String text = new String(line.toByteArray(), StandardCharsets.UTF_8);
+            line.reset();
+            if (text.endsWith("\r")) {
+                text = text.substring(0, text.length() - 1);
+            }
+            listener.onLine(text, stderr);
+        }
+        
+        String text() {
+            return new String(all.toByteArray(), StandardCharsets.UTF_8);
+        }
     }
     
     /**
-     * 列出目录文件
+     * 获取常驻的SFTP通道，断开后重新打开；调用方需持有sftpLock
+     * @return SFTP通道，服务器不支持SFTP时返回null
      */
-    public void listFiles(String path, CommandCallback callback) {
-        // 使用 ls -la 命令列出文件
-        String command = "ls -la " + escapePath(path);
-        executeCommand(command, callback);
+    private ChannelSftp sftp() {
+        if (sftpUnavailable || !isConnected()) {
+            return null;
+        }
+        if (sftpChannel == null || !sftpChannel.isConnected()) {
+            sftpChannel = openSftpChannel();
+        }
+        return sftpChannel;
+    }
+    
+    /**
+     * 在会话上新开一个SFTP通道，同一会话上的多个通道可以并行传输
+     * @return SFTP通道，服务器不支持SFTP时返回null
+     */
+    ChannelSftp openSftpChannel() {
+        if (sftpUnavailable || !isConnected()) {
+            return null;
+        }
+        try {
+            ChannelSftp channel = (ChannelSftp) lease.openChannel("sftp");
+            channel.connect(CHANNEL_TIMEOUT_MS);
+            return channel;
+        } catch (JSchException e) {
+            // 会话仍然连接时说明服务器没有SFTP子系统，此后直接使用Shell命令
+            if (isConnected()) {
+                sftpUnavailable = true;
+                Log.w(TAG, "SFTP unavailable, falling back to shell commands", e);
+            }
+            return null;
+        }
+    }
+    
+    /**
+     * 优先通过SFTP执行，不支持SFTP时执行Shell命令
+     */
+    private <T> T withSftp(SftpOperation<T> operation, ShellFallback<T> fallback) throws Exception {
+        requireConnected();
+        synchronized (sftpLock) {
+            ChannelSftp sftp = sftp();
+            if (sftp != null) {
+                return operation.run(sftp);
+            }
+        }
+        return fallback.run();
+    }
+    
+    private RemoteCommand runFileOperation(CommandCallback callback, SftpOperation<String> operation,
+                                           String fallbackCommand) {
+        return submit(COMMAND_EXECUTOR, callback::onError, handle -> {
+            String output = withSftp(operation, () -> runCommand(fallbackCommand));
+            if (handle.isCancelled()) {
+                callback.onError(CANCELLED);
+            } else {
+                callback.onSuccess(output);
+            }
+        });
+    }
+    
+    /**
+     * 列出目录文件（不含.和..）
+     */
+    public RemoteCommand listFiles(String path, ListCallback callback) {
+        return submit(COMMAND_EXECUTOR, callback::onError, handle -> {
+            List<RemoteFileItem> files = listDirectory(path);
+            // 列目录期间已被新的请求取代，结果不再需要
+            if (handle.isCancelled()) {
+                callback.onError(CANCELLED);
+            } else {
+                callback.onSuccess(files);
+            }
+        });
     }
     
     /**
      * 读取文件内容
      */
-    public void readFile(String path, int maxBytes, CommandCallback callback) {
-        // 使用 head 命令读取文件前N字节
-        String command = "head -c " + maxBytes + " " + escapePath(path);
-        executeCommand(command, callback);
+    public RemoteCommand readFile(String path, int maxBytes, CommandCallback callback) {
+        // 只读取前maxBytes字节
+        return runFileOperation(callback, sftp -> {
+            try (InputStream in = sftp.get(path)) {
+                return readUpTo(in, maxBytes);
+            }
+        }, "head -c " + maxBytes + " " + escapePath(path));
     }
     
     /**
      * 删除文件
      */
-    public void deleteFile(String path, boolean isDirectory, CommandCallback callback) {
-        String command;
+    public RemoteCommand deleteFile(String path, boolean isDirectory, CommandCallback callback) {
         if (isDirectory) {
-            command = "rm -rf " + escapePath(path);
-        } else {
-            command = "rm -f " + escapePath(path);
+            // SFTP没有递归删除，逐项删除需要大量往返，交给服务器上的rm一次完成
+            return executeCommand("rm -rf " + escapePath(path), callback);
         }
-        executeCommand(command, callback);
+        return runFileOperation(callback, sftp -> {
+            sftp.rm(path);
+            return "";
+        }, "rm -f " + escapePath(path));
     }
     
     /**
      * 重命名文件
      */
-    public void renameFile(String oldPath, String newPath, CommandCallback callback) {
-        String command = "mv " + escapePath(oldPath) + " " + escapePath(newPath);
-        executeCommand(command, callback);
+    public RemoteCommand renameFile(String oldPath, String newPath, CommandCallback callback) {
+        return runFileOperation(callback, sftp -> {
+            sftp.rename(oldPath, newPath);
+            return "";
+        }, "mv " + escapePath(oldPath) + " " + escapePath(newPath));
+    }
+    
+    /**
+     * 下载远程文件到本地
+     * 每个传输使用独立的通道，不会阻塞浏览等其他操作
+     * @param resume 为true且本地文件比远程文件小时，从本地文件末尾继续下载；否则覆盖本地文件
+     */
+    public RemoteTransfer download(String remotePath, File localFile, boolean resume,
+                                   RemoteTransfer.TransferCallback callback) {
+        RemoteTransfer transfer = new RemoteTransfer(remotePath, false);
+        TRANSFER_EXECUTOR.execute(new CallbackTask(() -> {
+            try {
+                callback.onSuccess(runDownload(transfer, localFile, resume, callback, null));
+            } catch (SftpException e) {
+                callback.onError(describe(e));
+            } catch (Exception e) {
+                callback.onError(e.getMessage());
+            }
+        }, callback::onError));
+        return transfer;
+    }
+    
+    /**
+     * 上传本地文件到远程
+     * @param resume 为true且远程文件比本地文件小时，从远程文件末尾继续上传；否则覆盖远程文件
+     */
+    public RemoteTransfer upload(File localFile, String remotePath, boolean resume,
+                                 RemoteTransfer.TransferCallback callback) {
+        RemoteTransfer transfer = new RemoteTransfer(remotePath, true);
+        TRANSFER_EXECUTOR.execute(new CallbackTask(() -> {
+            try {
+                callback.onSuccess(runUpload(transfer, localFile, resume, callback, null));
+            } catch (SftpException e) {
+                callback.onError(describe(e));
+            } catch (Exception e) {
+                callback.onError(e.getMessage());
+            }
+        }, callback::onError));
+        return transfer;
+    }
+    
+    /**
+     * 在当前线程执行下载
+     * @param shared 复用的SFTP通道，传输结束后不关闭；为null时新开通道
+     */
+    long runDownload(RemoteTransfer transfer, File localFile, boolean resume,
+                     RemoteTransfer.TransferCallback callback, ChannelSftp shared) throws Exception {
+        requireConnected();
+        String remotePath = transfer.getRemotePath();
+        ChannelSftp sftp = shared != null ? shared : openSftpChannel();
+        Channel owned = shared != null ? null : sftp;
+        try {
+            long total = sftp != null ? sftp.stat(remotePath).getSize() : remoteSize(remotePath);
+            long offset = resume ? localFile.length() : 0;
+            if (total < 0 || offset > total) {
+                offset = 0;
+            }
+            Channel channel = sftp;
+            InputStream remote;
+            if (sftp != null) {
+                remote = sftp.get(remotePath, null, offset);
+            } else {
+                // tail -c +N 从第N个字节起原样输出，exec通道不经过终端，二进制内容不会被改写
+                ChannelExec exec = (ChannelExec) lease.openChannel("exec");
+                exec.setCommand("tail -c +" + (offset + 1) + " " + escapePath(remotePath));
+                remote = exec.getInputStream();
+                exec.connect(CHANNEL_TIMEOUT_MS);
+                channel = owned = exec;
+            }
+            transfer.setCleanup(channel::disconnect);
+            // 续传时以追加方式打开，否则截断已有文件；关闭输入流释放复用通道上的远程文件句柄
+            try (InputStream in = remote;
+                 FileOutputStream fos = new FileOutputStream(localFile, offset > 0);
+                 FileChannel out = fos.getChannel()) {
+                return transfer.download(in, out, offset, total, callback);
+            }
+        } finally {
+            if (owned != null) {
+                owned.disconnect();
+            }
+        }
+    }
+    
+    /**
+     * 在当前线程执行上传
+     * @param shared 复用的SFTP通道，传输结束后不关闭；为null时新开通道
+     */
+    long runUpload(RemoteTransfer transfer, File localFile, boolean resume,
+                   RemoteTransfer.TransferCallback callback, ChannelSftp shared) throws Exception {
+        requireConnected();
+        String remotePath = transfer.getRemotePath();
+        long total = localFile.length();
+        ChannelSftp sftp = shared != null ? shared : openSftpChannel();
+        Channel owned = shared != null ? null : sftp;
+        try {
+            long offset = 0;
+            if (resume) {
+                offset = sftp != null ? sftpSizeOrZero(sftp, remotePath) : remoteSizeOrZero(remotePath);
+                if (offset > total) {
+                    offset = 0;
+                }
+            }
+            Channel channel = sftp;
+            OutputStream out;
+            ChannelExec exec = null;
+            InputStream execErr = null;
+            if (sftp != null) {
+                out = sftp.put(remotePath, (SftpProgressMonitor) null, offset > 0 ? ChannelSftp.APPEND : ChannelSftp.OVERWRITE);
+            } else {
+                exec = (ChannelExec) lease.openChannel("exec");
+                exec.setCommand("cat " + (offset > 0 ? ">> " : "> ") + escapePath(remotePath));
+                out = exec.getOutputStream();
+                execErr = exec.getErrStream();
+                exec.connect(CHANNEL_TIMEOUT_MS);
+                channel = owned = exec;
+            }
+            transfer.setCleanup(channel::disconnect);
+            long transferred;
+            try (FileInputStream fis = new FileInputStream(localFile);
+                 FileChannel in = fis.getChannel()) {
+                in.position(offset);
+                transferred = transfer.upload(in, out, offset, total, callback);
+            }
+            // 关闭输出流：SFTP关闭远程文件句柄，exec发送EOF让cat结束
+            out.close();
+            if (exec != null) {
+                awaitExit(exec, execErr);
+            }
+            return transferred;
+        } finally {
+            if (owned != null) {
+                owned.disconnect();
+            }
+        }
+    }
+    
+    /**
+     * 列出目录（同步），供传输队列遍历远程目录
+     */
+    List<RemoteFileItem> listDirectory(String path) throws Exception {
+        return withSftp(sftp -> listWithSftp(sftp, path),
+                () -> parseLsOutput(runCommand("ls -la " + escapePath(path)), path));
+    }
+    
+    /**
+     * 查询单个路径的类型和大小（同步），符号链接按目标判断；供传输队列判断最外层路径
+     */
+    RemoteFileItem stat(String path) throws Exception {
+        String trimmed = path.endsWith("/") && path.length() > 1 ? path.substring(0, path.length() - 1) : path;
+        String name = trimmed.substring(trimmed.lastIndexOf('/') + 1);
+        return withSftp(sftp -> {
+            SftpATTRS attrs = sftp.stat(path);
+            RemoteFileItem item = new RemoteFileItem(name, path, attrs.isDir());
+            item.setSize(attrs.getSize());
+            return item;
+        }, () -> {
+            // -d只列出路径本身，-L按链接目标显示
+            String[] parts = runCommand("ls -ldL " + escapePath(path)).trim().split("\\s+");
+            if (parts.length < 5) {
+                throw new IOException("无法读取文件信息: " + path);
+            }
+            RemoteFileItem item = new RemoteFileItem(name, path, parts[0].startsWith("d"));
+            try {
+                item.setSize(Long.parseLong(parts[4]));
+            } catch (NumberFormatException e) {
+                // 忽略解析错误
+            }
+            return item;
+        });
+    }
+    
+    /**
+     * 创建目录（同步），目录已存在时不报错
+     */
+    void makeDirectory(String path) throws Exception {
+        withSftp(sftp -> {
+            try {
+                if (sftp.stat(path).isDir()) {
+                    return null;
+                }
+            } catch (SftpException e) {
+                if (e.id != ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                    throw e;
+                }
+            }
+            sftp.mkdir(path);
+            return null;
+        }, () -> runCommand("mkdir -p " + escapePath(path)));
+    }
+    
+    private static long sftpSizeOrZero(ChannelSftp sftp, String path) throws SftpException {
+        try {
+            return sftp.stat(path).getSize();
+        } catch (SftpException e) {
+            if (e.id == ChannelSftp.SSH_FX_NO_SUCH_FILE) {
+                return 0;
+            }
+            throw e;
+        }
+    }
+    
+    private long remoteSize(String path) throws Exception {
+        try {
+            return Long.parseLong(runCommand("wc -c < " + escapePath(path)).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    private long remoteSizeOrZero(String path) {
+        try {
+            return Math.max(0, remoteSize(path));
+        } catch (Exception e) {
+            // 远程文件不存在
+            return 0;
+        }
+    }
+    
+    /**
+     * 等待exec通道结束：错误输出在通道关闭时结束，此时退出码已经收到；超时后关闭通道
+     */
+    private static void awaitExit(ChannelExec exec, InputStream err) throws IOException {
+        ScheduledFuture<?> timeout = TIMEOUTS.schedule(exec::disconnect, CHANNEL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        OutputCollector stderr = new OutputCollector(null, true);
+        try {
+            stderr.readAll(err);
+        } finally {
+            timeout.cancel(false);
+        }
+        if (exec.getExitStatus() > 0) {
+            String message = stderr.text().trim();
+            throw new IOException(!message.isEmpty() ? message : "远程写入失败，退出码 " + exec.getExitStatus());
+        }
     }
     
     /**
      * 查找文件
      */
-    public void findFiles(String searchPath, String pattern, boolean recursive, CommandCallback callback) {
+    public RemoteCommand findFiles(String searchPath, String pattern, boolean recursive, CommandCallback callback) {
         String command = "find " + escapePath(searchPath);
         if (!recursive) {
             command += " -maxdepth 1";
         }
         command += " -name '" + pattern + "'";
-        executeCommand(command, callback);
+        return executeCommand(command, callback);
+    }
+    
+    private static List<RemoteFileItem> listWithSftp(ChannelSftp sftp, String path) throws SftpException {
+        String base = path.endsWith("/") ? path : path + "/";
+        List<RemoteFileItem> items = new ArrayList<>();
+        List<RemoteFileItem> links = new ArrayList<>();
+        sftp.ls(path, entry -> {
+            String name = entry.getFilename();
+            if (!name.equals(".") && !name.equals("..")) {
+                SftpATTRS attrs = entry.getAttrs();
+                RemoteFileItem item = new RemoteFileItem(name, base + name, attrs.isDir());
+                item.setSize(attrs.getSize());
+                item.setModifiedTime(attrs.getMTime() * 1000L);
+                item.setPermissions(attrs.getPermissionsString());
+                item.setMode(attrs.getPermissions());
+                items.add(item);
+                if (attrs.isLink()) {
+                    links.add(item);
+                }
+            }
+            return ChannelSftp.LsEntrySelector.CONTINUE;
+        });
+        // 符号链接：读出目标，并按目标类型决定能否进入
+        for (int i = 0; i < links.size(); i++) {
+            RemoteFileItem link = links.get(i);
+            try {
+                link.setSymlinkTarget(sftp.readlink(link.getPath()));
+                if (sftp.stat(link.getPath()).isDir()) {
+                    RemoteFileItem directory = new RemoteFileItem(link.getName(), link.getPath(), true);
+                    directory.setModifiedTime(link.getModifiedTime());
+                    directory.setPermissions(link.getPermissions());
+                    directory.setMode(link.getMode());
+                    directory.setSymlinkTarget(link.getSymlinkTarget());
+                    items.set(items.indexOf(link), directory);
+                }
+            } catch (SftpException e) {
+                // 目标不存在的链接按普通文件显示
+            }
+        }
+        return items;
+    }
+    
+    /**
+     * 解析ls -la的输出（不支持SFTP时使用）
+     */
+    static List<RemoteFileItem> parseLsOutput(String lsOutput, String currentPath) {
+        List<RemoteFileItem> items = new ArrayList<>();
+        for (String line : lsOutput.split("\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("total")) {
+                continue;
+            }
+            
+            // drwxr-xr-x 2 user group 4096 Jan 1 12:00 dirname
+            String[] parts = line.split("\\s+");
+            if (parts.length < 9) {
+                continue;
+            }
+            
+            String permissions = parts[0];
+            boolean isDirectory = permissions.startsWith("d");
+            
+            // 文件名可能包含空格，需要从第9列开始拼接
+            StringBuilder nameBuilder = new StringBuilder();
+            for (int i = 8; i < parts.length; i++) {
+                if (i > 8) nameBuilder.append(" ");
+                nameBuilder.append(parts[i]);
+            }
+            String name = nameBuilder.toString();
+            String symlinkTarget = null;
+            int arrow = name.indexOf(" -> ");
+            if (permissions.startsWith("l") && arrow > 0) {
+                symlinkTarget = name.substring(arrow + 4);
+                name = name.substring(0, arrow);
+            }
+            
+            if (name.equals(".") || name.equals("..")) {
+                continue;
+            }
+            
+            String fullPath = currentPath.endsWith("/") ?
+                currentPath + name : currentPath + "/" + name;
+            RemoteFileItem item = new RemoteFileItem(name, fullPath, isDirectory);
+            try {
+                item.setSize(Long.parseLong(parts[4]));
+            } catch (NumberFormatException e) {
+                // 忽略解析错误
+            }
+            item.setPermissions(permissions);
+            item.setSymlinkTarget(symlinkTarget);
+            items.add(item);
+        }
+        return items;
+    }
+    
+    private static String readUpTo(InputStream in, int maxBytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(maxBytes, 64 * 1024));
+        byte[] buffer = new byte[8192];
+        int remaining = maxBytes;
+        int read;
+        while (remaining > 0 && (read = in.read(buffer, 0, Math.min(buffer.length, remaining))) != -1) {
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * 固定线程数、有界队列的线程池；队列已满时拒绝新操作，并回调该操作的onError
+     */
+    private static ThreadPoolExecutor createExecutor(int threads, int queueCapacity, String name) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity), r -> {
+                    Thread thread = new Thread(r, name);
+                    thread.setDaemon(true);
+                    return thread;
+                }, (task, pool) -> {
+                    Log.w(TAG, name + " queue full, rejecting task");
+                    if (task instanceof CallbackTask) {
+                        ((CallbackTask) task).reject();
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+    
+    private static String describe(SftpException e) {
+        return e.getMessage() != null ? e.getMessage() : "SFTP error " + e.id;
     }
     
     /**
@@ -0,0 +1,172 @@
+package com.example.movinghacker;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 一次远程文件传输（下载或上传）
+ * 数据用固定大小的缓冲在远程流和本地FileChannel之间直接搬运，不在内存中保存整个文件，
+ * 也不经过字符解码，二进制文件原样传输；本地已有的部分文件可从其末尾继续传输
+ */
+public class RemoteTransfer {
+
+    public interface TransferCallback {
+        /**
+         * 传输进度，最多每PROGRESS_INTERVAL_MS回调一次
+         * @param transferred 已传输字节数（含续传前已有的部分）
+         * @param total 总字节数，未知时为-1
+         * @param bytesPerSecond 最近一段时间的传输速度
+         */
+        void onProgress(long transferred, long total, long bytesPerSecond);
+        void onSuccess(long transferred);
+        void onError(String error);
+    }
+
+    /**
+     * 打开远程流后释放对应连接资源
+     */
+    interface Cleanup {
+        void close();
+    }
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    private static final long PROGRESS_INTERVAL_MS = 200;
+    // 速度按最近这段时间内的字节数计算
+    private static final long SPEED_WINDOW_MS = 2000;
+
+    private final String remotePath;
+    private final boolean upload;
+    private volatile boolean cancelled;
+    private volatile Cleanup cleanup;
+
+    RemoteTransfer(String remotePath, boolean upload) {
+        this.remotePath = remotePath;
+        this.upload = upload;
+    }
+
+    public String getRemotePath() {
+        return remotePath;
+    }
+
+    public boolean isUpload() {
+        return upload;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 取消传输，已写入本地或远程的部分保留，之后可以续传
+     */
+    public void cancel() {
+        cancelled = true;
+        // 关闭通道使阻塞中的读写立即返回
+        Cleanup current = cleanup;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    void setCleanup(Cleanup cleanup) {
+        this.cleanup = cleanup;
+        if (cancelled) {
+            cleanup.close();
+        }
+    }
+
+    /**
+     * 把远程输入流写入本地文件通道的当前位置
+     */
+    long download(InputStream in, FileChannel out, long offset, long total,
+                  TransferCallback callback) throws IOException {
+        byte[] array = new byte[BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(array);
+        Meter meter = new Meter(offset, total, callback);
+        int read;
+        while (!cancelled && (read = in.read(array)) != -1) {
+            buffer.clear().limit(read);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            meter.add(read);
+        }
+        return finish(meter);
+    }
+
+    /**
+     * 把本地文件通道从当前位置起的内容写入远程输出流
+     */
+    long upload(FileChannel in, OutputStream out, long offset, long total,
+                TransferCallback callback) throws IOException {
+        byte[] array = new byte[BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(array);
+        Meter meter = new Meter(offset, total, callback);
+        int read;
+        while (!cancelled && (read = in.read(buffer)) != -1) {
+            out.write(array, 0, read);
+            buffer.clear();
+            meter.add(read);
+        }
+        out.flush();
+        return finish(meter);
+    }
+
+    private long finish(Meter meter) throws IOException {
+        if (cancelled) {
+            throw new IOException("传输已取消");
+        }
+        meter.report();
+        return meter.transferred;
+    }
+
+    /**
+     * 统计已传输字节数和速度，并限制进度回调频率
+     */
+    private static final class Meter {
+        private final long total;
+        private final TransferCallback callback;
+        private long transferred;
+        private long lastReport;
+        private long windowStart;
+        private long windowBytes;
+        private long bytesPerSecond;
+
+        Meter(long offset, long total, TransferCallback callback) {
+            this.transferred = offset;
+            this.total = total;
+            this.callback = callback;
+            windowStart = System.currentTimeMillis();
+        }
+
+        void add(int bytes) {
+            transferred += bytes;
+            windowBytes += bytes;
+            long now = System.currentTimeMillis();
+            if (now - lastReport >= PROGRESS_INTERVAL_MS) {
+                report(now);
+            }
+        }
+
+        void report() {
+            report(System.currentTimeMillis());
+        }
+
+        private void report(long now) {
+            long elapsed = now - windowStart;
+            if (elapsed > 0) {
+                bytesPerSecond = windowBytes * 1000 / elapsed;
+            }
+            if (elapsed >= SPEED_WINDOW_MS) {
+                // 窗口滑动：保留后一半的统计，速度不会在重新计时后跳变
+                windowStart = now - elapsed / 2;
+                windowBytes /= 2;
+            }
+            lastReport = now;
+            callback.onProgress(transferred, total, bytesPerSecond);
+        }
+    }
+}
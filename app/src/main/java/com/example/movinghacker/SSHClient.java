@@ -1,27 +1,24 @@
 package com.example.movinghacker;
 
-import com.jcraft.jsch.Channel;
 import com.jcraft.jsch.ChannelShell;
-import com.jcraft.jsch.JSch;
-import com.jcraft.jsch.Session;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.Properties;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * SSH客户端 - 使用JSch实现
+ * 会话来自SSHSessionPool，与文件管理器连接同一主机时共用一次握手
  */
 public class SSHClient {
-    private JSch jsch;
-    private Session session;
+    private SSHSessionPool.Lease lease;
     private ChannelShell channel;
     private InputStream inputStream;
     private OutputStream outputStream;
     private Thread outputThread;
+    private OutputPump outputPump;
     private final AtomicBoolean isConnected = new AtomicBoolean(false);
     private OutputCallback callback;
     private final Object writeLock = new Object();
@@ -34,50 +31,12 @@ public class SSHClient {
 
     // Debug method removed
 
-    public SSHClient() {
-        jsch = new JSch();
-    }
-
     /**
      * 连接SSH服务器（密码认证）
      */
     public void connect(String host, int port, String username, String password, 
                        OutputCallback callback) throws Exception {
-        this.callback = callback;
-        
-        // 创建会话
-        session = jsch.getSession(username, host, port);
-        session.setPassword(password);
-        
-        // 配置会话属性
-        Properties config = new Properties();
-        config.put("StrictHostKeyChecking", "no");  // 跳过主机密钥检查
-        config.put("PreferredAuthentications", "password");
-        session.setConfig(config);
-        
-        session.setServerAliveInterval(15000);
-        session.setServerAliveCountMax(2);
-        session.connect(15000);
-        
-        // 打开shell通道
-        channel = (ChannelShell) session.openChannel("shell");
-        
-        // 设置终端类型
-        channel.setPty(true);
-        channel.setPtyType("xterm-256color");
-        channel.setPtySize(120, 40, 0, 0);
-        
-        // 获取输入输出流
-        inputStream = channel.getInputStream();
-        outputStream = channel.getOutputStream();
-        
-        // 连接通道
-        channel.connect(15000);
-        
-        isConnected.set(true);
-        
-        // 启动输出读取线程
-        startOutputThread();
+        openShell(SSHSessionPool.Credentials.password(host, port, username, password), callback);
     }
 
     /**
@@ -86,40 +45,38 @@ public class SSHClient {
     public void connectWithKey(String host, int port, String username, 
                               String privateKeyPath, String passphrase,
                               OutputCallback callback) throws Exception {
+        openShell(SSHSessionPool.Credentials.key(host, port, username, privateKeyPath, passphrase), callback);
+    }
+
+    private void openShell(SSHSessionPool.Credentials credentials, OutputCallback callback) throws Exception {
         this.callback = callback;
         
-        // 添加私钥
-        if (passphrase != null && !passphrase.isEmpty()) {
-            jsch.addIdentity(privateKeyPath, passphrase);
-        } else {
-            jsch.addIdentity(privateKeyPath);
-        }
-        
-        // 创建会话
-        session = jsch.getSession(username, host, port);
-        
-        // 配置会话属性
-        Properties config = new Properties();
-        config.put("StrictHostKeyChecking", "no");
-        config.put("PreferredAuthentications", "publickey");
-        session.setConfig(config);
-        
-        session.setServerAliveInterval(15000);
-        session.setServerAliveCountMax(2);
-        session.connect(15000);
-        
-        // 打开shell通道
-        channel = (ChannelShell) session.openChannel("shell");
-        channel.setPty(true);
-        channel.setPtyType("xterm-256color");
-        channel.setPtySize(120, 40, 0, 0);
+        // 从会话池获取会话（已有到同一主机的会话时不再握手）
+        lease = SSHSessionPool.getInstance().acquire(credentials);
+        channel = null;
         
-        // 获取输入输出流
-        inputStream = channel.getInputStream();
-        outputStream = channel.getOutputStream();
-        
-        // 连接通道
-        channel.connect(15000);
+        try {
+            // 打开shell通道
+            channel = (ChannelShell) lease.openChannel("shell");
+            
+            // 设置终端类型
+            channel.setPty(true);
+            channel.setPtyType("xterm-256color");
+            channel.setPtySize(120, 40, 0, 0);
+            
+            // 获取输入输出流
+            inputStream = channel.getInputStream();
+            outputStream = channel.getOutputStream();
+            
+            // 连接通道
+            channel.connect(15000);
+        } catch (Exception e) {
+            if (channel != null) {
+                channel.disconnect();
+            }
+            lease.release();
+            throw e;
+        }
         
         isConnected.set(true);
         
@@ -128,16 +85,15 @@ public class SSHClient {
     }
 
     private void startOutputThread() {
+        OutputPump pump = new OutputPump(inputStream, output -> {
+            if (callback != null) {
+                callback.onOutputReceived(output);
+            }
+        }, true);
+        outputPump = pump;
         outputThread = new Thread(() -> {
             try {
-                byte[] buffer = new byte[4096];
-                int len;
-                while (isConnected.get() && (len = inputStream.read(buffer)) != -1) {
-                    String output = new String(buffer, 0, len, StandardCharsets.UTF_8);
-                    if (callback != null) {
-                        callback.onOutputReceived(output);
-                    }
-                }
+                pump.run();
             } catch (IOException e) {
                 if (isConnected.get() && callback != null) {
                     callback.onError(e);
@@ -244,7 +200,7 @@ public class SSHClient {
      * 检查是否已连接
      */
     public boolean isConnected() {
-        return isConnected.get() && session != null && session.isConnected() && 
+        return isConnected.get() && lease != null && lease.isConnected() && 
                channel != null && channel.isConnected();
     }
 
@@ -254,6 +210,9 @@ public class SSHClient {
     public void disconnect() {
         boolean wasConnected = isConnected.getAndSet(false);
         
+        if (outputPump != null) {
+            outputPump.stop();
+        }
         if (outputThread != null) {
             outputThread.interrupt();
         }
@@ -271,18 +230,29 @@ public class SSHClient {
             channel.disconnect();
         }
         
-        if (session != null && session.isConnected()) {
-            session.disconnect();
+        // 会话留在池中供其他界面复用，空闲后由池关闭
+        if (lease != null) {
+            lease.release();
         }
         if (wasConnected && callback != null) callback.onDisconnected();
     }
 
+    /**
+     * 界面已显示之前收到的输出；界面跟不上时读取线程会暂停等待
+     */
+    public void onOutputConsumed() {
+        OutputPump pump = outputPump;
+        if (pump != null) {
+            pump.acknowledge();
+        }
+    }
+
     /**
      * 获取连接信息
      */
     public String getConnectionInfo() {
-        if (session != null) {
-            return session.getUserName() + "@" + session.getHost() + ":" + session.getPort();
+        if (lease != null) {
+            return lease.getConnectionInfo();
         }
         return "未连接";
     }
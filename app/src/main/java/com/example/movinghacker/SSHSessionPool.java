@@ -0,0 +1,267 @@
+package com.example.movinghacker;
+
+import android.util.Log;
+
+import com.jcraft.jsch.Channel;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 全局SSH会话池
+ * 按主机、端口、用户和认证信息共享JSch会话：终端和文件管理器连接同一台主机时只握手一次，
+ * 各自在共享会话上打开shell、exec、sftp通道。会话发送保活包，断开后在下次打开通道时自动重连；
+ * 没有使用者的会话空闲一段时间后关闭
+ */
+public class SSHSessionPool {
+
+    private static final String TAG = "SSHSessionPool";
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int KEEPALIVE_INTERVAL_MS = 15000;
+    private static final int KEEPALIVE_COUNT_MAX = 3;
+    private static final long IDLE_TIMEOUT_MS = 5 * 60 * 1000;
+
+    private static SSHSessionPool instance;
+
+    // 空闲会话的关闭检查
+    private static final ScheduledExecutorService REAPER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "SSHSessionPool-reaper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Map<Credentials, Entry> entries = new HashMap<>();
+
+    private SSHSessionPool() {
+    }
+
+    public static synchronized SSHSessionPool getInstance() {
+        if (instance == null) {
+            instance = new SSHSessionPool();
+        }
+        return instance;
+    }
+
+    /**
+     * 连接参数，同时作为会话的共享键：认证信息不同的连接不共享会话
+     */
+    public static final class Credentials {
+        final String host;
+        final int port;
+        final String username;
+        final String password;
+        final String privateKeyPath;
+        final String passphrase;
+
+        private Credentials(String host, int port, String username, String password,
+                            String privateKeyPath, String passphrase) {
+            this.host = host;
+            this.port = port;
+            this.username = username;
+            this.password = password;
+            this.privateKeyPath = privateKeyPath;
+            this.passphrase = passphrase;
+        }
+
+        public static Credentials password(String host, int port, String username, String password) {
+            return new Credentials(host, port, username, password, null, null);
+        }
+
+        public static Credentials key(String host, int port, String username,
+                                      String privateKeyPath, String passphrase) {
+            return new Credentials(host, port, username, null, privateKeyPath, passphrase);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Credentials)) return false;
+            Credentials that = (Credentials) o;
+            return port == that.port && host.equals(that.host) && username.equals(that.username)
+                    && Objects.equals(password, that.password)
+                    && Objects.equals(privateKeyPath, that.privateKeyPath)
+                    && Objects.equals(passphrase, that.passphrase);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(host, port, username, password, privateKeyPath, passphrase);
+        }
+    }
+
+    /**
+     * 使用者持有的会话租约，通过它打开通道；不再使用时调用release()
+     */
+    public final class Lease {
+        private final Entry entry;
+        private boolean released;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        /**
+         * 在共享会话上打开通道（未连接），会话已断开时先重连
+         * @param type "shell"、"exec"或"sftp"
+         */
+        public Channel openChannel(String type) throws JSchException {
+            if (released) {
+                throw new JSchException("Session lease released");
+            }
+            return entry.openChannel(type);
+        }
+
+        public boolean isConnected() {
+            return !released && entry.isConnected();
+        }
+
+        public String getConnectionInfo() {
+            Credentials c = entry.credentials;
+            return c.username + "@" + c.host + ":" + c.port;
+        }
+
+        public void release() {
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            SSHSessionPool.this.release(entry);
+        }
+    }
+
+    /**
+     * 获取到指定主机的会话，没有可用会话时建立连接；会阻塞，不要在主线程调用
+     */
+    public Lease acquire(Credentials credentials) throws JSchException {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(credentials);
+            if (entry == null) {
+                entry = new Entry(credentials);
+                entries.put(credentials, entry);
+            }
+            entry.refs++;
+        }
+        try {
+            entry.ensureConnected();
+        } catch (JSchException e) {
+            release(entry);
+            throw e;
+        }
+        return new Lease(entry);
+    }
+
+    private void release(Entry entry) {
+        synchronized (this) {
+            entry.refs--;
+            if (entry.refs > 0) {
+                return;
+            }
+            // 连接失败或已断开的会话直接移除，不等待空闲超时
+            if (!entry.isConnected()) {
+                if (entries.get(entry.credentials) == entry) {
+                    entries.remove(entry.credentials);
+                }
+                return;
+            }
+            entry.idleSince = System.currentTimeMillis();
+        }
+        REAPER.schedule(() -> closeIfIdle(entry), IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void closeIfIdle(Entry entry) {
+        synchronized (this) {
+            if (entry.refs > 0 || System.currentTimeMillis() - entry.idleSince < IDLE_TIMEOUT_MS
+                    || entries.get(entry.credentials) != entry) {
+                return;
+            }
+            entries.remove(entry.credentials);
+        }
+        entry.close();
+    }
+
+    /**
+     * 池中的一个会话
+     */
+    private static final class Entry {
+        final Credentials credentials;
+        int refs;
+        long idleSince;
+        // 读取不加锁，握手期间不阻塞池的其他操作
+        private volatile Session session;
+
+        Entry(Credentials credentials) {
+            this.credentials = credentials;
+        }
+
+        boolean isConnected() {
+            Session current = session;
+            return current != null && current.isConnected();
+        }
+
+        synchronized void ensureConnected() throws JSchException {
+            if (session == null || !session.isConnected()) {
+                session = connect();
+            }
+        }
+
+        synchronized Channel openChannel(String type) throws JSchException {
+            ensureConnected();
+            try {
+                return session.openChannel(type);
+            } catch (JSchException e) {
+                // 会话仍然连接时失败与连接无关，其他使用者还在用这个会话，不能断开
+                if (session.isConnected()) {
+                    throw e;
+                }
+                // 检查之后会话才断开：重连一次再试，替换在持有Entry锁时完成
+                Log.w(TAG, "openChannel failed on a dropped session, reconnecting", e);
+                session = connect();
+                return session.openChannel(type);
+            }
+        }
+
+        synchronized void close() {
+            if (session != null) {
+                session.disconnect();
+                session = null;
+            }
+        }
+
+        private Session connect() throws JSchException {
+            JSch jsch = new JSch();
+            if (credentials.privateKeyPath != null) {
+                if (credentials.passphrase != null && !credentials.passphrase.isEmpty()) {
+                    jsch.addIdentity(credentials.privateKeyPath, credentials.passphrase);
+                } else {
+                    jsch.addIdentity(credentials.privateKeyPath);
+                }
+            }
+            Session s = jsch.getSession(credentials.username, credentials.host, credentials.port);
+            Properties config = new Properties();
+            config.put("StrictHostKeyChecking", "no");  // 跳过主机密钥检查
+            if (credentials.privateKeyPath != null) {
+                config.put("PreferredAuthentications", "publickey");
+            } else {
+                s.setPassword(credentials.password);
+                config.put("PreferredAuthentications", "password,keyboard-interactive");
+            }
+            s.setConfig(config);
+            s.setServerAliveInterval(KEEPALIVE_INTERVAL_MS);
+            s.setServerAliveCountMax(KEEPALIVE_COUNT_MAX);
+            s.connect(CONNECT_TIMEOUT_MS);
+            Log.d(TAG, "Connected " + credentials.username + "@" + credentials.host + ":" + credentials.port);
+            return s;
+        }
+    }
+}
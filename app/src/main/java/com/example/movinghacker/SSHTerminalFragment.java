@@ -9,13 +9,14 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.view.inputmethod.EditorInfo;
 import android.widget.EditText;
-import android.widget.ScrollView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 
+import com.example.movinghacker.terminal.TerminalEmulator;
+import com.example.movinghacker.terminal.TerminalView;
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.snackbar.Snackbar;
 
@@ -26,10 +27,9 @@ import java.util.concurrent.Executors;
 public class SSHTerminalFragment extends Fragment {
     private static final String ARG_CONNECTION = "connection";
     
-    private TextView outputView;
+    private TerminalView outputView;
     private TextView statusView;
     private EditText inputView;
-    private ScrollView scrollView;
     private MaterialButton disconnectButton;
     
     // 快捷键按钮
@@ -45,8 +45,8 @@ public class SSHTerminalFragment extends Fragment {
     private volatile boolean isConnecting = false;
     private volatile boolean isConnected = false;
 
-    private final TerminalOutputBuffer outputBuffer = new TerminalOutputBuffer(80_000);
-    private boolean outputUpdateScheduled = false;
+    private final TerminalEmulator emulator = new TerminalEmulator(80, 24);
+    private volatile boolean outputUpdateScheduled = false;
     private final Runnable outputUpdateRunnable = this::flushOutputToUi;
 
     public static SSHTerminalFragment newInstance(SSHConnectionManager.SSHConnection connection) {
@@ -98,7 +98,6 @@ public class SSHTerminalFragment extends Fragment {
         outputView = view.findViewById(R.id.ssh_output);
         statusView = view.findViewById(R.id.connection_status);
         inputView = view.findViewById(R.id.ssh_input);
-        scrollView = view.findViewById(R.id.ssh_scroll);
         disconnectButton = view.findViewById(R.id.btn_disconnect);
         
         keyTab = view.findViewById(R.id.ssh_key_tab);
@@ -106,11 +105,36 @@ public class SSHTerminalFragment extends Fragment {
         keyCtrlD = view.findViewById(R.id.ssh_key_ctrl_d);
         keyClear = view.findViewById(R.id.ssh_key_clear);
         
+        setupOutputView();
+        
         // 确保输入框可以获得焦点
         inputView.setFocusable(true);
         inputView.setFocusableInTouchMode(true);
     }
 
+    private void setupOutputView() {
+        outputView.setEmulator(emulator);
+        // 远端伪终端跟随屏幕可显示的行列数
+        outputView.setOnResizeListener((columns, rows) -> {
+            SSHClient client = sshClient;
+            if (isConnected && client != null) {
+                executor.execute(() -> client.resizeTerminal(columns, rows));
+            }
+        });
+        // 应答程序的查询（光标位置等）
+        emulator.setClient(data -> {
+            SSHClient client = sshClient;
+            if (isConnected && client != null) {
+                executor.execute(() -> {
+                    try {
+                        client.sendRawInput(data);
+                    } catch (IOException ignored) {
+                    }
+                });
+            }
+        });
+    }
+
     private void setupListeners() {
         // 断开按钮
         disconnectButton.setOnClickListener(v -> {
@@ -148,7 +172,8 @@ public class SSHTerminalFragment extends Fragment {
         
         // 清屏
         keyClear.setOnClickListener(v -> {
-            outputView.setText("");
+            emulator.clear();
+            scheduleOutputUiUpdate();
             inputView.postDelayed(() -> inputView.requestFocus(), 50);
         });
     }
@@ -177,7 +202,7 @@ public class SSHTerminalFragment extends Fragment {
                     @Override
                     public void onError(Exception e) {
                         if (mainHandler != null) {
-                            appendOutput("\n错误: " + e.getMessage() + "\n");
+                            appendMessage("\n错误: " + e.getMessage() + "\n");
                             showError("SSH错误: " + e.getMessage());
                         }
                     }
@@ -190,7 +215,7 @@ public class SSHTerminalFragment extends Fragment {
                                 if (getView() == null) return;
                                 updateStatus("已断开");
                                 inputView.setEnabled(false);
-                                appendOutput("\n连接已断开\n");
+                                appendMessage("\n连接已断开\n");
                             });
                         }
                     }
@@ -202,6 +227,11 @@ public class SSHTerminalFragment extends Fragment {
                     mainHandler.post(() -> {
                         isConnecting = false;
                         updateStatus("已连接: " + sshClient.getConnectionInfo());
+                        if (outputView.getColumns() > 0) {
+                            int columns = outputView.getColumns();
+                            int rows = outputView.getRows();
+                            executor.execute(() -> sshClient.resizeTerminal(columns, rows));
+                        }
                         inputView.setEnabled(true);
                         // 延迟聚焦，确保布局完成
                         inputView.postDelayed(() -> {
@@ -223,7 +253,7 @@ public class SSHTerminalFragment extends Fragment {
                         updateStatus("连接失败");
                         inputView.setEnabled(false);
                         showError("连接失败: " + e.getMessage());
-                        appendOutput("\n连接失败: " + e.getMessage() + "\n");
+                        appendMessage("\n连接失败: " + e.getMessage() + "\n");
                         
                         // 3秒后返回
                         mainHandler.postDelayed(() -> {
@@ -300,10 +330,17 @@ public class SSHTerminalFragment extends Fragment {
     }
 
     private void appendOutput(String text) {
-        outputBuffer.append(text);
+        emulator.append(text);
         scheduleOutputUiUpdate();
     }
 
+    /**
+     * 本地生成的提示信息，换行需要同时回到行首
+     */
+    private void appendMessage(String text) {
+        appendOutput(text.replace("\n", "\r\n"));
+    }
+
     private void showError(String message) {
         if (mainHandler != null) {
             mainHandler.post(() -> {
@@ -323,11 +360,14 @@ public class SSHTerminalFragment extends Fragment {
 
     private void flushOutputToUi() {
         outputUpdateScheduled = false;
+        // 通知读取线程界面已跟上，输出过快时它会暂停等待这里
+        if (sshClient != null) {
+            sshClient.onOutputConsumed();
+        }
         if (!isAdded()) return;
         View root = getView();
         if (root == null) return;
-        outputView.setText(outputBuffer.getText());
-        scrollView.postDelayed(() -> scrollView.scrollTo(0, outputView.getBottom()), 30);
+        outputView.onScreenUpdated();
         if (inputView.isEnabled()) {
             inputView.postDelayed(() -> {
                 inputView.requestFocus();
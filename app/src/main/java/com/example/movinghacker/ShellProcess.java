@@ -1,10 +1,8 @@
 package com.example.movinghacker;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
@@ -12,7 +10,7 @@ import java.util.concurrent.TimeUnit;
 
 public class ShellProcess {
     private Process process;
-    private BufferedReader reader;
+    private OutputPump outputPump;
     private BufferedWriter writer;
     private Thread outputThread;
     private OutputCallback callback;
@@ -46,7 +44,11 @@ public class ShellProcess {
         isRunning = true;
         
         // 获取输入输出流
-        reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        outputPump = new OutputPump(process.getInputStream(), output -> {
+            if (callback != null) {
+                callback.onOutputReceived(output);
+            }
+        }, true);
         writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
         
         // 启动输出读取线程
@@ -60,14 +62,7 @@ public class ShellProcess {
     private void startOutputThread() {
         outputThread = new Thread(() -> {
             try {
-                char[] buffer = new char[1024];
-                int len;
-                while (isRunning && (len = reader.read(buffer)) != -1) {
-                    String output = new String(buffer, 0, len);
-                    if (callback != null) {
-                        callback.onOutputReceived(output);
-                    }
-                }
+                outputPump.run();
             } catch (IOException e) {
                 if (isRunning && callback != null) {
                     callback.onError(e);
@@ -98,6 +93,15 @@ public class ShellProcess {
         }
     }
 
+    /**
+     * 界面已显示之前收到的输出；界面跟不上时读取线程会暂停等待
+     */
+    public void onOutputConsumed() {
+        if (outputPump != null) {
+            outputPump.acknowledge();
+        }
+    }
+
     public String getCurrentDirectory() {
         return currentDirectory;
     }
@@ -112,6 +116,9 @@ public class ShellProcess {
 
     public void destroy() {
         isRunning = false;
+        if (outputPump != null) {
+            outputPump.stop();
+        }
         if (outputThread != null) {
             outputThread.interrupt();
         }
@@ -126,7 +133,7 @@ public class ShellProcess {
             }
         }
         try {
-            if (reader != null) reader.close();
+            if (process != null) process.getInputStream().close();
             if (writer != null) writer.close();
         } catch (IOException e) {
             e.printStackTrace();
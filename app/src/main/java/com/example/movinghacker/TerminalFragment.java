@@ -3,20 +3,19 @@ package com.example.movinghacker;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
-import android.text.method.ScrollingMovementMethod;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.inputmethod.EditorInfo;
 import android.widget.EditText;
-import android.widget.ScrollView;
-import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 
+import com.example.movinghacker.terminal.TerminalEmulator;
+import com.example.movinghacker.terminal.TerminalView;
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.snackbar.Snackbar;
 
@@ -28,9 +27,8 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class TerminalFragment extends Fragment {
-    private TextView outputView;
+    private TerminalView outputView;
     private EditText inputView;
-    private ScrollView scrollView;
     
     // 快捷键按钮
     private MaterialButton keyTab;
@@ -43,9 +41,9 @@ public class TerminalFragment extends Fragment {
     private CommandParser commandParser;
     private String homeDirectory;
 
-    private final TerminalOutputBuffer outputBuffer = new TerminalOutputBuffer(80_000);
+    private final TerminalEmulator emulator = new TerminalEmulator(80, 24);
     private Handler mainHandler;
-    private boolean outputUpdateScheduled = false;
+    private volatile boolean outputUpdateScheduled = false;
     private final Runnable outputUpdateRunnable = this::flushOutputToUi;
     private final ExecutorService executor = Executors.newSingleThreadExecutor();
     
@@ -80,7 +78,6 @@ public class TerminalFragment extends Fragment {
     private void initializeViews(View view) {
         outputView = view.findViewById(R.id.terminal_output);
         inputView = view.findViewById(R.id.command_input);
-        scrollView = view.findViewById(R.id.terminal_scroll);
         
         keyTab = view.findViewById(R.id.key_tab);
         keyCtrlC = view.findViewById(R.id.key_ctrl_c);
@@ -88,7 +85,7 @@ public class TerminalFragment extends Fragment {
         keyDown = view.findViewById(R.id.key_down);
         keyClear = view.findViewById(R.id.key_clear);
         
-        outputView.setMovementMethod(new ScrollingMovementMethod());
+        setupOutputView();
         
         // 确保输入框始终可以获得焦点
         inputView.setFocusable(true);
@@ -134,6 +131,12 @@ public class TerminalFragment extends Fragment {
         }
     }
 
+    private void setupOutputView() {
+        // 本地Shell没有伪终端，输出只有\n
+        emulator.setNewLineMode(true);
+        outputView.setEmulator(emulator);
+    }
+
     private void setupListeners() {
         // 回车键执行命令
         inputView.setOnEditorActionListener((v, actionId, event) -> {
@@ -193,7 +196,8 @@ public class TerminalFragment extends Fragment {
         
         // 清屏
         keyClear.setOnClickListener(v -> {
-            outputView.setText("");
+            emulator.clear();
+            scheduleOutputUiUpdate();
             inputView.requestFocus();
         });
     }
@@ -229,7 +233,7 @@ public class TerminalFragment extends Fragment {
 
             @Override
             public void onClear() {
-                outputBuffer.clear();
+                emulator.clear();
                 scheduleOutputUiUpdate();
             }
 
@@ -257,7 +261,7 @@ public class TerminalFragment extends Fragment {
     }
 
     private void appendOutput(String text) {
-        outputBuffer.append(text);
+        emulator.append(text);
         scheduleOutputUiUpdate();
     }
 
@@ -276,11 +280,14 @@ public class TerminalFragment extends Fragment {
 
     private void flushOutputToUi() {
         outputUpdateScheduled = false;
+        // 通知读取线程界面已跟上，输出过快时它会暂停等待这里
+        if (shellProcess != null) {
+            shellProcess.onOutputConsumed();
+        }
         if (!isAdded()) return;
         View root = getView();
         if (root == null) return;
-        outputView.setText(outputBuffer.getText());
-        scrollView.postDelayed(() -> scrollView.scrollTo(0, outputView.getBottom()), 30);
+        outputView.onScreenUpdated();
         inputView.postDelayed(() -> {
             inputView.requestFocus();
             inputView.setSelection(inputView.getText().length());
@@ -0,0 +1,569 @@
+package com.example.movinghacker;
+
+import android.util.Log;
+
+import com.jcraft.jsch.ChannelSftp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 批量文件传输队列
+ * 接受一批文件和目录，在后台遍历目录树，边遍历边把每个文件作为独立任务交给固定大小的线程池并发执行：
+ * 远程传输在同一个SSH会话上各用一个SFTP通道，通道在任务之间复用，大量小文件不再逐个等待往返；
+ * 本地复制同样在线程池中执行。失败的任务自动重试一次，之后可以手动重试，重试时从已传输的位置续传
+ */
+public class TransferQueue {
+
+    private static final String TAG = "TransferQueue";
+    // 并发传输数
+    private static final int PARALLELISM = 4;
+    private static final int MAX_AUTO_ATTEMPTS = 2;
+    private static final long NOTIFY_INTERVAL_MS = 200;
+    private static final long SPEED_SAMPLE_MS = 1000;
+    private static final long COPY_CHUNK_BYTES = 8L * 1024 * 1024;
+
+    public enum Kind { UPLOAD, DOWNLOAD, COPY }
+
+    public enum State { PENDING, RUNNING, DONE, FAILED }
+
+    public interface Listener {
+        /**
+         * 队列状态变化，在工作线程上调用，频率受限
+         */
+        void onQueueChanged(TransferQueue queue);
+    }
+
+    /**
+     * 单个文件的传输任务
+     * UPLOAD：本地source到远程target；DOWNLOAD：远程source到本地target；COPY：本地到本地
+     */
+    public static final class Task {
+        private final Kind kind;
+        private final String source;
+        private final String target;
+        private final long size;
+        private volatile State state = State.PENDING;
+        private volatile long transferred;
+        private volatile String error;
+        private volatile RemoteTransfer transfer;
+        private int attempts;
+        // 遍历目录失败，重试时重新遍历
+        private boolean scanFailed;
+
+        Task(Kind kind, String source, String target, long size) {
+            this.kind = kind;
+            this.source = source;
+            this.target = target;
+            this.size = size;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getName() {
+            return source.substring(source.lastIndexOf('/') + 1);
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public long getTransferred() {
+            return transferred;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+
+    /**
+     * 某一时刻的队列统计
+     */
+    public static final class Summary {
+        public final int totalFiles;
+        public final int completedFiles;
+        public final int failedFiles;
+        public final long totalBytes;
+        public final long transferredBytes;
+        public final long bytesPerSecond;
+        // 目录仍在遍历中，总数还会增加
+        public final boolean scanning;
+        public final List<Task> running;
+
+        Summary(int totalFiles, int completedFiles, int failedFiles, long totalBytes,
+                long transferredBytes, long bytesPerSecond, boolean scanning, List<Task> running) {
+            this.totalFiles = totalFiles;
+            this.completedFiles = completedFiles;
+            this.failedFiles = failedFiles;
+            this.totalBytes = totalBytes;
+            this.transferredBytes = transferredBytes;
+            this.bytesPerSecond = bytesPerSecond;
+            this.scanning = scanning;
+            this.running = running;
+        }
+
+        public boolean isIdle() {
+            return !scanning && completedFiles + failedFiles == totalFiles;
+        }
+    }
+
+    private final RemoteFileManager remote;
+    private final Listener listener;
+    private final ExecutorService workers;
+    private final ExecutorService scanner;
+    private final List<Task> tasks = new ArrayList<>();
+    // 空闲的SFTP通道，任务开始时取出，结束后放回
+    private final ConcurrentLinkedQueue<ChannelSftp> idleChannels = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingScans = new AtomicInteger();
+    private final AtomicInteger completedFiles = new AtomicInteger();
+    private final AtomicInteger failedFiles = new AtomicInteger();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong transferredBytes = new AtomicLong();
+    private final AtomicLong lastNotify = new AtomicLong();
+    // 取消时递增，旧批次中尚未开始的任务据此放弃执行
+    private volatile int generation;
+    private long speedSampleTime;
+    private long speedSampleBytes;
+    private long bytesPerSecond;
+    private volatile boolean closed;
+
+    /**
+     * @param remote 远程文件管理器，仅做本地复制时可以为null
+     */
+    public TransferQueue(RemoteFileManager remote, Listener listener) {
+        this.remote = remote;
+        this.listener = listener;
+        this.workers = Executors.newFixedThreadPool(PARALLELISM, r -> {
+            Thread t = new Thread(r, "TransferQueue-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        this.scanner = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "TransferQueue-scanner");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 加入一批文件或目录
+     * @param sources 源路径，UPLOAD和COPY为本地路径，DOWNLOAD为远程路径
+     * @param targetDirectory 目标目录，DOWNLOAD和COPY为本地路径，UPLOAD为远程路径
+     * @throws IllegalArgumentException 本地复制的目标目录位于某个源目录之内
+     */
+    public void enqueue(Kind kind, List<String> sources, String targetDirectory) {
+        if (kind != Kind.COPY && remote == null) {
+            throw new IllegalStateException("No remote connection for " + kind);
+        }
+        if (kind == Kind.COPY) {
+            for (String source : sources) {
+                if (isInside(targetDirectory, source)) {
+                    throw new IllegalArgumentException("Cannot copy " + source + " into itself");
+                }
+            }
+        }
+        int batch = generation;
+        pendingScans.incrementAndGet();
+        scanner.execute(() -> {
+            try {
+                for (String source : sources) {
+                    if (batch != generation || closed) {
+                        break;
+                    }
+                    scan(kind, source, child(targetDirectory, baseName(source)), batch);
+                }
+            } finally {
+                pendingScans.decrementAndGet();
+                notifyChanged(true);
+            }
+        });
+        notifyChanged(true);
+    }
+
+    /**
+     * 重新执行所有失败的任务，从已传输的位置续传
+     */
+    public void retryFailed() {
+        List<Task> failed = new ArrayList<>();
+        synchronized (tasks) {
+            for (Task task : tasks) {
+                if (task.state == State.FAILED) {
+                    failed.add(task);
+                }
+            }
+        }
+        int batch = generation;
+        for (Task task : failed) {
+            failedFiles.decrementAndGet();
+            if (task.scanFailed) {
+                synchronized (tasks) {
+                    tasks.remove(task);
+                }
+                enqueue(task.kind, Collections.singletonList(task.source), parentOf(task.target));
+                continue;
+            }
+            task.state = State.PENDING;
+            task.error = null;
+            task.attempts = 0;
+            submit(task, batch);
+        }
+        notifyChanged(true);
+    }
+
+    /**
+     * 取消所有未完成的任务，已传输的部分保留，之后可以重试续传
+     */
+    public void cancelAll() {
+        generation++;
+        synchronized (tasks) {
+            for (Task task : tasks) {
+                RemoteTransfer transfer = task.transfer;
+                if (task.state == State.RUNNING && transfer != null) {
+                    transfer.cancel();
+                }
+            }
+        }
+        notifyChanged(true);
+    }
+
+    /**
+     * 清除已完成的任务统计，队列空闲时调用
+     */
+    public void clearFinished() {
+        synchronized (tasks) {
+            List<Task> remaining = new ArrayList<>();
+            for (Task task : tasks) {
+                if (task.state != State.DONE) {
+                    remaining.add(task);
+                }
+            }
+            for (Task task : tasks) {
+                if (task.state == State.DONE) {
+                    totalBytes.addAndGet(-task.size);
+                    transferredBytes.addAndGet(-task.transferred);
+                }
+            }
+            completedFiles.set(0);
+            tasks.clear();
+            tasks.addAll(remaining);
+        }
+        notifyChanged(true);
+    }
+
+    /**
+     * 停止队列并关闭复用的通道
+     */
+    public void shutdown() {
+        closed = true;
+        cancelAll();
+        scanner.shutdownNow();
+        workers.shutdownNow();
+        ChannelSftp channel;
+        while ((channel = idleChannels.poll()) != null) {
+            channel.disconnect();
+        }
+    }
+
+    public Summary getSummary() {
+        List<Task> running = new ArrayList<>();
+        int total;
+        synchronized (tasks) {
+            total = tasks.size();
+            for (Task task : tasks) {
+                if (task.state == State.RUNNING) {
+                    running.add(task);
+                }
+            }
+        }
+        long transferred = transferredBytes.get();
+        long speed;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (now - speedSampleTime >= SPEED_SAMPLE_MS) {
+                if (speedSampleTime > 0) {
+                    bytesPerSecond = Math.max(0, (transferred - speedSampleBytes) * 1000 / (now - speedSampleTime));
+                }
+                speedSampleTime = now;
+                speedSampleBytes = transferred;
+            }
+            speed = bytesPerSecond;
+        }
+        return new Summary(total, completedFiles.get(), failedFiles.get(), totalBytes.get(),
+                transferred, speed, pendingScans.get() > 0, running);
+    }
+
+    /**
+     * 遍历源路径：文件直接成为任务，目录先在目标端创建，再继续遍历其中的内容
+     */
+    private void scan(Kind kind, String source, String target, int batch) {
+        Deque<String[]> stack = new ArrayDeque<>();
+        stack.push(new String[]{source, target});
+        boolean root = true;
+        while (!stack.isEmpty() && batch == generation && !closed) {
+            String[] pair = stack.pop();
+            try {
+                if (kind == Kind.DOWNLOAD) {
+                    scanRemote(pair[0], pair[1], root, stack, batch);
+                } else {
+                    scanLocal(kind, pair[0], pair[1], stack, batch);
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to scan " + pair[0], e);
+                Task task = addTask(kind, pair[0], pair[1], 0);
+                task.scanFailed = true;
+                fail(task, e.getMessage());
+            }
+            root = false;
+        }
+    }
+
+    private void scanLocal(Kind kind, String source, String target, Deque<String[]> stack, int batch)
+            throws Exception {
+        File file = new File(source);
+        if (!file.isDirectory()) {
+            submit(addTask(kind, source, target, file.length()), batch);
+            return;
+        }
+        // 先列出内容再创建目标目录，新建的目录不会出现在本次遍历中
+        File[] children = file.listFiles();
+        if (kind == Kind.UPLOAD) {
+            remote.makeDirectory(target);
+        } else if (!new File(target).mkdirs() && !new File(target).isDirectory()) {
+            throw new IOException("无法创建目录: " + target);
+        }
+        if (children != null) {
+            for (File child : children) {
+                stack.push(new String[]{child.getPath(), child(target, child.getName())});
+            }
+        }
+    }
+
+    private void scanRemote(String source, String target, boolean root, Deque<String[]> stack, int batch)
+            throws Exception {
+        if (root) {
+            // 只有最外层需要判断类型，目录中的条目在列目录时已经知道类型
+            RemoteFileItem item = remote.stat(source);
+            if (!item.isDirectory()) {
+                submit(addTask(Kind.DOWNLOAD, source, target, item.getSize()), batch);
+                return;
+            }
+        }
+        File directory = new File(target);
+        if (!directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("无法创建目录: " + target);
+        }
+        for (RemoteFileItem item : remote.listDirectory(source)) {
+            String childTarget = child(target, item.getName());
+            if (item.isDirectory()) {
+                // 指向目录的符号链接不进入，避免循环
+                if (item.getSymlinkTarget() == null) {
+                    stack.push(new String[]{item.getPath(), childTarget});
+                }
+            } else {
+                submit(addTask(Kind.DOWNLOAD, item.getPath(), childTarget, item.getSize()), batch);
+            }
+        }
+    }
+
+    private Task addTask(Kind kind, String source, String target, long size) {
+        Task task = new Task(kind, source, target, size);
+        synchronized (tasks) {
+            tasks.add(task);
+        }
+        totalBytes.addAndGet(size);
+        return task;
+    }
+
+    private void submit(Task task, int batch) {
+        workers.execute(() -> run(task, batch));
+    }
+
+    private void run(Task task, int batch) {
+        if (batch != generation || closed) {
+            fail(task, "传输已取消");
+            return;
+        }
+        task.state = State.RUNNING;
+        task.attempts++;
+        notifyChanged(false);
+        try {
+            if (task.kind == Kind.COPY) {
+                copyLocal(task, batch);
+            } else {
+                transferRemote(task);
+            }
+            task.state = State.DONE;
+            completedFiles.incrementAndGet();
+            notifyChanged(false);
+        } catch (Exception e) {
+            boolean cancelled = batch != generation || closed;
+            if (!cancelled && task.attempts < MAX_AUTO_ATTEMPTS) {
+                Log.w(TAG, "Retrying " + task.source, e);
+                task.state = State.PENDING;
+                submit(task, batch);
+            } else {
+                fail(task, cancelled ? "传输已取消" : e.getMessage());
+            }
+        } finally {
+            task.transfer = null;
+        }
+    }
+
+    private void fail(Task task, String error) {
+        task.error = error;
+        task.state = State.FAILED;
+        failedFiles.incrementAndGet();
+        notifyChanged(true);
+    }
+
+    private void transferRemote(Task task) throws Exception {
+        boolean upload = task.kind == Kind.UPLOAD;
+        RemoteTransfer transfer = new RemoteTransfer(upload ? task.target : task.source, upload);
+        task.transfer = transfer;
+        ChannelSftp channel = borrowChannel();
+        // 第一次执行直接覆盖，重试时从已传输的位置续传
+        boolean resume = task.attempts > 1 || task.transferred > 0;
+        try {
+            RemoteTransfer.TransferCallback progress = progressOf(task);
+            if (upload) {
+                remote.runUpload(transfer, new File(task.source), resume, progress, channel);
+            } else {
+                remote.runDownload(transfer, new File(task.target), resume, progress, channel);
+            }
+        } finally {
+            // 取消或出错时通道可能已断开，不再放回
+            if (channel != null && channel.isConnected() && !closed) {
+                idleChannels.offer(channel);
+            } else if (channel != null) {
+                channel.disconnect();
+            }
+        }
+    }
+
+    private ChannelSftp borrowChannel() {
+        ChannelSftp channel;
+        while ((channel = idleChannels.poll()) != null) {
+            if (channel.isConnected()) {
+                return channel;
+            }
+        }
+        // 不支持SFTP时返回null，由RemoteFileManager改用exec通道
+        return remote.openSftpChannel();
+    }
+
+    /**
+     * 本地复制，按块调用transferTo由内核完成数据搬运，块之间检查取消
+     */
+    private void copyLocal(Task task, int batch) throws IOException {
+        File target = new File(task.target);
+        RemoteTransfer.TransferCallback progress = progressOf(task);
+        try (FileInputStream fis = new FileInputStream(task.source);
+             FileOutputStream fos = new FileOutputStream(target);
+             FileChannel in = fis.getChannel();
+             FileChannel out = fos.getChannel()) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                if (batch != generation || closed) {
+                    throw new IOException("传输已取消");
+                }
+                position += in.transferTo(position, Math.min(COPY_CHUNK_BYTES, size - position), out);
+                progress.onProgress(position, size, 0);
+            }
+        }
+        target.setLastModified(new File(task.source).lastModified());
+    }
+
+    private RemoteTransfer.TransferCallback progressOf(Task task) {
+        return new RemoteTransfer.TransferCallback() {
+            @Override
+            public void onProgress(long transferred, long total, long bytesPerSecond) {
+                transferredBytes.addAndGet(transferred - task.transferred);
+                task.transferred = transferred;
+                notifyChanged(false);
+            }
+
+            @Override
+            public void onSuccess(long transferred) {
+            }
+
+            @Override
+            public void onError(String error) {
+            }
+        };
+    }
+
+    /**
+     * @param force 状态变化（开始遍历、失败、结束）时不受频率限制
+     */
+    private void notifyChanged(boolean force) {
+        long now = System.currentTimeMillis();
+        long last = lastNotify.get();
+        if (!force && now - last < NOTIFY_INTERVAL_MS) {
+            // 最后一个任务完成时也要通知，否则界面停在未完成状态
+            if (completedFiles.get() + failedFiles.get() != taskCount() || pendingScans.get() > 0) {
+                return;
+            }
+        }
+        lastNotify.set(now);
+        listener.onQueueChanged(this);
+    }
+
+    private int taskCount() {
+        synchronized (tasks) {
+            return tasks.size();
+        }
+    }
+
+    /**
+     * 本地目录是否就是源目录或位于源目录之内，复制到这样的目录会不断遍历新复制出的内容
+     */
+    public static boolean isInside(String directory, String source) {
+        String dir = canonicalPath(directory);
+        String src = canonicalPath(source);
+        return dir.equals(src) || dir.startsWith(src.endsWith(File.separator) ? src : src + File.separator);
+    }
+
+    private static String canonicalPath(String path) {
+        File file = new File(path);
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    private static String baseName(String path) {
+        String trimmed = path.endsWith("/") && path.length() > 1 ? path.substring(0, path.length() - 1) : path;
+        return trimmed.substring(trimmed.lastIndexOf('/') + 1);
+    }
+
+    private static String parentOf(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash <= 0 ? "/" : path.substring(0, slash);
+    }
+
+    private static String child(String directory, String name) {
+        return directory.endsWith("/") ? directory + name : directory + "/" + name;
+    }
+}
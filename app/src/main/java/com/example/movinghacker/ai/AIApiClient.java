@@ -1,19 +1,40 @@
 package com.example.movinghacker.ai;
 
+import com.example.movinghacker.HttpClientProvider;
 import com.google.gson.Gson;
-import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownServiceException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
-import okhttp3.MediaType;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+import okhttp3.Call;
+import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
 
 /**
  * AI API客户端
@@ -21,23 +42,77 @@ import okhttp3.Response;
  */
 public class AIApiClient {
 
-    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
-    private static final int TIMEOUT_SECONDS = 60;
+    // 同一请求最多尝试次数
+    private static final int MAX_ATTEMPTS = 4;
+    // 所有尝试（含退避等待）的总截止时间
+    private static final long RETRY_DEADLINE_MS = 120_000;
+    private static final long INITIAL_BACKOFF_MS = 1_000;
+    private static final long MAX_BACKOFF_MS = 16_000;
 
     private final OkHttpClient httpClient;
     private final Gson gson;
+    private final ResponseReader responseReader;
+    // 提供tools定义的注册中心，与所属AIService使用的一致
+    private final FunctionRegistry functionRegistry;
     private AIConfig config;
+    private ResponseCache responseCache;
+    // 正在进行的HTTP调用，取消时逐个cancel以立即中断阻塞中的读写
+    private final Set<Call> activeCalls = ConcurrentHashMap.newKeySet();
+    private volatile Runnable firstByteListener;
 
     public AIApiClient(AIConfig config) {
+        this(config, FunctionRegistry.getInstance());
+    }
+
+    public AIApiClient(AIConfig config, FunctionRegistry functionRegistry) {
         this.config = config;
+        this.functionRegistry = functionRegistry;
         this.gson = new Gson();
-        this.httpClient = new OkHttpClient.Builder()
-                .connectTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
-                .readTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
-                .writeTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+        this.responseReader = new ResponseReader(gson);
+        // 派生自全局客户端，复用与LLM端点之间已建立的连接；录制器未开启时直接放行
+        this.httpClient = HttpClientProvider.getInstance().aiClient().newBuilder()
+                .addInterceptor(ExchangeRecorder.getInstance())
                 .build();
     }
 
+    /**
+     * 设置响应缓存（仅在配置中开启缓存时生效）
+     */
+    public void setResponseCache(ResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * 设置首字节监听器，收到成功的响应头时回调（用于多服务商对冲时判定胜出者）
+     */
+    public void setFirstByteListener(Runnable firstByteListener) {
+        this.firstByteListener = firstByteListener;
+    }
+
+    /**
+     * 取消本客户端所有进行中的HTTP调用
+     */
+    public void cancelActiveCalls() {
+        for (Call call : activeCalls) {
+            call.cancel();
+        }
+    }
+
+    private void notifyFirstByte() {
+        Runnable listener = firstByteListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * 流式输出监听器
+     * 在读取线程上回调，每次收到新的文本片段时触发
+     */
+    public interface StreamListener {
+        void onContentDelta(String delta);
+    }
+
     /**
      * 发送聊天请求
      */
@@ -59,9 +134,62 @@ public class AIApiClient {
         generationConfig.addProperty("responseMimeType", "application/json");
         generationConfig.add("responseSchema", responseSchema);
 
-        JsonObject requestJson = buildGeminiRequest(messages, null, generationConfig);
-        String responseBody = sendRequest(requestJson);
-        return parseGeminiResponse(responseBody);
+        long buildStart = System.nanoTime();
+        JsonRequestBody requestJson = buildGeminiRequest(messages, null, generationConfig);
+        trace(AgentTrace.PHASE_BUILD, "build_request", buildStart, null);
+        String cacheKey = cacheKeyFor(requestJson);
+        AIResponse cached = lookupCache(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+        AIResponse response = sendRequest(requestJson, responseReader::readGeminiResponse);
+        recordUsage(response);
+        storeCache(cacheKey, response);
+        return response;
+    }
+
+    /**
+     * 发送流式聊天请求（SSE）
+     * 文本片段通过listener实时回调，返回值为拼装完成的完整响应
+     */
+    public AIResponse chatStream(List<ChatMessage> messages, List<FunctionDefinition> functions,
+                                 StreamListener listener) throws IOException {
+        StreamAccumulator accumulator = new StreamAccumulator(gson, listener);
+        boolean gemini = "gemini".equals(config.getProvider());
+        long buildStart = System.nanoTime();
+        JsonRequestBody requestJson = gemini
+                ? buildGeminiRequest(messages, functions, null)
+                : buildOpenAIRequest(messages, functions);
+        trace(AgentTrace.PHASE_BUILD, "build_request", buildStart, null);
+
+        // 命中缓存时一次性回调完整文本
+        String cacheKey = cacheKeyFor(requestJson);
+        AIResponse cached = lookupCache(cacheKey);
+        if (cached != null) {
+            if (listener != null && cached.hasContent()) {
+                listener.onContentDelta(cached.getContent());
+            }
+            return cached;
+        }
+
+        if (gemini) {
+            sendStreamRequest(requestJson, data ->
+                    accumulator.acceptGeminiChunk(JsonParser.parseString(data).getAsJsonObject()));
+        } else {
+            requestJson.getFields().addProperty("stream", true);
+            if ("openai".equals(config.getProvider())) {
+                // 官方接口需要显式开启才会在最后一个chunk返回Token用量
+                JsonObject streamOptions = new JsonObject();
+                streamOptions.addProperty("include_usage", true);
+                requestJson.getFields().add("stream_options", streamOptions);
+            }
+            sendStreamRequest(requestJson, data ->
+                    accumulator.acceptOpenAIChunk(JsonParser.parseString(data).getAsJsonObject()));
+        }
+        AIResponse response = accumulator.build();
+        recordUsage(response);
+        storeCache(cacheKey, response);
+        return response;
     }
 
     /**
@@ -69,9 +197,18 @@ public class AIApiClient {
      */
     private AIResponse chatOpenAI(List<ChatMessage> messages, List<FunctionDefinition> functions)
             throws IOException {
-        JsonObject requestJson = buildOpenAIRequest(messages, functions);
-        String responseBody = sendRequest(requestJson);
-        return parseOpenAIResponse(responseBody);
+        long buildStart = System.nanoTime();
+        JsonRequestBody requestJson = buildOpenAIRequest(messages, functions);
+        trace(AgentTrace.PHASE_BUILD, "build_request", buildStart, null);
+        String cacheKey = cacheKeyFor(requestJson);
+        AIResponse cached = lookupCache(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+        AIResponse response = sendRequest(requestJson, responseReader::readOpenAIResponse);
+        recordUsage(response);
+        storeCache(cacheKey, response);
+        return response;
     }
 
     /**
@@ -79,93 +216,198 @@ public class AIApiClient {
      */
     private AIResponse chatGemini(List<ChatMessage> messages, List<FunctionDefinition> functions)
             throws IOException {
-        JsonObject requestJson = buildGeminiRequest(messages, functions, null);
-        String responseBody = sendRequest(requestJson);
-        return parseGeminiResponse(responseBody);
+        long buildStart = System.nanoTime();
+        JsonRequestBody requestJson = buildGeminiRequest(messages, functions, null);
+        trace(AgentTrace.PHASE_BUILD, "build_request", buildStart, null);
+        String cacheKey = cacheKeyFor(requestJson);
+        AIResponse cached = lookupCache(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+        AIResponse response = sendRequest(requestJson, responseReader::readGeminiResponse);
+        recordUsage(response);
+        storeCache(cacheKey, response);
+        return response;
+    }
+
+    /**
+     * 是否启用响应缓存；不修改请求的采样参数，只有本身是确定性的请求才会走缓存（见ResponseCache.isCacheable）
+     */
+    private boolean cacheEnabled() {
+        return responseCache != null && config.isResponseCache();
+    }
+
+    /**
+     * 计算请求的缓存键，未开启缓存或请求不可缓存时返回null
+     */
+    private String cacheKeyFor(JsonRequestBody requestJson) {
+        if (!cacheEnabled()) {
+            return null;
+        }
+        return responseCache.keyFor(config.getProvider(), config.getApiUrl(), requestJson);
+    }
+
+    private AIResponse lookupCache(String cacheKey) {
+        if (cacheKey == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        AIResponse cached = responseCache.get(cacheKey);
+        if (cached != null) {
+            trace(AgentTrace.PHASE_CACHE, "cache_hit", start, config.getDisplayName());
+        }
+        return cached;
     }
 
     /**
-     * 构建OpenAI请求JSON
+     * 向当前线程绑定的任务记录写入一段耗时
      */
-    private JsonObject buildOpenAIRequest(List<ChatMessage> messages,
-                                          List<FunctionDefinition> functions) {
+    private void trace(String phase, String name, long startNanos, String detail) {
+        AgentTrace trace = AgentTrace.current();
+        if (trace != null) {
+            trace.record(phase, name, startNanos, detail);
+        }
+    }
+
+    private void recordUsage(AIResponse response) {
+        AgentTrace trace = AgentTrace.current();
+        if (trace != null) {
+            trace.addUsage(response);
+        }
+    }
+
+    private void storeCache(String cacheKey, AIResponse response) {
+        if (cacheKey != null) {
+            responseCache.put(cacheKey, response);
+        }
+    }
+
+    /**
+     * 构建OpenAI请求
+     * 消息列表在写出请求体时直接写入JsonWriter，不预先构建JSON树
+     */
+    JsonRequestBody buildOpenAIRequest(List<ChatMessage> messages,
+                                       List<FunctionDefinition> functions) {
         JsonObject request = new JsonObject();
         request.addProperty("model", config.getModel());
         request.addProperty("max_tokens", 4096);
         if ("siliconflow".equals(config.getProvider())) {
             request.addProperty("enable_thinking", true);
         }
+        // 添加Tool定义（新格式），由FunctionRegistry按版本缓存
+        String tools = null;
+        if (functions != null && !functions.isEmpty()) {
+            tools = functionRegistry.getOpenAIToolsJson(functions);
+            request.addProperty("tool_choice", "auto");
+        }
+
+        String requestTools = tools;
+        return new JsonRequestBody(gson, request, (writer, normalized) -> {
+            writer.name("messages");
+            writeOpenAIMessages(writer, messages, normalized);
+            if (requestTools != null) {
+                // 预先序列化的定义原样写出
+                writer.name("tools").jsonValue(requestTools);
+            }
+        }, requestTools != null);
+    }
 
-        // 添加消息
-        JsonArray messagesArray = new JsonArray();
+    /**
+     * 写出OpenAI格式的messages数组
+     * @param normalized 为计算缓存键写出时省略工具调用ID（缺失时按时间生成，相同请求的键会不同）
+     */
+    private void writeOpenAIMessages(JsonWriter writer, List<ChatMessage> messages, boolean normalized)
+            throws IOException {
+        writer.beginArray();
         for (ChatMessage message : messages) {
             if (message.isThinking() || message.isSummary()) {
                 continue;
             }
-            JsonObject msgObj = new JsonObject();
-            msgObj.addProperty("role", message.getRole());
+            writer.beginObject();
             
             if ("assistant".equals(message.getRole())
                     && message.getFunctionCalls() != null
                     && !message.getFunctionCalls().isEmpty()) {
+                writer.name("role").value(message.getRole());
                 // 使用tool_calls格式（新格式，ZenMux和现代OpenAI API）
-                msgObj.addProperty("content", "");
-                JsonArray toolCallsArray = new JsonArray();
+                writer.name("content").value("");
+                writer.name("tool_calls").beginArray();
                 for (FunctionCall call : message.getFunctionCalls()) {
-                    JsonObject toolCallObj = new JsonObject();
-                    toolCallObj.addProperty("id", call.getId() != null ? call.getId() : "call_" + System.currentTimeMillis());
-                    toolCallObj.addProperty("type", "function");
-                    JsonObject functionObj = new JsonObject();
-                    functionObj.addProperty("name", call.getName());
-                    functionObj.addProperty("arguments", call.getArguments() != null ? call.getArguments() : "{}");
-                    toolCallObj.add("function", functionObj);
-                    toolCallsArray.add(toolCallObj);
+                    writer.beginObject();
+                    if (!normalized) {
+                        writer.name("id").value(call.getId() != null ? call.getId() : "call_" + System.currentTimeMillis());
+                    }
+                    writer.name("type").value("function");
+                    writer.name("function").beginObject();
+                    writer.name("name").value(call.getName());
+                    writer.name("arguments").value(call.getArguments() != null ? call.getArguments() : "{}");
+                    writer.endObject();
+                    writer.endObject();
                 }
-                msgObj.add("tool_calls", toolCallsArray);
+                writer.endArray();
             } else if ("function".equals(message.getRole()) && message.getFunctionName() != null && !message.getFunctionName().isEmpty()) {
                 // function角色改为tool角色（新格式）
-                msgObj.addProperty("role", "tool");
-                msgObj.addProperty("content", message.getContent());
-                // 使用消息中保存的tool_call_id，如果没有则生成一个
-                String toolCallId = message.getToolCallId();
-                if (toolCallId == null || toolCallId.isEmpty()) {
-                    toolCallId = "call_" + System.currentTimeMillis();
+                writer.name("role").value("tool");
+                writer.name("content").value(message.getContent());
+                if (!normalized) {
+                    // 使用消息中保存的tool_call_id，如果没有则生成一个
+                    String toolCallId = message.getToolCallId();
+                    if (toolCallId == null || toolCallId.isEmpty()) {
+                        toolCallId = "call_" + System.currentTimeMillis();
+                    }
+                    writer.name("tool_call_id").value(toolCallId);
                 }
-                msgObj.addProperty("tool_call_id", toolCallId);
             } else {
-                msgObj.addProperty("content", message.getContent());
+                writer.name("role").value(message.getRole());
+                writer.name("content").value(message.getContent());
             }
             
-            messagesArray.add(msgObj);
+            writer.endObject();
+        }
+        writer.endArray();
+    }
+
+    /**
+     * 构建Gemini请求
+     * contents和systemInstruction在写出请求体时直接写入JsonWriter，不预先构建JSON树
+     */
+    JsonRequestBody buildGeminiRequest(List<ChatMessage> messages,
+                                       List<FunctionDefinition> functions,
+                                       JsonObject generationConfig) {
+        JsonObject request = new JsonObject();
+
+        if (generationConfig != null) {
+            request.add("generationConfig", generationConfig);
         }
-        request.add("messages", messagesArray);
 
-        // 添加Tool定义（新格式）
+        // 添加Function声明，由FunctionRegistry按版本缓存
+        String tools = null;
         if (functions != null && !functions.isEmpty()) {
-            JsonArray toolsArray = new JsonArray();
-            for (FunctionDefinition func : functions) {
-                JsonObject toolObj = new JsonObject();
-                toolObj.addProperty("type", "function");
-                toolObj.add("function", gson.toJsonTree(func));
-                toolsArray.add(toolObj);
-            }
-            request.add("tools", toolsArray);
-            request.addProperty("tool_choice", "auto");
+            tools = functionRegistry.getGeminiToolsJson(functions);
+
+            JsonObject toolConfig = new JsonObject();
+            JsonObject functionCallingConfig = new JsonObject();
+            functionCallingConfig.addProperty("mode", "AUTO");
+            toolConfig.add("functionCallingConfig", functionCallingConfig);
+            request.add("toolConfig", toolConfig);
         }
 
-        return request;
+        String requestTools = tools;
+        return new JsonRequestBody(gson, request, (writer, normalized) -> {
+            writeGeminiContents(writer, messages);
+            if (requestTools != null) {
+                // 预先序列化的定义原样写出
+                writer.name("tools").jsonValue(requestTools);
+            }
+        }, requestTools != null);
     }
 
     /**
-     * 构建Gemini请求JSON
+     * 写出Gemini格式的contents数组和systemInstruction
      */
-    private JsonObject buildGeminiRequest(List<ChatMessage> messages,
-                                          List<FunctionDefinition> functions,
-                                          JsonObject generationConfig) {
-        JsonObject request = new JsonObject();
-
+    private void writeGeminiContents(JsonWriter writer, List<ChatMessage> messages) throws IOException {
         // Gemini使用contents数组
-        JsonArray contentsArray = new JsonArray();
+        writer.name("contents").beginArray();
         String systemText = null;
         for (ChatMessage message : messages) {
             // 跳过thinking和summary消息
@@ -177,16 +419,14 @@ public class AIApiClient {
                 continue;
             }
 
-            JsonObject content = new JsonObject();
-            content.addProperty("role", convertRoleForGemini(message.getRole()));
+            writer.beginObject();
+            writer.name("role").value(convertRoleForGemini(message.getRole()));
 
-            JsonArray partsArray = new JsonArray();
+            writer.name("parts").beginArray();
             if ("assistant".equals(message.getRole())
                     && message.getFunctionCalls() != null
                     && !message.getFunctionCalls().isEmpty()) {
                 for (FunctionCall call : message.getFunctionCalls()) {
-                    JsonObject functionCall = new JsonObject();
-                    functionCall.addProperty("name", call.getName());
                     JsonObject argsObj;
                     try {
                         argsObj = gson.fromJson(call.getArguments(), JsonObject.class);
@@ -196,178 +436,410 @@ public class AIApiClient {
                     if (argsObj == null) {
                         argsObj = new JsonObject();
                     }
-                    functionCall.add("args", argsObj);
-
-                    JsonObject part = new JsonObject();
-                    part.add("functionCall", functionCall);
-                    partsArray.add(part);
+                    writer.beginObject().name("functionCall").beginObject();
+                    writer.name("name").value(call.getName());
+                    writer.name("args");
+                    gson.toJson(argsObj, writer);
+                    writer.endObject().endObject();
                 }
             } else if ("function".equals(message.getRole()) && message.getFunctionName() != null && !message.getFunctionName().isEmpty()) {
-                JsonObject functionResponse = new JsonObject();
-                functionResponse.addProperty("name", message.getFunctionName());
-                JsonObject response = new JsonObject();
-                response.addProperty("result", message.getContent() != null ? message.getContent() : "");
-                functionResponse.add("response", response);
-
-                JsonObject part = new JsonObject();
-                part.add("functionResponse", functionResponse);
-                partsArray.add(part);
-                content.addProperty("role", "user");
+                // function结果以user角色的functionResponse发送
+                writer.beginObject().name("functionResponse").beginObject();
+                writer.name("name").value(message.getFunctionName());
+                writer.name("response").beginObject()
+                        .name("result").value(message.getContent() != null ? message.getContent() : "")
+                        .endObject();
+                writer.endObject().endObject();
             } else {
-                JsonObject part = new JsonObject();
-                part.addProperty("text", message.getContent());
-                partsArray.add(part);
+                writer.beginObject().name("text").value(message.getContent()).endObject();
             }
-            content.add("parts", partsArray);
-
-            contentsArray.add(content);
+            writer.endArray();
+            writer.endObject();
         }
-        request.add("contents", contentsArray);
+        writer.endArray();
 
         if (systemText != null && !systemText.isEmpty()) {
-            JsonObject systemInstruction = new JsonObject();
-            JsonArray parts = new JsonArray();
-            JsonObject part = new JsonObject();
-            part.addProperty("text", systemText);
-            parts.add(part);
-            systemInstruction.add("parts", parts);
-            request.add("systemInstruction", systemInstruction);
+            writer.name("systemInstruction").beginObject()
+                    .name("parts").beginArray()
+                    .beginObject().name("text").value(systemText).endObject()
+                    .endArray()
+                    .endObject();
         }
+    }
 
-        if (generationConfig != null) {
-            request.add("generationConfig", generationConfig);
+    /**
+     * 转换角色名称为Gemini格式
+     */
+    private String convertRoleForGemini(String role) {
+        if ("assistant".equals(role)) {
+            return "model";
         }
+        return "user"; // system和user都映射为user
+    }
 
-        // 添加Function声明
-        if (functions != null && !functions.isEmpty()) {
-            JsonArray toolsArray = new JsonArray();
-            JsonObject toolObj = new JsonObject();
-            JsonArray functionDeclarations = new JsonArray();
+    /**
+     * 发送HTTP请求（带重试机制）
+     */
+    private AIResponse sendRequest(JsonRequestBody requestJson, ResponseParser parser) throws IOException {
+        return withRetry(config.getApiUrl(), remainingMs -> sendRequestOnce(requestJson, parser, remainingMs));
+    }
 
-            for (FunctionDefinition func : functions) {
-                JsonObject funcDecl = new JsonObject();
-                funcDecl.addProperty("name", func.getName());
-                funcDecl.addProperty("description", func.getDescription());
+    /**
+     * 发送流式HTTP请求（带重试机制）
+     * 只有在收到第一个事件之前的失败才会重试，避免重复输出
+     */
+    private void sendStreamRequest(JsonRequestBody requestJson, EventHandler handler) throws IOException {
+        withRetry(config.getStreamApiUrl(), remainingMs -> {
+            sendStreamRequestOnce(requestJson, handler, remainingMs);
+            return null;
+        });
+    }
 
-                // 构建完整的parameters JSON Schema
-                JsonObject parameters = buildParametersSchema(func.getParameters());
-                funcDecl.add("parameters", parameters);
+    /**
+     * 按失败类型重试：限流/超时/5xx/连接错误使用带抖动的指数退避（优先遵循Retry-After），
+     * 所有尝试共享一个总截止时间；端点熔断打开时直接失败
+     */
+    private <T> T withRetry(String url, RequestAttempt<T> attempt) throws IOException {
+        CircuitBreaker breaker = CircuitBreaker.forEndpoint(endpointOf(url));
+        long deadline = System.currentTimeMillis() + RETRY_DEADLINE_MS;
+
+        for (int i = 0; ; i++) {
+            if (!breaker.allowRequest()) {
+                throw new ApiException("服务暂时不可用：连续请求失败，请在"
+                        + Math.max(1, breaker.remainingOpenMs() / 1000) + "秒后重试", 0, breaker.remainingOpenMs(),
+                        false, null);
+            }
+            IOException failure;
+            try {
+                T result = attempt.run(deadline - System.currentTimeMillis());
+                breaker.recordSuccess();
+                return result;
+            } catch (IOException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                // 响应解析失败等非网络错误不影响端点健康状态
+                breaker.recordNeutral();
+                throw e;
+            }
 
-                functionDeclarations.add(funcDecl);
+            if (Thread.currentThread().isInterrupted()) {
+                breaker.recordNeutral();
+                throw new InterruptedIOException("请求已取消");
+            }
+            if (isServerFailure(failure)) {
+                breaker.recordFailure();
+            } else {
+                breaker.recordNeutral();
+            }
+            if (!isRetryable(failure) || i >= MAX_ATTEMPTS - 1) {
+                throw failure;
             }
 
-            toolObj.add("functionDeclarations", functionDeclarations);
-            toolsArray.add(toolObj);
-            request.add("tools", toolsArray);
+            long delay = backoffDelay(i, failure);
+            if (System.currentTimeMillis() + delay >= deadline) {
+                throw failure;
+            }
+            AgentTrace trace = AgentTrace.current();
+            if (trace != null) {
+                trace.addRetry();
+            }
+            long backoffStart = System.nanoTime();
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("请求已取消");
+            } finally {
+                trace(AgentTrace.PHASE_RETRY, "backoff #" + (i + 1), backoffStart, failure.getMessage());
+            }
+        }
+    }
 
-            JsonObject toolConfig = new JsonObject();
-            JsonObject functionCallingConfig = new JsonObject();
-            functionCallingConfig.addProperty("mode", "AUTO");
-            toolConfig.add("functionCallingConfig", functionCallingConfig);
-            request.add("toolConfig", toolConfig);
+    /**
+     * 失败是否值得重试
+     */
+    private boolean isRetryable(IOException e) {
+        if (e instanceof ApiException) {
+            return ((ApiException) e).isRetryable();
+        }
+        if (e instanceof SocketTimeoutException) {
+            return true;
+        }
+        if (e instanceof InterruptedIOException) {
+            // 非超时的中断表示调用被取消
+            return false;
+        }
+        if (e instanceof SSLPeerUnverifiedException || e instanceof UnknownServiceException) {
+            return false;
         }
+        // 连接被拒绝/重置、DNS失败、流意外结束等网络错误
+        return true;
+    }
 
-        return request;
+    /**
+     * 失败是否说明端点本身出了问题（计入熔断统计）
+     */
+    private boolean isServerFailure(IOException e) {
+        if (e instanceof ApiException) {
+            return ((ApiException) e).isServerFailure();
+        }
+        if (e instanceof InterruptedIOException) {
+            // 读超时和整体调用超时都说明端点响应过慢，取消则不算
+            return e instanceof SocketTimeoutException || "timeout".equals(e.getMessage());
+        }
+        return true;
     }
 
     /**
-     * 构建符合JSON Schema的parameters对象
+     * 退避时间：有Retry-After时以其为准，否则为带抖动的指数退避（区间[base/2, base]）
      */
-    private JsonObject buildParametersSchema(Map<String, Object> params) {
-        JsonObject schema = new JsonObject();
+    private long backoffDelay(int attempt, IOException failure) {
+        if (failure instanceof ApiException && ((ApiException) failure).getRetryAfterMs() >= 0) {
+            return ((ApiException) failure).getRetryAfterMs();
+        }
+        long base = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << attempt);
+        return base / 2 + ThreadLocalRandom.current().nextLong(base / 2 + 1);
+    }
 
-        if (params == null || params.isEmpty()) {
-            schema.addProperty("type", "object");
-            schema.add("properties", new JsonObject());
-            return schema;
+    private String endpointOf(String url) {
+        HttpUrl httpUrl = HttpUrl.parse(url);
+        if (httpUrl == null) {
+            return url;
         }
+        return httpUrl.scheme() + "://" + httpUrl.host() + ":" + httpUrl.port();
+    }
 
-        // 如果已经包含type字段，说明是完整的schema
-        if (params.containsKey("type")) {
-            return gson.toJsonTree(params).getAsJsonObject();
+    /**
+     * 解析Retry-After（秒数或HTTP日期）以及OpenAI的retry-after-ms，未给出时返回-1
+     */
+    private long parseRetryAfter(Response response) {
+        String retryAfterMs = response.header("retry-after-ms");
+        if (retryAfterMs != null) {
+            try {
+                return Math.max(0, (long) Double.parseDouble(retryAfterMs.trim()));
+            } catch (NumberFormatException ignored) {
+                // 继续尝试Retry-After
+            }
         }
+        String retryAfter = response.header("Retry-After");
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            Date date = response.headers().getDate("Retry-After");
+            return date != null ? Math.max(0, date.getTime() - System.currentTimeMillis()) : -1;
+        }
+    }
 
-        // 否则，构建完整的schema
-        schema.addProperty("type", "object");
+    private ApiException errorFor(Response response) throws IOException {
+        String errorBody = response.body() != null ? response.body().string() : "";
+        String errorMessage = parseErrorMessage(response.code(), errorBody);
+        return new ApiException(errorMessage, response.code(), parseRetryAfter(response));
+    }
 
-        JsonObject properties = new JsonObject();
-        JsonArray required = new JsonArray();
+    /**
+     * 执行单次HTTP请求，响应体边读边解析
+     * @param remainingMs 距离总截止时间的剩余毫秒数，作为本次调用的整体超时
+     */
+    private AIResponse sendRequestOnce(JsonRequestBody requestJson, ResponseParser parser, long remainingMs)
+            throws IOException {
+        Request request = buildHttpRequest(requestJson, config.getApiUrl());
+        Call call = httpClient.newCall(request);
+        call.timeout().timeout(Math.max(1, remainingMs), TimeUnit.MILLISECONDS);
+        activeCalls.add(call);
+
+        long networkStart = System.nanoTime();
+        try (Response response = call.execute()) {
+            trace(AgentTrace.PHASE_NETWORK, "http " + response.code(), networkStart, config.getDisplayName());
+            if (!response.isSuccessful()) {
+                throw errorFor(response);
+            }
+            notifyFirstByte();
 
-        for (Map.Entry<String, Object> entry : params.entrySet()) {
-            String key = entry.getKey();
-            Object value = entry.getValue();
+            ResponseBody body = response.body();
+            if (body == null) {
+                throw new IOException("API returned empty response");
+            }
+            long parseStart = System.nanoTime();
+            CountingSource counting = new CountingSource(body.source());
+            try (JsonReader reader = new JsonReader(new InputStreamReader(
+                    Okio.buffer(counting).inputStream(), StandardCharsets.UTF_8))) {
+                return parser.parse(reader);
+            } finally {
+                trace(AgentTrace.PHASE_PARSE, "parse_response", parseStart, null);
+                recordBytes(request, counting.bytesRead);
+            }
+        } catch (IOException e) {
+            if (isUserCancel(call, e)) {
+                throw new InterruptedIOException("请求已取消");
+            }
+            throw e;
+        } finally {
+            activeCalls.remove(call);
+        }
+    }
+
+    /**
+     * 执行单次流式HTTP请求，逐行解析SSE事件
+     * @param remainingMs 距离总截止时间的剩余毫秒数，作为整个流（含读取）的超时，
+     *                    持续缓慢发送数据的流也不会无限占用线程
+     */
+    private void sendStreamRequestOnce(JsonRequestBody requestJson, EventHandler handler, long remainingMs)
+            throws IOException {
+        Request request = buildHttpRequest(requestJson, config.getStreamApiUrl()).newBuilder()
+                .header("Accept", "text/event-stream")
+                .build();
+
+        boolean[] received = new boolean[1];
+        EventHandler trackingHandler = data -> {
+            received[0] = true;
+            handler.onEvent(data);
+        };
+
+        Call call = httpClient.newCall(request);
+        call.timeout().timeout(Math.max(1, remainingMs), TimeUnit.MILLISECONDS);
+        activeCalls.add(call);
+        long networkStart = System.nanoTime();
+        try (Response response = call.execute()) {
+            trace(AgentTrace.PHASE_NETWORK, "http " + response.code(), networkStart, config.getDisplayName());
+            if (!response.isSuccessful()) {
+                throw errorFor(response);
+            }
+            notifyFirstByte();
 
-            if ("required".equals(key) && value instanceof List) {
-                // 处理required数组
-                for (Object item : (List<?>) value) {
-                    required.add(item.toString());
+            ResponseBody body = response.body();
+            if (body == null) {
+                throw new IOException("API returned empty stream");
+            }
+            long streamStart = System.nanoTime();
+            CountingSource counting = new CountingSource(body.source());
+            EventHandler timingHandler = data -> {
+                if (!received[0]) {
+                    trace(AgentTrace.PHASE_FIRST_BYTE, "first_event", streamStart, null);
                 }
-            } else if (value instanceof Map) {
-                // 处理属性定义
-                properties.add(key, gson.toJsonTree(value));
+                trackingHandler.onEvent(data);
+            };
+            try {
+                readEvents(Okio.buffer(counting), timingHandler);
+            } catch (IOException e) {
+                if (received[0] && !(e instanceof ApiException) && !isUserCancel(call, e)) {
+                    // 已经输出了部分内容，重试会导致重复输出
+                    throw new ApiException(e.getMessage(), 0, -1, false, e);
+                }
+                throw e;
+            } finally {
+                trace(AgentTrace.PHASE_STREAM, "read_stream", streamStart, null);
+                recordBytes(request, counting.bytesRead);
             }
+        } catch (IOException e) {
+            if (isUserCancel(call, e)) {
+                throw new InterruptedIOException("请求已取消");
+            }
+            throw e;
+        } finally {
+            activeCalls.remove(call);
         }
+    }
 
-        schema.add("properties", properties);
-        if (required.size() > 0) {
-            schema.add("required", required);
-        }
+    /**
+     * 调用是否被主动取消；整体超时同样会取消调用，但异常消息为"timeout"
+     */
+    private boolean isUserCancel(Call call, IOException e) {
+        return call.isCanceled() && !"timeout".equals(e.getMessage());
+    }
 
-        return schema;
+    private void recordBytes(Request request, long responseBytes) {
+        AgentTrace trace = AgentTrace.current();
+        if (trace != null) {
+            long requestBytes = request.body() instanceof JsonRequestBody
+                    ? ((JsonRequestBody) request.body()).getBytesWritten() : 0;
+            trace.addBytes(requestBytes, responseBytes);
+        }
     }
 
     /**
-     * 转换角色名称为Gemini格式
+     * 统计读取字节数的Source
      */
-    private String convertRoleForGemini(String role) {
-        if ("assistant".equals(role)) {
-            return "model";
+    private static class CountingSource extends ForwardingSource {
+        long bytesRead;
+
+        CountingSource(Source delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+            long read = super.read(sink, byteCount);
+            if (read > 0) {
+                bytesRead += read;
+            }
+            return read;
         }
-        return "user"; // system和user都映射为user
     }
 
     /**
-     * 发送HTTP请求（带重试机制）
+     * 逐行解析SSE事件
      */
-    private String sendRequest(JsonObject requestJson) throws IOException {
-        int maxRetries = 3;
-        int retryDelay = 1000; // 初始延迟1秒
-
-        for (int attempt = 0; attempt < maxRetries; attempt++) {
-            try {
-                return sendRequestOnce(requestJson);
-            } catch (IOException e) {
-                // 检查是否是429错误
-                if (e.getMessage() != null && e.getMessage().contains("请求过于频繁")) {
-                    if (attempt < maxRetries - 1) {
-                        // 指数退避：等待后重试
-                        try {
-                            Thread.sleep(retryDelay);
-                            retryDelay *= 2; // 下次等待时间翻倍
-                        } catch (InterruptedException ie) {
-                            Thread.currentThread().interrupt();
-                            throw e;
-                        }
-                        continue;
-                    }
+    private void readEvents(BufferedSource source, EventHandler handler) throws IOException {
+        StringBuilder data = new StringBuilder();
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            if (line.isEmpty()) {
+                // 空行表示一个事件结束
+                if (dispatchEvent(data, handler)) {
+                    return;
                 }
-                // 其他错误或最后一次重试失败，直接抛出
-                throw e;
+                continue;
+            }
+            if (line.startsWith(":")) {
+                continue; // SSE注释/心跳
+            }
+            if (line.startsWith("data:")) {
+                String value = line.substring(5);
+                if (value.startsWith(" ")) {
+                    value = value.substring(1);
+                }
+                if (data.length() > 0) {
+                    data.append('\n');
+                }
+                data.append(value);
             }
         }
+        dispatchEvent(data, handler);
+    }
 
-        throw new IOException("请求失败：已达到最大重试次数");
+    /**
+     * 分发一个SSE事件
+     * @return 是否收到了结束标记[DONE]
+     */
+    private boolean dispatchEvent(StringBuilder data, EventHandler handler) throws IOException {
+        if (data.length() == 0) {
+            return false;
+        }
+        String payload = data.toString();
+        data.setLength(0);
+        if ("[DONE]".equals(payload.trim())) {
+            return true;
+        }
+        try {
+            handler.onEvent(payload);
+        } catch (RuntimeException e) {
+            throw new IOException("Failed to parse stream event: " + e.getMessage() + "\nEvent: " + payload, e);
+        }
+        return false;
     }
 
     /**
-     * 执行单次HTTP请求
+     * 构建带认证信息的HTTP请求
      */
-    private String sendRequestOnce(JsonObject requestJson) throws IOException {
-        String jsonString = gson.toJson(requestJson);
-        RequestBody body = RequestBody.create(jsonString, JSON);
+    private Request buildHttpRequest(JsonRequestBody requestJson, String url) {
+        // 请求体直接流式写入连接，不生成完整的JSON字符串
+        RequestBody body = requestJson;
 
         Request.Builder requestBuilder = new Request.Builder()
-                .url(config.getApiUrl())
+                .url(url)
                 .addHeader("Content-Type", "application/json")
                 .post(body);
 
@@ -383,17 +855,19 @@ public class AIApiClient {
             requestBuilder.addHeader("Authorization", "Bearer " + config.getApiKey());
         }
 
-        Request request = requestBuilder.build();
+        return requestBuilder.build();
+    }
 
-        try (Response response = httpClient.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                String errorBody = response.body() != null ? response.body().string() : "";
-                String errorMessage = parseErrorMessage(response.code(), errorBody);
-                throw new IOException(errorMessage);
-            }
+    private interface RequestAttempt<T> {
+        T run(long remainingMs) throws IOException;
+    }
 
-            return response.body().string();
-        }
+    private interface EventHandler {
+        void onEvent(String data);
+    }
+
+    private interface ResponseParser {
+        AIResponse parse(JsonReader reader) throws IOException;
     }
 
     /**
@@ -430,162 +904,6 @@ public class AIApiClient {
         }
     }
 
-    /**
-     * 解析OpenAI响应
-     */
-    private AIResponse parseOpenAIResponse(String responseBody) {
-        try {
-            JsonObject json = gson.fromJson(responseBody, JsonObject.class);
-            if (json == null) {
-                throw new RuntimeException("API returned null response");
-            }
-            
-            if (!json.has("choices") || json.get("choices").isJsonNull()) {
-                throw new RuntimeException("No choices in API response");
-            }
-            
-            JsonArray choices = json.getAsJsonArray("choices");
-            if (choices == null || choices.size() == 0) {
-                throw new RuntimeException("Empty choices array in API response");
-            }
-
-            JsonObject choice = choices.get(0).getAsJsonObject();
-            if (choice == null || !choice.has("message")) {
-                throw new RuntimeException("Invalid choice format in API response");
-            }
-            
-            JsonObject message = choice.getAsJsonObject("message");
-            if (message == null) {
-                throw new RuntimeException("Message is null in API response");
-            }
-            
-            String finishReason = choice.has("finish_reason") && !choice.get("finish_reason").isJsonNull() 
-                ? choice.get("finish_reason").getAsString() 
-                : "stop";
-
-            AIResponse aiResponse = new AIResponse();
-            aiResponse.setFinishReason(finishReason);
-
-            // 检查是否有tool_calls（新格式，ZenMux和现代OpenAI API）
-            if (message.has("tool_calls") && !message.get("tool_calls").isJsonNull()) {
-                JsonArray toolCalls = message.getAsJsonArray("tool_calls");
-                for (int i = 0; i < toolCalls.size(); i++) {
-                    JsonObject toolCall = toolCalls.get(i).getAsJsonObject();
-                    if (toolCall.has("type") && "function".equals(toolCall.get("type").getAsString())) {
-                        String id = toolCall.has("id") ? toolCall.get("id").getAsString() : null;
-                        JsonObject function = toolCall.getAsJsonObject("function");
-                        String functionName = function.get("name").getAsString();
-                        String arguments = function.get("arguments").getAsString();
-                        
-                        FunctionCall call = new FunctionCall(id, functionName, arguments);
-                        aiResponse.addFunctionCall(call);
-                    }
-                }
-            }
-            // 兼容旧格式function_call
-            else if (message.has("function_call") && !message.get("function_call").isJsonNull()) {
-                JsonObject functionCall = message.getAsJsonObject("function_call");
-                String functionName = functionCall.get("name").getAsString();
-                String arguments = functionCall.get("arguments").getAsString();
-
-                FunctionCall call = new FunctionCall(null, functionName, arguments);
-                aiResponse.addFunctionCall(call);
-            }
-            
-            // 获取文本内容
-            if (message.has("content") && !message.get("content").isJsonNull()) {
-                String content = message.get("content").getAsString();
-                if (content != null && !content.isEmpty()) {
-                    aiResponse.setContent(content);
-                }
-            }
-
-            return aiResponse;
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to parse OpenAI response: " + e.getMessage() + "\nResponse: " + responseBody, e);
-        }
-    }
-
-    /**
-     * 解析Gemini响应
-     */
-    private AIResponse parseGeminiResponse(String responseBody) {
-        try {
-            JsonObject json = gson.fromJson(responseBody, JsonObject.class);
-            if (json == null) {
-                throw new RuntimeException("API returned null response");
-            }
-            
-            if (!json.has("candidates") || json.get("candidates").isJsonNull()) {
-                throw new RuntimeException("No candidates in API response");
-            }
-            
-            JsonArray candidates = json.getAsJsonArray("candidates");
-            if (candidates == null || candidates.size() == 0) {
-                throw new RuntimeException("Empty candidates array in API response");
-            }
-
-            JsonObject candidate = candidates.get(0).getAsJsonObject();
-            if (candidate == null || !candidate.has("content")) {
-                throw new RuntimeException("Invalid candidate format in API response");
-            }
-            
-            JsonObject content = candidate.getAsJsonObject("content");
-            if (content == null || !content.has("parts")) {
-                throw new RuntimeException("Content or parts is null in API response");
-            }
-            
-            JsonArray parts = content.getAsJsonArray("parts");
-            if (parts == null) {
-                throw new RuntimeException("Parts array is null in API response");
-            }
-
-            AIResponse aiResponse = new AIResponse();
-
-            // 获取finishReason
-            if (candidate.has("finishReason") && !candidate.get("finishReason").isJsonNull()) {
-                aiResponse.setFinishReason(candidate.get("finishReason").getAsString());
-            }
-
-            StringBuilder contentBuilder = new StringBuilder();
-            for (int i = 0; i < parts.size(); i++) {
-                JsonObject part = parts.get(i).getAsJsonObject();
-                if (part == null) {
-                    continue;
-                }
-
-                // 检查是否有Function调用
-                if (part.has("functionCall") && !part.get("functionCall").isJsonNull()) {
-                    JsonObject functionCall = part.getAsJsonObject("functionCall");
-                    if (functionCall != null && functionCall.has("name")) {
-                        String functionName = functionCall.get("name").getAsString();
-                        JsonObject args = functionCall.has("args") ? functionCall.getAsJsonObject("args") : new JsonObject();
-                        String arguments = gson.toJson(args);
-
-                        FunctionCall call = new FunctionCall(null, functionName, arguments);
-                        aiResponse.addFunctionCall(call);
-                    }
-                } else if (part.has("text") && !part.get("text").isJsonNull()) {
-                    String text = part.get("text").getAsString();
-                    if (text != null && !text.isEmpty()) {
-                        if (contentBuilder.length() > 0) {
-                            contentBuilder.append("\n");
-                        }
-                        contentBuilder.append(text);
-                    }
-                }
-            }
-
-            if (contentBuilder.length() > 0) {
-                aiResponse.setContent(contentBuilder.toString());
-            }
-
-            return aiResponse;
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to parse Gemini response: " + e.getMessage() + "\nResponse: " + responseBody, e);
-        }
-    }
-
     /**
      * 更新配置
      */
@@ -1,20 +1,42 @@
 package com.example.movinghacker.ai;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * AI配置数据模型
  */
 public class AIConfig {
+    // 多服务商路由模式
+    public static final String ROUTING_SINGLE = "single";     // 只使用主服务商
+    public static final String ROUTING_FAILOVER = "failover"; // 主服务商失败时按顺序切换到备用服务商
+    public static final String ROUTING_HEDGE = "hedge";       // 主服务商超过阈值未响应时并行请求下一个，先响应者胜出
+
+    public static final long DEFAULT_HEDGE_DELAY_MS = 3_000;
+
     private String provider;    // "openai", "gemini", "siliconflow", "custom"
     private String apiKey;
     private String baseUrl;
     private String model;
     private boolean hackingMode; // true=Hacking模式, false=Chat模式
+    private boolean streaming;   // 是否使用流式(SSE)输出
+    private int contextTokenBudget; // 上下文Token预算，0表示按模型自动选择
+    private boolean responseCache;  // 是否缓存相同请求的响应（默认关闭）
+    private String routingMode = ROUTING_SINGLE;
+    private long hedgeDelayMs = DEFAULT_HEDGE_DELAY_MS;
+    private List<AIConfig> fallbackConfigs = new ArrayList<>(); // 按优先级排列的备用服务商
+
+    // 自动预算的上限，避免长对话把超大上下文窗口全部用满（延迟和费用都随输入长度增长）
+    private static final int MAX_AUTO_CONTEXT_BUDGET = 32_000;
+    // 为模型输出预留的Token
+    private static final int OUTPUT_RESERVE_TOKENS = 4_096;
 
     public AIConfig() {
         this.provider = "openai";
         this.baseUrl = "https://api.openai.com/v1";
         this.model = "gpt-4";
         this.hackingMode = true;
+        this.streaming = true;
     }
 
     public AIConfig(String provider, String apiKey, String baseUrl, String model) {
@@ -23,6 +45,7 @@ public class AIConfig {
         this.baseUrl = baseUrl;
         this.model = model;
         this.hackingMode = true;
+        this.streaming = true;
         
         // 根据provider设置默认值
         if ("gemini".equals(provider) && (baseUrl == null || baseUrl.isEmpty())) {
@@ -64,6 +87,67 @@ public class AIConfig {
         }
     }
 
+    /**
+     * 流式输出地址（OpenAI格式使用同一地址，请求体中带stream=true）
+     */
+    public String getStreamApiUrl() {
+        if ("gemini".equals(provider)) {
+            return baseUrl + "/models/" + model + ":streamGenerateContent?alt=sse";
+        } else {
+            return baseUrl + "/chat/completions";
+        }
+    }
+
+    /**
+     * 获取发送请求时上下文允许占用的Token数
+     * 未手动配置时根据模型的上下文窗口估算
+     */
+    public int getEffectiveContextBudget() {
+        if (contextTokenBudget > 0) {
+            return contextTokenBudget;
+        }
+        int window = getModelContextWindow();
+        return Math.min(MAX_AUTO_CONTEXT_BUDGET, window - Math.min(OUTPUT_RESERVE_TOKENS, window / 4));
+    }
+
+    /**
+     * 常见模型的上下文窗口大小（Token）
+     */
+    private int getModelContextWindow() {
+        String name = model != null ? model.toLowerCase() : "";
+        if (name.startsWith("gpt-4o") || name.startsWith("gpt-4.1") || name.startsWith("gpt-4-turbo")
+                || name.startsWith("gpt-5") || name.startsWith("o1") || name.startsWith("o3")
+                || name.startsWith("o4")) {
+            return 128_000;
+        }
+        if (name.startsWith("gpt-4-32k")) {
+            return 32_768;
+        }
+        if (name.startsWith("gpt-4")) {
+            return 8_192;
+        }
+        if (name.startsWith("gpt-3.5")) {
+            return 16_385;
+        }
+        if (name.startsWith("gemini-pro") || name.startsWith("gemini-1.0")) {
+            return 30_720;
+        }
+        if (name.startsWith("gemini")) {
+            return 1_000_000;
+        }
+        if (name.contains("deepseek")) {
+            return 64_000;
+        }
+        return 32_768;
+    }
+
+    /**
+     * 用于列表显示的名称
+     */
+    public String getDisplayName() {
+        return provider + " / " + model;
+    }
+
     // Getters and Setters
     public String getProvider() {
         return provider;
@@ -104,4 +188,52 @@ public class AIConfig {
     public void setHackingMode(boolean hackingMode) {
         this.hackingMode = hackingMode;
     }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public int getContextTokenBudget() {
+        return contextTokenBudget;
+    }
+
+    public void setContextTokenBudget(int contextTokenBudget) {
+        this.contextTokenBudget = Math.max(0, contextTokenBudget);
+    }
+
+    public boolean isResponseCache() {
+        return responseCache;
+    }
+
+    public void setResponseCache(boolean responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    public String getRoutingMode() {
+        return routingMode;
+    }
+
+    public void setRoutingMode(String routingMode) {
+        this.routingMode = routingMode != null ? routingMode : ROUTING_SINGLE;
+    }
+
+    public long getHedgeDelayMs() {
+        return hedgeDelayMs;
+    }
+
+    public void setHedgeDelayMs(long hedgeDelayMs) {
+        this.hedgeDelayMs = hedgeDelayMs > 0 ? hedgeDelayMs : DEFAULT_HEDGE_DELAY_MS;
+    }
+
+    public List<AIConfig> getFallbackConfigs() {
+        return fallbackConfigs;
+    }
+
+    public void setFallbackConfigs(List<AIConfig> fallbackConfigs) {
+        this.fallbackConfigs = fallbackConfigs != null ? fallbackConfigs : new ArrayList<>();
+    }
 }
@@ -5,7 +5,13 @@ import android.content.SharedPreferences;
 import android.util.Base64;
 import android.util.Log;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * AI配置管理器
@@ -19,6 +25,12 @@ public class AIConfigManager {
     private static final String KEY_BASE_URL = "base_url";
     private static final String KEY_MODEL = "model";
     private static final String KEY_HACKING_MODE = "hacking_mode";
+    private static final String KEY_STREAMING = "streaming";
+    private static final String KEY_CONTEXT_BUDGET = "context_budget";
+    private static final String KEY_RESPONSE_CACHE = "response_cache";
+    private static final String KEY_ROUTING_MODE = "routing_mode";
+    private static final String KEY_HEDGE_DELAY = "hedge_delay_ms";
+    private static final String KEY_FALLBACKS = "fallback_providers";
     
     // 简单的XOR加密密钥（实际应用中应使用Android Keystore）
     private static final String ENCRYPTION_KEY = "MovingHacker2024";
@@ -58,6 +70,12 @@ public class AIConfigManager {
                     .putString(KEY_BASE_URL, config.getBaseUrl())
                     .putString(KEY_MODEL, config.getModel())
                     .putBoolean(KEY_HACKING_MODE, config.isHackingMode())
+                    .putBoolean(KEY_STREAMING, config.isStreaming())
+                    .putInt(KEY_CONTEXT_BUDGET, config.getContextTokenBudget())
+                    .putBoolean(KEY_RESPONSE_CACHE, config.isResponseCache())
+                    .putString(KEY_ROUTING_MODE, config.getRoutingMode())
+                    .putLong(KEY_HEDGE_DELAY, config.getHedgeDelayMs())
+                    .putString(KEY_FALLBACKS, encodeFallbacks(config.getFallbackConfigs()))
                     .apply();
 
             Log.d(TAG, "Config saved successfully");
@@ -77,6 +95,12 @@ public class AIConfigManager {
             String baseUrl = prefs.getString(KEY_BASE_URL, getDefaultBaseUrl(provider));
             String model = prefs.getString(KEY_MODEL, getDefaultModel(provider));
             boolean hackingMode = prefs.getBoolean(KEY_HACKING_MODE, true);
+            boolean streaming = prefs.getBoolean(KEY_STREAMING, true);
+            int contextBudget = prefs.getInt(KEY_CONTEXT_BUDGET, 0);
+            boolean responseCache = prefs.getBoolean(KEY_RESPONSE_CACHE, false);
+            String routingMode = prefs.getString(KEY_ROUTING_MODE, AIConfig.ROUTING_SINGLE);
+            long hedgeDelay = prefs.getLong(KEY_HEDGE_DELAY, 0);
+            String fallbacks = prefs.getString(KEY_FALLBACKS, "");
 
             // 解密API Key
             String apiKey = decrypt(encryptedKey);
@@ -87,6 +111,12 @@ public class AIConfigManager {
             config.setBaseUrl(baseUrl);
             config.setModel(model);
             config.setHackingMode(hackingMode);
+            config.setStreaming(streaming);
+            config.setContextTokenBudget(contextBudget);
+            config.setResponseCache(responseCache);
+            config.setRoutingMode(routingMode);
+            config.setHedgeDelayMs(hedgeDelay);
+            config.setFallbackConfigs(decodeFallbacks(fallbacks));
 
             return config;
         } catch (Exception e) {
@@ -95,6 +125,42 @@ public class AIConfigManager {
         }
     }
 
+    /**
+     * 备用服务商序列化为JSON数组，API Key同样加密保存
+     */
+    private String encodeFallbacks(List<AIConfig> fallbacks) throws JSONException {
+        JSONArray array = new JSONArray();
+        for (AIConfig fallback : fallbacks) {
+            JSONObject obj = new JSONObject();
+            obj.put(KEY_PROVIDER, fallback.getProvider());
+            obj.put(KEY_API_KEY, encrypt(fallback.getApiKey()));
+            obj.put(KEY_BASE_URL, fallback.getBaseUrl());
+            obj.put(KEY_MODEL, fallback.getModel());
+            array.put(obj);
+        }
+        return array.toString();
+    }
+
+    private List<AIConfig> decodeFallbacks(String json) {
+        List<AIConfig> fallbacks = new ArrayList<>();
+        if (json == null || json.isEmpty()) {
+            return fallbacks;
+        }
+        try {
+            JSONArray array = new JSONArray(json);
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject obj = array.getJSONObject(i);
+                String provider = obj.optString(KEY_PROVIDER, "openai");
+                fallbacks.add(new AIConfig(provider, decrypt(obj.optString(KEY_API_KEY, "")),
+                        obj.optString(KEY_BASE_URL, getDefaultBaseUrl(provider)),
+                        obj.optString(KEY_MODEL, getDefaultModel(provider))));
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Error loading fallback providers", e);
+        }
+        return fallbacks;
+    }
+
     /**
      * 获取AI配置（loadConfig的别名）
      * @return AI配置
@@ -139,6 +205,7 @@ public class AIConfigManager {
         config.setModel("gemini-2.5-flash");
         config.setApiKey("");
         config.setHackingMode(true);
+        config.setStreaming(true);
         return config;
     }
 
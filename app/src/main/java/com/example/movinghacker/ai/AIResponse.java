@@ -10,6 +10,9 @@ public class AIResponse {
     private String content;
     private List<FunctionCall> functionCalls;
     private String finishReason;  // "stop", "tool_calls", "length", "content_filter"
+    // 服务商返回的Token用量（usage / usageMetadata），未返回时为0
+    private int promptTokens;
+    private int completionTokens;
 
     public AIResponse() {
         this.functionCalls = new ArrayList<>();
@@ -65,6 +68,19 @@ public class AIResponse {
         this.finishReason = finishReason;
     }
 
+    public int getPromptTokens() {
+        return promptTokens;
+    }
+
+    public int getCompletionTokens() {
+        return completionTokens;
+    }
+
+    public void setUsage(int promptTokens, int completionTokens) {
+        this.promptTokens = promptTokens;
+        this.completionTokens = completionTokens;
+    }
+
     @Override
     public String toString() {
         return "AIResponse{" +
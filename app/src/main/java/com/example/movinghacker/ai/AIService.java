@@ -1,6 +1,7 @@
 package com.example.movinghacker.ai;
 
 import android.content.Context;
+import android.util.Log;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
@@ -11,67 +12,187 @@ import org.json.JSONObject;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * AI服务层
  * 处理AI对话和Function调用的业务逻辑
  */
 public class AIService {
+
+    private static final String TAG = "AIService";
     
+    // 单个Function调用的超时时间
+    private static final long FUNCTION_TIMEOUT_MS = 120_000;
+
+    // 对话任务执行器：线程常驻复用，同时运行的任务和排队数量有上限
+    private static final int AGENT_THREADS = 2;
+    private static final int AGENT_QUEUE_CAPACITY = 4;
+    private static final ThreadPoolExecutor AGENT_EXECUTOR = createAgentExecutor();
+
     private final Context context;
     private final AIConfigManager configManager;
+    // 不经过AIConfigManager时使用的固定配置（离线回放测试）
+    private AIConfig fixedConfig;
     private final FunctionRegistry functionRegistry;
+    private final FunctionExecutor functionExecutor;
     private AIApiClient apiClient;
+    // 备用服务商客户端（按优先级排列）
+    private List<AIApiClient> fallbackClients = new ArrayList<>();
+    private final ProviderRouter providerRouter = new ProviderRouter();
 
+    // 总结失败后的退避：服务商持续失败时沿用已有总结，不在每一轮都重新发起总结请求
+    private static final long SUMMARY_BACKOFF_INITIAL_MS = 30_000;
+    private static final long SUMMARY_BACKOFF_MAX_MS = 10 * 60_000;
+    private final Object summaryLock = new Object();
+    private int summaryFailures;
+    private long summaryRetryAt;
+
+    /**
+     * 停止标记
+     * 除了供各轮次之间轮询，还会在stop()时立即执行已注册的取消动作（取消网络请求、终止进程等）
+     */
     public static class StopToken {
         private volatile boolean stopped;
+        private final List<Runnable> cancelActions = new CopyOnWriteArrayList<>();
 
         public void stop() {
             this.stopped = true;
+            for (Runnable action : cancelActions) {
+                runCancelAction(action);
+            }
         }
 
         public boolean isStopped() {
             return stopped;
         }
+
+        /**
+         * 注册取消动作，已停止时立即执行（动作需可重复执行）
+         */
+        public void addCancelAction(Runnable action) {
+            cancelActions.add(action);
+            if (stopped) {
+                runCancelAction(action);
+            }
+        }
+
+        public void removeCancelAction(Runnable action) {
+            cancelActions.remove(action);
+        }
+
+        private static void runCancelAction(Runnable action) {
+            try {
+                action.run();
+            } catch (Exception e) {
+                Log.w(TAG, "Cancel action failed", e);
+            }
+        }
+    }
+
+    private static ThreadPoolExecutor createAgentExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(AGENT_THREADS, AGENT_THREADS,
+                60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(AGENT_QUEUE_CAPACITY), r -> {
+                    Thread thread = new Thread(r, "ai-agent");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     public AIService(Context context) {
         this.context = context;
         this.configManager = AIConfigManager.getInstance(context);
         this.functionRegistry = FunctionRegistry.getInstance(context);
+        this.functionExecutor = new FunctionExecutor(functionRegistry);
         
         AIConfig config = configManager.getConfig();
         if (config != null) {
-            this.apiClient = new AIApiClient(config);
+            this.apiClient = createApiClient(config);
+            this.fallbackClients = createFallbackClients(config);
         }
     }
 
+    /**
+     * 使用固定配置和指定的Function注册中心创建服务，不读写SharedPreferences、不启用响应缓存
+     * 供宿主机上的离线回放测试使用
+     */
+    AIService(AIConfig config, FunctionRegistry functionRegistry) {
+        this.context = null;
+        this.configManager = null;
+        this.fixedConfig = config;
+        this.functionRegistry = functionRegistry;
+        this.functionExecutor = new FunctionExecutor(functionRegistry);
+        this.apiClient = createApiClient(config);
+        this.fallbackClients = createFallbackClients(config);
+    }
+
+    private AIConfig currentConfig() {
+        return configManager != null ? configManager.getConfig() : fixedConfig;
+    }
+
     /**
      * 发送消息并处理AI响应
      * @param messages 消息历史
      * @return AI响应
      */
     public AIResponse chat(List<ChatMessage> messages) throws IOException {
-        return chat(messages, null, true);
+        return chat(messages, null, true, null, null);
     }
 
-    private AIResponse chat(List<ChatMessage> messages, List<ChatMessage> extraMessages, boolean enableFunctions) throws IOException {
+    private AIResponse chat(List<ChatMessage> messages, List<ChatMessage> extraMessages, boolean enableFunctions,
+                            AIApiClient.StreamListener streamListener, ChatCallback summaryCallback) throws IOException {
         ensureApiClient();
         
-        // 添加系统提示词
-        AIConfig config = configManager.getConfig();
-        String systemPrompt = SystemPrompt.getSystemPrompt(config.isHackingMode());
-
-        String memorySummary = extractLatestSummary(messages);
-        List<ChatMessage> messagesWithSystem = new ArrayList<>();
-        messagesWithSystem.add(new ChatMessage("system", systemPrompt));
-        if (memorySummary != null && !memorySummary.trim().isEmpty()) {
-            messagesWithSystem.add(new ChatMessage("system", "Conversation memory:\n" + memorySummary.trim()));
+        AIConfig config = currentConfig();
+        ContextWindowManager windowManager = new ContextWindowManager(config.getEffectiveContextBudget());
+
+        // 按Token预算组装上下文，超出预算的早期轮次滚动合并进总结
+        AgentTrace trace = AgentTrace.current();
+        long contextStart = System.nanoTime();
+        List<ChatMessage> history = snapshot(messages);
+        List<ChatMessage> systemMessages = buildSystemMessages(config, history);
+        ContextWindowManager.Window window = windowManager.build(systemMessages, history, extraMessages);
+        if (trace != null) {
+            trace.record(AgentTrace.PHASE_CONTEXT, "build_context", contextStart,
+                    "≈" + window.estimatedTokens + " tokens");
         }
-        messagesWithSystem.addAll(filterConversationMessages(messages));
-        if (extraMessages != null && !extraMessages.isEmpty()) {
-            messagesWithSystem.addAll(filterConversationMessages(extraMessages));
+        if (!window.rolledOut.isEmpty() && summaryCallback != null) {
+            long summaryStart = System.nanoTime();
+            ChatMessage summaryMessage = null;
+            long retryInMs = summaryRetryDelay();
+            if (retryInMs > 0) {
+                // 上次总结失败，退避期内只按预算截断
+                if (trace != null) {
+                    trace.record(AgentTrace.PHASE_CONTEXT, "roll_summary", summaryStart,
+                            "skipped, retry in " + (retryInMs / 1000) + "s");
+                }
+            } else {
+                summaryMessage = rollIntoSummary(extractLatestSummary(history), window.rolledOut,
+                        config.getEffectiveContextBudget() / 2);
+                recordSummaryResult(summaryMessage != null);
+                if (trace != null) {
+                    trace.record(AgentTrace.PHASE_CONTEXT, "roll_summary", summaryStart,
+                            window.rolledOut.size() + " messages" + (summaryMessage == null ? ", failed" : ""));
+                }
+            }
+            if (summaryMessage != null) {
+                append(messages, summaryMessage);
+                summaryCallback.onContextSummary(summaryMessage.getContent());
+                history = snapshot(messages);
+                systemMessages = buildSystemMessages(config, history);
+                window = windowManager.build(systemMessages, history, extraMessages);
+            }
         }
+
+        List<ChatMessage> messagesWithSystem = new ArrayList<>(systemMessages);
+        messagesWithSystem.addAll(window.messages);
         
         // 获取Function定义（仅Hacking模式）
         List<FunctionDefinition> functions = null;
@@ -79,8 +200,54 @@ public class AIService {
             functions = functionRegistry.getAllDefinitions();
         }
         
-        // 调用AI API
-        return apiClient.chat(messagesWithSystem, functions);
+        // 调用AI API（开启流式输出时边接收边回调文本片段），按路由模式在多个服务商间故障转移或对冲
+        boolean stream = streamListener != null && config.isStreaming();
+        List<FunctionDefinition> requestFunctions = functions;
+        List<AIApiClient> clients = new ArrayList<>();
+        clients.add(apiClient);
+        clients.addAll(fallbackClients);
+        long llmStart = System.nanoTime();
+        try {
+            return providerRouter.route(config.getRoutingMode(), config.getHedgeDelayMs(), clients,
+                    stream ? streamListener : null,
+                    (client, listener) -> stream
+                            ? client.chatStream(messagesWithSystem, requestFunctions, listener)
+                            : client.chat(messagesWithSystem, requestFunctions));
+        } finally {
+            if (trace != null) {
+                trace.record(AgentTrace.PHASE_LLM, stream ? "chat_stream" : "chat", llmStart,
+                        config.getRoutingMode());
+            }
+        }
+    }
+
+    /**
+     * 系统提示词和对话记忆
+     */
+    private List<ChatMessage> buildSystemMessages(AIConfig config, List<ChatMessage> history) {
+        List<ChatMessage> systemMessages = new ArrayList<>();
+        systemMessages.add(new ChatMessage("system", SystemPrompt.getSystemPrompt(config.isHackingMode())));
+        String memorySummary = extractLatestSummary(history);
+        if (memorySummary != null && !memorySummary.trim().isEmpty()) {
+            systemMessages.add(new ChatMessage("system", "Conversation memory:\n" + memorySummary.trim()));
+        }
+        return systemMessages;
+    }
+
+    private List<ChatMessage> snapshot(List<ChatMessage> messages) {
+        synchronized (messages) {
+            return new ArrayList<>(messages);
+        }
+    }
+
+    /**
+     * 向对话列表追加消息
+     * 列表由界面和流式回调线程共享，所有修改和复制都在列表自身的锁上进行
+     */
+    private static void append(List<ChatMessage> messages, ChatMessage message) {
+        synchronized (messages) {
+            messages.add(message);
+        }
     }
 
     /**
@@ -102,22 +269,8 @@ public class AIService {
     }
 
     public List<FunctionResult> executeFunctions(List<FunctionCall> functionCalls, StopToken stopToken) {
-        List<FunctionResult> results = new ArrayList<>();
-        for (FunctionCall call : functionCalls) {
-            if (stopToken != null && stopToken.isStopped()) {
-                results.add(FunctionResult.error(call != null ? call.getId() : null, "用户已停止"));
-                break;
-            }
-            FunctionResult result = executeFunction(call);
-            if (result == null) {
-                result = FunctionResult.error(call != null ? call.getId() : null, "Function returned null result");
-            }
-            results.add(result);
-            if (!result.isSuccess()) {
-                break;
-            }
-        }
-        return results;
+        // 只读Function（读取/列表/搜索/Web请求）并行执行，其余按顺序执行，结果保持调用顺序
+        return functionExecutor.executeBatchConcurrent(functionCalls, FUNCTION_TIMEOUT_MS, stopToken);
     }
 
     /**
@@ -129,117 +282,180 @@ public class AIService {
         chatWithFunctionHandling(messages, new StopToken(), callback);
     }
 
-    public Thread chatWithFunctionHandling(List<ChatMessage> messages, StopToken stopToken, ChatCallback callback) {
-        Thread thread = new Thread(() -> {
-            try {
+    /**
+     * 在对话任务执行器上运行完整的对话流程
+     * @return 任务句柄，cancel(true)会中断当前网络请求和Function执行
+     */
+    public Future<?> chatWithFunctionHandling(List<ChatMessage> messages, StopToken stopToken, ChatCallback callback) {
+        return chatWithFunctionHandling(null, messages, stopToken, callback);
+    }
+
+    /**
+     * 在对话任务执行器上运行完整的对话流程
+     * @param sessionKey 会话标识（通常对应一个对话），同一会话的Function调用共享终端Shell等状态，可为null
+     * @return 任务句柄，cancel(true)会中断当前网络请求和Function执行
+     */
+    public Future<?> chatWithFunctionHandling(String sessionKey, List<ChatMessage> messages, StopToken stopToken,
+                                              ChatCallback callback) {
+        try {
+            return AGENT_EXECUTOR.submit(() -> runAgentLoop(sessionKey, messages, stopToken, callback));
+        } catch (RejectedExecutionException e) {
+            callback.onError(new IOException("当前进行中的对话过多，请稍后再试"));
+            return null;
+        }
+    }
+
+    private void runAgentLoop(String sessionKey, List<ChatMessage> messages, StopToken stopToken,
+                              ChatCallback delegate) {
+        // 记录本次任务各阶段耗时，供调试面板查看
+        AIConfig traceConfig = currentConfig();
+        AgentTrace trace = AgentTracer.getInstance().start(
+                traceConfig != null ? traceConfig.getDisplayName() : "unconfigured");
+        TracingChatCallback callback = new TracingChatCallback(delegate, trace, stopToken);
+        AgentTrace.attach(trace);
+        FunctionSession.attach(sessionKey);
+
+        // 停止时立即取消所有服务商上正在进行的请求
+        Runnable cancelCalls = this::cancelActiveCalls;
+        if (stopToken != null) {
+            stopToken.addCancelAction(cancelCalls);
+        }
+        try {
+            if (stopToken != null && stopToken.isStopped()) {
+                callback.onError(new IOException("用户已停止"));
+                return;
+            }
+
+            List<ChatMessage> toolHistory = new ArrayList<>();
+            String lastCallsSignature = null;
+            int maxRounds = 6;
+            AIResponse response = null;
+            for (int round = 0; round < maxRounds; round++) {
                 if (stopToken != null && stopToken.isStopped()) {
                     callback.onError(new IOException("用户已停止"));
                     return;
                 }
 
-                List<ChatMessage> toolHistory = new ArrayList<>();
-                String lastCallsSignature = null;
-                int maxRounds = 6;
-                AIResponse response = null;
-                for (int round = 0; round < maxRounds; round++) {
-                    if (stopToken != null && stopToken.isStopped()) {
-                        callback.onError(new IOException("用户已停止"));
-                        return;
-                    }
-
-                    if (round == 0) {
-                        callback.onThinking("正在分析您的问题...", "analysis");
-                    } else {
-                        callback.onThinking("继续处理并尝试完成任务...", "analysis");
-                    }
+                trace.beginRound(round);
+                if (round == 0) {
+                    callback.onThinking("正在分析您的问题...", "analysis");
+                } else {
+                    callback.onThinking("继续处理并尝试完成任务...", "analysis");
+                }
 
-                    response = chat(messages, toolHistory, true);
-                    if (response == null || !response.hasFunctionCalls()) {
-                        break;
-                    }
+                response = chat(messages, toolHistory, true, callback::onContentDelta, callback);
+                if (response == null || !response.hasFunctionCalls()) {
+                    break;
+                }
 
-                    List<FunctionCall> calls = response.getFunctionCalls();
-                    String callsSignature = buildCallsSignature(calls);
-                    if (callsSignature != null && callsSignature.equals(lastCallsSignature)) {
-                        callback.onError(new IOException("检测到重复请求相同功能调用，已停止以避免Token消耗"));
-                        return;
-                    }
-                    lastCallsSignature = callsSignature;
+                List<FunctionCall> calls = response.getFunctionCalls();
+                String callsSignature = buildCallsSignature(calls);
+                if (callsSignature != null && callsSignature.equals(lastCallsSignature)) {
+                    callback.onError(new IOException("检测到重复请求相同功能调用，已停止以避免Token消耗"));
+                    return;
+                }
+                lastCallsSignature = callsSignature;
 
-                    StringBuilder thinkingMsg = new StringBuilder("准备调用以下功能：\n");
-                    for (FunctionCall call : calls) {
-                        thinkingMsg.append("• ").append(getFunctionDisplayName(call.getName())).append("\n");
-                    }
-                    callback.onThinking(thinkingMsg.toString().trim(), "function_call");
-                    callback.onFunctionCallsRequested(calls);
-
-                    // 将function call添加到主消息列表和工具历史
-                    for (FunctionCall call : calls) {
-                        ChatMessage assistantCall = new ChatMessage("assistant", "");
-                        List<FunctionCall> one = new ArrayList<>();
-                        one.add(call);
-                        assistantCall.setFunctionCalls(one);
-                        toolHistory.add(assistantCall);
-                        messages.add(assistantCall);
-                    }
+                StringBuilder thinkingMsg = new StringBuilder("准备调用以下功能：\n");
+                for (FunctionCall call : calls) {
+                    thinkingMsg.append("• ").append(getFunctionDisplayName(call.getName())).append("\n");
+                }
+                callback.onThinking(thinkingMsg.toString().trim(), "function_call");
+                callback.onFunctionCallsRequested(calls);
+
+                // 将function call添加到主消息列表和工具历史
+                for (FunctionCall call : calls) {
+                    ChatMessage assistantCall = new ChatMessage("assistant", "");
+                    List<FunctionCall> one = new ArrayList<>();
+                    one.add(call);
+                    assistantCall.setFunctionCalls(one);
+                    toolHistory.add(assistantCall);
+                    append(messages, assistantCall);
+                }
 
-                    List<FunctionResult> results = executeFunctions(calls, stopToken);
-                    for (int i = 0; i < results.size(); i++) {
-                        FunctionResult result = results.get(i);
-                        if (result != null && !result.isSuccess()) {
-                            FunctionCall failedCall = i < calls.size() ? calls.get(i) : null;
-                            String functionName = failedCall != null ? failedCall.getName() : "unknown";
-                            String error = result.getError() != null ? result.getError() : "unknown error";
-                            callback.onError(new IOException("功能执行失败：" + getFunctionDisplayName(functionName) + " - " + error));
-                            return;
-                        }
+                List<FunctionResult> results = executeFunctions(calls, stopToken);
+                if (stopToken != null && stopToken.isStopped()) {
+                    callback.onError(new IOException("用户已停止"));
+                    return;
+                }
+                for (int i = 0; i < results.size(); i++) {
+                    FunctionResult result = results.get(i);
+                    if (result != null && !result.isSuccess()) {
+                        FunctionCall failedCall = i < calls.size() ? calls.get(i) : null;
+                        String functionName = failedCall != null ? failedCall.getName() : "unknown";
+                        String error = result.getError() != null ? result.getError() : "unknown error";
+                        callback.onError(new IOException("功能执行失败：" + getFunctionDisplayName(functionName) + " - " + error));
+                        return;
                     }
+                }
 
-                    StringBuilder executionMsg = new StringBuilder("功能执行完成：\n");
-                    for (int i = 0; i < calls.size(); i++) {
-                        FunctionCall call = calls.get(i);
-                        FunctionResult result = i < results.size() ? results.get(i) : null;
-                        executionMsg.append("• ").append(getFunctionDisplayName(call.getName()));
-                        if (result != null && result.isSuccess()) {
-                            executionMsg.append(" ✓\n");
-                        } else {
-                            executionMsg.append(" ✗\n");
-                        }
-                    }
-                    callback.onThinking(executionMsg.toString().trim(), "execution");
-                    callback.onFunctionExecuted(results);
-
-                    for (int i = 0; i < calls.size() && i < results.size(); i++) {
-                        FunctionCall call = calls.get(i);
-                        FunctionResult result = results.get(i);
-                        ChatMessage functionMessage = new ChatMessage("function", result.getResult() != null ? result.getResult() : "");
-                        functionMessage.setFunctionName(call.getName());
-                        functionMessage.setToolCallId(call.getId());
-                        messages.add(functionMessage);
+                StringBuilder executionMsg = new StringBuilder("功能执行完成：\n");
+                for (int i = 0; i < calls.size(); i++) {
+                    FunctionCall call = calls.get(i);
+                    FunctionResult result = i < results.size() ? results.get(i) : null;
+                    executionMsg.append("• ").append(getFunctionDisplayName(call.getName()));
+                    if (result != null && result.isSuccess()) {
+                        executionMsg.append(" ✓\n");
+                    } else {
+                        executionMsg.append(" ✗\n");
                     }
-
-                    callback.onThinking("正在整理结果并生成回复...", "code_generation");
                 }
-
-                if (response != null && response.hasFunctionCalls() && !response.hasContent()) {
-                    toolHistory.add(new ChatMessage("user", "请基于已有结果给出最终答复，不要再调用任何功能。"));
-                    response = chat(messages, toolHistory, false);
+                callback.onThinking(executionMsg.toString().trim(), "execution");
+                callback.onFunctionExecuted(results);
+
+                for (int i = 0; i < calls.size() && i < results.size(); i++) {
+                    FunctionCall call = calls.get(i);
+                    FunctionResult result = results.get(i);
+                    ChatMessage functionMessage = new ChatMessage("function", result.getResult() != null ? result.getResult() : "");
+                    functionMessage.setFunctionName(call.getName());
+                    functionMessage.setToolCallId(call.getId());
+                    append(messages, functionMessage);
                 }
 
-                // 返回最终响应
-                if (response != null) {
-                    callback.onSuccess(response);
-                } else {
-                    callback.onError(new IOException("AI未返回有效响应"));
-                    return;
-                }
-                
-            } catch (Exception e) {
+                callback.onThinking("正在整理结果并生成回复...", "code_generation");
+            }
+
+            if (response != null && response.hasFunctionCalls() && !response.hasContent()) {
+                trace.beginRound(maxRounds);
+                toolHistory.add(new ChatMessage("user", "请基于已有结果给出最终答复，不要再调用任何功能。"));
+                response = chat(messages, toolHistory, false, callback::onContentDelta, callback);
+            }
+
+            // 返回最终响应
+            if (response != null) {
+                callback.onSuccess(response);
+            } else {
+                callback.onError(new IOException("AI未返回有效响应"));
+                return;
+            }
+            
+        } catch (Exception e) {
+            if (stopToken != null && stopToken.isStopped()) {
+                callback.onError(new IOException("用户已停止"));
+            } else {
                 callback.onError(e);
             }
-        });
-        thread.start();
-        return thread;
+        } finally {
+            if (stopToken != null) {
+                stopToken.removeCancelAction(cancelCalls);
+            }
+            AgentTracer.getInstance().finish(trace, callback.getOutcome());
+            AgentTrace.attach(null);
+            FunctionSession.attach(null);
+        }
+    }
+
+    /**
+     * 取消主服务商和备用服务商上正在进行的请求
+     */
+    private void cancelActiveCalls() {
+        AIApiClient client = apiClient;
+        if (client != null) {
+            client.cancelActiveCalls();
+        }
+        for (AIApiClient fallback : fallbackClients) {
+            fallback.cancelActiveCalls();
+        }
     }
 
     private String buildCallsSignature(List<FunctionCall> calls) {
@@ -262,23 +478,6 @@ public class AIService {
         return sb.toString();
     }
 
-    private List<ChatMessage> filterConversationMessages(List<ChatMessage> messages) {
-        List<ChatMessage> filtered = new ArrayList<>();
-        if (messages == null) {
-            return filtered;
-        }
-        for (ChatMessage msg : messages) {
-            if (msg == null) {
-                continue;
-            }
-            if (msg.isSystem() || msg.isThinking() || msg.isSummary()) {
-                continue;
-            }
-            filtered.add(msg);
-        }
-        return filtered;
-    }
-
     private String extractLatestSummary(List<ChatMessage> messages) {
         if (messages == null || messages.isEmpty()) {
             return null;
@@ -293,31 +492,70 @@ public class AIService {
     }
 
     /**
-     * 生成上下文总结
+     * 距离允许再次尝试总结的剩余毫秒数，没有处于退避期时返回0
+     */
+    private long summaryRetryDelay() {
+        synchronized (summaryLock) {
+            return summaryFailures == 0 ? 0 : Math.max(0, summaryRetryAt - System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * 记录总结结果：失败时按连续失败次数指数退避
      */
-    private void generateContextSummary(List<ChatMessage> messages, ChatCallback callback) {
+    private void recordSummaryResult(boolean success) {
+        synchronized (summaryLock) {
+            if (success) {
+                summaryFailures = 0;
+                return;
+            }
+            long delay = Math.min(SUMMARY_BACKOFF_MAX_MS, SUMMARY_BACKOFF_INITIAL_MS << Math.min(summaryFailures, 10));
+            summaryFailures++;
+            summaryRetryAt = System.currentTimeMillis() + delay;
+            Log.w(TAG, "Context summary failed " + summaryFailures + " time(s), retry in " + delay + "ms");
+        }
+    }
+
+    /**
+     * 将移出上下文窗口的轮次与已有总结合并为新的总结消息
+     * @param previousSummary 已有总结，可为空
+     * @param rolledOut 移出窗口的消息（已裁剪）
+     * @param maxTokens 总结请求中对话内容的Token上限
+     * @return 新的总结消息，失败时返回null
+     */
+    private ChatMessage rollIntoSummary(String previousSummary, List<ChatMessage> rolledOut, int maxTokens) {
         try {
-            // 构建总结请求
+            // 以纯文本转写对话，避免孤立的function消息破坏请求格式；超出上限时只保留最近的部分
+            List<String> lines = new ArrayList<>();
+            int tokens = 0;
+            for (int i = rolledOut.size() - 1; i >= 0; i--) {
+                String line = describeMessage(rolledOut.get(i));
+                tokens += ContextWindowManager.estimateTokens(line);
+                if (tokens > maxTokens && !lines.isEmpty()) {
+                    break;
+                }
+                lines.add(0, line);
+            }
+            StringBuilder transcript = new StringBuilder();
+            if (previousSummary != null && !previousSummary.trim().isEmpty()) {
+                transcript.append("已有总结：\n").append(previousSummary.trim()).append("\n\n");
+            }
+            transcript.append("新移出上下文的对话：\n");
+            for (String line : lines) {
+                transcript.append(line).append("\n");
+            }
+
             List<ChatMessage> summaryMessages = new ArrayList<>();
             summaryMessages.add(new ChatMessage("system", 
-                "你是一个专业的对话总结助手。请用最简洁的语言（不超过100字）总结这次对话的关键内容：\n" +
+                "你是一个专业的对话总结助手。请将已有总结与新移出上下文的对话合并为一份新的总结（不超过300字）：\n" +
                 "1. 用户的主要需求或问题\n" +
-                "2. 执行了哪些操作\n" +
-                "3. 当前进度或结果\n" +
-                "格式：简洁的要点列表，每点不超过20字。"));
-            
-            // 只取最近的几条消息用于总结
-            int startIndex = Math.max(0, messages.size() - 6);
-            for (int i = startIndex; i < messages.size(); i++) {
-                ChatMessage msg = messages.get(i);
-                if (!msg.isSystem() && !msg.isThinking() && !msg.isSummary()) {
-                    summaryMessages.add(msg);
-                }
-            }
-            
-            summaryMessages.add(new ChatMessage("user", "请总结上述对话"));
+                "2. 执行了哪些操作及关键结果\n" +
+                "3. 当前进度或待办事项\n" +
+                "格式：简洁的要点列表，每点不超过30字。"));
+            summaryMessages.add(new ChatMessage("user", transcript.toString()));
 
-            AIConfig config = configManager.getConfig();
+            String summary = null;
+            AIConfig config = currentConfig();
             if (config != null && "gemini".equals(config.getProvider())) {
                 JsonObject schema = new JsonObject();
                 schema.addProperty("type", "object");
@@ -335,25 +573,48 @@ public class AIService {
 
                 AIResponse summaryResponse = apiClient.chatStructuredJson(summaryMessages, schema);
                 if (summaryResponse.hasContent()) {
-                    String formatted = formatSummaryJson(summaryResponse.getContent());
-                    if (formatted != null && !formatted.trim().isEmpty()) {
-                        callback.onContextSummary(formatted);
-                        return;
-                    }
+                    summary = formatSummaryJson(summaryResponse.getContent());
                 }
             }
 
-            AIResponse summaryResponse = apiClient.chat(summaryMessages, null);
-            if (summaryResponse.hasContent()) {
-                callback.onContextSummary(summaryResponse.getContent());
+            if (summary == null || summary.trim().isEmpty()) {
+                AIResponse summaryResponse = apiClient.chat(summaryMessages, null);
+                if (summaryResponse.hasContent()) {
+                    summary = summaryResponse.getContent();
+                }
             }
-            
+            if (summary == null || summary.trim().isEmpty()) {
+                return null;
+            }
+
+            ChatMessage summaryMessage = ChatMessage.summaryMessage(summary.trim());
+            summaryMessage.setSummarizedUntil(rolledOut.get(rolledOut.size() - 1).getId());
+            return summaryMessage;
         } catch (Exception e) {
-            // 总结失败不影响主流程
-            e.printStackTrace();
+            // 总结失败不影响主流程，本轮仅按预算截断
+            Log.w(TAG, "Failed to roll context into summary", e);
+            return null;
         }
     }
 
+    private String describeMessage(ChatMessage msg) {
+        StringBuilder sb = new StringBuilder();
+        if ("function".equals(msg.getRole()) || "tool".equals(msg.getRole())) {
+            sb.append("功能结果(").append(msg.getFunctionName()).append(")：");
+        } else {
+            sb.append(msg.getRole()).append("：");
+        }
+        if (msg.getContent() != null) {
+            sb.append(msg.getContent());
+        }
+        if (msg.getFunctionCalls() != null) {
+            for (FunctionCall call : msg.getFunctionCalls()) {
+                sb.append(" [调用 ").append(call.getName()).append(" ").append(call.getArguments()).append("]");
+            }
+        }
+        return sb.toString();
+    }
+
     private String formatSummaryJson(String jsonText) {
         try {
             JSONObject obj = new JSONObject(jsonText);
@@ -399,8 +660,40 @@ public class AIService {
      * 更新API配置
      */
     public void updateConfig(AIConfig config) {
-        configManager.saveConfig(config);
-        this.apiClient = new AIApiClient(config);
+        if (configManager != null) {
+            configManager.saveConfig(config);
+        } else {
+            fixedConfig = config;
+        }
+        if (apiClient != null) {
+            apiClient.updateConfig(config);
+        } else {
+            this.apiClient = createApiClient(config);
+        }
+        this.fallbackClients = createFallbackClients(config);
+    }
+
+    private AIApiClient createApiClient(AIConfig config) {
+        AIApiClient client = new AIApiClient(config, functionRegistry);
+        if (context != null) {
+            client.setResponseCache(ResponseCache.getInstance(context));
+        }
+        return client;
+    }
+
+    /**
+     * 为备用服务商创建客户端，缓存开关沿用主配置
+     */
+    private List<AIApiClient> createFallbackClients(AIConfig config) {
+        List<AIApiClient> clients = new ArrayList<>();
+        for (AIConfig fallback : config.getFallbackConfigs()) {
+            if (!fallback.isValid()) {
+                continue;
+            }
+            fallback.setResponseCache(config.isResponseCache());
+            clients.add(createApiClient(fallback));
+        }
+        return clients;
     }
 
     /**
@@ -408,11 +701,12 @@ public class AIService {
      */
     private void ensureApiClient() throws IOException {
         if (apiClient == null) {
-            AIConfig config = configManager.getConfig();
+            AIConfig config = currentConfig();
             if (config == null) {
                 throw new IOException("AI API not configured");
             }
-            apiClient = new AIApiClient(config);
+            apiClient = createApiClient(config);
+            fallbackClients = createFallbackClients(config);
         }
     }
 
@@ -426,5 +720,6 @@ public class AIService {
         void onFunctionExecuted(List<FunctionResult> results);
         void onThinking(String message, String thinkingType);
         void onContextSummary(String summary);
+        void onContentDelta(String delta);
     }
 }
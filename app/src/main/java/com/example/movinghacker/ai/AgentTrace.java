@@ -0,0 +1,260 @@
+package com.example.movinghacker.ai;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 一次对话任务（用户发送一条消息到得到最终回复）的耗时与用量记录
+ * 按阶段记录各段耗时（上下文组装、构建请求、网络等待、首字节、解析、工具执行、界面回调等），
+ * 并累计服务商返回的Token用量、请求/响应字节数和重试次数
+ * 任务线程通过attach()绑定当前记录，AIApiClient等组件通过current()取得并写入
+ */
+public class AgentTrace {
+
+    // 阶段
+    public static final String PHASE_CONTEXT = "context";
+    public static final String PHASE_BUILD = "build";
+    public static final String PHASE_NETWORK = "network";
+    public static final String PHASE_FIRST_BYTE = "first_byte";
+    public static final String PHASE_PARSE = "parse";
+    public static final String PHASE_STREAM = "stream";
+    public static final String PHASE_RETRY = "retry";
+    public static final String PHASE_CACHE = "cache";
+    public static final String PHASE_LLM = "llm";
+    public static final String PHASE_TOOL = "tool";
+    public static final String PHASE_UI = "ui";
+
+    private static final ThreadLocal<AgentTrace> CURRENT = new ThreadLocal<>();
+
+    private final long id;
+    private final String model;
+    private final long startedAt;
+    private final long startNanos;
+    private final List<Span> spans = new ArrayList<>();
+
+    private volatile int round;
+    private long durationMs = -1;
+    private String outcome;
+    private int rounds;
+    private int promptTokens;
+    private int completionTokens;
+    private long requestBytes;
+    private long responseBytes;
+    private int retries;
+    private int uiDeltaCount;
+    private long uiDeltaNanos;
+
+    AgentTrace(long id, String model) {
+        this.id = id;
+        this.model = model;
+        this.startedAt = System.currentTimeMillis();
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * 当前线程绑定的记录，未绑定时返回null
+     */
+    public static AgentTrace current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 将记录绑定到当前线程，传入null解除绑定
+     */
+    public static void attach(AgentTrace trace) {
+        if (trace == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(trace);
+        }
+    }
+
+    /**
+     * 一段耗时
+     */
+    public static class Span {
+        public final String phase;
+        public final String name;
+        public final int round;
+        // 相对任务开始的偏移
+        public final long startMs;
+        public final long durationMs;
+        public final String detail;
+
+        Span(String phase, String name, int round, long startMs, long durationMs, String detail) {
+            this.phase = phase;
+            this.name = name;
+            this.round = round;
+            this.startMs = startMs;
+            this.durationMs = durationMs;
+            this.detail = detail;
+        }
+    }
+
+    /**
+     * 记录一段从startNanos（System.nanoTime()）到现在的耗时
+     */
+    public void record(String phase, String name, long startNanos, String detail) {
+        long now = System.nanoTime();
+        Span span = new Span(phase, name, round, toMs(startNanos - this.startNanos), toMs(now - startNanos), detail);
+        synchronized (this) {
+            spans.add(span);
+        }
+    }
+
+    /**
+     * 开始新的一轮（一次模型请求及其工具调用）
+     */
+    public synchronized void beginRound(int round) {
+        this.round = round;
+        this.rounds = Math.max(rounds, round + 1);
+    }
+
+    public synchronized void addUsage(AIResponse response) {
+        if (response == null) {
+            return;
+        }
+        promptTokens += response.getPromptTokens();
+        completionTokens += response.getCompletionTokens();
+    }
+
+    public synchronized void addBytes(long requestBytes, long responseBytes) {
+        this.requestBytes += Math.max(0, requestBytes);
+        this.responseBytes += Math.max(0, responseBytes);
+    }
+
+    public synchronized void addRetry() {
+        retries++;
+    }
+
+    /**
+     * 流式文本片段的界面回调数量很多，只累计次数和总耗时
+     */
+    public synchronized void addUiDelta(long startNanos) {
+        uiDeltaCount++;
+        uiDeltaNanos += System.nanoTime() - startNanos;
+    }
+
+    synchronized void finish(String outcome) {
+        if (durationMs >= 0) {
+            return;
+        }
+        this.outcome = outcome;
+        this.durationMs = toMs(System.nanoTime() - startNanos);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public synchronized long getDurationMs() {
+        return durationMs >= 0 ? durationMs : toMs(System.nanoTime() - startNanos);
+    }
+
+    public synchronized String getOutcome() {
+        return outcome != null ? outcome : "running";
+    }
+
+    public synchronized List<Span> getSpans() {
+        return new ArrayList<>(spans);
+    }
+
+    public synchronized int getPromptTokens() {
+        return promptTokens;
+    }
+
+    public synchronized int getCompletionTokens() {
+        return completionTokens;
+    }
+
+    /**
+     * 某阶段的总耗时
+     */
+    public synchronized long totalMs(String phase) {
+        long total = 0;
+        for (Span span : spans) {
+            if (span.phase.equals(phase)) {
+                total += span.durationMs;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * 供调试面板显示的文本
+     */
+    public synchronized String describe() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "#%d %s  %s  %dms  %d轮\n", id, model, getOutcome(),
+                getDurationMs(), rounds));
+        sb.append(String.format(Locale.US, "Token: 输入%d 输出%d  字节: 发送%s 接收%s  重试: %d\n",
+                promptTokens, completionTokens, formatBytes(requestBytes), formatBytes(responseBytes), retries));
+        sb.append(String.format(Locale.US, "合计: 上下文%dms 构建%dms 网络%dms 首字节%dms 解析%dms 流式%dms 工具%dms 界面%dms\n",
+                totalMs(PHASE_CONTEXT), totalMs(PHASE_BUILD), totalMs(PHASE_NETWORK), totalMs(PHASE_FIRST_BYTE),
+                totalMs(PHASE_PARSE), totalMs(PHASE_STREAM), totalMs(PHASE_TOOL),
+                totalMs(PHASE_UI) + toMs(uiDeltaNanos)));
+        for (Span span : spans) {
+            sb.append(String.format(Locale.US, "  [%d] +%5dms %-10s %-20s %5dms", span.round, span.startMs,
+                    span.phase, span.name, span.durationMs));
+            if (span.detail != null && !span.detail.isEmpty()) {
+                sb.append("  ").append(span.detail);
+            }
+            sb.append('\n');
+        }
+        if (uiDeltaCount > 0) {
+            sb.append(String.format(Locale.US, "  流式片段回调 %d 次，共 %dms\n", uiDeltaCount, toMs(uiDeltaNanos)));
+        }
+        return sb.toString();
+    }
+
+    public synchronized JsonObject toJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("id", id);
+        json.addProperty("model", model);
+        json.addProperty("startedAt", startedAt);
+        json.addProperty("durationMs", getDurationMs());
+        json.addProperty("outcome", getOutcome());
+        json.addProperty("rounds", rounds);
+        json.addProperty("promptTokens", promptTokens);
+        json.addProperty("completionTokens", completionTokens);
+        json.addProperty("requestBytes", requestBytes);
+        json.addProperty("responseBytes", responseBytes);
+        json.addProperty("retries", retries);
+        json.addProperty("uiDeltaCount", uiDeltaCount);
+        json.addProperty("uiDeltaMs", toMs(uiDeltaNanos));
+        JsonArray spanArray = new JsonArray();
+        for (Span span : spans) {
+            JsonObject obj = new JsonObject();
+            obj.addProperty("phase", span.phase);
+            obj.addProperty("name", span.name);
+            obj.addProperty("round", span.round);
+            obj.addProperty("startMs", span.startMs);
+            obj.addProperty("durationMs", span.durationMs);
+            if (span.detail != null) {
+                obj.addProperty("detail", span.detail);
+            }
+            spanArray.add(obj);
+        }
+        json.add("spans", spanArray);
+        return json;
+    }
+
+    private static long toMs(long nanos) {
+        return nanos / 1_000_000;
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + "B";
+        }
+        return String.format(Locale.US, "%.1fKB", bytes / 1024.0);
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.movinghacker.ai;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * 对话任务记录器
+ * 在内存中保留最近若干次任务的AgentTrace（环形缓冲），供调试面板查看和导出JSON
+ */
+public class AgentTracer {
+
+    private static final int MAX_TRACES = 20;
+
+    private static AgentTracer instance;
+
+    private final Deque<AgentTrace> traces = new ArrayDeque<>();
+    private long nextId = 1;
+
+    private AgentTracer() {
+    }
+
+    public static synchronized AgentTracer getInstance() {
+        if (instance == null) {
+            instance = new AgentTracer();
+        }
+        return instance;
+    }
+
+    /**
+     * 开始记录一次任务，超出容量时丢弃最早的记录
+     */
+    public synchronized AgentTrace start(String model) {
+        AgentTrace trace = new AgentTrace(nextId++, model);
+        traces.addLast(trace);
+        while (traces.size() > MAX_TRACES) {
+            traces.removeFirst();
+        }
+        return trace;
+    }
+
+    /**
+     * 结束记录
+     * @param outcome success / error / stopped
+     */
+    public void finish(AgentTrace trace, String outcome) {
+        if (trace != null) {
+            trace.finish(outcome);
+        }
+    }
+
+    /**
+     * 最近的任务记录，最新的在前
+     */
+    public synchronized List<AgentTrace> getRecentTraces() {
+        List<AgentTrace> result = new ArrayList<>(traces);
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * 导出全部记录为JSON
+     */
+    public String exportJson() {
+        JsonArray array = new JsonArray();
+        for (AgentTrace trace : getRecentTraces()) {
+            array.add(trace.toJson());
+        }
+        JsonObject root = new JsonObject();
+        root.addProperty("exportedAt", System.currentTimeMillis());
+        root.add("traces", array);
+        return new GsonBuilder().setPrettyPrinting().create().toJson(root);
+    }
+
+    public synchronized void clear() {
+        traces.clear();
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.movinghacker.ai;
+
+import java.io.IOException;
+
+/**
+ * AI接口请求异常
+ * 携带HTTP状态码和服务端建议的重试等待时间，供重试策略分类使用
+ */
+public class ApiException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    // 0表示没有收到HTTP响应（网络错误、熔断等）
+    private final int statusCode;
+    // 服务端通过Retry-After给出的等待时间，未给出时为-1
+    private final long retryAfterMs;
+    private final boolean retryable;
+
+    public ApiException(String message, int statusCode, long retryAfterMs) {
+        this(message, statusCode, retryAfterMs, isRetryableStatus(statusCode), null);
+    }
+
+    public ApiException(String message, int statusCode, long retryAfterMs, boolean retryable, Throwable cause) {
+        super(message, cause);
+        this.statusCode = statusCode;
+        this.retryAfterMs = retryAfterMs;
+        this.retryable = retryable;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+
+    public boolean isRetryable() {
+        return retryable;
+    }
+
+    /**
+     * 是否是服务端故障（计入熔断统计），限流和客户端错误不算
+     */
+    public boolean isServerFailure() {
+        return statusCode >= 500;
+    }
+
+    /**
+     * 限流、请求超时和服务端临时错误可以重试，其余4xx重试也不会成功
+     */
+    static boolean isRetryableStatus(int statusCode) {
+        switch (statusCode) {
+            case 408:
+            case 429:
+            case 500:
+            case 502:
+            case 503:
+            case 504:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.movinghacker.ai;
+
+import androidx.room.Entity;
+import androidx.room.PrimaryKey;
+
+/**
+ * 对话数据模型
+ */
+@Entity(tableName = "chat_conversations")
+public class ChatConversation {
+
+    @PrimaryKey(autoGenerate = true)
+    private long id;
+
+    private String title;
+    private long createdAt;
+    private long updatedAt;
+
+    public ChatConversation(String title, long createdAt, long updatedAt) {
+        this.title = title;
+        this.createdAt = createdAt;
+        this.updatedAt = updatedAt;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(long createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(long updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.movinghacker.ai;
+
+import android.content.Context;
+
+import androidx.room.Database;
+import androidx.room.Room;
+import androidx.room.RoomDatabase;
+
+@Database(entities = {ChatConversation.class, ChatMessageRecord.class}, version = 1, exportSchema = false)
+public abstract class ChatDatabase extends RoomDatabase {
+
+    private static volatile ChatDatabase INSTANCE;
+
+    public abstract ChatHistoryDao chatHistoryDao();
+
+    public static ChatDatabase getInstance(Context context) {
+        if (INSTANCE == null) {
+            synchronized (ChatDatabase.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = Room.databaseBuilder(
+                            context.getApplicationContext(),
+                            ChatDatabase.class,
+                            "chat_database"
+                    ).build();
+                }
+            }
+        }
+        return INSTANCE;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.movinghacker.ai;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.Query;
+
+import java.util.List;
+
+@Dao
+public interface ChatHistoryDao {
+
+    @Insert
+    long insertConversation(ChatConversation conversation);
+
+    @Query("SELECT * FROM chat_conversations ORDER BY updatedAt DESC")
+    List<ChatConversation> getConversations();
+
+    @Query("SELECT * FROM chat_conversations WHERE id = :id")
+    ChatConversation getConversation(long id);
+
+    @Query("UPDATE chat_conversations SET updatedAt = :updatedAt WHERE id = :id")
+    void touchConversation(long id, long updatedAt);
+
+    @Query("UPDATE chat_conversations SET title = :title WHERE id = :id")
+    void renameConversation(long id, String title);
+
+    @Insert
+    long insertMessage(ChatMessageRecord record);
+
+    @Query("UPDATE chat_messages SET payload = :payload WHERE messageId = :messageId")
+    int updateMessagePayload(String messageId, String payload);
+
+    @Query("SELECT * FROM chat_messages WHERE conversationId = :conversationId ORDER BY seq DESC LIMIT :limit")
+    List<ChatMessageRecord> getLatestMessages(long conversationId, int limit);
+
+    @Query("SELECT * FROM chat_messages WHERE conversationId = :conversationId "
+            + "AND seq < (SELECT seq FROM chat_messages WHERE messageId = :beforeMessageId) "
+            + "ORDER BY seq DESC LIMIT :limit")
+    List<ChatMessageRecord> getMessagesBefore(long conversationId, String beforeMessageId, int limit);
+
+    @Query("SELECT * FROM chat_messages WHERE conversationId = :conversationId "
+            + "AND seq > (SELECT seq FROM chat_messages WHERE messageId = :afterMessageId) "
+            + "ORDER BY seq ASC LIMIT :limit")
+    List<ChatMessageRecord> getMessagesAfter(long conversationId, String afterMessageId, int limit);
+
+    @Query("SELECT COUNT(*) FROM chat_messages WHERE conversationId = :conversationId")
+    int getMessageCount(long conversationId);
+
+    @Query("DELETE FROM chat_messages WHERE messageId = :messageId")
+    int deleteMessage(String messageId);
+
+    @Query("DELETE FROM chat_messages WHERE conversationId = :conversationId")
+    void deleteMessages(long conversationId);
+}
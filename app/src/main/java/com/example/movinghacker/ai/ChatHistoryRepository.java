@@ -1,39 +1,85 @@
 package com.example.movinghacker.ai;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.util.Log;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
 
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * 聊天历史记录仓库
- * 负责聊天记录的保存和加载
+ * 负责多个对话及其消息的保存和分页加载
+ *
+ * 消息存储在Room数据库中，每条消息单独一行，保存消息只写入新增或变化的行；
+ * 加载时只取最近一页，更早的消息在用户向上滚动时按页加载。
+ * 发送给模型的上下文单独按固定窗口从数据库读取，与界面加载了多少页无关
  */
 public class ChatHistoryRepository {
     private static final String TAG = "ChatHistoryRepository";
-    private static final String HISTORY_FILE_NAME = "chat_history.json";
-    private static final int MAX_HISTORY_SIZE = 100;  // 最多保存100条消息
+    private static final String PREFS_NAME = "chat_history";
+    private static final String KEY_ACTIVE_CONVERSATION = "active_conversation";
+    private static final int MAX_TITLE_LENGTH = 20;
+    private static final int SIGNATURE_CACHE_SIZE = 1000;
+
+    public static final String DEFAULT_TITLE = "新对话";
+    public static final int PAGE_SIZE = 50;
+    // 发送给模型的最近消息数
+    public static final int CONTEXT_WINDOW = 100;
+
+    /**
+     * 在一个数据库事务中执行
+     */
+    interface TransactionRunner {
+        void run(Runnable body);
+    }
 
     private static ChatHistoryRepository instance;
-    private File historyFile;
-    private Gson gson;
+    private final ChatHistoryDao dao;
+    private final SharedPreferences prefs;
+    private final Gson gson = new Gson();
+    private final LegacyChatHistory legacyHistory;
+    private final ExecutorService executor;
+    private final TransactionRunner transactionRunner;
+
+    // 已写入数据库的消息签名（id -> signature），用于跳过未变化的消息
+    private final Map<String, Integer> signatures = Collections.synchronizedMap(
+            new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                    return size() > SIGNATURE_CACHE_SIZE;
+                }
+            });
+    private volatile boolean migrated;
 
     private ChatHistoryRepository(Context context) {
-        File filesDir = context.getFilesDir();
-        historyFile = new File(filesDir, HISTORY_FILE_NAME);
-        gson = new GsonBuilder()
-                .setPrettyPrinting()
-                .create();
+        this(ChatDatabase.getInstance(context).chatHistoryDao(),
+                context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE),
+                context.getFilesDir(), Executors.newSingleThreadExecutor(),
+                ChatDatabase.getInstance(context)::runInTransaction);
+    }
+
+    /**
+     * 直接指定存储依赖，供宿主机测试使用内存DAO
+     * @param prefs 仅在读写当前对话ID时使用
+     */
+    ChatHistoryRepository(ChatHistoryDao dao, SharedPreferences prefs, File filesDir, ExecutorService executor,
+                          TransactionRunner transactionRunner) {
+        this.dao = dao;
+        this.prefs = prefs;
+        this.legacyHistory = new LegacyChatHistory(filesDir, gson);
+        this.executor = executor;
+        this.transactionRunner = transactionRunner;
     }
 
     public static synchronized ChatHistoryRepository getInstance(Context context) {
@@ -43,167 +89,353 @@ public class ChatHistoryRepository {
         return instance;
     }
 
+    /**
+     * 加载当前对话（不存在时自动创建）及其最近一页消息
+     */
+    public void loadActiveConversation(ConversationCallback callback) {
+        executor.execute(() -> {
+            try {
+                try {
+                    migrateLegacyFiles();
+                } catch (Exception e) {
+                    // 旧文件保留，下次加载时重试
+                    Log.e(TAG, "Error migrating legacy history", e);
+                }
+                ChatConversation conversation = dao.getConversation(getActiveConversationId());
+                if (conversation == null) {
+                    List<ChatConversation> conversations = dao.getConversations();
+                    conversation = conversations.isEmpty() ? createConversationInternal() : conversations.get(0);
+                    setActiveConversationId(conversation.getId());
+                }
+                deliverLatestPage(conversation, callback);
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading conversation", e);
+                callback.onError(e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 切换到指定对话并加载最近一页消息
+     */
+    public void switchConversation(long conversationId, ConversationCallback callback) {
+        executor.execute(() -> {
+            try {
+                ChatConversation conversation = dao.getConversation(conversationId);
+                if (conversation == null) {
+                    callback.onError("对话不存在");
+                    return;
+                }
+                setActiveConversationId(conversationId);
+                deliverLatestPage(conversation, callback);
+            } catch (Exception e) {
+                Log.e(TAG, "Error switching conversation", e);
+                callback.onError(e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 新建对话并设为当前对话
+     */
+    public void createConversation(ConversationCallback callback) {
+        executor.execute(() -> {
+            try {
+                ChatConversation conversation = createConversationInternal();
+                setActiveConversationId(conversation.getId());
+                callback.onLoaded(conversation, new ArrayList<>(), false);
+            } catch (Exception e) {
+                Log.e(TAG, "Error creating conversation", e);
+                callback.onError(e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 获取所有对话（按最近更新排序）
+     */
+    public void getConversations(ConversationListCallback callback) {
+        executor.execute(() -> {
+            try {
+                callback.onSuccess(dao.getConversations());
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading conversations", e);
+                callback.onError(e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 加载指定消息之前的一页消息
+     * @param beforeMessageId 当前已加载的最早一条消息ID
+     */
+    public void loadMessagesBefore(long conversationId, String beforeMessageId, MessagesCallback callback) {
+        executor.execute(() -> {
+            try {
+                List<ChatMessageRecord> records = dao.getMessagesBefore(conversationId, beforeMessageId, PAGE_SIZE + 1);
+                boolean hasMore = records.size() > PAGE_SIZE;
+                callback.onLoaded(toMessages(records, PAGE_SIZE), hasMore);
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading messages", e);
+                callback.onError(e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 加载指定消息之后的一页消息（界面向下滚动回到较新的消息时调用）
+     * @param afterMessageId 当前已加载的最新一条消息ID
+     */
+    public void loadMessagesAfter(long conversationId, String afterMessageId, MessagesCallback callback) {
+        executor.execute(() -> {
+            try {
+                List<ChatMessageRecord> records = dao.getMessagesAfter(conversationId, afterMessageId, PAGE_SIZE + 1);
+                boolean hasMore = records.size() > PAGE_SIZE;
+                List<ChatMessageRecord> page = new ArrayList<>(records.subList(0, Math.min(PAGE_SIZE, records.size())));
+                Collections.reverse(page);
+                callback.onLoaded(toMessages(page, PAGE_SIZE), hasMore);
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading messages", e);
+                callback.onError(e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * 加载发送给模型的上下文：对话最近的CONTEXT_WINDOW条消息
+     * 在之前提交的保存完成后执行，结果包含刚保存的消息
+     */
+    public void loadContext(long conversationId, MessagesCallback callback) {
+        executor.execute(() -> {
+            try {
+                List<ChatMessageRecord> records = dao.getLatestMessages(conversationId, CONTEXT_WINDOW + 1);
+                boolean hasMore = records.size() > CONTEXT_WINDOW;
+                callback.onLoaded(toMessages(records, CONTEXT_WINDOW), hasMore);
+            } catch (Exception e) {
+                Log.e(TAG, "Error loading context", e);
+                callback.onError(e.getMessage());
+            }
+        });
+    }
+
     /**
      * 保存单条消息
+     * @param conversationId 对话ID
      * @param message 消息
      */
-    public void saveMessage(ChatMessage message) {
+    public void saveMessage(long conversationId, ChatMessage message) {
         if (message == null) {
             Log.w(TAG, "Attempted to save null message");
             return;
         }
 
-        try {
-            List<ChatMessage> history = loadHistory();
-            history.add(message);
-
-            // 限制历史记录数量
-            if (history.size() > MAX_HISTORY_SIZE) {
-                history = history.subList(history.size() - MAX_HISTORY_SIZE, history.size());
-            }
-
-            saveHistory(history);
-            Log.d(TAG, "Message saved, total: " + history.size());
-        } catch (Exception e) {
-            Log.e(TAG, "Error saving message", e);
-        }
+        List<ChatMessage> snapshot = new ArrayList<>();
+        snapshot.add(message);
+        saveMessages(conversationId, snapshot);
     }
 
     /**
      * 批量保存消息
+     * 已保存且内容未变化的消息会被跳过，变化的消息原位更新，新消息追加到对话末尾
+     * @param conversationId 对话ID
      * @param messages 消息列表
      */
-    public void saveMessages(List<ChatMessage> messages) {
+    public void saveMessages(long conversationId, List<ChatMessage> messages) {
         if (messages == null || messages.isEmpty()) {
             return;
         }
 
-        try {
-            List<ChatMessage> history = loadHistory();
-            history.addAll(messages);
+        List<ChatMessage> snapshot = new ArrayList<>(messages);
+        executor.execute(() -> {
+            try {
+                int written = 0;
+                String firstUserMessage = null;
+                for (ChatMessage message : snapshot) {
+                    if (message == null || message.getId() == null) {
+                        continue;
+                    }
+                    if (firstUserMessage == null && message.isUser()) {
+                        firstUserMessage = message.getContent();
+                    }
+                    int signature = signatureOf(message);
+                    Integer previous = signatures.get(message.getId());
+                    if (previous != null && previous == signature) {
+                        continue;
+                    }
+                    String payload = gson.toJson(message);
+                    if (dao.updateMessagePayload(message.getId(), payload) == 0) {
+                        dao.insertMessage(new ChatMessageRecord(message.getId(), conversationId,
+                                message.getRole(), message.getTimestamp(), payload));
+                    }
+                    signatures.put(message.getId(), signature);
+                    written++;
+                }
 
-            // 限制历史记录数量
-            if (history.size() > MAX_HISTORY_SIZE) {
-                history = history.subList(history.size() - MAX_HISTORY_SIZE, history.size());
+                if (written > 0) {
+                    dao.touchConversation(conversationId, System.currentTimeMillis());
+                    renameIfUntitled(conversationId, firstUserMessage);
+                    Log.d(TAG, "Messages saved: " + written);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error saving messages", e);
             }
-
-            saveHistory(history);
-            Log.d(TAG, "Messages saved, total: " + history.size());
-        } catch (Exception e) {
-            Log.e(TAG, "Error saving messages", e);
-        }
+        });
     }
 
     /**
-     * 加载历史记录
-     * @return 消息列表
+     * 清空指定对话的消息
      */
-    public List<ChatMessage> loadHistory() {
-        if (!historyFile.exists()) {
-            Log.d(TAG, "History file does not exist");
-            return new ArrayList<>();
-        }
-
-        try (FileReader reader = new FileReader(historyFile)) {
-            Type type = new TypeToken<List<ChatMessage>>(){}.getType();
-            List<ChatMessage> history = gson.fromJson(reader, type);
-            
-            if (history == null) {
-                history = new ArrayList<>();
+    public void clearConversation(long conversationId) {
+        executor.execute(() -> {
+            try {
+                dao.deleteMessages(conversationId);
+                signatures.clear();
+                Log.d(TAG, "Conversation cleared: " + conversationId);
+            } catch (Exception e) {
+                Log.e(TAG, "Error clearing conversation", e);
             }
-            
-            Log.d(TAG, "Loaded " + history.size() + " messages");
-            return history;
-        } catch (Exception e) {
-            Log.e(TAG, "Error loading history", e);
-            return new ArrayList<>();
-        }
+        });
     }
 
     /**
-     * 保存完整历史记录
-     * @param history 消息列表
+     * 删除指定消息
+     * @param messageId 消息ID
      */
-    public void saveHistory(List<ChatMessage> history) {
-        try (FileWriter writer = new FileWriter(historyFile)) {
-            gson.toJson(history, writer);
-            Log.d(TAG, "History saved to file");
-        } catch (IOException e) {
-            Log.e(TAG, "Error writing history file", e);
+    public void deleteMessage(String messageId) {
+        if (messageId == null || messageId.isEmpty()) {
+            return;
         }
+
+        executor.execute(() -> {
+            try {
+                if (dao.deleteMessage(messageId) > 0) {
+                    signatures.remove(messageId);
+                    Log.d(TAG, "Message deleted: " + messageId);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error deleting message", e);
+            }
+        });
     }
 
-    /**
-     * 清空历史记录
-     */
-    public void clearHistory() {
-        clearAll();
+    public long getActiveConversationId() {
+        return prefs.getLong(KEY_ACTIVE_CONVERSATION, -1);
+    }
+
+    private void setActiveConversationId(long conversationId) {
+        prefs.edit().putLong(KEY_ACTIVE_CONVERSATION, conversationId).apply();
+    }
+
+    private ChatConversation createConversationInternal() {
+        long now = System.currentTimeMillis();
+        ChatConversation conversation = new ChatConversation(DEFAULT_TITLE, now, now);
+        conversation.setId(dao.insertConversation(conversation));
+        return conversation;
+    }
+
+    private void deliverLatestPage(ChatConversation conversation, ConversationCallback callback) {
+        List<ChatMessageRecord> records = dao.getLatestMessages(conversation.getId(), PAGE_SIZE + 1);
+        boolean hasMore = records.size() > PAGE_SIZE;
+        List<ChatMessage> messages = toMessages(records, PAGE_SIZE);
+        Log.d(TAG, "Loaded " + messages.size() + " messages of conversation " + conversation.getId());
+        callback.onLoaded(conversation, messages, hasMore);
     }
 
     /**
-     * 清空历史记录
+     * 将按seq倒序查询的记录转换为正序消息列表
      */
-    public void clearAll() {
-        try {
-            if (historyFile.exists()) {
-                boolean deleted = historyFile.delete();
-                if (deleted) {
-                    Log.d(TAG, "History file deleted");
-                } else {
-                    Log.w(TAG, "Failed to delete history file");
+    private List<ChatMessage> toMessages(List<ChatMessageRecord> records, int limit) {
+        List<ChatMessage> messages = new ArrayList<>();
+        int count = Math.min(limit, records.size());
+        for (int i = count - 1; i >= 0; i--) {
+            try {
+                ChatMessage message = gson.fromJson(records.get(i).getPayload(), ChatMessage.class);
+                if (message != null) {
+                    signatures.put(message.getId(), signatureOf(message));
+                    messages.add(message);
                 }
+            } catch (Exception e) {
+                Log.w(TAG, "Skipping malformed message " + records.get(i).getMessageId());
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Error clearing history", e);
         }
+        return messages;
     }
 
-    /**
-     * 获取历史记录数量
-     * @return 消息数量
-     */
-    public int getHistorySize() {
-        return loadHistory().size();
+    private void renameIfUntitled(long conversationId, String firstUserMessage) {
+        if (firstUserMessage == null || firstUserMessage.trim().isEmpty()) {
+            return;
+        }
+        ChatConversation conversation = dao.getConversation(conversationId);
+        if (conversation != null && DEFAULT_TITLE.equals(conversation.getTitle())) {
+            String title = firstUserMessage.trim().replace('\n', ' ');
+            if (title.length() > MAX_TITLE_LENGTH) {
+                title = title.substring(0, MAX_TITLE_LENGTH) + "…";
+            }
+            dao.renameConversation(conversationId, title);
+        }
     }
 
     /**
-     * 获取最近N条消息
-     * @param count 消息数量
-     * @return 消息列表
+     * 将旧版聊天记录文件（见LegacyChatHistory）导入为一个对话
+     * 导入在一个事务中完成，提交后才删除旧文件并标记完成；读取出错或事务失败时旧文件保留，下次加载时重新导入。
+     * 有内容无法解析时导入其余消息，旧文件改名为.bak保留
      */
-    public List<ChatMessage> getRecentMessages(int count) {
-        List<ChatMessage> history = loadHistory();
-        
-        if (history.size() <= count) {
-            return history;
+    private void migrateLegacyFiles() throws IOException {
+        if (migrated) {
+            return;
+        }
+        if (!legacyHistory.exists()) {
+            migrated = true;
+            return;
+        }
+
+        LegacyChatHistory.Contents contents = legacyHistory.read();
+        LinkedHashMap<String, ChatMessage> messages = contents.messages;
+        if (!messages.isEmpty()) {
+            long[] imported = new long[1];
+            transactionRunner.run(() -> {
+                ChatConversation conversation = createConversationInternal();
+                for (ChatMessage message : messages.values()) {
+                    dao.insertMessage(new ChatMessageRecord(message.getId(), conversation.getId(),
+                            message.getRole(), message.getTimestamp(), gson.toJson(message)));
+                }
+                dao.renameConversation(conversation.getId(), "历史对话");
+                imported[0] = conversation.getId();
+            });
+            setActiveConversationId(imported[0]);
+            Log.d(TAG, "Migrated " + messages.size() + " legacy messages");
         }
-        
-        return history.subList(history.size() - count, history.size());
+        if (contents.unreadable > 0) {
+            Log.w(TAG, "Skipped " + contents.unreadable + " unreadable legacy entries, keeping backup");
+            legacyHistory.keepAsBackup();
+        } else {
+            legacyHistory.delete();
+        }
+        migrated = true;
     }
 
     /**
-     * 删除指定消息
-     * @param messageId 消息ID
-     * @return 是否成功
+     * 消息内容签名，用于判断消息是否需要重新写入
      */
-    public boolean deleteMessage(String messageId) {
-        if (messageId == null || messageId.isEmpty()) {
-            return false;
-        }
+    private static int signatureOf(ChatMessage message) {
+        return Objects.hash(message.getRole(), message.getContent(), message.isError(),
+                message.isThinking(), message.isSummary(), message.getFunctionName(),
+                message.getToolCallId(),
+                message.getFunctionCalls() != null ? message.getFunctionCalls().size() : 0);
+    }
 
-        try {
-            List<ChatMessage> history = loadHistory();
-            boolean removed = history.removeIf(msg -> messageId.equals(msg.getId()));
-            
-            if (removed) {
-                saveHistory(history);
-                Log.d(TAG, "Message deleted: " + messageId);
-            }
-            
-            return removed;
-        } catch (Exception e) {
-            Log.e(TAG, "Error deleting message", e);
-            return false;
-        }
+    public interface ConversationCallback {
+        void onLoaded(ChatConversation conversation, List<ChatMessage> messages, boolean hasMore);
+        void onError(String error);
+    }
+
+    public interface ConversationListCallback {
+        void onSuccess(List<ChatConversation> conversations);
+        void onError(String error);
+    }
+
+    public interface MessagesCallback {
+        void onLoaded(List<ChatMessage> messages, boolean hasMore);
+        void onError(String error);
     }
 }
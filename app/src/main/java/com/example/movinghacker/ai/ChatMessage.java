@@ -19,6 +19,7 @@ public class ChatMessage {
     private boolean isThinking;  // 是否是思考过程消息
     private boolean isSummary;   // 是否是上下文总结消息
     private String thinkingType; // 思考类型: "function_call", "code_generation", "analysis"
+    private String summarizedUntil; // 总结消息覆盖到的最后一条消息ID（之前的消息不再发送给模型）
 
     public ChatMessage() {
         this.id = UUID.randomUUID().toString();
@@ -166,4 +167,12 @@ public class ChatMessage {
     public void setToolCallId(String toolCallId) {
         this.toolCallId = toolCallId;
     }
+
+    public String getSummarizedUntil() {
+        return summarizedUntil;
+    }
+
+    public void setSummarizedUntil(String summarizedUntil) {
+        this.summarizedUntil = summarizedUntil;
+    }
 }
@@ -0,0 +1,82 @@
+package com.example.movinghacker.ai;
+
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * 聊天消息存储记录
+ * seq为自增序号，决定消息在对话中的顺序；payload为ChatMessage的JSON
+ */
+@Entity(tableName = "chat_messages",
+        indices = {
+                @Index(value = {"messageId"}, unique = true),
+                @Index(value = {"conversationId", "seq"})
+        })
+public class ChatMessageRecord {
+
+    @PrimaryKey(autoGenerate = true)
+    private long seq;
+
+    private String messageId;
+    private long conversationId;
+    private String role;
+    private long timestamp;
+    private String payload;
+
+    public ChatMessageRecord(String messageId, long conversationId, String role, long timestamp, String payload) {
+        this.messageId = messageId;
+        this.conversationId = conversationId;
+        this.role = role;
+        this.timestamp = timestamp;
+        this.payload = payload;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(long seq) {
+        this.seq = seq;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
+
+    public long getConversationId() {
+        return conversationId;
+    }
+
+    public void setConversationId(long conversationId) {
+        this.conversationId = conversationId;
+    }
+
+    public String getRole() {
+        return role;
+    }
+
+    public void setRole(String role) {
+        this.role = role;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.movinghacker.ai;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按端点划分的熔断器
+ * 连续失败达到阈值后打开，在冷却期内直接失败；冷却期结束后放行一个探测请求，
+ * 探测成功则关闭，失败则以加倍的冷却时间重新打开
+ */
+class CircuitBreaker {
+
+    private static final int FAILURE_THRESHOLD = 5;
+    private static final long INITIAL_OPEN_MS = 30_000;
+    private static final long MAX_OPEN_MS = 5 * 60_000;
+
+    private static final Map<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    private int consecutiveFailures;
+    private long openUntil;
+    private long openDurationMs = INITIAL_OPEN_MS;
+    private boolean probeInFlight;
+
+    /**
+     * 获取端点（scheme://host:port）对应的熔断器
+     */
+    static CircuitBreaker forEndpoint(String endpoint) {
+        return BREAKERS.computeIfAbsent(endpoint, key -> new CircuitBreaker());
+    }
+
+    /**
+     * 是否允许发出请求
+     * 冷却期结束后只放行一个探测请求
+     */
+    synchronized boolean allowRequest() {
+        if (consecutiveFailures < FAILURE_THRESHOLD) {
+            return true;
+        }
+        if (System.currentTimeMillis() < openUntil || probeInFlight) {
+            return false;
+        }
+        probeInFlight = true;
+        return true;
+    }
+
+    /**
+     * 距离允许下一次请求的剩余时间（毫秒）
+     */
+    synchronized long remainingOpenMs() {
+        return Math.max(0, openUntil - System.currentTimeMillis());
+    }
+
+    synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        openDurationMs = INITIAL_OPEN_MS;
+        probeInFlight = false;
+    }
+
+    synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (probeInFlight) {
+            // 探测失败，延长冷却时间
+            probeInFlight = false;
+            openDurationMs = Math.min(MAX_OPEN_MS, openDurationMs * 2);
+            openUntil = System.currentTimeMillis() + openDurationMs;
+        } else if (consecutiveFailures == FAILURE_THRESHOLD) {
+            openUntil = System.currentTimeMillis() + openDurationMs;
+        }
+    }
+
+    /**
+     * 请求以与端点健康无关的原因结束（如客户端错误、取消）时释放探测名额
+     */
+    synchronized void recordNeutral() {
+        probeInFlight = false;
+    }
+}
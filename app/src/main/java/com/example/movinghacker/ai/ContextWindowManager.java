@@ -0,0 +1,224 @@
+package com.example.movinghacker.ai;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 上下文窗口管理器
+ * 按Token预算组装发送给模型的消息：估算每条消息的Token数，裁剪过大的Function结果，
+ * 超出预算时从最早的轮次开始移出窗口，由调用方把移出的轮次滚动合并进上下文总结
+ */
+class ContextWindowManager {
+
+    private static final String TAG = "ContextWindowManager";
+
+    // 每条消息的固定开销（角色、分隔符等）
+    private static final int MESSAGE_OVERHEAD_TOKENS = 4;
+    // 当前轮次Function结果保留的最大字符数
+    private static final int ACTIVE_RESULT_MAX_CHARS = 24_000;
+    // 历史轮次Function结果保留的最大字符数
+    private static final int HISTORY_RESULT_MAX_CHARS = 2_000;
+
+    private final int budget;
+
+    ContextWindowManager(int budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * 组装结果
+     */
+    static class Window {
+        // 待发送的对话消息（不含system消息）
+        final List<ChatMessage> messages;
+        // 因超出预算被移出窗口、尚未被总结覆盖的消息
+        final List<ChatMessage> rolledOut;
+        final int estimatedTokens;
+
+        Window(List<ChatMessage> messages, List<ChatMessage> rolledOut, int estimatedTokens) {
+            this.messages = messages;
+            this.rolledOut = rolledOut;
+            this.estimatedTokens = estimatedTokens;
+        }
+    }
+
+    /**
+     * 组装上下文窗口
+     * @param systemMessages 固定发送的system消息（提示词和总结）
+     * @param history 对话历史（最新总结之前的消息视为已被总结覆盖）
+     * @param extraMessages 本轮附加的消息，可能与history重复
+     */
+    Window build(List<ChatMessage> systemMessages, List<ChatMessage> history, List<ChatMessage> extraMessages) {
+        int fixedTokens = 0;
+        for (ChatMessage msg : systemMessages) {
+            fixedTokens += estimateTokens(msg);
+        }
+
+        List<ChatMessage> candidates = new ArrayList<>();
+        Set<String> seenIds = new HashSet<>();
+        int boundary = findSummaryBoundary(history);
+        for (int i = boundary; i < history.size(); i++) {
+            addCandidate(candidates, seenIds, history.get(i));
+        }
+        // 当前轮次从最后一条用户消息开始（附加消息中的提示不改变轮次划分）
+        int activeStart = 0;
+        for (int i = candidates.size() - 1; i >= 0; i--) {
+            if (candidates.get(i).isUser()) {
+                activeStart = i;
+                break;
+            }
+        }
+        if (extraMessages != null) {
+            for (ChatMessage msg : extraMessages) {
+                addCandidate(candidates, seenIds, msg);
+            }
+        }
+
+        int total = fixedTokens;
+        int[] tokens = new int[candidates.size()];
+        for (int i = 0; i < candidates.size(); i++) {
+            int limit = i >= activeStart ? ACTIVE_RESULT_MAX_CHARS : HISTORY_RESULT_MAX_CHARS;
+            ChatMessage compacted = compactFunctionResult(candidates.get(i), limit);
+            candidates.set(i, compacted);
+            tokens[i] = estimateTokens(compacted);
+            total += tokens[i];
+        }
+
+        // 超出预算时按轮次移出最早的消息，当前轮次始终保留
+        int start = 0;
+        while (total > budget && start < activeStart) {
+            int next = start + 1;
+            while (next < activeStart && !candidates.get(next).isUser()) {
+                next++;
+            }
+            for (int i = start; i < next; i++) {
+                total -= tokens[i];
+            }
+            start = next;
+        }
+
+        // 仍然超出时进一步压缩当前轮次的Function结果
+        if (total > budget) {
+            for (int i = start; i < candidates.size(); i++) {
+                ChatMessage compacted = compactFunctionResult(candidates.get(i), HISTORY_RESULT_MAX_CHARS);
+                if (compacted != candidates.get(i)) {
+                    candidates.set(i, compacted);
+                    total -= tokens[i];
+                    tokens[i] = estimateTokens(compacted);
+                    total += tokens[i];
+                }
+            }
+            if (total > budget) {
+                Log.w(TAG, "Context still exceeds budget: " + total + " > " + budget);
+            }
+        }
+
+        List<ChatMessage> rolledOut = new ArrayList<>(candidates.subList(0, start));
+        List<ChatMessage> window = new ArrayList<>(candidates.subList(start, candidates.size()));
+        return new Window(window, rolledOut, total);
+    }
+
+    private void addCandidate(List<ChatMessage> candidates, Set<String> seenIds, ChatMessage msg) {
+        if (msg == null || msg.isSystem() || msg.isThinking() || msg.isSummary()) {
+            return;
+        }
+        if (msg.getId() != null && !seenIds.add(msg.getId())) {
+            return;
+        }
+        candidates.add(msg);
+    }
+
+    /**
+     * 最新一条总结消息覆盖的位置，之前的消息不再发送
+     * 分页加载时覆盖点可能不在当前列表中，此时列表整体都在覆盖点之后
+     */
+    private int findSummaryBoundary(List<ChatMessage> history) {
+        for (int i = history.size() - 1; i >= 0; i--) {
+            ChatMessage msg = history.get(i);
+            if (msg == null || !msg.isSummary()) {
+                continue;
+            }
+            String until = msg.getSummarizedUntil();
+            if (until == null) {
+                return 0;
+            }
+            for (int j = i - 1; j >= 0; j--) {
+                if (history.get(j) != null && until.equals(history.get(j).getId())) {
+                    return j + 1;
+                }
+            }
+            return 0;
+        }
+        return 0;
+    }
+
+    /**
+     * 裁剪过长的Function结果，保留首尾内容（返回副本，不修改原消息）
+     */
+    static ChatMessage compactFunctionResult(ChatMessage msg, int maxChars) {
+        String role = msg.getRole();
+        if (!"function".equals(role) && !"tool".equals(role)) {
+            return msg;
+        }
+        String content = msg.getContent();
+        if (content == null || content.length() <= maxChars) {
+            return msg;
+        }
+        ChatMessage copy = new ChatMessage(role, truncateMiddle(content, maxChars));
+        copy.setId(msg.getId());
+        copy.setTimestamp(msg.getTimestamp());
+        copy.setFunctionName(msg.getFunctionName());
+        copy.setToolCallId(msg.getToolCallId());
+        return copy;
+    }
+
+    static String truncateMiddle(String text, int maxChars) {
+        int head = maxChars * 2 / 3;
+        int tail = maxChars - head;
+        int omitted = text.length() - head - tail;
+        return text.substring(0, head)
+                + "\n...[内容过长，已省略中间 " + omitted + " 个字符]...\n"
+                + text.substring(text.length() - tail);
+    }
+
+    /**
+     * 估算单条消息的Token数
+     */
+    static int estimateTokens(ChatMessage msg) {
+        int tokens = MESSAGE_OVERHEAD_TOKENS + estimateTokens(msg.getContent());
+        if (msg.getFunctionName() != null) {
+            tokens += estimateTokens(msg.getFunctionName());
+        }
+        List<FunctionCall> calls = msg.getFunctionCalls();
+        if (calls != null) {
+            for (FunctionCall call : calls) {
+                tokens += MESSAGE_OVERHEAD_TOKENS + estimateTokens(call.getName()) + estimateTokens(call.getArguments());
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * 本地近似分词：ASCII约4个字符一个Token，中文等非ASCII字符约一个字符一个Token
+     */
+    static int estimateTokens(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int ascii = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                ascii++;
+            } else if (!Character.isLowSurrogate(c)) {
+                other++;
+            }
+        }
+        return (ascii + 3) / 4 + other;
+    }
+}
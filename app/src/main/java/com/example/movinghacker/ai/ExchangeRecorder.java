@@ -0,0 +1,204 @@
+package com.example.movinghacker.ai;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * LLM请求/响应录制器
+ * 开启后把AIApiClient发出的每次HTTP交换按JSON Lines格式追加到样本文件，供离线回放测试使用
+ * 响应体在被读取的同时复制一份（不影响流式输出），读完或关闭时写入一行；API Key相关的请求头和参数不会被记录
+ *
+ * 每行格式：
+ * {"method","path","query","request","status","contentType","body","headersMs","totalMs"}
+ */
+public class ExchangeRecorder implements Interceptor {
+
+    private static final String TAG = "ExchangeRecorder";
+
+    private static ExchangeRecorder instance;
+
+    private final Gson gson = new Gson();
+    private volatile Writer writer;
+    private File currentFile;
+    private int recordedCount;
+
+    private ExchangeRecorder() {
+    }
+
+    public static synchronized ExchangeRecorder getInstance() {
+        if (instance == null) {
+            instance = new ExchangeRecorder();
+        }
+        return instance;
+    }
+
+    /**
+     * 开始录制，在指定目录下新建样本文件
+     * @return 样本文件
+     */
+    public synchronized File start(File directory) throws IOException {
+        stop();
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("无法创建目录：" + directory);
+        }
+        String name = "replay_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date()) + ".jsonl";
+        currentFile = new File(directory, name);
+        recordedCount = 0;
+        writer = new OutputStreamWriter(new FileOutputStream(currentFile), StandardCharsets.UTF_8);
+        Log.d(TAG, "Recording exchanges to " + currentFile);
+        return currentFile;
+    }
+
+    /**
+     * 停止录制
+     * @return 本次录制的样本文件，未在录制时返回null
+     */
+    public synchronized File stop() {
+        Writer current = writer;
+        if (current == null) {
+            return null;
+        }
+        writer = null;
+        try {
+            current.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to close fixture file", e);
+        }
+        Log.d(TAG, "Recorded " + recordedCount + " exchanges to " + currentFile);
+        return currentFile;
+    }
+
+    public boolean isRecording() {
+        return writer != null;
+    }
+
+    public synchronized int getRecordedCount() {
+        return recordedCount;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        if (writer == null) {
+            return chain.proceed(chain.request());
+        }
+
+        Request request = chain.request();
+        long start = System.nanoTime();
+        Response response = chain.proceed(request);
+        long headersNanos = System.nanoTime() - start;
+        ResponseBody body = response.body();
+        if (body == null) {
+            return response;
+        }
+
+        JsonObject exchange = new JsonObject();
+        exchange.addProperty("method", request.method());
+        exchange.addProperty("path", request.url().encodedPath());
+        exchange.addProperty("query", sanitizedQuery(request.url()));
+        exchange.add("request", readRequestBody(request));
+        exchange.addProperty("status", response.code());
+        MediaType contentType = body.contentType();
+        exchange.addProperty("contentType", contentType != null ? contentType.toString() : null);
+        exchange.addProperty("headersMs", headersNanos / 1_000_000);
+
+        Source tee = new ForwardingSource(body.source()) {
+            private final Buffer copy = new Buffer();
+            private boolean written;
+
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                long read = super.read(sink, byteCount);
+                if (read > 0) {
+                    sink.copyTo(copy, sink.size() - read, read);
+                } else if (read == -1) {
+                    complete();
+                }
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                complete();
+                super.close();
+            }
+
+            private void complete() {
+                if (written) {
+                    return;
+                }
+                written = true;
+                exchange.addProperty("body", copy.readUtf8());
+                exchange.addProperty("totalMs", (System.nanoTime() - start) / 1_000_000);
+                append(exchange);
+            }
+        };
+        return response.newBuilder()
+                .body(ResponseBody.create(Okio.buffer(tee), contentType, body.contentLength()))
+                .build();
+    }
+
+    private synchronized void append(JsonObject exchange) {
+        Writer current = writer;
+        if (current == null) {
+            return;
+        }
+        try {
+            current.write(gson.toJson(exchange));
+            current.write('\n');
+            current.flush();
+            recordedCount++;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to record exchange", e);
+        }
+    }
+
+    /**
+     * 请求体重新序列化一份用于记录（JsonRequestBody可重复写入）
+     */
+    private JsonElement readRequestBody(Request request) {
+        if (request.body() == null) {
+            return null;
+        }
+        try {
+            Buffer buffer = new Buffer();
+            request.body().writeTo(buffer);
+            return JsonParser.parseString(buffer.readUtf8());
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to capture request body", e);
+            return null;
+        }
+    }
+
+    /**
+     * 去掉key参数后的查询串
+     */
+    private static String sanitizedQuery(HttpUrl url) {
+        HttpUrl.Builder builder = url.newBuilder().removeAllQueryParameters("key");
+        return builder.build().encodedQuery();
+    }
+}
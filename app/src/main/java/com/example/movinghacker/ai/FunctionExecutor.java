@@ -6,7 +6,12 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Function执行器
@@ -14,12 +19,19 @@ import java.util.concurrent.Future;
  */
 public class FunctionExecutor {
     private static final String TAG = "FunctionExecutor";
+    private static final long STOP_POLL_INTERVAL_MS = 100;
+    // 每次提交的调用分配唯一的执行标识，取消时只终止对应的那一次
+    private static final AtomicLong EXECUTION_IDS = new AtomicLong();
     private ExecutorService executorService;
     private FunctionRegistry registry;
 
     public FunctionExecutor() {
+        this(FunctionRegistry.getInstance());
+    }
+
+    public FunctionExecutor(FunctionRegistry registry) {
         this.executorService = Executors.newCachedThreadPool();
-        this.registry = FunctionRegistry.getInstance();
+        this.registry = registry;
     }
 
     /**
@@ -77,6 +89,169 @@ public class FunctionExecutor {
         return results;
     }
 
+    /**
+     * 并发批量执行多个Function
+     * 连续的只读Function并行执行，有副作用的Function单独按顺序执行；
+     * 结果顺序与调用顺序一致，遇到第一个失败结果后停止后续调用
+     * @param calls Function调用列表
+     * @param timeoutMs 单个调用的超时时间（毫秒）
+     * @param stopToken 停止标记，可为null
+     * @return 执行结果列表
+     */
+    public List<FunctionResult> executeBatchConcurrent(List<FunctionCall> calls, long timeoutMs,
+                                                       AIService.StopToken stopToken) {
+        List<FunctionResult> results = new ArrayList<>();
+
+        if (calls == null || calls.isEmpty()) {
+            return results;
+        }
+
+        int index = 0;
+        while (index < calls.size()) {
+            if (stopToken != null && stopToken.isStopped()) {
+                FunctionCall call = calls.get(index);
+                results.add(FunctionResult.error(call != null ? call.getId() : null, "用户已停止"));
+                break;
+            }
+
+            // 收集连续的只读调用作为一组并行执行
+            int end = index;
+            while (end < calls.size() && isReadOnly(calls.get(end))) {
+                end++;
+            }
+            if (end == index) {
+                end = index + 1;
+            }
+
+            List<FunctionCall> group = calls.subList(index, end);
+            List<Future<FunctionResult>> futures = new ArrayList<>();
+            List<String> executionIds = new ArrayList<>();
+            AgentTrace trace = AgentTrace.current();
+            String sessionKey = FunctionSession.current();
+            for (FunctionCall call : group) {
+                String executionId = "exec-" + EXECUTION_IDS.incrementAndGet();
+                executionIds.add(executionId);
+                futures.add(executorService.submit(() -> executeTraced(call, trace, sessionKey, executionId)));
+            }
+            // 超时从提交时算起，排在同组后面等待的调用不会重新获得完整的超时时间
+            long deadline = System.currentTimeMillis() + timeoutMs;
+
+            boolean failed = false;
+            for (int i = 0; i < group.size(); i++) {
+                FunctionResult result = awaitResult(group.get(i), executionIds.get(i), futures.get(i), deadline,
+                        timeoutMs, stopToken);
+                results.add(result);
+                if (!result.isSuccess()) {
+                    failed = true;
+                    // 取消同组中尚未完成的调用
+                    for (int j = i + 1; j < futures.size(); j++) {
+                        FunctionCall pending = group.get(j);
+                        cancel(pending != null ? pending.getName() : null, executionIds.get(j), futures.get(j));
+                    }
+                    break;
+                }
+            }
+            if (failed) {
+                break;
+            }
+            index = end;
+        }
+
+        return results;
+    }
+
+    /**
+     * 在工作线程上执行并把耗时记入调用方的任务记录，执行期间绑定调用方的会话标识和本次的执行标识
+     */
+    private FunctionResult executeTraced(FunctionCall call, AgentTrace trace, String sessionKey,
+                                         String executionId) {
+        long start = System.nanoTime();
+        FunctionResult result = null;
+        FunctionSession.attach(sessionKey);
+        FunctionSession.attachExecution(executionId);
+        try {
+            result = registry.execute(call);
+            return result;
+        } finally {
+            FunctionSession.attach(null);
+            FunctionSession.attachExecution(null);
+            if (trace != null) {
+                String detail = result == null ? "failed" : result.isSuccess() ? "ok" : result.getError();
+                trace.record(AgentTrace.PHASE_TOOL, call.getName(), start, detail);
+            }
+        }
+    }
+
+    private boolean isReadOnly(FunctionCall call) {
+        return call != null && registry.isReadOnly(call.getName());
+    }
+
+    /**
+     * 等待单个调用完成，期间轮询停止标记
+     * @param executionId 提交时分配的执行标识
+     * @param deadline 提交调用时确定的截止时间
+     * @param timeoutMs 超时时间，仅用于错误信息
+     */
+    private FunctionResult awaitResult(FunctionCall call, String executionId, Future<FunctionResult> future,
+                                       long deadline, long timeoutMs, AIService.StopToken stopToken) {
+        String callId = call != null ? call.getId() : null;
+        String name = call != null ? call.getName() : null;
+        // 用户停止时立即终止执行，不等待下一次轮询
+        Runnable cancelAction = () -> cancel(name, executionId, future);
+        if (stopToken != null) {
+            stopToken.addCancelAction(cancelAction);
+        }
+        try {
+            while (true) {
+                if (stopToken != null && stopToken.isStopped()) {
+                    cancel(name, executionId, future);
+                    return FunctionResult.error(callId, "用户已停止");
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    cancel(name, executionId, future);
+                    return FunctionResult.error(callId, "执行超时（" + (timeoutMs / 1000) + "秒）");
+                }
+                try {
+                    FunctionResult result = future.get(Math.min(remaining, STOP_POLL_INTERVAL_MS),
+                            TimeUnit.MILLISECONDS);
+                    if (result == null) {
+                        result = FunctionResult.error(callId, "Function returned null result");
+                    }
+                    return result;
+                } catch (TimeoutException ignored) {
+                    // 继续等待
+                }
+            }
+        } catch (InterruptedException e) {
+            cancel(name, executionId, future);
+            Thread.currentThread().interrupt();
+            return FunctionResult.error(callId, "用户已停止");
+        } catch (CancellationException e) {
+            return FunctionResult.error(callId, "用户已停止");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            Log.e(TAG, "Error in concurrent execution: " + (call != null ? call.getName() : null), cause);
+            return FunctionResult.error(callId, cause.getMessage());
+        } finally {
+            if (stopToken != null) {
+                stopToken.removeCancelAction(cancelAction);
+            }
+        }
+    }
+
+    /**
+     * 中断执行线程并通知Handler终止这一次执行的进程等外部资源
+     * 按执行标识取消，其他对话中同一Function的调用不受影响
+     */
+    private void cancel(String name, String executionId, Future<FunctionResult> future) {
+        if (future.isDone()) {
+            return;
+        }
+        future.cancel(true);
+        registry.cancel(name, executionId);
+    }
+
     /**
      * 异步批量执行多个Function
      * @param calls Function调用列表
@@ -24,4 +24,21 @@ public interface FunctionHandler {
      * @return 函数名称
      */
     String getName();
+    
+    /**
+     * 是否为只读（无副作用）函数
+     * 只读函数可以与同一轮中的其他只读函数并行执行
+     * @return 是否只读
+     */
+    boolean isReadOnly();
+
+    /**
+     * 取消一次正在进行的执行（用户停止或超时时调用）
+     * 同一Handler可能同时被多个对话调用，只能终止executionId对应的那一次；
+     * 执行期间可通过FunctionSession.currentExecution()获得本次的执行标识。
+     * 默认不做处理，长时间运行的函数应在此终止进程或中断执行
+     * @param executionId 要取消的执行标识
+     */
+    default void cancel(String executionId) {
+    }
 }
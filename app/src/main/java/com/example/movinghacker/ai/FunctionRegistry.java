@@ -3,7 +3,12 @@ package com.example.movinghacker.ai;
 import android.content.Context;
 import android.util.Log;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -17,6 +22,15 @@ public class FunctionRegistry {
     private static FunctionRegistry instance;
     private Map<String, FunctionHandler> handlers;
     private Context context;
+    private final Gson gson = new Gson();
+
+    // 注册表版本，注册/清除Function时递增，用于使缓存的定义和tools JSON失效
+    private int version;
+    private int cachedVersion = -1;
+    private List<FunctionDefinition> cachedDefinitions;
+    // 序列化后的tools JSON，字符串不可变，可直接在各个请求之间共享
+    private String cachedOpenAITools;
+    private String cachedGeminiTools;
 
     private FunctionRegistry() {
         handlers = new HashMap<>();
@@ -64,7 +78,10 @@ public class FunctionRegistry {
             return;
         }
         
-        handlers.put(name, handler);
+        synchronized (this) {
+            handlers.put(name, handler);
+            version++;
+        }
         Log.d(TAG, "Registered function: " + name);
     }
 
@@ -72,7 +89,11 @@ public class FunctionRegistry {
      * 获取所有Function定义
      * @return Function定义列表
      */
-    public List<FunctionDefinition> getAllDefinitions() {
+    public synchronized List<FunctionDefinition> getAllDefinitions() {
+        // 定义在两次注册之间不会变化，按版本缓存
+        if (cachedVersion == version && cachedDefinitions != null) {
+            return cachedDefinitions;
+        }
         List<FunctionDefinition> definitions = new ArrayList<>();
         for (FunctionHandler handler : handlers.values()) {
             try {
@@ -84,7 +105,122 @@ public class FunctionRegistry {
                 Log.e(TAG, "Error getting definition from handler: " + handler.getName(), e);
             }
         }
-        return definitions;
+        cachedDefinitions = Collections.unmodifiableList(definitions);
+        cachedOpenAITools = null;
+        cachedGeminiTools = null;
+        cachedVersion = version;
+        return cachedDefinitions;
+    }
+
+    /**
+     * 获取序列化后的OpenAI格式tools数组
+     * 传入的是当前缓存的定义列表时复用预先序列化的结果
+     * @param definitions Function定义列表
+     */
+    public String getOpenAIToolsJson(List<FunctionDefinition> definitions) {
+        synchronized (this) {
+            if (definitions == cachedDefinitions && cachedVersion == version) {
+                if (cachedOpenAITools == null) {
+                    cachedOpenAITools = gson.toJson(buildOpenAITools(definitions));
+                }
+                return cachedOpenAITools;
+            }
+        }
+        return gson.toJson(buildOpenAITools(definitions));
+    }
+
+    /**
+     * 获取序列化后的Gemini格式tools数组（functionDeclarations）
+     * 传入的是当前缓存的定义列表时复用预先序列化的结果
+     * @param definitions Function定义列表
+     */
+    public String getGeminiToolsJson(List<FunctionDefinition> definitions) {
+        synchronized (this) {
+            if (definitions == cachedDefinitions && cachedVersion == version) {
+                if (cachedGeminiTools == null) {
+                    cachedGeminiTools = gson.toJson(buildGeminiTools(definitions));
+                }
+                return cachedGeminiTools;
+            }
+        }
+        return gson.toJson(buildGeminiTools(definitions));
+    }
+
+    private JsonArray buildOpenAITools(List<FunctionDefinition> definitions) {
+        JsonArray toolsArray = new JsonArray();
+        for (FunctionDefinition func : definitions) {
+            JsonObject toolObj = new JsonObject();
+            toolObj.addProperty("type", "function");
+            toolObj.add("function", gson.toJsonTree(func));
+            toolsArray.add(toolObj);
+        }
+        return toolsArray;
+    }
+
+    private JsonArray buildGeminiTools(List<FunctionDefinition> definitions) {
+        JsonArray functionDeclarations = new JsonArray();
+        for (FunctionDefinition func : definitions) {
+            JsonObject funcDecl = new JsonObject();
+            funcDecl.addProperty("name", func.getName());
+            funcDecl.addProperty("description", func.getDescription());
+
+            // 构建完整的parameters JSON Schema
+            funcDecl.add("parameters", buildParametersSchema(func.getParameters()));
+
+            functionDeclarations.add(funcDecl);
+        }
+
+        JsonObject toolObj = new JsonObject();
+        toolObj.add("functionDeclarations", functionDeclarations);
+        JsonArray toolsArray = new JsonArray();
+        toolsArray.add(toolObj);
+        return toolsArray;
+    }
+
+    /**
+     * 构建符合JSON Schema的parameters对象
+     */
+    private JsonObject buildParametersSchema(Map<String, Object> params) {
+        JsonObject schema = new JsonObject();
+
+        if (params == null || params.isEmpty()) {
+            schema.addProperty("type", "object");
+            schema.add("properties", new JsonObject());
+            return schema;
+        }
+
+        // 如果已经包含type字段，说明是完整的schema
+        if (params.containsKey("type")) {
+            return gson.toJsonTree(params).getAsJsonObject();
+        }
+
+        // 否则，构建完整的schema
+        schema.addProperty("type", "object");
+
+        JsonObject properties = new JsonObject();
+        JsonArray required = new JsonArray();
+
+        for (Map.Entry<String, Object> entry : params.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+
+            if ("required".equals(key) && value instanceof List) {
+                // 处理required数组
+                for (Object item : (List<?>) value) {
+                    required.add(item.toString());
+                }
+            } else if (value instanceof Map) {
+                // 处理属性定义
+                properties.add(key, gson.toJsonTree(value));
+            }
+        }
+
+        schema.add("properties", properties);
+        if (required.size() > 0) {
+            schema.add("required", required);
+        }
+
+        return schema;
     }
 
     /**
@@ -140,6 +276,34 @@ public class FunctionRegistry {
         return handlers.containsKey(name);
     }
 
+    /**
+     * 检查Function是否为只读（可并行执行）
+     * 未注册的Function按有副作用处理
+     * @param name Function名称
+     * @return 是否只读
+     */
+    public boolean isReadOnly(String name) {
+        FunctionHandler handler = name != null ? handlers.get(name) : null;
+        return handler != null && handler.isReadOnly();
+    }
+
+    /**
+     * 取消指定Function的一次执行，同一Function的其他调用不受影响
+     * @param name Function名称
+     * @param executionId 执行标识，见FunctionSession.currentExecution()
+     */
+    public void cancel(String name, String executionId) {
+        FunctionHandler handler = name != null ? handlers.get(name) : null;
+        if (handler == null || executionId == null) {
+            return;
+        }
+        try {
+            handler.cancel(executionId);
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to cancel function: " + name, e);
+        }
+    }
+
     /**
      * 注册所有Function
      * 这个方法会在后续阶段逐步添加各个模块的Handler
@@ -175,7 +339,8 @@ public class FunctionRegistry {
     /**
      * 清除所有注册的Function（用于测试）
      */
-    public void clear() {
+    public synchronized void clear() {
         handlers.clear();
+        version++;
     }
 }
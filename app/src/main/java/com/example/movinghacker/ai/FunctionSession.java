@@ -0,0 +1,52 @@
+package com.example.movinghacker.ai;
+
+/**
+ * Function调用所属的会话标识
+ * 对话任务执行Function前把当前对话的标识绑定到执行线程，
+ * 需要在多次调用之间保持状态的Handler（如终端的常驻Shell）据此区分不同对话；
+ * 每次调用另有唯一的执行标识，取消时Handler据此只终止这一次调用
+ */
+public final class FunctionSession {
+
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+    private static final ThreadLocal<String> EXECUTION = new ThreadLocal<>();
+
+    private FunctionSession() {
+    }
+
+    /**
+     * 当前线程所属会话，未绑定时返回null
+     */
+    public static String current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 将会话绑定到当前线程，传入null解除绑定
+     */
+    public static void attach(String sessionKey) {
+        if (sessionKey == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(sessionKey);
+        }
+    }
+
+    /**
+     * 当前线程正在进行的调用的执行标识，不经过FunctionExecutor调用时返回null
+     */
+    public static String currentExecution() {
+        return EXECUTION.get();
+    }
+
+    /**
+     * 将执行标识绑定到当前线程，传入null解除绑定
+     */
+    public static void attachExecution(String executionId) {
+        if (executionId == null) {
+            EXECUTION.remove();
+        } else {
+            EXECUTION.set(executionId);
+        }
+    }
+}
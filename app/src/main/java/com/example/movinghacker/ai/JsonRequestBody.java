@@ -0,0 +1,121 @@
+package com.example.movinghacker.ai;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * 流式JSON请求体
+ * 模型、采样参数等少量字段保存在一个小的JsonObject中；消息列表等大字段由Content在写出时
+ * 直接写入JsonWriter，不在内存中另外构建一份请求树，也不生成完整的JSON字符串和字节数组。
+ * 请求体可重复写入，重试时重新序列化
+ */
+class JsonRequestBody extends RequestBody {
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    /**
+     * 直接写出的请求内容
+     */
+    interface Content {
+        /**
+         * 在已开始的JSON对象中写出字段名和值
+         * @param normalized 为计算缓存键写出：省略每次请求都可能不同的工具调用ID
+         */
+        void write(JsonWriter writer, boolean normalized) throws IOException;
+    }
+
+    private final Gson gson;
+    private final JsonObject fields;
+    private final Content content;
+    // 请求带有工具定义，模型可能返回有副作用的Function调用
+    private final boolean withTools;
+    // 最近一次写出的字节数（用于记录请求大小）
+    private volatile long bytesWritten;
+
+    JsonRequestBody(Gson gson, JsonObject fields, Content content) {
+        this(gson, fields, content, false);
+    }
+
+    JsonRequestBody(Gson gson, JsonObject fields, Content content, boolean withTools) {
+        this.gson = gson;
+        this.fields = fields;
+        this.content = content;
+        this.withTools = withTools;
+    }
+
+    /**
+     * 请求的普通字段，可在发送前追加（如stream）
+     */
+    JsonObject getFields() {
+        return fields;
+    }
+
+    boolean hasTools() {
+        return withTools;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return JSON;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        // 不关闭writer，sink的生命周期由OkHttp管理
+        long[] count = new long[1];
+        OutputStream counting = new FilterOutputStream(sink.outputStream()) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                count[0]++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                count[0] += len;
+            }
+        };
+        JsonWriter writer = gson.newJsonWriter(new OutputStreamWriter(counting, StandardCharsets.UTF_8));
+        writeJson(writer, false);
+        writer.flush();
+        bytesWritten = count[0];
+    }
+
+    /**
+     * 写出完整的请求JSON
+     * @param normalized 为计算缓存键写出：另外省略stream相关字段，流式与非流式请求共享缓存
+     */
+    void writeJson(JsonWriter writer, boolean normalized) throws IOException {
+        writer.beginObject();
+        for (Map.Entry<String, JsonElement> field : fields.entrySet()) {
+            String name = field.getKey();
+            if (normalized && ("stream".equals(name) || "stream_options".equals(name))) {
+                continue;
+            }
+            writer.name(name);
+            gson.toJson(field.getValue(), writer);
+        }
+        if (content != null) {
+            content.write(writer, normalized);
+        }
+        writer.endObject();
+    }
+
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+}
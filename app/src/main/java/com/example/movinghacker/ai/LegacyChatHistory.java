@@ -0,0 +1,149 @@
+package com.example.movinghacker.ai;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * 旧版聊天记录文件，只读，仅供导入Room数据库使用
+ * chat_history.json：最初的整文件格式，保存全部消息的JSON数组；
+ * chat_history.jsonl：追加写入的put/delete日志。两种格式都已由Room存储取代，应用不再写入
+ */
+final class LegacyChatHistory {
+    private static final String TAG = "LegacyChatHistory";
+    private static final String HISTORY_FILE_NAME = "chat_history.json";
+    private static final String JOURNAL_FILE_NAME = "chat_history.jsonl";
+
+    private final File historyFile;
+    private final File journalFile;
+    private final Gson gson;
+
+    LegacyChatHistory(File filesDir, Gson gson) {
+        this.historyFile = new File(filesDir, HISTORY_FILE_NAME);
+        this.journalFile = new File(filesDir, JOURNAL_FILE_NAME);
+        this.gson = gson;
+    }
+
+    boolean exists() {
+        return historyFile.exists() || journalFile.exists();
+    }
+
+    /**
+     * 读取结果：合并后的消息，以及是否有无法解析的内容
+     */
+    static final class Contents {
+        final LinkedHashMap<String, ChatMessage> messages;
+        // 整文件无法解析或日志中跳过的行数
+        final int unreadable;
+
+        Contents(LinkedHashMap<String, ChatMessage> messages, int unreadable) {
+            this.messages = messages;
+            this.unreadable = unreadable;
+        }
+    }
+
+    /**
+     * 按写入顺序合并两个文件中的消息，日志中的记录覆盖整文件中的同ID消息
+     * 内容损坏的部分跳过并计数，读取出错时抛出异常，调用方应保留文件以便重试
+     */
+    Contents read() throws IOException {
+        LinkedHashMap<String, ChatMessage> messages = new LinkedHashMap<>();
+        int unreadable = 0;
+        if (historyFile.exists()) {
+            try (Reader reader = open(historyFile)) {
+                Type type = new TypeToken<List<ChatMessage>>(){}.getType();
+                List<ChatMessage> history = gson.fromJson(reader, type);
+                if (history != null) {
+                    for (ChatMessage message : history) {
+                        if (message != null && message.getId() != null) {
+                            messages.put(message.getId(), message);
+                        }
+                    }
+                }
+            } catch (JsonIOException e) {
+                // 读取文件本身出错
+                throw new IOException(e);
+            } catch (JsonParseException e) {
+                Log.e(TAG, "Malformed legacy history", e);
+                unreadable++;
+            }
+        }
+        if (journalFile.exists()) {
+            try (BufferedReader reader = open(journalFile)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    JournalRecord record;
+                    try {
+                        record = gson.fromJson(line, JournalRecord.class);
+                    } catch (JsonParseException e) {
+                        unreadable++;
+                        continue;
+                    }
+                    if (record == null) {
+                        continue;
+                    }
+                    if ("put".equals(record.op) && record.message != null && record.message.getId() != null) {
+                        messages.put(record.message.getId(), record.message);
+                    } else if ("delete".equals(record.op) && record.id != null) {
+                        messages.remove(record.id);
+                    }
+                }
+            }
+        }
+        return new Contents(messages, unreadable);
+    }
+
+    /**
+     * 导入完成后删除旧文件
+     */
+    void delete() {
+        if (historyFile.exists() && !historyFile.delete()) {
+            Log.w(TAG, "Failed to delete " + historyFile);
+        }
+        if (journalFile.exists() && !journalFile.delete()) {
+            Log.w(TAG, "Failed to delete " + journalFile);
+        }
+    }
+
+    /**
+     * 有内容无法解析时，导入后把旧文件改名为.bak保留原始数据，不再重复导入
+     */
+    void keepAsBackup() {
+        backup(historyFile);
+        backup(journalFile);
+    }
+
+    private static void backup(File file) {
+        if (!file.exists()) {
+            return;
+        }
+        File backup = new File(file.getPath() + ".bak");
+        if (backup.exists() && !backup.delete() || !file.renameTo(backup)) {
+            Log.w(TAG, "Failed to back up " + file);
+        }
+    }
+
+    private static BufferedReader open(File file) throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+    }
+
+    private static class JournalRecord {
+        String op;
+        String id;
+        ChatMessage message;
+    }
+}
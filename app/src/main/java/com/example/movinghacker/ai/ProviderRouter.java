@@ -0,0 +1,224 @@
+package com.example.movinghacker.ai;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 多服务商路由
+ * 故障转移：按顺序尝试，前一个失败（且尚未输出内容）时切换到下一个；
+ * 对冲：主服务商超过阈值仍未返回首字节时并行请求下一个，最先返回首字节者胜出，其余调用立即取消
+ */
+class ProviderRouter {
+
+    private static final String TAG = "ProviderRouter";
+
+    private static final ExecutorService RACE_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "ai-provider-race");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 在指定客户端上执行一次请求
+     */
+    interface ClientCall {
+        AIResponse call(AIApiClient client, AIApiClient.StreamListener listener) throws IOException;
+    }
+
+    /**
+     * 按路由模式执行请求
+     * @param mode 路由模式（AIConfig.ROUTING_*）
+     * @param hedgeDelayMs 对冲等待阈值
+     * @param clients 主服务商在前的客户端列表
+     * @param listener 流式文本监听器，可为null
+     */
+    AIResponse route(String mode, long hedgeDelayMs, List<AIApiClient> clients,
+                     AIApiClient.StreamListener listener, ClientCall call) throws IOException {
+        if (clients.size() <= 1 || AIConfig.ROUTING_SINGLE.equals(mode)) {
+            return call.call(clients.get(0), listener);
+        }
+        if (AIConfig.ROUTING_HEDGE.equals(mode)) {
+            return new Race(clients, listener, call).run(hedgeDelayMs);
+        }
+        return failover(clients, listener, call);
+    }
+
+    private AIResponse failover(List<AIApiClient> clients, AIApiClient.StreamListener listener,
+                                ClientCall call) throws IOException {
+        IOException lastError = null;
+        for (AIApiClient client : clients) {
+            boolean[] delivered = new boolean[1];
+            AIApiClient.StreamListener tracking = listener == null ? null : delta -> {
+                delivered[0] = true;
+                listener.onContentDelta(delta);
+            };
+            try {
+                return call.call(client, tracking);
+            } catch (IOException e) {
+                // 已输出部分内容或调用被取消时不再切换
+                if (delivered[0] || isCancellation(e)) {
+                    throw e;
+                }
+                Log.w(TAG, "Provider failed, failing over: " + e.getMessage());
+                lastError = e;
+            }
+        }
+        throw lastError;
+    }
+
+    private static boolean isCancellation(IOException e) {
+        return e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException)
+                && !"timeout".equals(e.getMessage());
+    }
+
+    /**
+     * 一次对冲竞速
+     */
+    private static class Race {
+        private final List<AIApiClient> clients;
+        private final AIApiClient.StreamListener listener;
+        private final ClientCall call;
+        private final Future<?>[] futures;
+        private final boolean[] finished;
+        // 发起方线程的任务记录，竞速线程上的请求同样计入
+        private final AgentTrace trace = AgentTrace.current();
+
+        private int started;
+        private int winner = -1;
+        private boolean winnerDone;
+        private AIResponse result;
+        private IOException lastError;
+
+        Race(List<AIApiClient> clients, AIApiClient.StreamListener listener, ClientCall call) {
+            this.clients = clients;
+            this.listener = listener;
+            this.call = call;
+            this.futures = new Future<?>[clients.size()];
+            this.finished = new boolean[clients.size()];
+        }
+
+        synchronized AIResponse run(long hedgeDelayMs) throws IOException {
+            startNext();
+            long nextHedgeAt = System.currentTimeMillis() + hedgeDelayMs;
+            try {
+                while (true) {
+                    if (winner >= 0) {
+                        if (winnerDone) {
+                            if (result != null) {
+                                return result;
+                            }
+                            throw lastError;
+                        }
+                        wait();
+                        continue;
+                    }
+                    if (allStartedFinished()) {
+                        // 已启动的请求全部失败，立即切换到下一个
+                        if (started < clients.size()) {
+                            startNext();
+                            nextHedgeAt = System.currentTimeMillis() + hedgeDelayMs;
+                            continue;
+                        }
+                        throw lastError;
+                    }
+                    long waitMs = nextHedgeAt - System.currentTimeMillis();
+                    if (started < clients.size() && waitMs <= 0) {
+                        Log.d(TAG, "No first byte within " + hedgeDelayMs + "ms, hedging to provider #" + started);
+                        startNext();
+                        nextHedgeAt = System.currentTimeMillis() + hedgeDelayMs;
+                        continue;
+                    }
+                    if (started < clients.size()) {
+                        wait(waitMs);
+                    } else {
+                        wait();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelAllExcept(-1);
+                throw new InterruptedIOException("请求已取消");
+            }
+        }
+
+        private void startNext() {
+            int index = started++;
+            AIApiClient client = clients.get(index);
+            AIApiClient.StreamListener racerListener = listener == null ? null : delta -> {
+                // 只有胜出者的文本会转发给界面
+                if (claim(index)) {
+                    listener.onContentDelta(delta);
+                }
+            };
+            futures[index] = RACE_EXECUTOR.submit(() -> {
+                AgentTrace.attach(trace);
+                client.setFirstByteListener(() -> claim(index));
+                try {
+                    AIResponse response = call.call(client, racerListener);
+                    complete(index, response, null);
+                } catch (IOException e) {
+                    complete(index, null, e);
+                } catch (RuntimeException e) {
+                    complete(index, null, new IOException(e.getMessage(), e));
+                } finally {
+                    client.setFirstByteListener(null);
+                    AgentTrace.attach(null);
+                }
+            });
+        }
+
+        /**
+         * 尝试成为胜出者，已有其他胜出者时返回false
+         */
+        private synchronized boolean claim(int index) {
+            if (winner < 0) {
+                winner = index;
+                cancelAllExcept(index);
+                notifyAll();
+            }
+            return winner == index;
+        }
+
+        private synchronized void complete(int index, AIResponse response, IOException error) {
+            finished[index] = true;
+            if (response != null && claim(index)) {
+                result = response;
+                winnerDone = true;
+            } else if (winner == index) {
+                lastError = error;
+                winnerDone = true;
+            } else if (winner < 0 && error != null) {
+                Log.w(TAG, "Hedged provider #" + index + " failed: " + error.getMessage());
+                lastError = error;
+            }
+            notifyAll();
+        }
+
+        private boolean allStartedFinished() {
+            for (int i = 0; i < started; i++) {
+                if (!finished[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void cancelAllExcept(int keep) {
+            for (int i = 0; i < started; i++) {
+                if (i != keep && !finished[i]) {
+                    clients.get(i).cancelActiveCalls();
+                    if (futures[i] != null) {
+                        futures[i].cancel(true);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.example.movinghacker.ai;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * AI响应缓存
+ * 以规范化后的请求JSON的SHA-256为键，内存LRU + 磁盘（getCacheDir下）两级缓存，条目按TTL过期。
+ * 只缓存调用方本身已显式使用确定性采样（temperature=0）且不带工具定义的请求，且不缓存包含Function调用的响应
+ */
+public class ResponseCache {
+
+    private static final String TAG = "ResponseCache";
+    private static final String CACHE_DIR = "ai_response_cache";
+    private static final int MAX_MEMORY_ENTRIES = 32;
+    private static final long MAX_DISK_BYTES = 8L * 1024 * 1024;
+    private static final long DEFAULT_TTL_MS = 24L * 60 * 60 * 1000;
+
+    private static ResponseCache instance;
+
+    private final File cacheDir;
+    private final Gson gson = new Gson();
+    private final long ttlMs;
+    private final Map<String, Entry> memory = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_MEMORY_ENTRIES;
+        }
+    };
+    private long hits;
+    private long misses;
+
+    private ResponseCache(Context context) {
+        this.cacheDir = new File(context.getApplicationContext().getCacheDir(), CACHE_DIR);
+        this.ttlMs = DEFAULT_TTL_MS;
+    }
+
+    public static synchronized ResponseCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new ResponseCache(context);
+        }
+        return instance;
+    }
+
+    /**
+     * 计算缓存键
+     * 请求不可缓存（见isCacheable）时返回null，表示不走缓存
+     * @param provider 服务商
+     * @param url 请求地址
+     * @param request 请求体
+     */
+    String keyFor(String provider, String url, JsonRequestBody request) {
+        if (!isCacheable(request)) {
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((provider + "\n" + url + "\n").getBytes(StandardCharsets.UTF_8));
+            // 规范化的请求直接流式写入摘要，不复制请求、不生成完整字符串
+            JsonWriter writer = gson.newJsonWriter(new OutputStreamWriter(
+                    new DigestOutputStream(OutputStream.nullOutputStream(), digest), StandardCharsets.UTF_8));
+            request.writeJson(writer, true);
+            writer.flush();
+            byte[] hash = digest.digest();
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 查询缓存，未命中或已过期返回null
+     */
+    public synchronized AIResponse get(String key) {
+        long now = System.currentTimeMillis();
+        Entry entry = memory.get(key);
+        if (entry == null) {
+            entry = readFromDisk(key);
+            if (entry != null) {
+                memory.put(key, entry);
+            }
+        }
+        if (entry == null || now - entry.createdAt > ttlMs) {
+            if (entry != null) {
+                remove(key);
+            }
+            misses++;
+            return null;
+        }
+        try {
+            AIResponse response = gson.fromJson(entry.json, AIResponse.class);
+            if (response == null || response.hasFunctionCalls()) {
+                // 旧版本写入的Function调用响应：重放会用过期的调用ID再次执行有副作用的工具
+                remove(key);
+                misses++;
+                return null;
+            }
+            hits++;
+            return response;
+        } catch (Exception e) {
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * 写入缓存，仅缓存只有文本内容的响应
+     * 包含Function调用的响应不缓存：重放会用过期的调用ID再次执行有副作用的工具
+     */
+    public synchronized void put(String key, AIResponse response) {
+        if (key == null || response == null || !response.hasContent() || response.hasFunctionCalls()) {
+            return;
+        }
+        Entry entry = new Entry(gson.toJson(response), System.currentTimeMillis());
+        memory.put(key, entry);
+        writeToDisk(key, entry);
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void clear() {
+        memory.clear();
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    private void remove(String key) {
+        memory.remove(key);
+        new File(cacheDir, key).delete();
+    }
+
+    private Entry readFromDisk(String key) {
+        File file = new File(cacheDir, key);
+        if (!file.exists()) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] data = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < data.length) {
+                int read = in.read(data, offset, data.length - offset);
+                if (read < 0) {
+                    break;
+                }
+                offset += read;
+            }
+            JsonObject obj = gson.fromJson(new String(data, 0, offset, StandardCharsets.UTF_8), JsonObject.class);
+            // 更新修改时间，磁盘淘汰按最近使用顺序进行
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(obj.get("response").getAsString(), obj.get("createdAt").getAsLong());
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to read cache entry " + key, e);
+            file.delete();
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, Entry entry) {
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+            return;
+        }
+        JsonObject obj = new JsonObject();
+        obj.addProperty("createdAt", entry.createdAt);
+        obj.addProperty("response", entry.json);
+        File file = new File(cacheDir, key);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(gson.toJson(obj).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write cache entry " + key, e);
+            file.delete();
+            return;
+        }
+        trimDisk();
+    }
+
+    /**
+     * 磁盘占用超出上限时按最近使用时间淘汰
+     */
+    private void trimDisk() {
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        if (total <= MAX_DISK_BYTES) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        for (File file : files) {
+            if (total <= MAX_DISK_BYTES) {
+                break;
+            }
+            total -= file.length();
+            memory.remove(file.getName());
+            file.delete();
+        }
+    }
+
+    /**
+     * 请求是否可以缓存：显式指定temperature=0、只要一个候选，且不带工具定义
+     * 未指定temperature时服务商默认使用随机采样；带工具的请求可能返回有副作用的Function调用，都直接发送
+     */
+    static boolean isCacheable(JsonRequestBody request) {
+        return !request.hasTools() && isDeterministic(request.getFields());
+    }
+
+    private static boolean isDeterministic(JsonObject requestJson) {
+        JsonObject params = requestJson;
+        if (requestJson.has("generationConfig") && requestJson.get("generationConfig").isJsonObject()) {
+            params = requestJson.getAsJsonObject("generationConfig");
+        }
+        JsonElement temperature = params.get("temperature");
+        if (temperature == null || !temperature.isJsonPrimitive() || temperature.getAsDouble() != 0) {
+            return false;
+        }
+        return !greaterThan(params, "n", 1) && !greaterThan(params, "candidateCount", 1);
+    }
+
+    private static boolean greaterThan(JsonObject obj, String name, double value) {
+        return obj.has(name) && obj.get(name).isJsonPrimitive() && obj.get(name).getAsDouble() > value;
+    }
+
+    private static class Entry {
+        final String json;
+        final long createdAt;
+
+        Entry(String json, long createdAt) {
+            this.json = json;
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package com.example.movinghacker.ai;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.MalformedJsonException;
+
+import java.io.IOException;
+
+/**
+ * 响应流式解析器
+ * 用JsonReader边读边解析OpenAI/Gemini的非流式响应，只保留需要的字段，
+ * 不再把整个响应体读成字符串再构建JSON树
+ */
+class ResponseReader {
+
+    private final Gson gson;
+
+    ResponseReader(Gson gson) {
+        this.gson = gson;
+    }
+
+    /**
+     * 解析OpenAI响应
+     */
+    AIResponse readOpenAIResponse(JsonReader reader) throws IOException {
+        try {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                throw new IllegalStateException("API returned null response");
+            }
+            AIResponse aiResponse = null;
+            boolean hasChoices = false;
+            int[] usage = new int[2];
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String field = reader.nextName();
+                if ("usage".equals(field) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    readUsage(reader, "prompt_tokens", "completion_tokens", usage);
+                } else if ("choices".equals(field) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    hasChoices = true;
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        if (aiResponse == null) {
+                            aiResponse = readOpenAIChoice(reader);
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (!hasChoices) {
+                throw new IllegalStateException("No choices in API response");
+            }
+            if (aiResponse == null) {
+                throw new IllegalStateException("Empty choices array in API response");
+            }
+            aiResponse.setUsage(usage[0], usage[1]);
+            return aiResponse;
+        } catch (IllegalStateException | NumberFormatException | MalformedJsonException e) {
+            throw new RuntimeException("Failed to parse OpenAI response: " + e.getMessage(), e);
+        }
+    }
+
+    private AIResponse readOpenAIChoice(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            throw new IllegalStateException("Invalid choice format in API response");
+        }
+        AIResponse aiResponse = new AIResponse();
+        String finishReason = null;
+        boolean hasMessage = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("message".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                hasMessage = true;
+                readOpenAIMessage(reader, aiResponse);
+            } else if ("finish_reason".equals(name)) {
+                finishReason = nextStringOrNull(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!hasMessage) {
+            throw new IllegalStateException("Invalid choice format in API response");
+        }
+        aiResponse.setFinishReason(finishReason != null ? finishReason : "stop");
+        return aiResponse;
+    }
+
+    private void readOpenAIMessage(JsonReader reader, AIResponse aiResponse) throws IOException {
+        FunctionCall legacyCall = null;
+        boolean hasToolCalls = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("content".equals(name)) {
+                String content = nextStringOrNull(reader);
+                if (content != null && !content.isEmpty()) {
+                    aiResponse.setContent(content);
+                }
+            } else if ("tool_calls".equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                // tool_calls格式（新格式，ZenMux和现代OpenAI API）
+                hasToolCalls = true;
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    FunctionCall call = readOpenAIToolCall(reader);
+                    if (call != null) {
+                        aiResponse.addFunctionCall(call);
+                    }
+                }
+                reader.endArray();
+            } else if ("function_call".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                // 兼容旧格式function_call
+                legacyCall = readOpenAIFunction(reader, null);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!hasToolCalls && legacyCall != null) {
+            aiResponse.addFunctionCall(legacyCall);
+        }
+    }
+
+    private FunctionCall readOpenAIToolCall(JsonReader reader) throws IOException {
+        String id = null;
+        String type = null;
+        FunctionCall call = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("id".equals(name)) {
+                id = nextStringOrNull(reader);
+            } else if ("type".equals(name)) {
+                type = nextStringOrNull(reader);
+            } else if ("function".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                call = readOpenAIFunction(reader, null);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!"function".equals(type) || call == null) {
+            return null;
+        }
+        return new FunctionCall(id, call.getName(), call.getArguments());
+    }
+
+    private FunctionCall readOpenAIFunction(JsonReader reader, String id) throws IOException {
+        String functionName = null;
+        String arguments = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("name".equals(name)) {
+                functionName = nextStringOrNull(reader);
+            } else if ("arguments".equals(name)) {
+                // 个别服务商直接返回JSON对象而不是字符串
+                if (reader.peek() == JsonToken.STRING) {
+                    arguments = reader.nextString();
+                } else {
+                    arguments = gson.toJson(JsonParser.parseReader(reader));
+                }
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (functionName == null || arguments == null) {
+            throw new IllegalStateException("Invalid function call in API response");
+        }
+        return new FunctionCall(id, functionName, arguments);
+    }
+
+    /**
+     * 解析Gemini响应
+     */
+    AIResponse readGeminiResponse(JsonReader reader) throws IOException {
+        try {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                throw new IllegalStateException("API returned null response");
+            }
+            AIResponse aiResponse = null;
+            boolean hasCandidates = false;
+            int[] usage = new int[2];
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String field = reader.nextName();
+                if ("usageMetadata".equals(field) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    readUsage(reader, "promptTokenCount", "candidatesTokenCount", usage);
+                } else if ("candidates".equals(field) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    hasCandidates = true;
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        if (aiResponse == null) {
+                            aiResponse = readGeminiCandidate(reader);
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (!hasCandidates) {
+                throw new IllegalStateException("No candidates in API response");
+            }
+            if (aiResponse == null) {
+                throw new IllegalStateException("Empty candidates array in API response");
+            }
+            aiResponse.setUsage(usage[0], usage[1]);
+            return aiResponse;
+        } catch (IllegalStateException | NumberFormatException | MalformedJsonException e) {
+            throw new RuntimeException("Failed to parse Gemini response: " + e.getMessage(), e);
+        }
+    }
+
+    private AIResponse readGeminiCandidate(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            throw new IllegalStateException("Invalid candidate format in API response");
+        }
+        AIResponse aiResponse = new AIResponse();
+        StringBuilder contentBuilder = new StringBuilder();
+        boolean hasContent = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("content".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                hasContent = true;
+                readGeminiContent(reader, aiResponse, contentBuilder);
+            } else if ("finishReason".equals(name)) {
+                String finishReason = nextStringOrNull(reader);
+                if (finishReason != null) {
+                    aiResponse.setFinishReason(finishReason);
+                }
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!hasContent) {
+            throw new IllegalStateException("Invalid candidate format in API response");
+        }
+        if (contentBuilder.length() > 0) {
+            aiResponse.setContent(contentBuilder.toString());
+        }
+        return aiResponse;
+    }
+
+    private void readGeminiContent(JsonReader reader, AIResponse aiResponse, StringBuilder contentBuilder)
+            throws IOException {
+        boolean hasParts = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("parts".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                hasParts = true;
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        readGeminiPart(reader, aiResponse, contentBuilder);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!hasParts) {
+            throw new IllegalStateException("Content or parts is null in API response");
+        }
+    }
+
+    private void readGeminiPart(JsonReader reader, AIResponse aiResponse, StringBuilder contentBuilder)
+            throws IOException {
+        String text = null;
+        FunctionCall call = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("functionCall".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                call = readGeminiFunctionCall(reader);
+            } else if ("text".equals(name)) {
+                text = nextStringOrNull(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        // 检查是否有Function调用
+        if (call != null) {
+            aiResponse.addFunctionCall(call);
+        } else if (text != null && !text.isEmpty()) {
+            if (contentBuilder.length() > 0) {
+                contentBuilder.append("\n");
+            }
+            contentBuilder.append(text);
+        }
+    }
+
+    private FunctionCall readGeminiFunctionCall(JsonReader reader) throws IOException {
+        String functionName = null;
+        JsonElement args = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("name".equals(name)) {
+                functionName = nextStringOrNull(reader);
+            } else if ("args".equals(name)) {
+                args = JsonParser.parseReader(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (functionName == null) {
+            return null;
+        }
+        if (args == null || !args.isJsonObject()) {
+            args = new JsonObject();
+        }
+        return new FunctionCall(null, functionName, gson.toJson(args));
+    }
+
+    /**
+     * 读取Token用量，结果写入usage[0]（输入）和usage[1]（输出）
+     */
+    private void readUsage(JsonReader reader, String promptField, String completionField, int[] usage)
+            throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (promptField.equals(name) && reader.peek() == JsonToken.NUMBER) {
+                usage[0] = reader.nextInt();
+            } else if (completionField.equals(name) && reader.peek() == JsonToken.NUMBER) {
+                usage[1] = reader.nextInt();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.movinghacker.ai;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 流式响应组装器
+ * 将SSE分片（OpenAI delta / Gemini chunk）逐步拼装为完整的AIResponse
+ */
+class StreamAccumulator {
+
+    private final Gson gson;
+    private final AIApiClient.StreamListener listener;
+    private final StringBuilder content = new StringBuilder();
+    // OpenAI的tool_calls按index分片下发，arguments需要逐段拼接
+    private final Map<Integer, ToolCallBuilder> toolCalls = new TreeMap<>();
+    private final AIResponse geminiCalls = new AIResponse();
+    private String finishReason;
+    private int promptTokens;
+    private int completionTokens;
+
+    StreamAccumulator(Gson gson, AIApiClient.StreamListener listener) {
+        this.gson = gson;
+        this.listener = listener;
+    }
+
+    /**
+     * 处理一个OpenAI格式的chunk（choices[0].delta）
+     */
+    void acceptOpenAIChunk(JsonObject chunk) {
+        // 开启include_usage时最后一个chunk携带用量（choices为空）
+        readUsage(chunk, "usage", "prompt_tokens", "completion_tokens");
+        if (chunk == null || !chunk.has("choices") || !chunk.get("choices").isJsonArray()) {
+            return;
+        }
+        JsonArray choices = chunk.getAsJsonArray("choices");
+        if (choices.size() == 0) {
+            return;
+        }
+        JsonObject choice = choices.get(0).getAsJsonObject();
+        if (choice.has("finish_reason") && !choice.get("finish_reason").isJsonNull()) {
+            finishReason = choice.get("finish_reason").getAsString();
+        }
+        if (!choice.has("delta") || !choice.get("delta").isJsonObject()) {
+            return;
+        }
+        JsonObject delta = choice.getAsJsonObject("delta");
+
+        if (delta.has("content") && !delta.get("content").isJsonNull()) {
+            appendContent(delta.get("content").getAsString());
+        }
+
+        if (delta.has("tool_calls") && delta.get("tool_calls").isJsonArray()) {
+            JsonArray calls = delta.getAsJsonArray("tool_calls");
+            for (int i = 0; i < calls.size(); i++) {
+                JsonObject call = calls.get(i).getAsJsonObject();
+                int index = call.has("index") ? call.get("index").getAsInt() : i;
+                ToolCallBuilder builder = toolCalls.get(index);
+                if (builder == null) {
+                    builder = new ToolCallBuilder();
+                    toolCalls.put(index, builder);
+                }
+                if (call.has("id") && !call.get("id").isJsonNull()) {
+                    builder.id = call.get("id").getAsString();
+                }
+                if (call.has("function") && call.get("function").isJsonObject()) {
+                    JsonObject function = call.getAsJsonObject("function");
+                    if (function.has("name") && !function.get("name").isJsonNull()) {
+                        builder.name.append(function.get("name").getAsString());
+                    }
+                    if (function.has("arguments") && !function.get("arguments").isJsonNull()) {
+                        builder.arguments.append(function.get("arguments").getAsString());
+                    }
+                }
+            }
+        } else if (delta.has("function_call") && delta.get("function_call").isJsonObject()) {
+            // 兼容旧格式function_call
+            JsonObject function = delta.getAsJsonObject("function_call");
+            ToolCallBuilder builder = toolCalls.get(0);
+            if (builder == null) {
+                builder = new ToolCallBuilder();
+                toolCalls.put(0, builder);
+            }
+            if (function.has("name") && !function.get("name").isJsonNull()) {
+                builder.name.append(function.get("name").getAsString());
+            }
+            if (function.has("arguments") && !function.get("arguments").isJsonNull()) {
+                builder.arguments.append(function.get("arguments").getAsString());
+            }
+        }
+    }
+
+    /**
+     * 处理一个Gemini格式的chunk（每个chunk都是完整的GenerateContentResponse片段）
+     */
+    void acceptGeminiChunk(JsonObject chunk) {
+        // 每个chunk都带有截至当前的累计用量，以最后一个为准
+        readUsage(chunk, "usageMetadata", "promptTokenCount", "candidatesTokenCount");
+        if (chunk == null || !chunk.has("candidates") || !chunk.get("candidates").isJsonArray()) {
+            return;
+        }
+        JsonArray candidates = chunk.getAsJsonArray("candidates");
+        if (candidates.size() == 0) {
+            return;
+        }
+        JsonObject candidate = candidates.get(0).getAsJsonObject();
+        if (candidate.has("finishReason") && !candidate.get("finishReason").isJsonNull()) {
+            finishReason = candidate.get("finishReason").getAsString();
+        }
+        if (!candidate.has("content") || !candidate.get("content").isJsonObject()) {
+            return;
+        }
+        JsonObject contentObj = candidate.getAsJsonObject("content");
+        if (!contentObj.has("parts") || !contentObj.get("parts").isJsonArray()) {
+            return;
+        }
+        JsonArray parts = contentObj.getAsJsonArray("parts");
+        for (JsonElement element : parts) {
+            if (!element.isJsonObject()) {
+                continue;
+            }
+            JsonObject part = element.getAsJsonObject();
+            if (part.has("functionCall") && part.get("functionCall").isJsonObject()) {
+                JsonObject functionCall = part.getAsJsonObject("functionCall");
+                if (functionCall.has("name")) {
+                    JsonObject args = functionCall.has("args") && functionCall.get("args").isJsonObject()
+                            ? functionCall.getAsJsonObject("args") : new JsonObject();
+                    geminiCalls.addFunctionCall(new FunctionCall(null,
+                            functionCall.get("name").getAsString(), gson.toJson(args)));
+                }
+            } else if (part.has("text") && !part.get("text").isJsonNull()) {
+                appendContent(part.get("text").getAsString());
+            }
+        }
+    }
+
+    private void readUsage(JsonObject chunk, String field, String promptField, String completionField) {
+        if (chunk == null || !chunk.has(field) || !chunk.get(field).isJsonObject()) {
+            return;
+        }
+        JsonObject usage = chunk.getAsJsonObject(field);
+        if (usage.has(promptField) && usage.get(promptField).isJsonPrimitive()) {
+            promptTokens = usage.get(promptField).getAsInt();
+        }
+        if (usage.has(completionField) && usage.get(completionField).isJsonPrimitive()) {
+            completionTokens = usage.get(completionField).getAsInt();
+        }
+    }
+
+    private void appendContent(String delta) {
+        if (delta == null || delta.isEmpty()) {
+            return;
+        }
+        content.append(delta);
+        if (listener != null) {
+            listener.onContentDelta(delta);
+        }
+    }
+
+    /**
+     * 生成最终响应
+     */
+    AIResponse build() {
+        AIResponse response = new AIResponse();
+        for (ToolCallBuilder builder : toolCalls.values()) {
+            if (builder.name.length() == 0) {
+                continue;
+            }
+            String arguments = builder.arguments.length() > 0 ? builder.arguments.toString() : "{}";
+            response.addFunctionCall(new FunctionCall(builder.id, builder.name.toString(), arguments));
+        }
+        for (FunctionCall call : geminiCalls.getFunctionCalls()) {
+            response.addFunctionCall(call);
+        }
+        if (content.length() > 0) {
+            response.setContent(content.toString());
+        }
+        response.setFinishReason(finishReason != null ? finishReason : "stop");
+        response.setUsage(promptTokens, completionTokens);
+        return response;
+    }
+
+    private static class ToolCallBuilder {
+        String id;
+        final StringBuilder name = new StringBuilder();
+        final StringBuilder arguments = new StringBuilder();
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.movinghacker.ai;
+
+import java.util.List;
+
+/**
+ * 记录界面回调耗时的ChatCallback包装
+ * 每次回调（postValue、列表拷贝、保存历史等）计入任务记录的ui阶段，并记下任务的最终结果
+ */
+class TracingChatCallback implements AIService.ChatCallback {
+
+    private final AIService.ChatCallback delegate;
+    private final AgentTrace trace;
+    private final AIService.StopToken stopToken;
+    private volatile String outcome = "error";
+
+    TracingChatCallback(AIService.ChatCallback delegate, AgentTrace trace, AIService.StopToken stopToken) {
+        this.delegate = delegate;
+        this.trace = trace;
+        this.stopToken = stopToken;
+    }
+
+    String getOutcome() {
+        return outcome;
+    }
+
+    @Override
+    public void onSuccess(AIResponse response) {
+        outcome = "success";
+        long start = System.nanoTime();
+        delegate.onSuccess(response);
+        trace.record(AgentTrace.PHASE_UI, "onSuccess", start, null);
+    }
+
+    @Override
+    public void onError(Exception e) {
+        outcome = stopToken != null && stopToken.isStopped() ? "stopped" : "error";
+        long start = System.nanoTime();
+        delegate.onError(e);
+        trace.record(AgentTrace.PHASE_UI, "onError", start, e.getMessage());
+    }
+
+    @Override
+    public void onFunctionCallsRequested(List<FunctionCall> calls) {
+        long start = System.nanoTime();
+        delegate.onFunctionCallsRequested(calls);
+        trace.record(AgentTrace.PHASE_UI, "onFunctionCallsRequested", start, null);
+    }
+
+    @Override
+    public void onFunctionExecuted(List<FunctionResult> results) {
+        long start = System.nanoTime();
+        delegate.onFunctionExecuted(results);
+        trace.record(AgentTrace.PHASE_UI, "onFunctionExecuted", start, null);
+    }
+
+    @Override
+    public void onThinking(String message, String thinkingType) {
+        long start = System.nanoTime();
+        delegate.onThinking(message, thinkingType);
+        trace.record(AgentTrace.PHASE_UI, "onThinking", start, thinkingType);
+    }
+
+    @Override
+    public void onContextSummary(String summary) {
+        long start = System.nanoTime();
+        delegate.onContextSummary(summary);
+        trace.record(AgentTrace.PHASE_UI, "onContextSummary", start, null);
+    }
+
+    @Override
+    public void onContentDelta(String delta) {
+        long start = System.nanoTime();
+        delegate.onContentDelta(delta);
+        trace.addUiDelta(start);
+    }
+}
@@ -37,6 +37,11 @@ public class FileDeleteFunctionHandler implements FunctionHandler {
         return "delete_file";
     }
 
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+
     @Override
     public FunctionDefinition getDefinition() {
         FunctionDefinition def = new FunctionDefinition();
@@ -46,6 +46,11 @@ public class FileListFunctionHandler implements FunctionHandler {
         return "list_files";
     }
 
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
     @Override
     public FunctionDefinition getDefinition() {
         FunctionDefinition def = new FunctionDefinition();
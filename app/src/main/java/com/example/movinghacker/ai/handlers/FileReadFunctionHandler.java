@@ -40,6 +40,11 @@ public class FileReadFunctionHandler implements FunctionHandler {
         return "read_file";
     }
 
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
     @Override
     public FunctionDefinition getDefinition() {
         FunctionDefinition def = new FunctionDefinition();
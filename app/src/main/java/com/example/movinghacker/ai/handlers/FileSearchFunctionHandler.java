@@ -44,6 +44,11 @@ public class FileSearchFunctionHandler implements FunctionHandler {
         return "search_files";
     }
 
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
     @Override
     public FunctionDefinition getDefinition() {
         FunctionDefinition def = new FunctionDefinition();
@@ -45,6 +45,11 @@ public class FileWriteFunctionHandler implements FunctionHandler {
         return "write_file";
     }
 
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+
     @Override
     public FunctionDefinition getDefinition() {
         FunctionDefinition def = new FunctionDefinition();
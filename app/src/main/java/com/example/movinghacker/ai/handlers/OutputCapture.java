@@ -0,0 +1,147 @@
+package com.example.movinghacker.ai.handlers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * 有上限的命令输出捕获
+ * 只保留开头headLimit和结尾tailLimit字节（结尾使用环形缓冲），中间部分只计数不保存，
+ * 避免cat大文件、find /之类的大量输出占满内存并整段进入模型上下文
+ */
+class OutputCapture {
+
+    static final int DEFAULT_HEAD_BYTES = 8 * 1024;
+    static final int DEFAULT_TAIL_BYTES = 8 * 1024;
+
+    private final byte[] head;
+    private final byte[] tail;
+    private int headSize;
+    // 环形缓冲中最早字节的位置和有效字节数
+    private int tailStart;
+    private int tailSize;
+    private long totalBytes;
+
+    OutputCapture() {
+        this(DEFAULT_HEAD_BYTES, DEFAULT_TAIL_BYTES);
+    }
+
+    OutputCapture(int headLimit, int tailLimit) {
+        this.head = new byte[headLimit];
+        this.tail = new byte[tailLimit];
+    }
+
+    /**
+     * 持续读取直到流结束，可在读取线程上调用，同时由其他线程查看当前结果
+     */
+    void readFrom(InputStream in) throws IOException {
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            write(buffer, 0, read);
+        }
+    }
+
+    synchronized void write(byte[] data, int offset, int length) {
+        totalBytes += length;
+        int toHead = Math.min(length, head.length - headSize);
+        if (toHead > 0) {
+            System.arraycopy(data, offset, head, headSize, toHead);
+            headSize += toHead;
+            offset += toHead;
+            length -= toHead;
+        }
+        if (length == 0 || tail.length == 0) {
+            return;
+        }
+        // 超出环形缓冲容量的部分只保留最后tail.length字节
+        if (length >= tail.length) {
+            System.arraycopy(data, offset + length - tail.length, tail, 0, tail.length);
+            tailStart = 0;
+            tailSize = tail.length;
+            return;
+        }
+        int end = (tailStart + tailSize) % tail.length;
+        int first = Math.min(length, tail.length - end);
+        System.arraycopy(data, offset, tail, end, first);
+        System.arraycopy(data, offset + first, tail, 0, length - first);
+        int overflow = tailSize + length - tail.length;
+        if (overflow > 0) {
+            tailStart = (tailStart + overflow) % tail.length;
+            tailSize = tail.length;
+        } else {
+            tailSize += length;
+        }
+    }
+
+    synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    synchronized boolean isTruncated() {
+        return totalBytes > headSize + tailSize;
+    }
+
+    /**
+     * 被省略的中间部分字节数
+     */
+    synchronized long getOmittedBytes() {
+        return totalBytes - headSize - tailSize;
+    }
+
+    synchronized boolean isEmpty() {
+        return totalBytes == 0;
+    }
+
+    /**
+     * 输出文本；被截断时在开头和结尾之间插入省略说明，截断点对齐到UTF-8字符边界
+     */
+    synchronized String toText() {
+        byte[] tailBytes = new byte[tailSize];
+        int first = Math.min(tailSize, tail.length - tailStart);
+        System.arraycopy(tail, tailStart, tailBytes, 0, first);
+        System.arraycopy(tail, 0, tailBytes, first, tailSize - first);
+
+        if (!isTruncated()) {
+            byte[] all = new byte[headSize + tailSize];
+            System.arraycopy(head, 0, all, 0, headSize);
+            System.arraycopy(tailBytes, 0, all, headSize, tailSize);
+            return new String(all, StandardCharsets.UTF_8);
+        }
+
+        int headEnd = completeCharsEnd(head, headSize);
+        int tailBegin = firstCharStart(tailBytes);
+        long omitted = getOmittedBytes() + (headSize - headEnd) + tailBegin;
+        return new String(head, 0, headEnd, StandardCharsets.UTF_8)
+                + String.format(Locale.US, "\n... [output truncated: %d of %d bytes omitted] ...\n",
+                        omitted, totalBytes)
+                + new String(tailBytes, tailBegin, tailBytes.length - tailBegin, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 去掉末尾不完整的多字节字符后的长度
+     */
+    private static int completeCharsEnd(byte[] bytes, int length) {
+        for (int i = length - 1; i >= 0 && i >= length - 4; i--) {
+            int b = bytes[i] & 0xFF;
+            if ((b & 0xC0) == 0x80) {
+                continue;
+            }
+            int charLength = b < 0x80 ? 1 : b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : 2;
+            return i + charLength <= length ? length : i;
+        }
+        return length;
+    }
+
+    /**
+     * 跳过开头残留的续字节
+     */
+    private static int firstCharStart(byte[] bytes) {
+        int i = 0;
+        while (i < bytes.length && i < 3 && (bytes[i] & 0xC0) == 0x80) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -9,11 +9,14 @@ import com.chaquo.python.Python;
 import com.example.movinghacker.ai.FunctionDefinition;
 import com.example.movinghacker.ai.FunctionHandler;
 import com.example.movinghacker.ai.FunctionResult;
+import com.example.movinghacker.ai.FunctionSession;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Python代码执行Function Handler
@@ -26,6 +29,12 @@ public class PythonExecuteFunctionHandler implements FunctionHandler {
     private Context context;
     private Python python;
     private Gson gson = new Gson();
+    // 执行标识 -> 正在执行代码的Python线程ID（threading.get_ident()）
+    // 注入和清除异步异常都在runLock内进行，执行结束后不会再被注入
+    private final Object runLock = new Object();
+    private final Map<String, Long> runningThreads = new HashMap<>();
+    // 已注入KeyboardInterrupt的执行，结束时清除可能尚未触发的异常
+    private final Set<String> interrupted = new HashSet<>();
 
     public PythonExecuteFunctionHandler(Context context) {
         this.context = context;
@@ -41,6 +50,61 @@ public class PythonExecuteFunctionHandler implements FunctionHandler {
         return FUNCTION_NAME;
     }
 
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    /**
+     * 向该次执行的线程注入KeyboardInterrupt，Python代码在下一条字节码处中止
+     * 阻塞在原生调用（如网络读取）中时要等该调用返回后才会生效
+     */
+    @Override
+    public void cancel(String executionId) {
+        if (python == null) {
+            return;
+        }
+        synchronized (runLock) {
+            Long threadId = runningThreads.get(executionId);
+            if (threadId == null || !interrupted.add(executionId)) {
+                return;
+            }
+            try {
+                setAsyncExc(threadId, python.getBuiltins().get("KeyboardInterrupt"));
+                Log.d(TAG, "Interrupted Python execution on thread " + threadId);
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to interrupt Python execution", e);
+            }
+        }
+    }
+
+    /**
+     * 在指定线程上设置待触发的异步异常，exception为null时清除
+     */
+    private void setAsyncExc(long threadId, PyObject exception) {
+        PyObject ctypes = python.getModule("ctypes");
+        ctypes.get("pythonapi").callAttr("PyThreadState_SetAsyncExc",
+                ctypes.callAttr("c_ulong", threadId),
+                exception != null ? ctypes.callAttr("py_object", exception) : null);
+    }
+
+    /**
+     * 执行结束：注销线程，已被取消但异常尚未触发时将其清除，
+     * 避免KeyboardInterrupt留到该线程执行的下一段代码中
+     */
+    private void finishRun(String executionId, long threadId) {
+        synchronized (runLock) {
+            runningThreads.remove(executionId);
+            if (interrupted.remove(executionId)) {
+                try {
+                    setAsyncExc(threadId, null);
+                } catch (Exception e) {
+                    Log.w(TAG, "Failed to clear pending interrupt", e);
+                }
+            }
+        }
+    }
+
     @Override
     public FunctionDefinition getDefinition() {
         FunctionDefinition def = new FunctionDefinition();
@@ -139,9 +203,22 @@ public class PythonExecuteFunctionHandler implements FunctionHandler {
             PyObject mainModule = python.getModule("__main__");
             PyObject globals = mainModule.get("__dict__");
             
-            // 编译并执行代码
+            // 编译并执行代码（按执行标识记录线程ID以便取消时中断）
             PyObject compiled = builtins.callAttr("compile", code, "<string>", "exec");
-            builtins.callAttr("eval", compiled, globals);
+            String executionId = FunctionSession.currentExecution();
+            long threadId = python.getModule("threading").callAttr("get_ident").toLong();
+            if (executionId != null) {
+                synchronized (runLock) {
+                    runningThreads.put(executionId, threadId);
+                }
+            }
+            try {
+                builtins.callAttr("eval", compiled, globals);
+            } finally {
+                if (executionId != null) {
+                    finishRun(executionId, threadId);
+                }
+            }
             
             // 获取输出
             String output = stringIO.callAttr("getvalue").toString();
@@ -0,0 +1,286 @@
+package com.example.movinghacker.ai.handlers;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 常驻Shell会话
+ * 一个长期运行的/system/bin/sh进程，命令逐条写入stdin，每条命令之后输出一行带随机标记的结束行
+ * （退出码和当前目录），读取线程据此切分出每条命令的输出；cd、export等状态在同一会话的多次调用之间保留
+ */
+class ShellSession {
+
+    private static final String TAG = "ShellSession";
+
+    /**
+     * 单条命令的执行结果
+     */
+    static class Result {
+        final OutputCapture capture = new OutputCapture();
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile int exitCode = -1;
+        volatile String directory;
+        // 命令执行期间Shell退出（如执行了exit）
+        volatile boolean exited;
+        volatile boolean timedOut;
+    }
+
+    private final String key;
+    private final Process process;
+    private final OutputStream stdin;
+    private final String sentinel;
+    private final byte[] marker;
+    private final Object lock = new Object();
+    private Result pending;
+    private volatile boolean alive = true;
+    private volatile boolean busy;
+    private volatile long lastUsedAt = System.currentTimeMillis();
+    private int commandCount;
+
+    ShellSession(String key, String homeDirectory) throws IOException {
+        this(key, homeDirectory, "/system/bin/sh");
+    }
+
+    /**
+     * @param shell Shell程序路径，宿主机测试时使用本机的sh
+     */
+    ShellSession(String key, String homeDirectory, String shell) throws IOException {
+        this.key = key;
+        this.sentinel = "__MH_DONE_" + UUID.randomUUID().toString().replace("-", "") + "__";
+        this.marker = ("\n" + sentinel + ":").getBytes(StandardCharsets.UTF_8);
+
+        ProcessBuilder builder = new ProcessBuilder(shell);
+        builder.redirectErrorStream(true);
+        Map<String, String> env = builder.environment();
+        env.put("HOME", homeDirectory);
+        env.put("PATH", "/system/bin:/system/xbin");
+        env.put("TERM", "xterm-256color");
+        env.put("LANG", "en_US.UTF-8");
+        builder.directory(new File(homeDirectory));
+
+        process = builder.start();
+        stdin = process.getOutputStream();
+        Thread reader = new Thread(this::pump, "shell-session-" + key);
+        reader.setDaemon(true);
+        reader.start();
+        Log.d(TAG, "Started shell session " + key);
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    boolean isAlive() {
+        return alive && process.isAlive();
+    }
+
+    boolean isBusy() {
+        return busy;
+    }
+
+    long getLastUsedAt() {
+        return lastUsedAt;
+    }
+
+    synchronized int getCommandCount() {
+        return commandCount;
+    }
+
+    /**
+     * 在会话中执行一条命令，同一会话的命令依次执行
+     * 超时后终止整个Shell（管道上无法单独中断前台命令），下次调用会重新创建会话
+     * @param workingDir 执行前切换到的目录，为null时沿用当前目录
+     * @return 执行结果，会话在执行前已关闭时返回null
+     */
+    synchronized Result execute(String command, String workingDir, long timeoutMs)
+            throws IOException, InterruptedException {
+        if (!isAlive()) {
+            return null;
+        }
+        Result result = new Result();
+        busy = true;
+        synchronized (lock) {
+            pending = result;
+        }
+        try {
+            stdin.write(frame(command, workingDir).getBytes(StandardCharsets.UTF_8));
+            stdin.flush();
+            if (!result.done.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+                result.timedOut = true;
+                Log.w(TAG, "Command timed out, closing session " + key);
+                close();
+            }
+            commandCount++;
+            return result;
+        } catch (IOException | InterruptedException e) {
+            close();
+            throw e;
+        } finally {
+            synchronized (lock) {
+                if (pending == result) {
+                    pending = null;
+                }
+            }
+            busy = false;
+            lastUsedAt = System.currentTimeMillis();
+        }
+    }
+
+    void close() {
+        alive = false;
+        process.destroyForcibly();
+        synchronized (lock) {
+            if (pending != null) {
+                pending.exited = true;
+                pending.done.countDown();
+            }
+        }
+    }
+
+    /**
+     * 命令通过command eval执行：语法错误不会导致Shell退出，stdin重定向到/dev/null以免命令读走后续的帧
+     */
+    private String frame(String command, String workingDir) {
+        StringBuilder frame = new StringBuilder();
+        if (workingDir != null) {
+            frame.append("cd ").append(quote(workingDir)).append(" && ");
+        }
+        frame.append("command eval ").append(quote(command)).append(" </dev/null\n");
+        frame.append("__mh_rc=$?\n");
+        frame.append("echo\n");
+        frame.append("echo \"").append(sentinel).append(":$__mh_rc:$PWD\"\n");
+        return frame.toString();
+    }
+
+    private static String quote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+
+    /**
+     * 读取线程：把输出写入当前命令的缓冲，遇到结束行时完成该命令
+     * 末尾可能是结束标记前缀的字节暂不转交，避免标记被拆在两次读取之间
+     */
+    private void pump() {
+        InputStream in = process.getInputStream();
+        byte[] buffer = new byte[8192];
+        byte[] scan = new byte[16 * 1024];
+        int size = 0;
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (size + read > scan.length) {
+                    scan = Arrays.copyOf(scan, Math.max(scan.length * 2, size + read));
+                }
+                System.arraycopy(buffer, 0, scan, size, read);
+                size += read;
+                size = drain(scan, size);
+            }
+        } catch (IOException e) {
+            if (alive) {
+                Log.w(TAG, "Shell session " + key + " output failed", e);
+            }
+        }
+        synchronized (lock) {
+            if (pending != null) {
+                pending.capture.write(scan, 0, size);
+                pending.exited = true;
+                pending.exitCode = exitValue();
+                pending.done.countDown();
+            }
+        }
+        alive = false;
+        Log.d(TAG, "Shell session " + key + " ended");
+    }
+
+    /**
+     * 处理缓冲中的完整内容
+     * @return 处理后剩余的字节数（已移到缓冲开头）
+     */
+    private int drain(byte[] scan, int size) {
+        int start = 0;
+        while (true) {
+            int index = indexOf(scan, start, size, marker);
+            if (index < 0) {
+                int keep = Math.min(size - start, marker.length - 1);
+                forward(scan, start, size - keep - start);
+                start = size - keep;
+                break;
+            }
+            forward(scan, start, index - start);
+            int lineEnd = indexOf(scan, index + marker.length, size, new byte[]{'\n'});
+            if (lineEnd < 0) {
+                start = index;
+                break;
+            }
+            complete(new String(scan, index + marker.length, lineEnd - index - marker.length,
+                    StandardCharsets.UTF_8));
+            start = lineEnd + 1;
+        }
+        System.arraycopy(scan, start, scan, 0, size - start);
+        return size - start;
+    }
+
+    private void forward(byte[] data, int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+        synchronized (lock) {
+            // 没有等待中的命令时（后台任务的输出）直接丢弃
+            if (pending != null) {
+                pending.capture.write(data, offset, length);
+            }
+        }
+    }
+
+    /**
+     * @param status 结束行中标记之后的部分：退出码:当前目录
+     */
+    private void complete(String status) {
+        synchronized (lock) {
+            if (pending == null) {
+                return;
+            }
+            int separator = status.indexOf(':');
+            try {
+                pending.exitCode = Integer.parseInt(separator >= 0 ? status.substring(0, separator) : status);
+            } catch (NumberFormatException e) {
+                pending.exitCode = -1;
+            }
+            pending.directory = separator >= 0 ? status.substring(separator + 1) : null;
+            pending.done.countDown();
+            pending = null;
+        }
+    }
+
+    private int exitValue() {
+        try {
+            return process.waitFor(1, TimeUnit.SECONDS) ? process.exitValue() : -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+
+    private static int indexOf(byte[] data, int from, int to, byte[] target) {
+        outer:
+        for (int i = from; i <= to - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (data[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.movinghacker.ai.handlers;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 常驻Shell会话池
+ * 按会话标识（对话）复用Shell，数量有上限，超出时关闭最久未使用的空闲会话；
+ * 有会话存在时后台定期关闭空闲超时的会话
+ */
+class ShellSessionPool {
+
+    private static final String TAG = "ShellSessionPool";
+    private static final int MAX_SESSIONS = 4;
+    private static final long IDLE_TIMEOUT_MS = 10 * 60_000;
+    private static final long REAP_INTERVAL_MS = 60_000;
+
+    private static final ScheduledExecutorService REAPER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "shell-session-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    interface SessionFactory {
+        ShellSession create(String key) throws IOException;
+    }
+
+    private final SessionFactory factory;
+    // 按访问顺序排列，最久未使用的在前
+    private final LinkedHashMap<String, ShellSession> sessions = new LinkedHashMap<>(8, 0.75f, true);
+    private ScheduledFuture<?> reapTask;
+
+    ShellSessionPool(SessionFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * 获取会话，不存在或已退出时新建
+     */
+    synchronized ShellSession acquire(String key) throws IOException {
+        ShellSession session = sessions.get(key);
+        if (session != null && session.isAlive()) {
+            return session;
+        }
+        if (session != null) {
+            sessions.remove(key);
+        }
+        evictIfFull();
+        session = factory.create(key);
+        sessions.put(key, session);
+        if (reapTask == null) {
+            reapTask = REAPER.scheduleWithFixedDelay(this::reapIdle, REAP_INTERVAL_MS, REAP_INTERVAL_MS,
+                    TimeUnit.MILLISECONDS);
+        }
+        return session;
+    }
+
+    synchronized void closeAll() {
+        for (ShellSession session : sessions.values()) {
+            session.close();
+        }
+        sessions.clear();
+        cancelReaper();
+    }
+
+    synchronized int size() {
+        return sessions.size();
+    }
+
+    private void evictIfFull() {
+        Iterator<ShellSession> iterator = sessions.values().iterator();
+        while (sessions.size() >= MAX_SESSIONS && iterator.hasNext()) {
+            ShellSession session = iterator.next();
+            if (!session.isBusy() || !session.isAlive()) {
+                Log.d(TAG, "Evicting shell session " + session.getKey());
+                session.close();
+                iterator.remove();
+            }
+        }
+    }
+
+    private synchronized void reapIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<ShellSession> iterator = sessions.values().iterator();
+        while (iterator.hasNext()) {
+            ShellSession session = iterator.next();
+            if (!session.isAlive()) {
+                iterator.remove();
+            } else if (!session.isBusy() && now - session.getLastUsedAt() > IDLE_TIMEOUT_MS) {
+                Log.d(TAG, "Closing idle shell session " + session.getKey());
+                session.close();
+                iterator.remove();
+            }
+        }
+        if (sessions.isEmpty()) {
+            cancelReaper();
+        }
+    }
+
+    private void cancelReaper() {
+        if (reapTask != null) {
+            reapTask.cancel(false);
+            reapTask = null;
+        }
+    }
+}
@@ -6,32 +6,50 @@ import android.util.Log;
 import com.example.movinghacker.ai.FunctionDefinition;
 import com.example.movinghacker.ai.FunctionHandler;
 import com.example.movinghacker.ai.FunctionResult;
+import com.example.movinghacker.ai.FunctionSession;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * 终端命令执行Function Handler
  * 支持Android原生Shell命令和自定义命令
+ * 在对话中调用时命令在该对话的常驻Shell中执行（保留当前目录和环境变量），否则每次启动独立进程
  */
 public class TerminalExecuteFunctionHandler implements FunctionHandler {
     private static final String TAG = "TerminalExecuteHandler";
     private static final String FUNCTION_NAME = "terminal_execute";
     private static final int COMMAND_TIMEOUT_SECONDS = 30;
+
+    // 读取命令输出的线程，读取在这里进行，调用线程按截止时间等待，超时不受阻塞读取影响
+    private static final ExecutorService OUTPUT_READERS = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "terminal-output");
+        thread.setDaemon(true);
+        return thread;
+    });
     
     private Context context;
     private String homeDirectory;
     private Gson gson = new Gson();
+    // 执行标识 -> 正在运行的独立命令进程，取消时只终止对应的那一个
+    private final Map<String, Process> runningProcesses = new ConcurrentHashMap<>();
+    // 执行标识 -> 正在执行命令的常驻Shell
+    private final Map<String, ShellSession> runningSessions = new ConcurrentHashMap<>();
+    // 按对话复用的常驻Shell
+    private final ShellSessionPool sessionPool = new ShellSessionPool(key -> new ShellSession(key, homeDirectory));
 
     public TerminalExecuteFunctionHandler(Context context) {
         this.context = context;
@@ -50,6 +68,25 @@ public class TerminalExecuteFunctionHandler implements FunctionHandler {
         return FUNCTION_NAME;
     }
 
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    @Override
+    public void cancel(String executionId) {
+        Process process = runningProcesses.remove(executionId);
+        if (process != null) {
+            // 终止进程后输出流关闭，阻塞的读取随即返回
+            process.destroyForcibly();
+        }
+        ShellSession session = runningSessions.remove(executionId);
+        if (session != null) {
+            // 常驻Shell中正在执行的命令无法单独中断，关闭该对话的会话，下次调用时重建
+            session.close();
+        }
+    }
+
     @Override
     public FunctionDefinition getDefinition() {
         FunctionDefinition def = new FunctionDefinition();
@@ -59,7 +96,10 @@ public class TerminalExecuteFunctionHandler implements FunctionHandler {
             "Android's native shell commands and custom-implemented commands.\n\n" +
             
             "**Environment**: Android Shell (/system/bin/sh)\n" +
-            "**Working Directory**: " + homeDirectory + "\n\n" +
+            "**Working Directory**: " + homeDirectory + "\n" +
+            "**Session**: Commands in the same conversation share one persistent shell, so `cd`, " +
+            "exported variables and shell functions carry over between calls. The result reports the " +
+            "shell's current working_directory. Set `isolated` to run in a fresh one-off process.\n\n" +
             
             "**Available Command Categories**:\n\n" +
             
@@ -195,6 +235,14 @@ public class TerminalExecuteFunctionHandler implements FunctionHandler {
         );
         parameters.put("working_directory", workingDirParam);
 
+        Map<String, Object> isolatedParam = new HashMap<>();
+        isolatedParam.put("type", "boolean");
+        isolatedParam.put("description",
+            "Optional. Run in a fresh one-off process instead of the conversation's persistent shell, " +
+            "e.g. for commands that change shell state you do not want to keep. Defaults to false."
+        );
+        parameters.put("isolated", isolatedParam);
+
         // 添加required字段
         java.util.List<String> required = new java.util.ArrayList<>();
         required.add("command");
@@ -223,9 +271,13 @@ public class TerminalExecuteFunctionHandler implements FunctionHandler {
             return FunctionResult.error(null, "Parameter 'command' is required and cannot be empty");
         }
 
-        // 设置工作目录
+        // 对话中默认使用该对话的常驻Shell
+        String sessionKey = FunctionSession.current();
+        boolean useSession = sessionKey != null && !Boolean.TRUE.equals(args.get("isolated"));
+
+        // 设置工作目录（常驻Shell未指定目录时沿用其当前目录）
         if (workingDir == null || workingDir.trim().isEmpty()) {
-            workingDir = homeDirectory;
+            workingDir = useSession ? null : homeDirectory;
         } else {
             // 处理相对路径
             File dir = new File(workingDir);
@@ -239,15 +291,31 @@ public class TerminalExecuteFunctionHandler implements FunctionHandler {
             Log.d(TAG, "Executing command: " + command + " in directory: " + workingDir);
             
             // 执行命令
-            String output = executeShellCommand(command, workingDir);
+            CommandOutput output = useSession
+                    ? executeInSession(sessionKey, command, workingDir)
+                    : executeShellCommand(command, workingDir);
             
-            // 构建结果
+            // 构建结果，输出过长时只保留开头和结尾并附带截断信息
             JsonObject result = new JsonObject();
             result.addProperty("success", true);
             result.addProperty("command", command);
-            result.addProperty("working_directory", workingDir);
-            result.addProperty("output", output);
-            result.addProperty("exit_code", 0);
+            result.addProperty("working_directory", output.directory);
+            result.addProperty("session", useSession);
+            result.addProperty("output", output.getText());
+            result.addProperty("exit_code", output.exitCode);
+            result.addProperty("output_bytes", output.capture.getTotalBytes());
+            result.addProperty("truncated", output.capture.isTruncated());
+            if (output.capture.isTruncated()) {
+                result.addProperty("omitted_bytes", output.capture.getOmittedBytes());
+            }
+            if (output.timedOut) {
+                result.addProperty("timed_out", true);
+                result.addProperty("note", "Command was killed after " + COMMAND_TIMEOUT_SECONDS
+                        + " seconds; output is partial" + (useSession ? " and the shell session was reset" : ""));
+            } else if (output.shellExited) {
+                result.addProperty("note", "The persistent shell exited; the next call starts a new session "
+                        + "in " + homeDirectory);
+            }
             
             Log.d(TAG, "Command executed successfully");
             return FunctionResult.success(null, result.toString());
@@ -268,9 +336,85 @@ public class TerminalExecuteFunctionHandler implements FunctionHandler {
     }
 
     /**
-     * 执行Shell命令并返回输出
+     * 命令执行结果
+     */
+    private static class CommandOutput {
+        final OutputCapture capture;
+        final int exitCode;
+        final boolean timedOut;
+        // 命令结束时所在目录
+        final String directory;
+        // 常驻Shell在命令执行期间退出
+        final boolean shellExited;
+
+        CommandOutput(OutputCapture capture, int exitCode, boolean timedOut, String directory,
+                      boolean shellExited) {
+            this.capture = capture;
+            this.exitCode = exitCode;
+            this.timedOut = timedOut;
+            this.directory = directory;
+            this.shellExited = shellExited;
+        }
+
+        String getText() {
+            return capture.isEmpty() ? "Command executed successfully with no output" : capture.toText();
+        }
+    }
+
+    /**
+     * 在对话的常驻Shell中执行命令
+     * @param workingDir 执行前切换到的目录，为null时沿用Shell的当前目录
      */
-    private String executeShellCommand(String command, String workingDir) throws IOException, InterruptedException {
+    private CommandOutput executeInSession(String sessionKey, String command, String workingDir)
+            throws IOException, InterruptedException {
+        long timeoutMs = TimeUnit.SECONDS.toMillis(COMMAND_TIMEOUT_SECONDS);
+        ShellSession.Result result = executeTracked(sessionPool.acquire(sessionKey), command, workingDir, timeoutMs);
+        if (result == null) {
+            // 会话在取出后恰好被空闲回收，重新创建
+            result = executeTracked(sessionPool.acquire(sessionKey), command, workingDir, timeoutMs);
+        }
+        if (result == null) {
+            throw new IOException("Failed to start shell session");
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException("Command cancelled");
+        }
+
+        String directory = result.directory != null ? result.directory
+                : workingDir != null ? workingDir : homeDirectory;
+        if (result.timedOut) {
+            Log.w(TAG, "Command timed out after " + COMMAND_TIMEOUT_SECONDS + " seconds: " + command);
+            return new CommandOutput(result.capture, -1, true, directory, true);
+        }
+        if (result.exitCode != 0 && result.capture.isEmpty() && !result.exited) {
+            throw new IOException("Command failed with exit code: " + result.exitCode);
+        }
+        return new CommandOutput(result.capture, result.exitCode, false, directory, result.exited);
+    }
+
+    /**
+     * 在会话中执行命令，执行期间按本次的执行标识登记会话，取消时只关闭这一个会话
+     */
+    private ShellSession.Result executeTracked(ShellSession session, String command, String workingDir,
+                                               long timeoutMs) throws IOException, InterruptedException {
+        String executionId = FunctionSession.currentExecution();
+        if (executionId == null) {
+            return session.execute(command, workingDir, timeoutMs);
+        }
+        runningSessions.put(executionId, session);
+        try {
+            return session.execute(command, workingDir, timeoutMs);
+        } finally {
+            runningSessions.remove(executionId, session);
+        }
+    }
+
+    /**
+     * 执行Shell命令并捕获输出
+     * 输出在读取线程上边读边写入有上限的缓冲，调用线程按截止时间等待；超时后终止进程并返回已捕获的部分
+     */
+    private CommandOutput executeShellCommand(String command, String workingDir)
+            throws IOException, InterruptedException {
         ProcessBuilder builder = new ProcessBuilder("/system/bin/sh", "-c", command);
         builder.redirectErrorStream(true);
         
@@ -291,36 +435,58 @@ public class TerminalExecuteFunctionHandler implements FunctionHandler {
         
         // 启动进程
         Process process = builder.start();
-        
-        // 读取输出
-        StringBuilder output = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(
-                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
-            
-            String line;
-            while ((line = reader.readLine()) != null) {
-                output.append(line).append("\n");
+        String executionId = FunctionSession.currentExecution();
+        if (executionId != null) {
+            runningProcesses.put(executionId, process);
+        }
+
+        OutputCapture capture = new OutputCapture();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(COMMAND_TIMEOUT_SECONDS);
+        Future<?> reader = OUTPUT_READERS.submit(() -> {
+            capture.readFrom(process.getInputStream());
+            return null;
+        });
+        boolean timedOut = false;
+        try {
+            reader.get(COMMAND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            // 输出结束后进程可能还未退出
+            if (!process.waitFor(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                timedOut = true;
+            }
+        } catch (TimeoutException e) {
+            timedOut = true;
+        } catch (ExecutionException e) {
+            // 读取失败通常是进程被取消时管道被关闭
+            if (Thread.currentThread().isInterrupted() || !process.isAlive()) {
+                throw new InterruptedException("Command cancelled");
+            }
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            reader.cancel(true);
+            throw e;
+        } finally {
+            if (executionId != null) {
+                runningProcesses.remove(executionId, process);
             }
         }
-        
-        // 等待进程完成（带超时）
-        boolean finished = process.waitFor(COMMAND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-        
-        if (!finished) {
+
+        if (timedOut) {
+            Log.w(TAG, "Command timed out after " + COMMAND_TIMEOUT_SECONDS + " seconds: " + command);
             process.destroyForcibly();
-            throw new IOException("Command execution timeout after " + COMMAND_TIMEOUT_SECONDS + " seconds");
+            reader.cancel(true);
+            return new CommandOutput(capture, -1, true, workingDir, false);
         }
-        
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException("Command cancelled");
+        }
+
         int exitCode = process.exitValue();
-        if (exitCode != 0) {
-            String outputStr = output.toString();
-            if (outputStr.isEmpty()) {
-                throw new IOException("Command failed with exit code: " + exitCode);
-            }
-            // 如果有输出，即使exit code非0也返回输出（很多命令会在stderr输出但exit code非0）
+        if (exitCode != 0 && capture.isEmpty()) {
+            throw new IOException("Command failed with exit code: " + exitCode);
         }
-        
-        String result = output.toString();
-        return result.isEmpty() ? "Command executed successfully with no output" : result;
+        // 如果有输出，即使exit code非0也返回输出（很多命令会在stderr输出但exit code非0）
+        return new CommandOutput(capture, exitCode, false, workingDir, false);
     }
 }
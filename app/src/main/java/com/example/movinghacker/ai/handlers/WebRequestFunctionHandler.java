@@ -47,6 +47,11 @@ public class WebRequestFunctionHandler implements FunctionHandler {
         return "web_request";
     }
 
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
     @Override
     public FunctionDefinition getDefinition() {
         FunctionDefinition def = new FunctionDefinition();
@@ -0,0 +1,176 @@
+package com.example.movinghacker.terminal;
+
+/**
+ * 屏幕和回滚历史
+ * 所有行放在一个环形数组中，最早的回滚行在前、屏幕各行在后；整屏上滚时只移动环形数组的起点，
+ * 滚出屏幕的行直接成为回滚历史，历史满后复用最早的行对象，不移动其余行
+ */
+final class ScreenBuffer {
+
+    private final int maxScrollback;
+    private TerminalRow[] ring;
+    private int start;
+    private int scrollbackRows;
+    private int columns;
+    private int rows;
+    // 累计滚入回滚历史的行数，界面据此在用户翻看历史时保持位置
+    private long scrollCounter;
+
+    ScreenBuffer(int columns, int rows, int maxScrollback) {
+        this.columns = columns;
+        this.rows = rows;
+        this.maxScrollback = maxScrollback;
+        ring = new TerminalRow[maxScrollback + rows];
+        for (int y = 0; y < rows; y++) {
+            ring[y] = new TerminalRow(columns, TextStyle.DEFAULT);
+        }
+    }
+
+    int getColumns() {
+        return columns;
+    }
+
+    int getRows() {
+        return rows;
+    }
+
+    int getScrollbackRows() {
+        return scrollbackRows;
+    }
+
+    long getScrollCounter() {
+        return scrollCounter;
+    }
+
+    /**
+     * 回滚历史和屏幕的总行数
+     */
+    int getTotalRows() {
+        return scrollbackRows + rows;
+    }
+
+    /**
+     * 按总序号取行，0为最早的回滚行
+     */
+    TerminalRow getRow(int index) {
+        return ring[(start + index) % ring.length];
+    }
+
+    /**
+     * 屏幕上第y行
+     */
+    TerminalRow screenRow(int y) {
+        return getRow(scrollbackRows + y);
+    }
+
+    private void setScreenRow(int y, TerminalRow row) {
+        ring[(start + scrollbackRows + y) % ring.length] = row;
+    }
+
+    /**
+     * 区域[top, bottom]上滚count行，底部补空行
+     * @param toScrollback 整屏滚动时滚出的行是否进入回滚历史（换行导致的滚动才进入）
+     */
+    void scrollUp(int top, int bottom, int count, long style, boolean toScrollback) {
+        count = Math.min(count, bottom - top + 1);
+        if (toScrollback && top == 0 && bottom == rows - 1 && maxScrollback > 0) {
+            for (int i = 0; i < count; i++) {
+                if (scrollbackRows < maxScrollback) {
+                    scrollbackRows++;
+                } else {
+                    // 历史已满：最早的行被淘汰，起点后移
+                    start = (start + 1) % ring.length;
+                }
+                int bottomSlot = (start + scrollbackRows + rows - 1) % ring.length;
+                if (ring[bottomSlot] == null) {
+                    ring[bottomSlot] = new TerminalRow(columns, style);
+                } else {
+                    ring[bottomSlot].resize(columns, style);
+                    ring[bottomSlot].clear(style);
+                }
+                scrollCounter++;
+            }
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            TerminalRow recycled = screenRow(top);
+            for (int y = top; y < bottom; y++) {
+                setScreenRow(y, screenRow(y + 1));
+            }
+            recycled.clear(style);
+            setScreenRow(bottom, recycled);
+        }
+    }
+
+    /**
+     * 区域[top, bottom]下滚count行，顶部补空行
+     */
+    void scrollDown(int top, int bottom, int count, long style) {
+        count = Math.min(count, bottom - top + 1);
+        for (int i = 0; i < count; i++) {
+            TerminalRow recycled = screenRow(bottom);
+            for (int y = bottom; y > top; y--) {
+                setScreenRow(y, screenRow(y - 1));
+            }
+            recycled.clear(style);
+            setScreenRow(top, recycled);
+        }
+    }
+
+    /**
+     * 清空回滚历史，滚入计数同时归零，界面不会按清空前的计数调整翻看位置
+     */
+    void clearScrollback() {
+        TerminalRow[] screen = new TerminalRow[rows];
+        for (int y = 0; y < rows; y++) {
+            screen[y] = screenRow(y);
+        }
+        ring = new TerminalRow[maxScrollback + rows];
+        System.arraycopy(screen, 0, ring, 0, rows);
+        start = 0;
+        scrollbackRows = 0;
+        scrollCounter = 0;
+    }
+
+    /**
+     * 调整尺寸：屏幕各行按新列数截断或补齐（不重排），回滚历史中的行保持写入时的宽度；
+     * 行数减少时先去掉光标下方的行，仍不够时屏幕顶部的行进入回滚历史
+     * @return 调整后光标所在行
+     */
+    int resize(int newColumns, int newRows, int cursorY) {
+        int total = getTotalRows();
+        TerminalRow[] all = new TerminalRow[total];
+        for (int i = 0; i < total; i++) {
+            all[i] = getRow(i);
+        }
+        int screenStart = scrollbackRows;
+        int screenEnd = total;
+        if (newRows < rows) {
+            int dropBelow = Math.min(rows - newRows, rows - 1 - cursorY);
+            screenEnd -= dropBelow;
+            int pushUp = rows - newRows - dropBelow;
+            screenStart += pushUp;
+            cursorY -= pushUp;
+        }
+        int keptScrollback = Math.min(maxScrollback, screenStart);
+        int firstKept = screenStart - keptScrollback;
+
+        ring = new TerminalRow[maxScrollback + newRows];
+        int count = 0;
+        for (int i = firstKept; i < screenEnd; i++) {
+            // 回滚行保持原宽度，不在界面线程上逐行重新分配；行被复用到屏幕底部时再调整
+            if (i >= screenStart) {
+                all[i].resize(newColumns, TextStyle.DEFAULT);
+            }
+            ring[count++] = all[i];
+        }
+        while (count < keptScrollback + newRows) {
+            ring[count++] = new TerminalRow(newColumns, TextStyle.DEFAULT);
+        }
+        start = 0;
+        scrollbackRows = keptScrollback;
+        columns = newColumns;
+        rows = newRows;
+        return Math.max(0, Math.min(cursorY, newRows - 1));
+    }
+}
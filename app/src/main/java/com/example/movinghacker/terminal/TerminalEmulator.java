@@ -0,0 +1,963 @@
+package com.example.movinghacker.terminal;
+
+import java.util.Arrays;
+
+/**
+ * VT100/xterm终端模拟器
+ * 输出文本经状态机解析：普通字符写入屏幕网格，控制字符和ESC/CSI/OSC序列移动光标、擦除、滚动、
+ * 设置样式（SGR）或切换备用屏幕。全屏程序（top、vim等）因此只改动对应的单元格，不再无限追加文本。
+ * 所有公开方法在对象锁上同步：读取线程写入，界面线程在同一把锁下复制要绘制的行；
+ * 大段输出分块解析，每块之间释放锁，界面不必等整批输出处理完
+ */
+public class TerminalEmulator {
+
+    /**
+     * 终端需要回写给程序的数据（如光标位置查询的应答）
+     */
+    public interface Client {
+        void write(String data);
+    }
+
+    public static final int DEFAULT_SCROLLBACK_ROWS = 2000;
+
+    private static final int STATE_GROUND = 0;
+    private static final int STATE_ESCAPE = 1;
+    private static final int STATE_ESCAPE_INTERMEDIATE = 2;
+    private static final int STATE_CSI = 3;
+    private static final int STATE_OSC = 4;
+    // DCS、SOS、PM、APC：内容忽略，直到ST
+    private static final int STATE_IGNORED_STRING = 5;
+
+    // 每次持锁解析的最大字符数
+    private static final int APPEND_CHUNK_CHARS = 4096;
+
+    private static final int MAX_PARAMS = 16;
+    private static final int MAX_PARAM_VALUE = 9999;
+
+    // DEC特殊图形字符集（0x5f-0x7e），用于绘制表格边框
+    private static final char[] LINE_DRAWING = (
+            " ◆▒␉␌␍␊°±␤␋┘┐┌└┼"
+                    + "⎺⎻─⎼⎽├┤┴┬│≤≥π≠£·")
+            .toCharArray();
+
+    private final ScreenBuffer mainBuffer;
+    private ScreenBuffer altBuffer;
+    private ScreenBuffer buffer;
+    private Client client;
+    private int columns;
+    private int rows;
+
+    // 光标和当前样式
+    private int cursorX;
+    private int cursorY;
+    // 写到最后一列后等待下一个字符时才换行
+    private boolean pendingWrap;
+    private int foreground = TextStyle.COLOR_DEFAULT;
+    private int background = TextStyle.COLOR_DEFAULT;
+    private int flags;
+    private long style = TextStyle.DEFAULT;
+
+    // 模式
+    private int scrollTop;
+    private int scrollBottom;
+    private boolean autoWrap = true;
+    private boolean originMode;
+    private boolean insertMode;
+    private boolean newLineMode;
+    private boolean cursorVisible = true;
+    private boolean[] tabStops;
+
+    // 字符集：G0/G1是否为DEC特殊图形，当前使用哪一个
+    private final boolean[] lineDrawingCharset = new boolean[2];
+    private int activeCharset;
+
+    private final SavedCursor mainSaved = new SavedCursor();
+    private final SavedCursor altSaved = new SavedCursor();
+
+    // 解析状态
+    private int state = STATE_GROUND;
+    private final int[] params = new int[MAX_PARAMS];
+    private int paramCount;
+    private char privateMarker;
+    private char intermediate;
+    private int lastPrinted = ' ';
+    private int pendingHighSurrogate = -1;
+
+    private static final class SavedCursor {
+        int x;
+        int y;
+        int foreground = TextStyle.COLOR_DEFAULT;
+        int background = TextStyle.COLOR_DEFAULT;
+        int flags;
+        boolean originMode;
+        boolean autoWrap = true;
+        final boolean[] lineDrawingCharset = new boolean[2];
+        int activeCharset;
+    }
+
+    public TerminalEmulator(int columns, int rows) {
+        this(columns, rows, DEFAULT_SCROLLBACK_ROWS);
+    }
+
+    public TerminalEmulator(int columns, int rows, int scrollbackRows) {
+        this.columns = Math.max(1, columns);
+        this.rows = Math.max(1, rows);
+        mainBuffer = new ScreenBuffer(this.columns, this.rows, scrollbackRows);
+        buffer = mainBuffer;
+        scrollBottom = this.rows - 1;
+        resetTabStops();
+    }
+
+    public synchronized void setClient(Client client) {
+        this.client = client;
+    }
+
+    /**
+     * 换行时同时回到行首（LNM），用于没有伪终端、只输出\n的本地Shell
+     */
+    public synchronized void setNewLineMode(boolean newLineMode) {
+        this.newLineMode = newLineMode;
+    }
+
+    public synchronized int getColumns() {
+        return columns;
+    }
+
+    public synchronized int getRows() {
+        return rows;
+    }
+
+    public synchronized int getCursorX() {
+        return cursorX;
+    }
+
+    public synchronized int getCursorY() {
+        return cursorY;
+    }
+
+    public synchronized boolean isCursorVisible() {
+        return cursorVisible;
+    }
+
+    public synchronized boolean isAlternateScreen() {
+        return buffer != mainBuffer;
+    }
+
+    /**
+     * 当前显示的屏幕，调用方需持有本对象的锁
+     */
+    ScreenBuffer getScreenBuffer() {
+        return buffer;
+    }
+
+    /**
+     * 解析输出文本，每APPEND_CHUNK_CHARS个字符释放一次锁
+     * 同一时间应只有一个线程追加，否则多段输出可能在块之间交错
+     */
+    public void append(String text) {
+        if (text == null) {
+            return;
+        }
+        int length = text.length();
+        for (int from = 0; from < length; from += APPEND_CHUNK_CHARS) {
+            int to = Math.min(length, from + APPEND_CHUNK_CHARS);
+            synchronized (this) {
+                appendRange(text, from, to);
+            }
+        }
+    }
+
+    private void appendRange(String text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            // 代理对可能被拆在两次append之间
+            if (Character.isHighSurrogate(c)) {
+                pendingHighSurrogate = c;
+                continue;
+            }
+            int codePoint = c;
+            if (Character.isLowSurrogate(c) && pendingHighSurrogate >= 0) {
+                codePoint = Character.toCodePoint((char) pendingHighSurrogate, c);
+            }
+            pendingHighSurrogate = -1;
+            process(codePoint);
+        }
+    }
+
+    /**
+     * 清屏：清空回滚历史和屏幕，只保留光标所在行并移到顶部
+     */
+    public synchronized void clear() {
+        TerminalRow current = buffer.screenRow(cursorY);
+        if (cursorY != 0) {
+            buffer.screenRow(0).copyFrom(current);
+        }
+        for (int y = 1; y < rows; y++) {
+            buffer.screenRow(y).clear(eraseStyle());
+        }
+        cursorY = 0;
+        if (buffer == mainBuffer) {
+            mainBuffer.clearScrollback();
+        }
+    }
+
+    public synchronized void resize(int newColumns, int newRows) {
+        newColumns = Math.max(1, newColumns);
+        newRows = Math.max(1, newRows);
+        if (newColumns == columns && newRows == rows) {
+            return;
+        }
+        int mainCursorY = buffer == mainBuffer ? cursorY : mainSaved.y;
+        mainCursorY = mainBuffer.resize(newColumns, newRows, mainCursorY);
+        if (buffer == mainBuffer) {
+            cursorY = mainCursorY;
+        } else {
+            mainSaved.y = mainCursorY;
+            cursorY = altBuffer.resize(newColumns, newRows, cursorY);
+        }
+        if (altBuffer != null && buffer == mainBuffer) {
+            altBuffer = null;
+        }
+        columns = newColumns;
+        rows = newRows;
+        cursorX = Math.min(cursorX, columns - 1);
+        pendingWrap = false;
+        scrollTop = 0;
+        scrollBottom = rows - 1;
+        resetTabStops();
+    }
+
+    /**
+     * 回滚历史和屏幕的全部文本，自动换行的行拼接在一起
+     */
+    public synchronized String getTranscript() {
+        StringBuilder text = new StringBuilder();
+        int total = buffer.getTotalRows();
+        int last = total - 1;
+        while (last >= 0 && buffer.getRow(last).getText().isEmpty()) {
+            last--;
+        }
+        for (int i = 0; i <= last; i++) {
+            TerminalRow row = buffer.getRow(i);
+            text.append(row.getText());
+            if (!row.isWrapped() && i < last) {
+                text.append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    private void process(int c) {
+        // C0控制字符在任何状态下都立即生效（OSC中的BEL除外，它是结束符）
+        if (c < 0x20 || c == 0x7f) {
+            if (state == STATE_OSC || state == STATE_IGNORED_STRING) {
+                if (c == 0x07) {
+                    state = STATE_GROUND;
+                } else if (c == 0x1b) {
+                    state = STATE_ESCAPE;
+                }
+                return;
+            }
+            control(c);
+            return;
+        }
+        switch (state) {
+            case STATE_GROUND:
+                print(c);
+                break;
+            case STATE_ESCAPE:
+                escape(c);
+                break;
+            case STATE_ESCAPE_INTERMEDIATE:
+                escapeIntermediate(c);
+                break;
+            case STATE_CSI:
+                csiChar(c);
+                break;
+            default:
+                // OSC和其他字符串的内容不处理（窗口标题等）
+                break;
+        }
+    }
+
+    private void control(int c) {
+        switch (c) {
+            case 0x08: // BS
+                if (cursorX > 0) {
+                    cursorX--;
+                }
+                pendingWrap = false;
+                break;
+            case 0x09: // HT
+                cursorX = nextTabStop(cursorX);
+                break;
+            case 0x0a: // LF
+            case 0x0b: // VT
+            case 0x0c: // FF
+                lineFeed();
+                if (newLineMode) {
+                    cursorX = 0;
+                }
+                break;
+            case 0x0d: // CR
+                cursorX = 0;
+                pendingWrap = false;
+                break;
+            case 0x0e: // SO
+                activeCharset = 1;
+                break;
+            case 0x0f: // SI
+                activeCharset = 0;
+                break;
+            case 0x18: // CAN
+            case 0x1a: // SUB
+                state = STATE_GROUND;
+                break;
+            case 0x1b: // ESC
+                state = STATE_ESCAPE;
+                intermediate = 0;
+                break;
+            default:
+                // BEL等其余控制字符忽略
+                break;
+        }
+    }
+
+    private void print(int c) {
+        if (lineDrawingCharset[activeCharset] && c >= 0x5f && c <= 0x7e) {
+            c = LINE_DRAWING[c - 0x5f];
+        }
+        int width = CharWidth.of(c);
+        if (width == 0) {
+            // 组合字符：单元格只保存一个码点，直接丢弃
+            return;
+        }
+        if (pendingWrap) {
+            buffer.screenRow(cursorY).setWrapped(true);
+            cursorX = 0;
+            lineFeed();
+        }
+        if (width == 2 && cursorX == columns - 1) {
+            if (autoWrap && columns > 1) {
+                buffer.screenRow(cursorY).erase(cursorX, columns, eraseStyle());
+                buffer.screenRow(cursorY).setWrapped(true);
+                cursorX = 0;
+                lineFeed();
+            } else {
+                width = 1;
+                c = ' ';
+            }
+        }
+        TerminalRow row = buffer.screenRow(cursorY);
+        if (insertMode) {
+            row.insertCells(cursorX, width, eraseStyle());
+        }
+        row.set(cursorX, c, style, width);
+        lastPrinted = c;
+        int next = cursorX + width;
+        if (next >= columns) {
+            cursorX = columns - 1;
+            pendingWrap = autoWrap;
+        } else {
+            cursorX = next;
+        }
+    }
+
+    private void escape(int c) {
+        state = STATE_GROUND;
+        switch (c) {
+            case '[':
+                state = STATE_CSI;
+                paramCount = 0;
+                params[0] = -1;
+                privateMarker = 0;
+                intermediate = 0;
+                break;
+            case ']':
+                state = STATE_OSC;
+                break;
+            case 'P': // DCS
+            case 'X': // SOS
+            case '^': // PM
+            case '_': // APC
+                state = STATE_IGNORED_STRING;
+                break;
+            case '(':
+            case ')':
+            case '*':
+            case '+':
+            case '#':
+            case '%':
+            case ' ':
+                intermediate = (char) c;
+                state = STATE_ESCAPE_INTERMEDIATE;
+                break;
+            case '7': // DECSC
+                saveCursor();
+                break;
+            case '8': // DECRC
+                restoreCursor();
+                break;
+            case 'D': // IND
+                lineFeed();
+                break;
+            case 'E': // NEL
+                cursorX = 0;
+                lineFeed();
+                break;
+            case 'H': // HTS
+                tabStops[cursorX] = true;
+                break;
+            case 'M': // RI
+                reverseIndex();
+                break;
+            case 'c': // RIS
+                reset();
+                break;
+            default:
+                // '\\'（ST）、'='、'>'（键盘模式）等无需处理
+                break;
+        }
+    }
+
+    private void escapeIntermediate(int c) {
+        state = STATE_GROUND;
+        if (intermediate == '(' || intermediate == ')') {
+            lineDrawingCharset[intermediate == '(' ? 0 : 1] = c == '0';
+        } else if (intermediate == '#' && c == '8') {
+            // DECALN：用E填满屏幕
+            for (int y = 0; y < rows; y++) {
+                TerminalRow row = buffer.screenRow(y);
+                for (int x = 0; x < columns; x++) {
+                    row.set(x, 'E', TextStyle.DEFAULT, 1);
+                }
+            }
+        }
+    }
+
+    private void csiChar(int c) {
+        if (c >= '0' && c <= '9') {
+            if (paramCount == 0) {
+                paramCount = 1;
+            }
+            int index = paramCount - 1;
+            int value = Math.max(0, params[index]) * 10 + (c - '0');
+            params[index] = Math.min(value, MAX_PARAM_VALUE);
+        } else if (c == ';' || c == ':') {
+            if (paramCount == 0) {
+                paramCount = 1;
+            }
+            if (paramCount < MAX_PARAMS) {
+                params[paramCount++] = -1;
+            }
+        } else if (c >= '<' && c <= '?') {
+            privateMarker = (char) c;
+        } else if (c >= 0x20 && c <= 0x2f) {
+            intermediate = (char) c;
+        } else if (c >= 0x40 && c <= 0x7e) {
+            state = STATE_GROUND;
+            csiDispatch(c);
+        } else {
+            state = STATE_GROUND;
+        }
+    }
+
+    /**
+     * 第index个参数，缺省或为0时返回defaultValue
+     */
+    private int arg(int index, int defaultValue) {
+        int value = index < paramCount ? params[index] : -1;
+        return value <= 0 ? defaultValue : value;
+    }
+
+    private void csiDispatch(int c) {
+        if (intermediate == '!' && c == 'p') {
+            softReset();
+            return;
+        }
+        if (intermediate != 0) {
+            // DECSCUSR（光标形状）等带中间字符的序列不处理
+            return;
+        }
+        if (privateMarker == '?') {
+            if (c == 'h' || c == 'l') {
+                for (int i = 0; i < Math.max(1, paramCount); i++) {
+                    setPrivateMode(arg(i, 0), c == 'h');
+                }
+            }
+            return;
+        }
+        if (privateMarker == '>') {
+            if (c == 'c') {
+                respond("\033[>0;95;0c");
+            }
+            return;
+        }
+        if (privateMarker != 0) {
+            return;
+        }
+        switch (c) {
+            case '@': // ICH
+                buffer.screenRow(cursorY).insertCells(cursorX, arg(0, 1), eraseStyle());
+                break;
+            case 'A': // CUU
+                moveCursorVertically(-arg(0, 1));
+                break;
+            case 'B': // CUD
+            case 'e': // VPR
+                moveCursorVertically(arg(0, 1));
+                break;
+            case 'C': // CUF
+            case 'a': // HPR
+                setCursorX(cursorX + arg(0, 1));
+                break;
+            case 'D': // CUB
+                setCursorX(cursorX - arg(0, 1));
+                break;
+            case 'E': // CNL
+                moveCursorVertically(arg(0, 1));
+                cursorX = 0;
+                break;
+            case 'F': // CPL
+                moveCursorVertically(-arg(0, 1));
+                cursorX = 0;
+                break;
+            case 'G': // CHA
+            case '`': // HPA
+                setCursorX(arg(0, 1) - 1);
+                break;
+            case 'H': // CUP
+            case 'f': // HVP
+                setCursorPosition(arg(1, 1) - 1, arg(0, 1) - 1);
+                break;
+            case 'I': // CHT
+                for (int i = arg(0, 1); i > 0; i--) {
+                    cursorX = nextTabStop(cursorX);
+                }
+                break;
+            case 'J': // ED
+                eraseInDisplay(arg(0, 0));
+                break;
+            case 'K': // EL
+                eraseInLine(arg(0, 0));
+                break;
+            case 'L': // IL
+                if (cursorY >= scrollTop && cursorY <= scrollBottom) {
+                    buffer.scrollDown(cursorY, scrollBottom, arg(0, 1), eraseStyle());
+                    cursorX = 0;
+                }
+                break;
+            case 'M': // DL
+                if (cursorY >= scrollTop && cursorY <= scrollBottom) {
+                    buffer.scrollUp(cursorY, scrollBottom, arg(0, 1), eraseStyle(), false);
+                    cursorX = 0;
+                }
+                break;
+            case 'P': // DCH
+                buffer.screenRow(cursorY).deleteCells(cursorX, arg(0, 1), eraseStyle());
+                break;
+            case 'S': // SU
+                buffer.scrollUp(scrollTop, scrollBottom, arg(0, 1), eraseStyle(), false);
+                break;
+            case 'T': // SD
+                buffer.scrollDown(scrollTop, scrollBottom, arg(0, 1), eraseStyle());
+                break;
+            case 'X': // ECH
+                buffer.screenRow(cursorY).erase(cursorX, cursorX + arg(0, 1), eraseStyle());
+                break;
+            case 'Z': // CBT
+                for (int i = arg(0, 1); i > 0 && cursorX > 0; i--) {
+                    do {
+                        cursorX--;
+                    } while (cursorX > 0 && !tabStops[cursorX]);
+                }
+                break;
+            case 'b': // REP
+                for (int i = Math.min(arg(0, 1), columns * rows); i > 0; i--) {
+                    print(lastPrinted);
+                }
+                break;
+            case 'c': // DA
+                respond("\033[?1;2c");
+                break;
+            case 'd': // VPA
+                setCursorPosition(cursorX, arg(0, 1) - 1);
+                break;
+            case 'g': // TBC
+                int mode = arg(0, 0);
+                if (mode == 0) {
+                    tabStops[cursorX] = false;
+                } else if (mode == 3) {
+                    Arrays.fill(tabStops, false);
+                }
+                break;
+            case 'h': // SM
+            case 'l': // RM
+                for (int i = 0; i < Math.max(1, paramCount); i++) {
+                    int param = arg(i, 0);
+                    if (param == 4) {
+                        insertMode = c == 'h';
+                    } else if (param == 20) {
+                        newLineMode = c == 'h';
+                    }
+                }
+                break;
+            case 'm': // SGR
+                selectGraphicRendition();
+                break;
+            case 'n': // DSR
+                if (arg(0, 0) == 5) {
+                    respond("\033[0n");
+                } else if (arg(0, 0) == 6) {
+                    int row = originMode ? cursorY - scrollTop : cursorY;
+                    respond("\033[" + (row + 1) + ";" + (cursorX + 1) + "R");
+                }
+                break;
+            case 'r': // DECSTBM
+                int top = arg(0, 1) - 1;
+                int bottom = Math.min(arg(1, rows), rows) - 1;
+                if (top < bottom) {
+                    scrollTop = top;
+                    scrollBottom = bottom;
+                    setCursorPosition(0, 0);
+                }
+                break;
+            case 's': // SCOSC
+                saveCursor();
+                break;
+            case 'u': // SCORC
+                restoreCursor();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void setPrivateMode(int mode, boolean enabled) {
+        switch (mode) {
+            case 6: // DECOM
+                originMode = enabled;
+                setCursorPosition(0, 0);
+                break;
+            case 7: // DECAWM
+                autoWrap = enabled;
+                if (!enabled) {
+                    pendingWrap = false;
+                }
+                break;
+            case 25: // DECTCEM
+                cursorVisible = enabled;
+                break;
+            case 47:
+            case 1047:
+                useAlternateBuffer(enabled);
+                break;
+            case 1048:
+                if (enabled) {
+                    saveCursor();
+                } else {
+                    restoreCursor();
+                }
+                break;
+            case 1049:
+                if (enabled) {
+                    saveCursor();
+                    useAlternateBuffer(true);
+                } else {
+                    useAlternateBuffer(false);
+                    restoreCursor();
+                }
+                break;
+            default:
+                // 光标键模式、鼠标上报、括号粘贴等与显示无关的模式忽略
+                break;
+        }
+    }
+
+    private void selectGraphicRendition() {
+        if (paramCount == 0) {
+            resetStyle();
+            return;
+        }
+        for (int i = 0; i < paramCount; i++) {
+            int p = Math.max(0, params[i]);
+            if (p == 0) {
+                resetStyle();
+            } else if (p == 1) {
+                flags |= TextStyle.BOLD;
+            } else if (p == 2) {
+                flags |= TextStyle.DIM;
+            } else if (p == 3) {
+                flags |= TextStyle.ITALIC;
+            } else if (p == 4) {
+                flags |= TextStyle.UNDERLINE;
+            } else if (p == 5 || p == 6) {
+                flags |= TextStyle.BLINK;
+            } else if (p == 7) {
+                flags |= TextStyle.INVERSE;
+            } else if (p == 8) {
+                flags |= TextStyle.INVISIBLE;
+            } else if (p == 9) {
+                flags |= TextStyle.STRIKETHROUGH;
+            } else if (p == 21 || p == 22) {
+                flags &= ~(TextStyle.BOLD | TextStyle.DIM);
+            } else if (p == 23) {
+                flags &= ~TextStyle.ITALIC;
+            } else if (p == 24) {
+                flags &= ~TextStyle.UNDERLINE;
+            } else if (p == 25) {
+                flags &= ~TextStyle.BLINK;
+            } else if (p == 27) {
+                flags &= ~TextStyle.INVERSE;
+            } else if (p == 28) {
+                flags &= ~TextStyle.INVISIBLE;
+            } else if (p == 29) {
+                flags &= ~TextStyle.STRIKETHROUGH;
+            } else if (p >= 30 && p <= 37) {
+                foreground = p - 30;
+            } else if (p == 38 || p == 48) {
+                int[] consumed = new int[1];
+                int color = extendedColor(i + 1, consumed);
+                i += consumed[0];
+                if (color >= 0) {
+                    if (p == 38) {
+                        foreground = color;
+                    } else {
+                        background = color;
+                    }
+                }
+            } else if (p == 39) {
+                foreground = TextStyle.COLOR_DEFAULT;
+            } else if (p >= 40 && p <= 47) {
+                background = p - 40;
+            } else if (p == 49) {
+                background = TextStyle.COLOR_DEFAULT;
+            } else if (p >= 90 && p <= 97) {
+                foreground = p - 90 + 8;
+            } else if (p >= 100 && p <= 107) {
+                background = p - 100 + 8;
+            }
+        }
+        updateStyle();
+    }
+
+    /**
+     * 解析38/48之后的5;n或2;r;g;b
+     * @param consumed 输出：用掉的参数个数
+     * @return 颜色，无效时返回-1
+     */
+    private int extendedColor(int index, int[] consumed) {
+        if (index >= paramCount) {
+            return -1;
+        }
+        int kind = params[index];
+        if (kind == 5 && index + 1 < paramCount) {
+            consumed[0] = 2;
+            return Math.max(0, Math.min(255, params[index + 1]));
+        }
+        if (kind == 2 && index + 3 < paramCount) {
+            consumed[0] = 4;
+            return TextStyle.rgb(Math.max(0, params[index + 1]), Math.max(0, params[index + 2]),
+                    Math.max(0, params[index + 3]));
+        }
+        consumed[0] = paramCount - index;
+        return -1;
+    }
+
+    private void resetStyle() {
+        foreground = TextStyle.COLOR_DEFAULT;
+        background = TextStyle.COLOR_DEFAULT;
+        flags = 0;
+        updateStyle();
+    }
+
+    private void updateStyle() {
+        style = TextStyle.encode(foreground, background, flags);
+    }
+
+    /**
+     * 擦除使用当前背景色（xterm的行为），其余属性清除
+     */
+    private long eraseStyle() {
+        return TextStyle.encode(TextStyle.COLOR_DEFAULT, background, 0);
+    }
+
+    private void lineFeed() {
+        pendingWrap = false;
+        if (cursorY == scrollBottom) {
+            buffer.scrollUp(scrollTop, scrollBottom, 1, eraseStyle(), buffer == mainBuffer);
+        } else if (cursorY < rows - 1) {
+            cursorY++;
+        }
+    }
+
+    private void reverseIndex() {
+        pendingWrap = false;
+        if (cursorY == scrollTop) {
+            buffer.scrollDown(scrollTop, scrollBottom, 1, eraseStyle());
+        } else if (cursorY > 0) {
+            cursorY--;
+        }
+    }
+
+    private void setCursorX(int x) {
+        cursorX = Math.max(0, Math.min(columns - 1, x));
+        pendingWrap = false;
+    }
+
+    /**
+     * 上下移动光标，不越过滚动区域边界（光标在区域外时以屏幕边界为限）
+     */
+    private void moveCursorVertically(int delta) {
+        int top = cursorY >= scrollTop ? scrollTop : 0;
+        int bottom = cursorY <= scrollBottom ? scrollBottom : rows - 1;
+        cursorY = Math.max(top, Math.min(bottom, cursorY + delta));
+        pendingWrap = false;
+    }
+
+    /**
+     * 定位光标，原点模式下行号相对于滚动区域
+     */
+    private void setCursorPosition(int x, int y) {
+        int top = originMode ? scrollTop : 0;
+        int bottom = originMode ? scrollBottom : rows - 1;
+        cursorY = Math.max(top, Math.min(bottom, top + y));
+        setCursorX(x);
+    }
+
+    private void eraseInDisplay(int mode) {
+        long erase = eraseStyle();
+        if (mode == 0) {
+            buffer.screenRow(cursorY).erase(cursorX, columns, erase);
+            for (int y = cursorY + 1; y < rows; y++) {
+                buffer.screenRow(y).clear(erase);
+            }
+        } else if (mode == 1) {
+            buffer.screenRow(cursorY).erase(0, cursorX + 1, erase);
+            for (int y = 0; y < cursorY; y++) {
+                buffer.screenRow(y).clear(erase);
+            }
+        } else if (mode == 2) {
+            for (int y = 0; y < rows; y++) {
+                buffer.screenRow(y).clear(erase);
+            }
+        } else if (mode == 3 && buffer == mainBuffer) {
+            mainBuffer.clearScrollback();
+        }
+        pendingWrap = false;
+    }
+
+    private void eraseInLine(int mode) {
+        TerminalRow row = buffer.screenRow(cursorY);
+        long erase = eraseStyle();
+        if (mode == 0) {
+            row.erase(cursorX, columns, erase);
+            row.setWrapped(false);
+        } else if (mode == 1) {
+            row.erase(0, cursorX + 1, erase);
+        } else if (mode == 2) {
+            row.clear(erase);
+        }
+        pendingWrap = false;
+    }
+
+    private void useAlternateBuffer(boolean alternate) {
+        if (alternate == (buffer != mainBuffer)) {
+            return;
+        }
+        if (alternate) {
+            if (altBuffer == null) {
+                altBuffer = new ScreenBuffer(columns, rows, 0);
+            }
+            for (int y = 0; y < rows; y++) {
+                altBuffer.screenRow(y).clear(eraseStyle());
+            }
+            buffer = altBuffer;
+        } else {
+            buffer = mainBuffer;
+        }
+        pendingWrap = false;
+    }
+
+    private void saveCursor() {
+        SavedCursor saved = buffer == mainBuffer ? mainSaved : altSaved;
+        saved.x = cursorX;
+        saved.y = cursorY;
+        saved.foreground = foreground;
+        saved.background = background;
+        saved.flags = flags;
+        saved.originMode = originMode;
+        saved.autoWrap = autoWrap;
+        saved.lineDrawingCharset[0] = lineDrawingCharset[0];
+        saved.lineDrawingCharset[1] = lineDrawingCharset[1];
+        saved.activeCharset = activeCharset;
+    }
+
+    private void restoreCursor() {
+        SavedCursor saved = buffer == mainBuffer ? mainSaved : altSaved;
+        cursorX = Math.min(saved.x, columns - 1);
+        cursorY = Math.min(saved.y, rows - 1);
+        foreground = saved.foreground;
+        background = saved.background;
+        flags = saved.flags;
+        originMode = saved.originMode;
+        autoWrap = saved.autoWrap;
+        lineDrawingCharset[0] = saved.lineDrawingCharset[0];
+        lineDrawingCharset[1] = saved.lineDrawingCharset[1];
+        activeCharset = saved.activeCharset;
+        pendingWrap = false;
+        updateStyle();
+    }
+
+    private void softReset() {
+        cursorVisible = true;
+        originMode = false;
+        autoWrap = true;
+        insertMode = false;
+        scrollTop = 0;
+        scrollBottom = rows - 1;
+        lineDrawingCharset[0] = false;
+        lineDrawingCharset[1] = false;
+        activeCharset = 0;
+        resetStyle();
+        mainSaved.x = 0;
+        mainSaved.y = 0;
+        altSaved.x = 0;
+        altSaved.y = 0;
+    }
+
+    private void reset() {
+        useAlternateBuffer(false);
+        softReset();
+        for (int y = 0; y < rows; y++) {
+            mainBuffer.screenRow(y).clear(TextStyle.DEFAULT);
+        }
+        cursorX = 0;
+        cursorY = 0;
+        pendingWrap = false;
+        resetTabStops();
+    }
+
+    private void resetTabStops() {
+        tabStops = new boolean[columns];
+        for (int x = 8; x < columns; x += 8) {
+            tabStops[x] = true;
+        }
+    }
+
+    private int nextTabStop(int x) {
+        pendingWrap = false;
+        for (int i = x + 1; i < columns; i++) {
+            if (tabStops[i]) {
+                return i;
+            }
+        }
+        return columns - 1;
+    }
+
+    private void respond(String data) {
+        if (client != null) {
+            client.write(data);
+        }
+    }
+}
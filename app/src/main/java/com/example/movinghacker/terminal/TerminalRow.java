@@ -0,0 +1,184 @@
+package com.example.movinghacker.terminal;
+
+import java.util.Arrays;
+
+/**
+ * 屏幕上的一行单元格
+ * 每格保存一个码点和样式；宽字符占两格，右半格为WIDE_TAIL占位。
+ * 每次修改版本号加一，界面据此只重绘内容变化的行
+ */
+final class TerminalRow {
+
+    static final int WIDE_TAIL = -1;
+
+    private int[] codePoints;
+    private long[] styles;
+    // 该行因自动换行延续到下一行（复制文本时不插入换行）
+    private boolean wrapped;
+    private int version;
+
+    TerminalRow(int columns, long style) {
+        codePoints = new int[columns];
+        styles = new long[columns];
+        clear(style);
+    }
+
+    int getColumns() {
+        return codePoints.length;
+    }
+
+    int getCodePoint(int column) {
+        return codePoints[column];
+    }
+
+    long getStyle(int column) {
+        return styles[column];
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    boolean isWrapped() {
+        return wrapped;
+    }
+
+    void setWrapped(boolean wrapped) {
+        if (this.wrapped != wrapped) {
+            this.wrapped = wrapped;
+            version++;
+        }
+    }
+
+    void clear(long style) {
+        Arrays.fill(codePoints, ' ');
+        Arrays.fill(styles, style);
+        wrapped = false;
+        version++;
+    }
+
+    /**
+     * 写入一个字符，覆盖半个宽字符时把另一半清成空格
+     */
+    void set(int column, int codePoint, long style, int width) {
+        int columns = codePoints.length;
+        if (codePoints[column] == WIDE_TAIL && column > 0) {
+            codePoints[column - 1] = ' ';
+        }
+        int last = column + width - 1;
+        if (last + 1 < columns && codePoints[last + 1] == WIDE_TAIL) {
+            codePoints[last + 1] = ' ';
+        }
+        codePoints[column] = codePoint;
+        styles[column] = style;
+        if (width == 2 && column + 1 < columns) {
+            codePoints[column + 1] = WIDE_TAIL;
+            styles[column + 1] = style;
+        }
+        version++;
+    }
+
+    /**
+     * 把[from, to)范围清成空格
+     */
+    void erase(int from, int to, long style) {
+        from = Math.max(0, from);
+        to = Math.min(codePoints.length, to);
+        if (from >= to) {
+            return;
+        }
+        if (codePoints[from] == WIDE_TAIL && from > 0) {
+            codePoints[from - 1] = ' ';
+        }
+        if (to < codePoints.length && codePoints[to] == WIDE_TAIL) {
+            codePoints[to] = ' ';
+        }
+        Arrays.fill(codePoints, from, to, ' ');
+        Arrays.fill(styles, from, to, style);
+        version++;
+    }
+
+    /**
+     * 在column处插入count个空格，右侧内容右移，超出行尾的丢弃
+     */
+    void insertCells(int column, int count, long style) {
+        int columns = codePoints.length;
+        count = Math.min(count, columns - column);
+        System.arraycopy(codePoints, column, codePoints, column + count, columns - column - count);
+        System.arraycopy(styles, column, styles, column + count, columns - column - count);
+        erase(column, column + count, style);
+        fixWideTail();
+    }
+
+    /**
+     * 删除column处的count格，右侧内容左移，行尾补空格
+     */
+    void deleteCells(int column, int count, long style) {
+        int columns = codePoints.length;
+        count = Math.min(count, columns - column);
+        if (codePoints[column] == WIDE_TAIL && column > 0) {
+            codePoints[column - 1] = ' ';
+        }
+        System.arraycopy(codePoints, column + count, codePoints, column, columns - column - count);
+        System.arraycopy(styles, column + count, styles, column, columns - column - count);
+        Arrays.fill(codePoints, columns - count, columns, ' ');
+        Arrays.fill(styles, columns - count, columns, style);
+        if (codePoints[column] == WIDE_TAIL) {
+            codePoints[column] = ' ';
+        }
+        version++;
+    }
+
+    void resize(int columns, long style) {
+        int old = codePoints.length;
+        if (old == columns) {
+            return;
+        }
+        codePoints = Arrays.copyOf(codePoints, columns);
+        styles = Arrays.copyOf(styles, columns);
+        if (columns > old) {
+            Arrays.fill(codePoints, old, columns, ' ');
+            Arrays.fill(styles, old, columns, style);
+        }
+        fixWideTail();
+        version++;
+    }
+
+    void copyFrom(TerminalRow other) {
+        int columns = Math.min(codePoints.length, other.codePoints.length);
+        System.arraycopy(other.codePoints, 0, codePoints, 0, columns);
+        System.arraycopy(other.styles, 0, styles, 0, columns);
+        wrapped = other.wrapped;
+        version++;
+    }
+
+    /**
+     * 行的文本，去掉行尾空格
+     */
+    String getText() {
+        StringBuilder text = new StringBuilder(codePoints.length);
+        int end = codePoints.length;
+        while (end > 0 && (codePoints[end - 1] == ' ' || codePoints[end - 1] == WIDE_TAIL)) {
+            end--;
+        }
+        for (int i = 0; i < end; i++) {
+            if (codePoints[i] != WIDE_TAIL) {
+                text.appendCodePoint(codePoints[i]);
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * 移动后行首出现的孤立右半格、行尾被截断的宽字符都清成空格
+     */
+    private void fixWideTail() {
+        int columns = codePoints.length;
+        if (columns > 0 && codePoints[0] == WIDE_TAIL) {
+            codePoints[0] = ' ';
+        }
+        if (columns > 0 && CharWidth.of(codePoints[columns - 1]) == 2) {
+            codePoints[columns - 1] = ' ';
+        }
+    }
+}
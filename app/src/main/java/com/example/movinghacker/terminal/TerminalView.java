@@ -0,0 +1,420 @@
+package com.example.movinghacker.terminal;
+
+import android.content.ClipData;
+import android.content.ClipboardManager;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RecordingCanvas;
+import android.graphics.RenderNode;
+import android.graphics.Typeface;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.View;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.example.movinghacker.R;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * 终端屏幕视图
+ * 按单元格网格绘制TerminalEmulator的屏幕。绘制时只在模拟器锁内把内容变化的行复制到快照，
+ * 录制和绘制都在锁外进行，不阻塞读取线程写入输出。硬件加速时每行录制为一个RenderNode并按行的版本号缓存，
+ * 刷新时只重新录制内容变化的行，其余行直接重放；滚屏只改变行的位置，不需要重新录制。
+ * 上下拖动查看回滚历史，长按复制全部文本
+ */
+public class TerminalView extends View {
+
+    /**
+     * 可显示的行列数变化（用于同步远端伪终端的大小）
+     */
+    public interface OnResizeListener {
+        void onResize(int columns, int rows);
+    }
+
+    private static final float TEXT_SIZE_SP = 13;
+    private static final float ITALIC_SKEW = -0.25f;
+
+    private static final int[] ANSI_COLORS = {
+            0xFF000000, 0xFFCC0000, 0xFF4E9A06, 0xFFC4A000,
+            0xFF3465A4, 0xFF75507B, 0xFF06989A, 0xFFD3D7CF,
+            0xFF555753, 0xFFEF2929, 0xFF8AE234, 0xFFFCE94F,
+            0xFF729FCF, 0xFFAD7FA8, 0xFF34E2E2, 0xFFEEEEEC,
+    };
+
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint backgroundPaint = new Paint();
+    private final Paint cursorPaint = new Paint();
+    private final int[] palette = new int[256];
+    private final int defaultForeground;
+    private final int defaultBackground;
+    private final GestureDetector gestureDetector;
+    // 行对象到其快照和录制结果的缓存，行被丢弃后自动回收
+    private final Map<TerminalRow, CachedRow> rowCache = new WeakHashMap<>();
+    // 本次绘制的各行，在锁内填充
+    private CachedRow[] visibleRows = new CachedRow[0];
+    private final char[] runChars = new char[512];
+
+    private TerminalEmulator emulator;
+    private OnResizeListener resizeListener;
+    private float charWidth;
+    private float lineHeight;
+    private float baseline;
+    private int columns;
+    private int rows;
+    // 向上翻看的行数，0表示跟随最新输出
+    private int scrollOffset;
+    private float scrollRemainder;
+    private long lastScrollCounter;
+
+    private static final class CachedRow {
+        final RenderNode node = new RenderNode("terminal-row");
+        // 行内容的副本，锁外绘制时读取
+        final TerminalRow snapshot = new TerminalRow(1, TextStyle.DEFAULT);
+        // 快照对应的行版本号
+        int version = -1;
+        // 录制时快照的版本号和宽度
+        int recordedVersion = -1;
+        int width = -1;
+    }
+
+    public TerminalView(Context context) {
+        this(context, null);
+    }
+
+    public TerminalView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        defaultForeground = context.getColor(R.color.app_text);
+        defaultBackground = context.getColor(R.color.app_surface);
+        cursorPaint.setColor(context.getColor(R.color.app_primary));
+        cursorPaint.setAlpha(0x80);
+        initPalette();
+
+        textPaint.setTypeface(Typeface.MONOSPACE);
+        textPaint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, TEXT_SIZE_SP,
+                getResources().getDisplayMetrics()));
+        Paint.FontMetrics metrics = textPaint.getFontMetrics();
+        charWidth = textPaint.measureText("M");
+        lineHeight = (float) Math.ceil(metrics.descent - metrics.ascent);
+        baseline = -metrics.ascent;
+
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(@NonNull MotionEvent e) {
+                scrollRemainder = 0;
+                return true;
+            }
+
+            @Override
+            public boolean onScroll(@Nullable MotionEvent e1, @NonNull MotionEvent e2,
+                                    float distanceX, float distanceY) {
+                scrollRemainder += distanceY;
+                int delta = (int) (scrollRemainder / lineHeight);
+                if (delta != 0) {
+                    scrollRemainder -= delta * lineHeight;
+                    scrollBy(-delta);
+                }
+                return true;
+            }
+
+            @Override
+            public boolean onSingleTapUp(@NonNull MotionEvent e) {
+                performClick();
+                return true;
+            }
+
+            @Override
+            public void onLongPress(@NonNull MotionEvent e) {
+                copyTranscript();
+            }
+        });
+        setFocusable(false);
+    }
+
+    public void setEmulator(TerminalEmulator emulator) {
+        this.emulator = emulator;
+        rowCache.clear();
+        visibleRows = new CachedRow[0];
+        scrollOffset = 0;
+        if (columns > 0 && rows > 0) {
+            emulator.resize(columns, rows);
+        }
+        invalidate();
+    }
+
+    public void setOnResizeListener(OnResizeListener listener) {
+        this.resizeListener = listener;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * 模拟器内容有更新，在主线程调用
+     */
+    public void onScreenUpdated() {
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        int newColumns = Math.max(1, (int) ((w - getPaddingLeft() - getPaddingRight()) / charWidth));
+        int newRows = Math.max(1, (int) ((h - getPaddingTop() - getPaddingBottom()) / lineHeight));
+        if (newColumns == columns && newRows == rows) {
+            return;
+        }
+        columns = newColumns;
+        rows = newRows;
+        if (emulator != null) {
+            emulator.resize(columns, rows);
+        }
+        if (resizeListener != null) {
+            resizeListener.onResize(columns, rows);
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        return gestureDetector.onTouchEvent(event) || super.onTouchEvent(event);
+    }
+
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
+
+    @Override
+    protected void onDraw(@NonNull Canvas canvas) {
+        canvas.drawColor(defaultBackground);
+        if (emulator == null) {
+            return;
+        }
+        int rowWidth = (int) Math.ceil(charWidth * columns);
+        boolean hardware = canvas.isHardwareAccelerated();
+        int screenRows;
+        int cursorRow;
+        int cursorX;
+        boolean cursorVisible;
+        synchronized (emulator) {
+            ScreenBuffer buffer = emulator.getScreenBuffer();
+            screenRows = buffer.getRows();
+            int total = buffer.getTotalRows();
+            // 翻看历史时新行滚入不改变看到的内容
+            long counter = buffer.getScrollCounter();
+            if (counter < lastScrollCounter) {
+                // 回滚历史被清空
+                scrollOffset = 0;
+            } else if (scrollOffset > 0) {
+                scrollOffset += (int) (counter - lastScrollCounter);
+            }
+            lastScrollCounter = counter;
+            scrollOffset = Math.max(0, Math.min(scrollOffset, total - screenRows));
+            int first = total - screenRows - scrollOffset;
+
+            if (visibleRows.length != screenRows) {
+                visibleRows = new CachedRow[screenRows];
+            }
+            for (int i = 0; i < screenRows; i++) {
+                visibleRows[i] = snapshotRow(buffer.getRow(first + i));
+            }
+            cursorRow = emulator.getCursorY() + scrollOffset;
+            cursorX = emulator.getCursorX();
+            cursorVisible = emulator.isCursorVisible();
+        }
+
+        for (int i = 0; i < screenRows; i++) {
+            CachedRow cached = visibleRows[i];
+            float top = getPaddingTop() + i * lineHeight;
+            if (hardware) {
+                RenderNode node = recordRow(cached, rowWidth);
+                canvas.save();
+                canvas.translate(getPaddingLeft(), top);
+                canvas.drawRenderNode(node);
+                canvas.restore();
+            } else {
+                drawRow(canvas, cached.snapshot, getPaddingLeft(), top);
+            }
+        }
+
+        if (cursorVisible && cursorRow < screenRows) {
+            float left = getPaddingLeft() + cursorX * charWidth;
+            float top = getPaddingTop() + cursorRow * lineHeight;
+            canvas.drawRect(left, top, left + charWidth, top + lineHeight, cursorPaint);
+        }
+    }
+
+    /**
+     * 行内容变化时更新其快照，调用方持有模拟器的锁；未变化的行不复制
+     */
+    private CachedRow snapshotRow(TerminalRow row) {
+        CachedRow cached = rowCache.get(row);
+        if (cached == null) {
+            cached = new CachedRow();
+            rowCache.put(row, cached);
+        }
+        if (cached.version != row.getVersion()) {
+            cached.snapshot.resize(row.getColumns(), TextStyle.DEFAULT);
+            cached.snapshot.copyFrom(row);
+            cached.version = row.getVersion();
+        }
+        return cached;
+    }
+
+    /**
+     * 快照内容或宽度变化时重新录制
+     */
+    private RenderNode recordRow(CachedRow cached, int rowWidth) {
+        if (cached.recordedVersion != cached.version || cached.width != rowWidth) {
+            cached.node.setPosition(0, 0, rowWidth, (int) lineHeight);
+            RecordingCanvas recording = cached.node.beginRecording();
+            try {
+                drawRow(recording, cached.snapshot, 0, 0);
+            } finally {
+                cached.node.endRecording();
+            }
+            cached.recordedVersion = cached.version;
+            cached.width = rowWidth;
+        }
+        return cached.node;
+    }
+
+    /**
+     * 按样式相同的连续单元格分段绘制
+     */
+    private void drawRow(Canvas canvas, TerminalRow row, float x, float y) {
+        int cells = Math.min(row.getColumns(), columns);
+        int column = 0;
+        while (column < cells) {
+            long style = row.getStyle(column);
+            int end = column + 1;
+            while (end < cells && row.getStyle(end) == style) {
+                end++;
+            }
+            drawRun(canvas, row, column, end, style, x, y);
+            column = end;
+        }
+    }
+
+    private void drawRun(Canvas canvas, TerminalRow row, int from, int to, long style, float x, float y) {
+        int flags = TextStyle.flags(style);
+        int foreground = resolveColor(TextStyle.foreground(style), defaultForeground, flags);
+        int background = resolveColor(TextStyle.background(style), defaultBackground, 0);
+        if ((flags & TextStyle.INVERSE) != 0) {
+            int swap = foreground;
+            foreground = background;
+            background = swap;
+        }
+        if (background != defaultBackground) {
+            backgroundPaint.setColor(background);
+            canvas.drawRect(x + from * charWidth, y, x + to * charWidth, y + lineHeight, backgroundPaint);
+        }
+        if ((flags & TextStyle.INVISIBLE) != 0) {
+            return;
+        }
+        textPaint.setColor((flags & TextStyle.DIM) != 0
+                ? (foreground & 0x00FFFFFF) | 0x99000000 : foreground);
+        textPaint.setFakeBoldText((flags & TextStyle.BOLD) != 0);
+        textPaint.setTextSkewX((flags & TextStyle.ITALIC) != 0 ? ITALIC_SKEW : 0);
+        textPaint.setUnderlineText((flags & TextStyle.UNDERLINE) != 0);
+        textPaint.setStrikeThruText((flags & TextStyle.STRIKETHROUGH) != 0);
+
+        // ASCII连续绘制；其他字符逐个放到所在列，避免回退字体宽度不同造成错位
+        int segmentStart = from;
+        int length = 0;
+        for (int column = from; column < to; column++) {
+            int codePoint = row.getCodePoint(column);
+            if (codePoint >= 0x20 && codePoint < 0x7f && length < runChars.length) {
+                if (length == 0) {
+                    segmentStart = column;
+                }
+                runChars[length++] = (char) codePoint;
+                continue;
+            }
+            if (length > 0) {
+                canvas.drawText(runChars, 0, length, x + segmentStart * charWidth, y + baseline, textPaint);
+                length = 0;
+            }
+            if (codePoint == TerminalRow.WIDE_TAIL) {
+                continue;
+            }
+            if (codePoint >= 0x20 && codePoint < 0x7f) {
+                segmentStart = column;
+                runChars[length++] = (char) codePoint;
+                continue;
+            }
+            String glyph = new String(Character.toChars(codePoint));
+            float cellWidth = charWidth * CharWidth.of(codePoint);
+            float glyphWidth = textPaint.measureText(glyph);
+            canvas.drawText(glyph, x + column * charWidth + (cellWidth - glyphWidth) / 2, y + baseline, textPaint);
+        }
+        if (length > 0) {
+            canvas.drawText(runChars, 0, length, x + segmentStart * charWidth, y + baseline, textPaint);
+        }
+    }
+
+    /**
+     * 调色板序号、真彩色或默认色转成ARGB；粗体的前8色显示为对应的亮色
+     */
+    private int resolveColor(int color, int defaultColor, int flags) {
+        if (color == TextStyle.COLOR_DEFAULT) {
+            return defaultColor;
+        }
+        if ((color & TextStyle.COLOR_RGB) != 0) {
+            return 0xFF000000 | (color & 0xFFFFFF);
+        }
+        if ((flags & TextStyle.BOLD) != 0 && color < 8) {
+            color += 8;
+        }
+        return palette[color & 0xFF];
+    }
+
+    private void initPalette() {
+        System.arraycopy(ANSI_COLORS, 0, palette, 0, ANSI_COLORS.length);
+        // 6x6x6色立方体
+        int[] levels = {0, 95, 135, 175, 215, 255};
+        for (int i = 0; i < 216; i++) {
+            palette[16 + i] = Color.rgb(levels[i / 36], levels[(i / 6) % 6], levels[i % 6]);
+        }
+        // 24级灰度
+        for (int i = 0; i < 24; i++) {
+            int level = 8 + i * 10;
+            palette[232 + i] = Color.rgb(level, level, level);
+        }
+    }
+
+    private void scrollBy(int rowsDelta) {
+        if (emulator == null) {
+            return;
+        }
+        synchronized (emulator) {
+            ScreenBuffer buffer = emulator.getScreenBuffer();
+            scrollOffset = Math.max(0, Math.min(scrollOffset + rowsDelta, buffer.getScrollbackRows()));
+        }
+        invalidate();
+    }
+
+    private void copyTranscript() {
+        if (emulator == null) {
+            return;
+        }
+        ClipboardManager clipboard = (ClipboardManager) getContext().getSystemService(Context.CLIPBOARD_SERVICE);
+        if (clipboard != null) {
+            clipboard.setPrimaryClip(ClipData.newPlainText("terminal", emulator.getTranscript()));
+        }
+        Toast.makeText(getContext(), R.string.copied, Toast.LENGTH_SHORT).show();
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.movinghacker.terminal;
+
+/**
+ * 单元格样式的编码
+ * 前景色、背景色和属性位打包在一个long中：颜色占26位（0-255为调色板序号，256为默认色，
+ * 置RGB标志位时低24位为真彩色），属性位从第52位开始
+ */
+final class TextStyle {
+
+    static final int COLOR_DEFAULT = 256;
+    static final int COLOR_RGB = 1 << 25;
+
+    static final int BOLD = 1;
+    static final int DIM = 1 << 1;
+    static final int ITALIC = 1 << 2;
+    static final int UNDERLINE = 1 << 3;
+    static final int BLINK = 1 << 4;
+    static final int INVERSE = 1 << 5;
+    static final int INVISIBLE = 1 << 6;
+    static final int STRIKETHROUGH = 1 << 7;
+
+    private static final int COLOR_MASK = (1 << 26) - 1;
+    private static final int BACKGROUND_SHIFT = 26;
+    private static final int FLAGS_SHIFT = 52;
+
+    static final long DEFAULT = encode(COLOR_DEFAULT, COLOR_DEFAULT, 0);
+
+    private TextStyle() {
+    }
+
+    static long encode(int foreground, int background, int flags) {
+        return (foreground & COLOR_MASK)
+                | ((long) (background & COLOR_MASK) << BACKGROUND_SHIFT)
+                | ((long) flags << FLAGS_SHIFT);
+    }
+
+    static int foreground(long style) {
+        return (int) (style & COLOR_MASK);
+    }
+
+    static int background(long style) {
+        return (int) ((style >>> BACKGROUND_SHIFT) & COLOR_MASK);
+    }
+
+    static int flags(long style) {
+        return (int) (style >>> FLAGS_SHIFT);
+    }
+
+    static int rgb(int red, int green, int blue) {
+        return COLOR_RGB | ((red & 0xFF) << 16) | ((green & 0xFF) << 8) | (blue & 0xFF);
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.movinghacker;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 共享连接池的统计：新建连接和复用连接按每次获取连接分别计数
+ */
+public class HttpClientProviderTest {
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void countsNewAndReusedConnections() throws IOException {
+        HttpClientProvider provider = HttpClientProvider.getInstance();
+        OkHttpClient client = provider.newBuilder().build();
+        HttpClientProvider.PoolStats before = provider.getPoolStats();
+
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setBody("ok"));
+            try (Response response = client.newCall(new Request.Builder().url(server.url("/")).build()).execute()) {
+                response.body().string();
+            }
+        }
+
+        HttpClientProvider.PoolStats after = provider.getPoolStats();
+        assertEquals(3, after.getAcquired() - before.getAcquired());
+        assertEquals(1, after.getNewConnections() - before.getNewConnections());
+        assertEquals(2, after.getReusedConnections() - before.getReusedConnections());
+    }
+
+    @Test
+    public void failedConnectDoesNotHideLaterReuse() throws IOException {
+        HttpClientProvider provider = HttpClientProvider.getInstance();
+        OkHttpClient client = provider.newBuilder().retryOnConnectionFailure(false).build();
+        HttpClientProvider.PoolStats before = provider.getPoolStats();
+
+        MockWebServer closed = new MockWebServer();
+        closed.start();
+        String closedUrl = closed.url("/").toString();
+        closed.shutdown();
+        try {
+            client.newCall(new Request.Builder().url(closedUrl).build()).execute().close();
+        } catch (IOException expected) {
+            // 端口已关闭，连接失败
+        }
+        for (int i = 0; i < 2; i++) {
+            server.enqueue(new MockResponse().setBody("ok"));
+            try (Response response = client.newCall(new Request.Builder().url(server.url("/")).build()).execute()) {
+                response.body().string();
+            }
+        }
+
+        HttpClientProvider.PoolStats after = provider.getPoolStats();
+        assertEquals(2, after.getAcquired() - before.getAcquired());
+        assertEquals(1, after.getNewConnections() - before.getNewConnections());
+        assertEquals(1, after.getReusedConnections() - before.getReusedConnections());
+    }
+}
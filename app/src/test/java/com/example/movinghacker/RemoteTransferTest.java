@@ -0,0 +1,171 @@
+package com.example.movinghacker;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 远程传输的数据搬运：二进制原样写入、从本地已有部分续传、进度从续传位置计起、取消后保留已传输部分
+ */
+public class RemoteTransferTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("transfer", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void downloadsBinaryDataVerbatim() throws IOException {
+        byte[] data = bytes(3 * RemoteTransfer.BUFFER_SIZE + 17);
+        RecordingCallback callback = new RecordingCallback();
+
+        long transferred;
+        try (FileOutputStream fos = new FileOutputStream(file);
+             FileChannel out = fos.getChannel()) {
+            transferred = new RemoteTransfer("/remote/a.bin", false)
+                    .download(new ByteArrayInputStream(data), out, 0, data.length, callback);
+        }
+
+        assertEquals(data.length, transferred);
+        assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+        assertEquals(data.length, callback.lastTransferred());
+        assertEquals(data.length, callback.lastTotal);
+    }
+
+    @Test
+    public void resumesDownloadAfterExistingPart() throws IOException {
+        byte[] data = bytes(100_000);
+        int offset = 40_000;
+        Files.write(file.toPath(), Arrays.copyOf(data, offset));
+        RecordingCallback callback = new RecordingCallback();
+
+        // 服务端从offset处开始发送剩余部分
+        InputStream rest = new ByteArrayInputStream(data, offset, data.length - offset);
+        long transferred;
+        try (FileOutputStream fos = new FileOutputStream(file, true);
+             FileChannel out = fos.getChannel()) {
+            transferred = new RemoteTransfer("/remote/a.bin", false)
+                    .download(rest, out, offset, data.length, callback);
+        }
+
+        assertEquals(data.length, transferred);
+        assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+        for (long value : callback.transferred) {
+            assertTrue(value > offset);
+        }
+    }
+
+    @Test
+    public void resumesUploadFromChannelPosition() throws IOException {
+        byte[] data = bytes(2 * RemoteTransfer.BUFFER_SIZE + 5);
+        Files.write(file.toPath(), data);
+        int offset = RemoteTransfer.BUFFER_SIZE + 3;
+        ByteArrayOutputStream remote = new ByteArrayOutputStream();
+        RecordingCallback callback = new RecordingCallback();
+
+        long transferred;
+        try (FileInputStream fis = new FileInputStream(file);
+             FileChannel in = fis.getChannel()) {
+            in.position(offset);
+            transferred = new RemoteTransfer("/remote/a.bin", true)
+                    .upload(in, remote, offset, data.length, callback);
+        }
+
+        assertEquals(data.length, transferred);
+        assertArrayEquals(Arrays.copyOfRange(data, offset, data.length), remote.toByteArray());
+        assertEquals(data.length, callback.lastTransferred());
+    }
+
+    @Test
+    public void cancelStopsTransferAndKeepsWrittenPart() throws IOException {
+        byte[] data = bytes(10 * RemoteTransfer.BUFFER_SIZE);
+        RemoteTransfer transfer = new RemoteTransfer("/remote/a.bin", false);
+        InputStream in = new ByteArrayInputStream(data) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                int read = super.read(b, off, Math.min(len, RemoteTransfer.BUFFER_SIZE));
+                // 第二块读完后取消
+                if (pos >= 2 * RemoteTransfer.BUFFER_SIZE) {
+                    transfer.cancel();
+                }
+                return read;
+            }
+        };
+
+        try (FileOutputStream fos = new FileOutputStream(file);
+             FileChannel out = fos.getChannel()) {
+            transfer.download(in, out, 0, data.length, new RecordingCallback());
+            fail("expected cancellation");
+        } catch (IOException e) {
+            assertEquals("传输已取消", e.getMessage());
+        }
+
+        assertTrue(transfer.isCancelled());
+        assertEquals(2 * RemoteTransfer.BUFFER_SIZE, file.length());
+    }
+
+    @Test
+    public void cancelBeforeCleanupClosesItImmediately() {
+        RemoteTransfer transfer = new RemoteTransfer("/remote/a.bin", true);
+        boolean[] closed = new boolean[1];
+        transfer.cancel();
+        transfer.setCleanup(() -> closed[0] = true);
+        assertTrue(closed[0]);
+    }
+
+    private static byte[] bytes(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + 7);
+        }
+        return data;
+    }
+
+    private static final class RecordingCallback implements RemoteTransfer.TransferCallback {
+        final List<Long> transferred = new ArrayList<>();
+        long lastTotal;
+
+        @Override
+        public void onProgress(long transferred, long total, long bytesPerSecond) {
+            this.transferred.add(transferred);
+            lastTotal = total;
+        }
+
+        @Override
+        public void onSuccess(long transferred) {
+        }
+
+        @Override
+        public void onError(String error) {
+        }
+
+        long lastTransferred() {
+            return transferred.get(transferred.size() - 1);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.movinghacker;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 传输队列的本地复制：目录树遍历、并发执行、失败统计和手动重试
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class TransferQueueTest {
+
+    private static final long TIMEOUT_MS = 10_000;
+
+    private File root;
+    private TransferQueue queue;
+
+    @Before
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("transfer-queue").toFile();
+        queue = new TransferQueue(null, q -> { });
+    }
+
+    @After
+    public void tearDown() {
+        queue.shutdown();
+        delete(root);
+    }
+
+    @Test
+    public void copiesDirectoryTree() throws Exception {
+        File source = new File(root, "src");
+        write(new File(source, "a.txt"), "alpha");
+        write(new File(source, "nested/b.txt"), "beta");
+        write(new File(source, "nested/deeper/c.txt"), "gamma");
+        new File(source, "empty").mkdirs();
+        File target = new File(root, "dst");
+        target.mkdirs();
+
+        queue.enqueue(TransferQueue.Kind.COPY, Collections.singletonList(source.getPath()), target.getPath());
+        TransferQueue.Summary summary = awaitIdle();
+
+        assertEquals(3, summary.totalFiles);
+        assertEquals(3, summary.completedFiles);
+        assertEquals(0, summary.failedFiles);
+        assertEquals(14, summary.totalBytes);
+        assertEquals(14, summary.transferredBytes);
+        assertEquals("alpha", read(new File(target, "src/a.txt")));
+        assertEquals("beta", read(new File(target, "src/nested/b.txt")));
+        assertEquals("gamma", read(new File(target, "src/nested/deeper/c.txt")));
+        assertTrue(new File(target, "src/empty").isDirectory());
+    }
+
+    @Test
+    public void copiesSeveralSources() throws Exception {
+        File first = new File(root, "one.txt");
+        File second = new File(root, "two.txt");
+        write(first, "1");
+        write(second, "22");
+        File target = new File(root, "dst");
+        target.mkdirs();
+
+        queue.enqueue(TransferQueue.Kind.COPY, Arrays.asList(first.getPath(), second.getPath()), target.getPath());
+        TransferQueue.Summary summary = awaitIdle();
+
+        assertEquals(2, summary.completedFiles);
+        assertEquals("22", read(new File(target, "two.txt")));
+    }
+
+    @Test
+    public void remoteKindsNeedConnection() {
+        try {
+            queue.enqueue(TransferQueue.Kind.DOWNLOAD, Collections.singletonList("/remote"), root.getPath());
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            // 只做本地复制的队列不接受远程传输
+        }
+    }
+
+    @Test
+    public void rejectsCopyIntoOwnSubtree() throws Exception {
+        File source = new File(root, "src");
+        write(new File(source, "a.txt"), "alpha");
+        File nested = new File(source, "nested");
+        nested.mkdirs();
+
+        for (File target : new File[]{source, nested, new File(nested, "../nested")}) {
+            try {
+                queue.enqueue(TransferQueue.Kind.COPY, Collections.singletonList(source.getPath()), target.getPath());
+                fail("expected IllegalArgumentException for " + target);
+            } catch (IllegalArgumentException expected) {
+                // 目标在源目录之内时复制不会结束
+            }
+        }
+        // 名称前缀相同的兄弟目录不算在源目录之内
+        assertFalse(TransferQueue.isInside(new File(root, "src2").getPath(), source.getPath()));
+        assertEquals(0, awaitIdle().totalFiles);
+    }
+
+    @Test
+    public void failedTaskCanBeRetried() throws Exception {
+        File source = new File(root, "late.txt");
+        File target = new File(root, "dst");
+        target.mkdirs();
+
+        queue.enqueue(TransferQueue.Kind.COPY, Collections.singletonList(source.getPath()), target.getPath());
+        TransferQueue.Summary summary = awaitIdle();
+        assertEquals(1, summary.failedFiles);
+        assertEquals(0, summary.completedFiles);
+
+        write(source, "arrived");
+        queue.retryFailed();
+        summary = awaitIdle();
+
+        assertEquals(0, summary.failedFiles);
+        assertEquals(1, summary.completedFiles);
+        assertEquals("arrived", read(new File(target, "late.txt")));
+    }
+
+    @Test
+    public void clearFinishedDropsCompletedTasks() throws Exception {
+        File source = new File(root, "a.txt");
+        write(source, "abc");
+        File target = new File(root, "dst");
+        target.mkdirs();
+
+        queue.enqueue(TransferQueue.Kind.COPY, Collections.singletonList(source.getPath()), target.getPath());
+        awaitIdle();
+        queue.clearFinished();
+
+        TransferQueue.Summary summary = queue.getSummary();
+        assertEquals(0, summary.totalFiles);
+        assertEquals(0, summary.totalBytes);
+        assertEquals(0, summary.transferredBytes);
+    }
+
+    private TransferQueue.Summary awaitIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            TransferQueue.Summary summary = queue.getSummary();
+            if (summary.isIdle()) {
+                return summary;
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("Queue did not become idle");
+    }
+
+    private static void write(File file, String text) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,368 @@
+package com.example.movinghacker.ai;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * AI请求/响应链路的微基准测试
+ * 覆盖请求构建与序列化、响应解析、Function分发以及对话历史的保存/加载（10/100/1000条消息），
+ * 结果与src/test/resources/benchmark/baselines.properties中记录的基线比较，超出REGRESSION_FACTOR倍时失败
+ *
+ * 默认跳过，运行方式：
+ * ./gradlew :app:testPy311DebugUnitTest -Pbenchmark --tests "*AIPipelineBenchmark"
+ * 本次结果写入app/build/benchmark/results.properties，可用于更新基线
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class AIPipelineBenchmark {
+
+    private static final int[] HISTORY_SIZES = {10, 100, 1000};
+    private static final double REGRESSION_FACTOR = 2.0;
+    private static final String BASELINE_RESOURCE = "/benchmark/baselines.properties";
+    private static final String RESULTS_FILE = "results.properties";
+
+    private static MicroBenchmark benchmark;
+
+    private final Gson gson = new Gson();
+
+    @BeforeClass
+    public static void setUp() {
+        Assume.assumeTrue("Benchmarks are disabled, run with -Pbenchmark",
+                Boolean.parseBoolean(System.getProperty("benchmark", "false")));
+        benchmark = new MicroBenchmark();
+    }
+
+    @AfterClass
+    public static void checkBaselines() throws IOException {
+        if (benchmark == null || benchmark.getResults().isEmpty()) {
+            return;
+        }
+        benchmark.writeResults(MicroBenchmark.resultsFile(RESULTS_FILE), "AIPipelineBenchmark results (ns/op)");
+
+        Properties baselines = new Properties();
+        try (InputStream in = AIPipelineBenchmark.class.getResourceAsStream(BASELINE_RESOURCE)) {
+            if (in == null) {
+                return;
+            }
+            baselines.load(in);
+        }
+        StringBuilder regressions = new StringBuilder();
+        for (MicroBenchmark.Result result : benchmark.getResults()) {
+            String baseline = baselines.getProperty(result.name);
+            if (baseline == null) {
+                continue;
+            }
+            double limit = Double.parseDouble(baseline) * REGRESSION_FACTOR;
+            if (result.nanosPerOp > limit) {
+                regressions.append(String.format("%s: %.0f ns/op > %.0f ns/op (baseline %s x %.1f)%n",
+                        result.name, result.nanosPerOp, limit, baseline, REGRESSION_FACTOR));
+            }
+        }
+        if (regressions.length() > 0) {
+            fail("Benchmark regressions:\n" + regressions);
+        }
+    }
+
+    @Test
+    public void buildRequests() throws Exception {
+        AIApiClient openai = new AIApiClient(new AIConfig("openai", "key", "https://api.openai.com/v1", "gpt-4"));
+        AIApiClient gemini = new AIApiClient(new AIConfig("gemini", "key",
+                "https://generativelanguage.googleapis.com/v1beta", "gemini-2.5-flash"));
+        List<FunctionDefinition> functions = registerHandlers().getAllDefinitions();
+
+        for (int size : HISTORY_SIZES) {
+            List<ChatMessage> history = buildHistory(size);
+            benchmark.run("build/openai/" + size, () -> openai.buildOpenAIRequest(history, functions));
+            benchmark.run("build/gemini/" + size, () -> gemini.buildGeminiRequest(history, functions, null));
+            // 请求体写出（JsonRequestBody流式序列化）
+            JsonRequestBody body = openai.buildOpenAIRequest(history, functions);
+            benchmark.run("serialize/openai/" + size, () -> {
+                Buffer buffer = new Buffer();
+                body.writeTo(buffer);
+                long size1 = buffer.size();
+                buffer.clear();
+                return size1;
+            });
+        }
+    }
+
+    @Test
+    public void parseResponses() throws Exception {
+        ResponseReader reader = new ResponseReader(gson);
+        String openaiText = openAIResponse(false);
+        String openaiTools = openAIResponse(true);
+        String geminiText = geminiResponse();
+
+        benchmark.run("parse/openai/text", () -> reader.readOpenAIResponse(new JsonReader(new StringReader(openaiText))));
+        benchmark.run("parse/openai/tool_calls",
+                () -> reader.readOpenAIResponse(new JsonReader(new StringReader(openaiTools))));
+        benchmark.run("parse/gemini/text", () -> reader.readGeminiResponse(new JsonReader(new StringReader(geminiText))));
+    }
+
+    @Test
+    public void functionDispatch() throws Exception {
+        FunctionRegistry registry = registerHandlers();
+        FunctionCall call = new FunctionCall("call_1", "bench_handler_3",
+                "{\"path\":\"/sdcard/Download/report.txt\",\"limit\":200,\"recursive\":false}");
+        FunctionResult result = registry.execute(call);
+        assertTrue(result.isSuccess());
+
+        benchmark.run("registry/dispatch", () -> registry.execute(call));
+        benchmark.run("registry/openai_tools_json", () -> registry.getOpenAIToolsJson(registry.getAllDefinitions()));
+    }
+
+    @Test
+    public void chatHistoryRepository() throws Exception {
+        File filesDir = Files.createTempDirectory("chat_history_bench").toFile();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (int size : HISTORY_SIZES) {
+                ChatHistoryRepository repository = new ChatHistoryRepository(new InMemoryChatHistoryDao(), null,
+                        filesDir, executor, Runnable::run);
+                long conversationId = 1;
+                List<ChatMessage> history = buildHistory(size);
+                String lastId = history.get(history.size() - 1).getId();
+
+                // 清空后整体重新写入（首次保存/签名缓存失效时的路径）
+                benchmark.run("history/save_all/" + size, () -> {
+                    repository.clearConversation(conversationId);
+                    repository.saveMessages(conversationId, history);
+                    return barrier(repository, conversationId);
+                });
+                // 每轮对话后的常规保存：内容未变化的消息按签名跳过
+                benchmark.run("history/save_unchanged/" + size, () -> {
+                    repository.saveMessages(conversationId, history);
+                    return barrier(repository, conversationId);
+                });
+                benchmark.run("history/load_page/" + size, () -> loadPage(repository, conversationId, lastId));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 等待仓库的单线程执行器处理完之前提交的任务
+     */
+    private Object barrier(ChatHistoryRepository repository, long conversationId) throws InterruptedException {
+        return loadPage(repository, conversationId, "missing");
+    }
+
+    private Object loadPage(ChatHistoryRepository repository, long conversationId, String beforeId)
+            throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(1);
+        Object[] loaded = new Object[1];
+        repository.loadMessagesBefore(conversationId, beforeId, new ChatHistoryRepository.MessagesCallback() {
+            @Override
+            public void onLoaded(List<ChatMessage> messages, boolean hasMore) {
+                loaded[0] = messages;
+                latch.countDown();
+            }
+
+            @Override
+            public void onError(String error) {
+                latch.countDown();
+            }
+        });
+        if (!latch.await(10, TimeUnit.SECONDS)) {
+            fail("Repository did not respond");
+        }
+        return loaded[0];
+    }
+
+    private static FunctionRegistry registerHandlers() {
+        FunctionRegistry registry = FunctionRegistry.getInstance();
+        for (int i = 0; i < 8; i++) {
+            registry.register(new BenchHandler("bench_handler_" + i));
+        }
+        return registry;
+    }
+
+    /**
+     * 模拟一轮轮典型的Agent对话：用户提问、模型调用工具、工具返回结果、模型回复
+     */
+    private static List<ChatMessage> buildHistory(int size) {
+        List<ChatMessage> history = new ArrayList<>();
+        history.add(ChatMessage.systemMessage("You are a helpful assistant running inside an Android terminal app."));
+        int turn = 0;
+        while (history.size() < size) {
+            switch (history.size() % 4) {
+                case 1:
+                    history.add(ChatMessage.userMessage("第" + turn + "个问题：请列出/sdcard/Download中的文件，"
+                            + "并统计每种扩展名的数量，同时解释一下结果。"));
+                    break;
+                case 2: {
+                    ChatMessage call = new ChatMessage("assistant", "");
+                    List<FunctionCall> calls = new ArrayList<>();
+                    calls.add(new FunctionCall("call_" + turn, "bench_handler_" + (turn % 8),
+                            "{\"path\":\"/sdcard/Download\",\"recursive\":true}"));
+                    call.setFunctionCalls(calls);
+                    history.add(call);
+                    break;
+                }
+                case 3: {
+                    ChatMessage result = new ChatMessage("function", repeat(
+                            "{\"name\":\"file_" + turn + ".txt\",\"size\":1024,\"type\":\"file\"},", 24));
+                    result.setFunctionName("bench_handler_" + (turn % 8));
+                    result.setToolCallId("call_" + turn);
+                    history.add(result);
+                    break;
+                }
+                default:
+                    history.add(ChatMessage.assistantMessage(repeat("目录中共有24个文件，其中txt文件最多。", 6)));
+                    turn++;
+                    break;
+            }
+        }
+        return history;
+    }
+
+    private String openAIResponse(boolean withTools) {
+        JsonObject message = new JsonObject();
+        message.addProperty("role", "assistant");
+        JsonObject choice = new JsonObject();
+        if (withTools) {
+            message.add("content", null);
+            JsonArray toolCalls = new JsonArray();
+            for (int i = 0; i < 3; i++) {
+                JsonObject function = new JsonObject();
+                function.addProperty("name", "bench_handler_" + i);
+                function.addProperty("arguments", "{\"path\":\"/sdcard/Download/file_" + i + ".txt\"}");
+                JsonObject toolCall = new JsonObject();
+                toolCall.addProperty("id", "call_" + i);
+                toolCall.addProperty("type", "function");
+                toolCall.add("function", function);
+                toolCalls.add(toolCall);
+            }
+            message.add("tool_calls", toolCalls);
+            choice.addProperty("finish_reason", "tool_calls");
+        } else {
+            message.addProperty("content", repeat("这是一段较长的模型回复内容，用于衡量解析开销。", 60));
+            choice.addProperty("finish_reason", "stop");
+        }
+        choice.addProperty("index", 0);
+        choice.add("message", message);
+        JsonArray choices = new JsonArray();
+        choices.add(choice);
+        JsonObject usage = new JsonObject();
+        usage.addProperty("prompt_tokens", 1200);
+        usage.addProperty("completion_tokens", 300);
+        usage.addProperty("total_tokens", 1500);
+        JsonObject response = new JsonObject();
+        response.addProperty("id", "chatcmpl-bench");
+        response.addProperty("object", "chat.completion");
+        response.addProperty("model", "gpt-4");
+        response.add("choices", choices);
+        response.add("usage", usage);
+        return gson.toJson(response);
+    }
+
+    private String geminiResponse() {
+        JsonArray parts = new JsonArray();
+        for (int i = 0; i < 4; i++) {
+            JsonObject part = new JsonObject();
+            part.addProperty("text", repeat("这是一段较长的模型回复内容，用于衡量解析开销。", 15));
+            parts.add(part);
+        }
+        JsonObject content = new JsonObject();
+        content.addProperty("role", "model");
+        content.add("parts", parts);
+        JsonObject candidate = new JsonObject();
+        candidate.add("content", content);
+        candidate.addProperty("finishReason", "STOP");
+        JsonArray candidates = new JsonArray();
+        candidates.add(candidate);
+        JsonObject usage = new JsonObject();
+        usage.addProperty("promptTokenCount", 1200);
+        usage.addProperty("candidatesTokenCount", 300);
+        JsonObject response = new JsonObject();
+        response.add("candidates", candidates);
+        response.add("usageMetadata", usage);
+        return gson.toJson(response);
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder sb = new StringBuilder(text.length() * times);
+        for (int i = 0; i < times; i++) {
+            sb.append(text);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 与真实Handler相同的参数解析方式（Gson解析为Map），不做任何IO
+     */
+    private static class BenchHandler implements FunctionHandler {
+        private final String name;
+        private final Gson gson = new Gson();
+
+        BenchHandler(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public FunctionDefinition getDefinition() {
+            FunctionDefinition def = new FunctionDefinition(name, "Benchmark handler " + name);
+            Map<String, Object> parameters = new HashMap<>();
+            Map<String, Object> path = new HashMap<>();
+            path.put("type", "string");
+            path.put("description", "Target path");
+            parameters.put("path", path);
+            List<String> required = new ArrayList<>();
+            required.add("path");
+            parameters.put("required", required);
+            def.setParameters(parameters);
+            return def;
+        }
+
+        @Override
+        public FunctionResult execute(String arguments) {
+            Map<String, Object> args = gson.fromJson(arguments,
+                    new com.google.gson.reflect.TypeToken<Map<String, Object>>(){}.getType());
+            JsonObject result = new JsonObject();
+            result.addProperty("success", true);
+            result.addProperty("path", String.valueOf(args.get("path")));
+            return FunctionResult.success(null, result.toString());
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public boolean isReadOnly() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.example.movinghacker.ai;
+
+import com.example.movinghacker.ai.handlers.FileListFunctionHandler;
+import com.example.movinghacker.ai.handlers.FileReadFunctionHandler;
+import com.example.movinghacker.ai.handlers.FileWriteFunctionHandler;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ServerSocketFactory;
+
+import okhttp3.mockwebserver.MockWebServer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Agent对话流程的端到端离线回放
+ * MockWebServer按录制样本扮演OpenAI（SSE流式）和Gemini服务商，完整运行chatWithFunctionHandling，
+ * 其中的文件类Function在临时目录中真实执行（终端和Python依赖设备上的/system/bin/sh和Chaquopy，不在宿主机上运行）
+ *
+ * 回放检查始终运行；加上-Pbenchmark时额外测量每次完整对话的耗时（不模拟网络延迟，只衡量本地开销）：
+ * ./gradlew :app:testPy311DebugUnitTest -Pbenchmark --tests "*AgentReplayBenchmark"
+ * 新样本可在应用的AI对话菜单中开启“录制回放样本”后从Android/data/<包名>/files/replay导出
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class AgentReplayBenchmark {
+
+    private static final String OPENAI_FIXTURE = "/replay/openai_stream_tool_calls.jsonl";
+    private static final String GEMINI_FIXTURE = "/replay/gemini_tool_calls.jsonl";
+    private static final String RESULTS_FILE = "replay_results.properties";
+    private static final String API_KEY = "replay-secret-key";
+    private static final long RUN_TIMEOUT_SECONDS = 30;
+    private static final String EXPECTED_ANSWER =
+            "扫描结果已保存到notes/scan.txt。目标主机10.0.0.5开放了22、80和443三个端口，目录中目前只有这一个文件。";
+
+    private static MicroBenchmark benchmark;
+
+    private MockWebServer server;
+    private File workDir;
+    private FunctionRegistry registry;
+
+    /**
+     * 一次完整对话的回调记录
+     */
+    private static class Run implements AIService.ChatCallback {
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<FunctionResult> functionResults = Collections.synchronizedList(new ArrayList<>());
+        final StringBuilder deltas = new StringBuilder();
+        volatile AIResponse response;
+        volatile Exception error;
+
+        @Override
+        public void onSuccess(AIResponse response) {
+            this.response = response;
+            done.countDown();
+        }
+
+        @Override
+        public void onError(Exception e) {
+            this.error = e;
+            done.countDown();
+        }
+
+        @Override
+        public void onFunctionCallsRequested(List<FunctionCall> calls) {
+        }
+
+        @Override
+        public void onFunctionExecuted(List<FunctionResult> results) {
+            functionResults.addAll(results);
+        }
+
+        @Override
+        public void onThinking(String message, String thinkingType) {
+        }
+
+        @Override
+        public void onContextSummary(String summary) {
+        }
+
+        @Override
+        public synchronized void onContentDelta(String delta) {
+            deltas.append(delta);
+        }
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        if (Boolean.parseBoolean(System.getProperty("benchmark", "false"))) {
+            benchmark = new MicroBenchmark();
+        }
+    }
+
+    @AfterClass
+    public static void writeResults() throws IOException {
+        if (benchmark != null && !benchmark.getResults().isEmpty()) {
+            benchmark.writeResults(MicroBenchmark.resultsFile(RESULTS_FILE), "AgentReplayBenchmark results (ns/op)");
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("agent_replay").toFile();
+        HostContext context = new HostContext(workDir);
+        registry = FunctionRegistry.getInstance();
+        registry.register(new FileWriteFunctionHandler(context));
+        registry.register(new FileReadFunctionHandler(context));
+        registry.register(new FileListFunctionHandler(context));
+        server = newServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+        deleteRecursively(workDir);
+    }
+
+    @Test
+    public void openAIStreamingToolCalls() throws Exception {
+        ReplayDispatcher dispatcher = replay(OPENAI_FIXTURE);
+        AIService service = new AIService(openAIConfig(), registry);
+
+        Run run = runConversation(service);
+        assertReplayed(run, dispatcher);
+        assertEquals(EXPECTED_ANSWER, run.deltas.toString());
+
+        measure("agent/replay/openai_stream", service, dispatcher);
+    }
+
+    @Test
+    public void geminiToolCalls() throws Exception {
+        ReplayDispatcher dispatcher = replay(GEMINI_FIXTURE);
+        AIConfig config = new AIConfig("gemini", API_KEY, server.url("/v1beta").toString(), "gemini-1.5-flash");
+        config.setStreaming(false);
+        AIService service = new AIService(config, registry);
+
+        Run run = runConversation(service);
+        assertReplayed(run, dispatcher);
+
+        measure("agent/replay/gemini", service, dispatcher);
+    }
+
+    /**
+     * 录制一次回放过程，再用录下的样本回放，结果应完全一致
+     */
+    @Test
+    public void recordedExchangesReplay() throws Exception {
+        ReplayDispatcher dispatcher = replay(OPENAI_FIXTURE);
+        ExchangeRecorder recorder = ExchangeRecorder.getInstance();
+        File recorded;
+        recorder.start(new File(workDir, "recorded"));
+        try {
+            assertReplayed(runConversation(new AIService(openAIConfig(), registry)), dispatcher);
+        } finally {
+            recorded = recorder.stop();
+        }
+        assertNotNull(recorded);
+
+        String raw = new String(Files.readAllBytes(recorded.toPath()), StandardCharsets.UTF_8);
+        assertFalse("API key must not be recorded", raw.contains(API_KEY));
+        ReplayFixture fixture = ReplayFixture.fromFile(recorded);
+        assertEquals(3, fixture.size());
+        for (ReplayFixture.Exchange exchange : fixture.getExchanges()) {
+            assertNotNull(exchange.request);
+            assertTrue(exchange.request.has("messages"));
+        }
+
+        server.shutdown();
+        server = newServer();
+        ReplayDispatcher again = new ReplayDispatcher(fixture, false);
+        server.setDispatcher(again);
+        server.start();
+        Run run = runConversation(new AIService(openAIConfig(), registry));
+        assertReplayed(run, again);
+        assertEquals(EXPECTED_ANSWER, run.deltas.toString());
+    }
+
+    /**
+     * 关闭Nagle算法：否则回环地址上小包写入会撞上40ms的延迟确认，掩盖真实的本地开销
+     */
+    private static MockWebServer newServer() {
+        MockWebServer server = new MockWebServer();
+        server.setServerSocketFactory(new ServerSocketFactory() {
+            @Override
+            public ServerSocket createServerSocket() throws IOException {
+                return new NoDelayServerSocket();
+            }
+
+            @Override
+            public ServerSocket createServerSocket(int port) throws IOException {
+                return createServerSocket(port, 50, null);
+            }
+
+            @Override
+            public ServerSocket createServerSocket(int port, int backlog) throws IOException {
+                return createServerSocket(port, backlog, null);
+            }
+
+            @Override
+            public ServerSocket createServerSocket(int port, int backlog, InetAddress address) throws IOException {
+                ServerSocket socket = new NoDelayServerSocket();
+                socket.bind(new InetSocketAddress(address, port), backlog);
+                return socket;
+            }
+        });
+        return server;
+    }
+
+    private static class NoDelayServerSocket extends ServerSocket {
+        NoDelayServerSocket() throws IOException {
+        }
+
+        @Override
+        public Socket accept() throws IOException {
+            Socket socket = super.accept();
+            socket.setTcpNoDelay(true);
+            return socket;
+        }
+    }
+
+    private ReplayDispatcher replay(String resource) throws IOException {
+        ReplayFixture fixture = ReplayFixture.fromResource(resource)
+                .withVariables(Collections.singletonMap("WORKDIR", workDir.getAbsolutePath()));
+        ReplayDispatcher dispatcher = new ReplayDispatcher(fixture, false);
+        server.setDispatcher(dispatcher);
+        return dispatcher;
+    }
+
+    private AIConfig openAIConfig() {
+        AIConfig config = new AIConfig("custom", API_KEY, server.url("/v1").toString(), "gpt-4o-mini");
+        config.setStreaming(true);
+        return config;
+    }
+
+    private Run runConversation(AIService service) throws InterruptedException {
+        List<ChatMessage> messages = new ArrayList<>();
+        messages.add(ChatMessage.userMessage("扫描10.0.0.5的常用端口，把结果保存到notes/scan.txt，然后确认文件内容"));
+        Run run = new Run();
+        service.chatWithFunctionHandling(messages, new AIService.StopToken(), run);
+        if (!run.done.await(RUN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            fail("Agent loop did not finish");
+        }
+        return run;
+    }
+
+    /**
+     * 三轮请求全部按样本回放：写文件、并行读取/列目录、最终回复；Function结果被带入下一轮请求
+     */
+    private void assertReplayed(Run run, ReplayDispatcher dispatcher) throws IOException {
+        assertNull(run.error != null ? run.error.getMessage() : null, run.error);
+        assertNotNull(run.response);
+        assertEquals(EXPECTED_ANSWER, run.response.getContent());
+        assertEquals(3, dispatcher.getServedCount());
+        assertEquals(3, run.functionResults.size());
+        for (FunctionResult result : run.functionResults) {
+            assertTrue(result.getError(), result.isSuccess());
+        }
+
+        File written = new File(workDir, "notes/scan.txt");
+        assertTrue(written.isFile());
+        assertTrue(new String(Files.readAllBytes(written.toPath()), StandardCharsets.UTF_8).contains("port 443 open"));
+
+        List<String> requests = dispatcher.getRequestBodies();
+        assertTrue(requests.get(1).contains("call_write_1") || requests.get(1).contains("write_file"));
+        assertTrue(requests.get(2).contains("port 22 open"));
+    }
+
+    private void measure(String name, AIService service, ReplayDispatcher dispatcher) throws Exception {
+        if (benchmark == null) {
+            return;
+        }
+        benchmark.run(name, () -> {
+            dispatcher.rewind();
+            Run run = runConversation(service);
+            if (run.error != null) {
+                throw run.error;
+            }
+            return run.response;
+        });
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.movinghacker.ai;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 旧版聊天记录的导入：成功后才删除旧文件，失败时保留以便重试，损坏的内容保留为.bak
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class ChatHistoryRepositoryTest {
+
+    private final Gson gson = new Gson();
+    private File filesDir;
+    private File journal;
+    private InMemoryChatHistoryDao dao;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException {
+        filesDir = Files.createTempDirectory("chat-history").toFile();
+        journal = new File(filesDir, "chat_history.jsonl");
+        dao = new InMemoryChatHistoryDao();
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        File[] files = filesDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        filesDir.delete();
+    }
+
+    @Test
+    public void importsJournalAndDeletesLegacyFiles() throws Exception {
+        ChatMessage first = ChatMessage.userMessage("hello");
+        ChatMessage second = ChatMessage.assistantMessage("hi");
+        ChatMessage removed = ChatMessage.userMessage("gone");
+        writeJournal(put(first), put(removed), put(second), delete(removed.getId()));
+
+        List<ChatMessage> loaded = load(repository(Runnable::run));
+
+        assertEquals(Arrays.asList("hello", "hi"), contents(loaded));
+        assertFalse(journal.exists());
+        assertFalse(new File(filesDir, "chat_history.jsonl.bak").exists());
+    }
+
+    @Test
+    public void corruptLineKeepsBackupAndImportsTheRest() throws Exception {
+        ChatMessage first = ChatMessage.userMessage("hello");
+        ChatMessage second = ChatMessage.assistantMessage("hi");
+        writeJournal(put(first), "{\"op\":\"put\",\"message\":{\"id\":", put(second));
+
+        List<ChatMessage> loaded = load(repository(Runnable::run));
+
+        assertEquals(Arrays.asList("hello", "hi"), contents(loaded));
+        assertFalse(journal.exists());
+        assertTrue(new File(filesDir, "chat_history.jsonl.bak").exists());
+    }
+
+    @Test
+    public void failedImportKeepsFilesAndRetries() throws Exception {
+        writeJournal(put(ChatMessage.userMessage("hello")));
+        InMemoryPreferences prefs = new InMemoryPreferences();
+
+        ChatHistoryRepository failing = new ChatHistoryRepository(dao, prefs, filesDir, executor, body -> {
+            throw new IllegalStateException("database is locked");
+        });
+        assertTrue(load(failing).isEmpty());
+        assertTrue(journal.exists());
+
+        ChatHistoryRepository retry = new ChatHistoryRepository(dao, prefs, filesDir, executor, Runnable::run);
+        assertEquals(Arrays.asList("hello"), contents(load(retry)));
+        assertFalse(journal.exists());
+    }
+
+    @Test
+    public void unreadableFileIsLeftInPlace() throws Exception {
+        // 目录无法作为文件打开，模拟读取出错
+        File history = new File(filesDir, "chat_history.json");
+        assertTrue(history.mkdir());
+
+        assertTrue(load(repository(Runnable::run)).isEmpty());
+        assertTrue(history.isDirectory());
+    }
+
+    private ChatHistoryRepository repository(ChatHistoryRepository.TransactionRunner runner) {
+        return new ChatHistoryRepository(dao, new InMemoryPreferences(), filesDir, executor, runner);
+    }
+
+    private static List<ChatMessage> load(ChatHistoryRepository repository) throws InterruptedException {
+        List<ChatMessage> result = new ArrayList<>();
+        String[] error = new String[1];
+        CountDownLatch done = new CountDownLatch(1);
+        repository.loadActiveConversation(new ChatHistoryRepository.ConversationCallback() {
+            @Override
+            public void onLoaded(ChatConversation conversation, List<ChatMessage> messages, boolean hasMore) {
+                result.addAll(messages);
+                done.countDown();
+            }
+
+            @Override
+            public void onError(String message) {
+                error[0] = message;
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(null, error[0]);
+        return result;
+    }
+
+    private static List<String> contents(List<ChatMessage> messages) {
+        List<String> contents = new ArrayList<>();
+        for (ChatMessage message : messages) {
+            contents.add(message.getContent());
+        }
+        return contents;
+    }
+
+    private String put(ChatMessage message) {
+        JsonObject record = new JsonObject();
+        record.addProperty("op", "put");
+        record.add("message", gson.toJsonTree(message));
+        return record.toString();
+    }
+
+    private static String delete(String id) {
+        JsonObject record = new JsonObject();
+        record.addProperty("op", "delete");
+        record.addProperty("id", id);
+        return record.toString();
+    }
+
+    private void writeJournal(String... lines) throws IOException {
+        Files.write(journal.toPath(), String.join("\n", lines).concat("\n").getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.movinghacker.ai;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 熔断器：连续失败达到阈值后打开，成功和中性结果的处理
+ */
+public class CircuitBreakerTest {
+
+    private static final int THRESHOLD = 5;
+
+    @Test
+    public void staysClosedBelowThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        for (int i = 0; i < THRESHOLD - 1; i++) {
+            breaker.recordFailure();
+        }
+        assertTrue(breaker.allowRequest());
+        assertEquals(0, breaker.remainingOpenMs());
+    }
+
+    @Test
+    public void opensAtThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        for (int i = 0; i < THRESHOLD; i++) {
+            breaker.recordFailure();
+        }
+        assertFalse(breaker.allowRequest());
+        long remaining = breaker.remainingOpenMs();
+        assertTrue(remaining > 0 && remaining <= 30_000);
+    }
+
+    @Test
+    public void successResetsFailureCount() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        for (int i = 0; i < THRESHOLD - 1; i++) {
+            breaker.recordFailure();
+        }
+        breaker.recordSuccess();
+        for (int i = 0; i < THRESHOLD - 1; i++) {
+            breaker.recordFailure();
+        }
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void neutralResultDoesNotCountAsFailure() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        for (int i = 0; i < THRESHOLD * 2; i++) {
+            breaker.recordNeutral();
+        }
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    public void sharesBreakerPerEndpoint() {
+        CircuitBreaker first = CircuitBreaker.forEndpoint("https://a.example:443");
+        assertSame(first, CircuitBreaker.forEndpoint("https://a.example:443"));
+        assertFalse(first == CircuitBreaker.forEndpoint("https://b.example:443"));
+    }
+}
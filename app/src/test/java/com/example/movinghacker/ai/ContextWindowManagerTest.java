@@ -0,0 +1,159 @@
+package com.example.movinghacker.ai;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 上下文窗口组装：Token估算、Function结果裁剪、按轮次移出和总结覆盖点
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class ContextWindowManagerTest {
+
+    @Test
+    public void estimatesAsciiByFourCharsAndOtherByOneChar() {
+        assertEquals(0, ContextWindowManager.estimateTokens((String) null));
+        assertEquals(0, ContextWindowManager.estimateTokens(""));
+        assertEquals(1, ContextWindowManager.estimateTokens("abcd"));
+        assertEquals(2, ContextWindowManager.estimateTokens("abcde"));
+        assertEquals(3, ContextWindowManager.estimateTokens("中文字"));
+        // 代理对只计一次
+        assertEquals(1, ContextWindowManager.estimateTokens("😀"));
+    }
+
+    @Test
+    public void truncatesFunctionResultsKeepingHeadAndTail() {
+        ChatMessage result = toolResult("t1", repeat('a', 100) + repeat('z', 100));
+        ChatMessage compacted = ContextWindowManager.compactFunctionResult(result, 30);
+
+        assertNotSame(result, compacted);
+        assertEquals(200, result.getContent().length());
+        assertEquals("t1", compacted.getToolCallId());
+        assertEquals(result.getId(), compacted.getId());
+        assertTrue(compacted.getContent().startsWith(repeat('a', 20)));
+        assertTrue(compacted.getContent().endsWith(repeat('z', 10)));
+        assertTrue(compacted.getContent().contains("170"));
+    }
+
+    @Test
+    public void leavesShortResultsAndOtherRolesUntouched() {
+        ChatMessage shortResult = toolResult("t1", "ok");
+        ChatMessage user = ChatMessage.userMessage(repeat('x', 1000));
+
+        assertSame(shortResult, ContextWindowManager.compactFunctionResult(shortResult, 30));
+        assertSame(user, ContextWindowManager.compactFunctionResult(user, 30));
+    }
+
+    @Test
+    public void keepsEverythingWithinBudget() {
+        List<ChatMessage> history = conversation(3);
+        ContextWindowManager.Window window = new ContextWindowManager(100_000)
+                .build(Collections.emptyList(), history, null);
+
+        assertEquals(history.size(), window.messages.size());
+        assertTrue(window.rolledOut.isEmpty());
+    }
+
+    @Test
+    public void rollsOutOldestTurnsButKeepsActiveTurn() {
+        List<ChatMessage> history = conversation(5);
+        int turnTokens = ContextWindowManager.estimateTokens(history.get(0))
+                + ContextWindowManager.estimateTokens(history.get(1));
+        // 只够放下两轮
+        ContextWindowManager.Window window = new ContextWindowManager(turnTokens * 2)
+                .build(Collections.emptyList(), history, null);
+
+        assertEquals(4, window.messages.size());
+        assertEquals(history.get(6).getId(), window.messages.get(0).getId());
+        assertEquals(6, window.rolledOut.size());
+        assertEquals(history.get(0).getId(), window.rolledOut.get(0).getId());
+        assertTrue(window.estimatedTokens <= turnTokens * 2);
+    }
+
+    @Test
+    public void activeTurnSurvivesEvenOverBudget() {
+        List<ChatMessage> history = conversation(2);
+        ContextWindowManager.Window window = new ContextWindowManager(1)
+                .build(Collections.emptyList(), history, null);
+
+        assertEquals(2, window.messages.size());
+        assertEquals(history.get(2).getId(), window.messages.get(0).getId());
+    }
+
+    @Test
+    public void skipsMessagesCoveredBySummary() {
+        List<ChatMessage> history = conversation(3);
+        ChatMessage summary = ChatMessage.summaryMessage("summary");
+        summary.setSummarizedUntil(history.get(3).getId());
+        history.add(summary);
+
+        ContextWindowManager.Window window = new ContextWindowManager(100_000)
+                .build(Collections.singletonList(summary), history, null);
+
+        assertEquals(2, window.messages.size());
+        assertEquals(history.get(4).getId(), window.messages.get(0).getId());
+    }
+
+    @Test
+    public void deduplicatesExtraMessagesById() {
+        List<ChatMessage> history = conversation(1);
+        ChatMessage extra = ChatMessage.userMessage("follow up");
+        List<ChatMessage> extras = Arrays.asList(history.get(1), extra);
+
+        ContextWindowManager.Window window = new ContextWindowManager(100_000)
+                .build(Collections.emptyList(), history, extras);
+
+        assertEquals(3, window.messages.size());
+        assertSame(extra, window.messages.get(2));
+    }
+
+    @Test
+    public void compactsOldResultsHarderThanActiveOnes() {
+        String big = repeat('r', 10_000);
+        List<ChatMessage> history = new ArrayList<>();
+        history.add(ChatMessage.userMessage("old"));
+        history.add(toolResult("old-call", big));
+        history.add(ChatMessage.userMessage("new"));
+        history.add(toolResult("new-call", big));
+
+        ContextWindowManager.Window window = new ContextWindowManager(100_000)
+                .build(Collections.emptyList(), history, null);
+
+        assertTrue(window.messages.get(1).getContent().length() < 2_100);
+        assertEquals(big, window.messages.get(3).getContent());
+    }
+
+    private static List<ChatMessage> conversation(int turns) {
+        List<ChatMessage> messages = new ArrayList<>();
+        for (int i = 0; i < turns; i++) {
+            messages.add(ChatMessage.userMessage("question " + i));
+            messages.add(ChatMessage.assistantMessage("answer " + i));
+        }
+        return messages;
+    }
+
+    private static ChatMessage toolResult(String callId, String content) {
+        ChatMessage message = new ChatMessage("tool", content);
+        message.setToolCallId(callId);
+        message.setFunctionName("terminal_execute");
+        return message;
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
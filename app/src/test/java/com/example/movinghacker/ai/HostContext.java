@@ -0,0 +1,39 @@
+package com.example.movinghacker.ai;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+
+import java.io.File;
+
+/**
+ * 宿主机测试用Context，各存储目录都指向同一个临时目录，供文件类Function Handler在本地运行
+ */
+class HostContext extends ContextWrapper {
+
+    private final File root;
+
+    HostContext(File root) {
+        super(null);
+        this.root = root;
+    }
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public File getFilesDir() {
+        return root;
+    }
+
+    @Override
+    public File getCacheDir() {
+        return root;
+    }
+
+    @Override
+    public File getExternalFilesDir(String type) {
+        return type != null ? new File(root, type) : root;
+    }
+}
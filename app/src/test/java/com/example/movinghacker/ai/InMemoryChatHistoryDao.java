@@ -0,0 +1,154 @@
+package com.example.movinghacker.ai;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 内存版ChatHistoryDao，按与SQL相同的语义实现，供宿主机上的基准测试使用
+ * 只衡量仓库层自身（序列化、签名比对、分页转换）的开销，不包含SQLite的IO
+ */
+class InMemoryChatHistoryDao implements ChatHistoryDao {
+
+    private final Map<Long, ChatConversation> conversations = new LinkedHashMap<>();
+    private final List<ChatMessageRecord> messages = new ArrayList<>();
+    private final Map<String, ChatMessageRecord> messagesById = new HashMap<>();
+    private long nextConversationId = 1;
+    private long nextSeq = 1;
+
+    @Override
+    public synchronized long insertConversation(ChatConversation conversation) {
+        long id = nextConversationId++;
+        conversation.setId(id);
+        conversations.put(id, conversation);
+        return id;
+    }
+
+    @Override
+    public synchronized List<ChatConversation> getConversations() {
+        List<ChatConversation> result = new ArrayList<>(conversations.values());
+        result.sort((a, b) -> Long.compare(b.getUpdatedAt(), a.getUpdatedAt()));
+        return result;
+    }
+
+    @Override
+    public synchronized ChatConversation getConversation(long id) {
+        return conversations.get(id);
+    }
+
+    @Override
+    public synchronized void touchConversation(long id, long updatedAt) {
+        ChatConversation conversation = conversations.get(id);
+        if (conversation != null) {
+            conversation.setUpdatedAt(updatedAt);
+        }
+    }
+
+    @Override
+    public synchronized void renameConversation(long id, String title) {
+        ChatConversation conversation = conversations.get(id);
+        if (conversation != null) {
+            conversation.setTitle(title);
+        }
+    }
+
+    @Override
+    public synchronized long insertMessage(ChatMessageRecord record) {
+        record.setSeq(nextSeq++);
+        messages.add(record);
+        messagesById.put(record.getMessageId(), record);
+        return record.getSeq();
+    }
+
+    @Override
+    public synchronized int updateMessagePayload(String messageId, String payload) {
+        ChatMessageRecord record = messagesById.get(messageId);
+        if (record == null) {
+            return 0;
+        }
+        record.setPayload(payload);
+        return 1;
+    }
+
+    @Override
+    public synchronized List<ChatMessageRecord> getLatestMessages(long conversationId, int limit) {
+        return collectBefore(conversationId, Long.MAX_VALUE, limit);
+    }
+
+    @Override
+    public synchronized List<ChatMessageRecord> getMessagesBefore(long conversationId, String beforeMessageId,
+                                                                  int limit) {
+        ChatMessageRecord before = messagesById.get(beforeMessageId);
+        if (before == null) {
+            return new ArrayList<>();
+        }
+        return collectBefore(conversationId, before.getSeq(), limit);
+    }
+
+    @Override
+    public synchronized List<ChatMessageRecord> getMessagesAfter(long conversationId, String afterMessageId,
+                                                                 int limit) {
+        List<ChatMessageRecord> result = new ArrayList<>();
+        ChatMessageRecord after = messagesById.get(afterMessageId);
+        if (after == null) {
+            return result;
+        }
+        for (ChatMessageRecord record : messages) {
+            if (result.size() >= limit) {
+                break;
+            }
+            if (record.getConversationId() == conversationId && record.getSeq() > after.getSeq()) {
+                result.add(record);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized int getMessageCount(long conversationId) {
+        int count = 0;
+        for (ChatMessageRecord record : messages) {
+            if (record.getConversationId() == conversationId) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized int deleteMessage(String messageId) {
+        ChatMessageRecord record = messagesById.remove(messageId);
+        if (record == null) {
+            return 0;
+        }
+        messages.remove(record);
+        return 1;
+    }
+
+    @Override
+    public synchronized void deleteMessages(long conversationId) {
+        messages.removeIf(record -> {
+            if (record.getConversationId() == conversationId) {
+                messagesById.remove(record.getMessageId());
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * 按seq倒序返回seq小于指定值的消息
+     */
+    private List<ChatMessageRecord> collectBefore(long conversationId, long beforeSeq, int limit) {
+        List<ChatMessageRecord> result = new ArrayList<>();
+        for (int i = messages.size() - 1; i >= 0 && result.size() < limit; i--) {
+            ChatMessageRecord record = messages.get(i);
+            if (record.getConversationId() == conversationId && record.getSeq() < beforeSeq) {
+                result.add(record);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.movinghacker.ai;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * 简易微基准测试框架（JMH风格：预热轮次 + 测量轮次，每轮按时间片重复执行）
+ * 在宿主机JVM上运行，不依赖设备；结果以每次操作的纳秒数（取各测量轮的中位数）表示
+ */
+class MicroBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASUREMENT_ITERATIONS = 10;
+    private static final long ITERATION_NANOS = 200_000_000L;
+    // 结果目录，由Gradle设为app/build/benchmark；直接用JUnit运行时为当前目录下的build/benchmark
+    private static final String OUTPUT_DIR_PROPERTY = "benchmark.outputDir";
+
+    /**
+     * 被测操作，返回值交给sink防止被JIT消除
+     */
+    interface Operation {
+        Object run() throws Exception;
+    }
+
+    static class Result {
+        final String name;
+        final double nanosPerOp;
+        final double minNanosPerOp;
+        final long operations;
+
+        Result(String name, double nanosPerOp, double minNanosPerOp, long operations) {
+            this.name = name;
+            this.nanosPerOp = nanosPerOp;
+            this.minNanosPerOp = minNanosPerOp;
+            this.operations = operations;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-48s %14.0f ns/op  (min %.0f, %d ops)",
+                    name, nanosPerOp, minNanosPerOp, operations);
+        }
+    }
+
+    private final List<Result> results = new ArrayList<>();
+    private int sink;
+
+    Result run(String name, Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            measureIteration(operation);
+        }
+        double[] samples = new double[MEASUREMENT_ITERATIONS];
+        long operations = 0;
+        for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+            long[] iteration = measureIteration(operation);
+            samples[i] = (double) iteration[0] / iteration[1];
+            operations += iteration[1];
+        }
+        Arrays.sort(samples);
+        Result result = new Result(name, samples[samples.length / 2], samples[0], operations);
+        results.add(result);
+        System.out.println(result);
+        return result;
+    }
+
+    List<Result> getResults() {
+        return results;
+    }
+
+    /**
+     * 结果文件，位于构建输出目录中，不写入源码树
+     */
+    static File resultsFile(String name) {
+        return new File(System.getProperty(OUTPUT_DIR_PROPERTY, "build/benchmark"), name);
+    }
+
+    /**
+     * 把本次结果（ns/op）写入properties文件，格式与基线文件相同
+     */
+    void writeResults(File file, String comment) throws IOException {
+        Properties properties = new Properties();
+        for (Result result : results) {
+            properties.setProperty(result.name, String.valueOf(Math.round(result.nanosPerOp)));
+        }
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            return;
+        }
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, comment);
+        }
+    }
+
+    /**
+     * @return {耗时纳秒, 操作次数}
+     */
+    private long[] measureIteration(Operation operation) throws Exception {
+        long ops = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            consume(operation.run());
+            ops++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < ITERATION_NANOS);
+        return new long[]{elapsed, ops};
+    }
+
+    private void consume(Object value) {
+        sink ^= value != null ? System.identityHashCode(value) : 0;
+    }
+
+    int getSink() {
+        return sink;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.movinghacker.ai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * MockWebServer上的假LLM服务商
+ * 按录制顺序依次返回样本中的响应（OpenAI/Gemini格式、普通或SSE流式均可），
+ * 请求的接口与录制时不一致或样本已用完时返回400，使对话流程以不可重试的错误结束
+ */
+class ReplayDispatcher extends Dispatcher {
+
+    private final ReplayFixture fixture;
+    private final boolean simulateLatency;
+    private final List<String> requestBodies = new ArrayList<>();
+    private int next;
+
+    /**
+     * @param simulateLatency 是否按录制时的首字节/总耗时延迟响应，关闭时尽快返回（测量本地开销）
+     */
+    ReplayDispatcher(ReplayFixture fixture, boolean simulateLatency) {
+        this.fixture = fixture;
+        this.simulateLatency = simulateLatency;
+    }
+
+    @Override
+    public synchronized MockResponse dispatch(RecordedRequest request) {
+        requestBodies.add(request.getBody().readUtf8());
+        if (next >= fixture.size()) {
+            return error("replay exhausted after " + next + " exchanges");
+        }
+        ReplayFixture.Exchange exchange = fixture.getExchanges().get(next);
+        String path = request.getRequestUrl() != null ? request.getRequestUrl().encodedPath() : request.getPath();
+        if (!endpointOf(path).equals(endpointOf(exchange.path))) {
+            return error("replay mismatch at exchange " + next + ": expected " + exchange.path + ", got " + path);
+        }
+        next++;
+
+        MockResponse response = new MockResponse()
+                .setResponseCode(exchange.status)
+                .setBody(exchange.body != null ? exchange.body : "");
+        if (exchange.contentType != null) {
+            response.setHeader("Content-Type", exchange.contentType);
+        }
+        if (simulateLatency) {
+            response.setHeadersDelay(exchange.headersMs, TimeUnit.MILLISECONDS);
+            response.setBodyDelay(Math.max(0, exchange.totalMs - exchange.headersMs), TimeUnit.MILLISECONDS);
+        }
+        return response;
+    }
+
+    /**
+     * 回到样本开头，供同一样本重复运行
+     */
+    synchronized void rewind() {
+        next = 0;
+        requestBodies.clear();
+    }
+
+    synchronized int getServedCount() {
+        return next;
+    }
+
+    synchronized List<String> getRequestBodies() {
+        return new ArrayList<>(requestBodies);
+    }
+
+    /**
+     * 路径最后一段（如completions、gemini-pro:generateContent），录制时的前缀与本地服务器无关
+     */
+    private static String endpointOf(String path) {
+        if (path == null) {
+            return "";
+        }
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static MockResponse error(String message) {
+        return new MockResponse()
+                .setResponseCode(400)
+                .setHeader("Content-Type", "application/json")
+                .setBody("{\"error\":{\"message\":\"" + message + "\"}}");
+    }
+}
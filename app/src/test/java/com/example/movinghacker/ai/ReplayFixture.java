@@ -0,0 +1,91 @@
+package com.example.movinghacker.ai;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 回放样本
+ * 读取ExchangeRecorder录制的JSON Lines文件（每行一次HTTP交换），按录制顺序保存
+ * 响应体中的${NAME}占位符可在加载后替换为本地值（如临时工作目录），值按原样插入
+ */
+class ReplayFixture {
+
+    static class Exchange {
+        String method;
+        String path;
+        String query;
+        JsonObject request;
+        int status;
+        String contentType;
+        String body;
+        long headersMs;
+        long totalMs;
+    }
+
+    private final List<Exchange> exchanges;
+
+    private ReplayFixture(List<Exchange> exchanges) {
+        this.exchanges = exchanges;
+    }
+
+    static ReplayFixture fromResource(String resource) throws IOException {
+        InputStream in = ReplayFixture.class.getResourceAsStream(resource);
+        if (in == null) {
+            throw new IOException("Fixture not found: " + resource);
+        }
+        return read(in);
+    }
+
+    static ReplayFixture fromFile(File file) throws IOException {
+        return read(new FileInputStream(file));
+    }
+
+    private static ReplayFixture read(InputStream in) throws IOException {
+        Gson gson = new Gson();
+        List<Exchange> exchanges = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    exchanges.add(gson.fromJson(line, Exchange.class));
+                }
+            }
+        }
+        return new ReplayFixture(exchanges);
+    }
+
+    /**
+     * 替换所有响应体中的${NAME}占位符
+     */
+    ReplayFixture withVariables(Map<String, String> variables) {
+        for (Exchange exchange : exchanges) {
+            if (exchange.body == null) {
+                continue;
+            }
+            for (Map.Entry<String, String> entry : variables.entrySet()) {
+                exchange.body = exchange.body.replace("${" + entry.getKey() + "}", entry.getValue());
+            }
+        }
+        return this;
+    }
+
+    List<Exchange> getExchanges() {
+        return Collections.unmodifiableList(exchanges);
+    }
+
+    int size() {
+        return exchanges.size();
+    }
+}
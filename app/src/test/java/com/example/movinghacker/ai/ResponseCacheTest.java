@@ -0,0 +1,71 @@
+package com.example.movinghacker.ai;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 缓存只接受调用方本身已经是确定性的请求，不改写采样参数
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class ResponseCacheTest {
+
+    private final Gson gson = new Gson();
+
+    @Test
+    public void cachesExplicitZeroTemperatureWithoutTools() {
+        assertTrue(ResponseCache.isCacheable(request(openAI(0), false)));
+        assertTrue(ResponseCache.isCacheable(request(gemini(0), false)));
+    }
+
+    @Test
+    public void bypassesDefaultOrRandomSampling() {
+        assertFalse(ResponseCache.isCacheable(request(new JsonObject(), false)));
+        assertFalse(ResponseCache.isCacheable(request(openAI(0.7), false)));
+        assertFalse(ResponseCache.isCacheable(request(gemini(1), false)));
+    }
+
+    @Test
+    public void bypassesRequestsWithTools() {
+        assertFalse(ResponseCache.isCacheable(request(openAI(0), true)));
+        assertFalse(ResponseCache.isCacheable(request(gemini(0), true)));
+    }
+
+    @Test
+    public void bypassesMultipleCandidates() {
+        JsonObject fields = openAI(0);
+        fields.addProperty("n", 2);
+        assertFalse(ResponseCache.isCacheable(request(fields, false)));
+
+        JsonObject gemini = gemini(0);
+        gemini.getAsJsonObject("generationConfig").addProperty("candidateCount", 3);
+        assertFalse(ResponseCache.isCacheable(request(gemini, false)));
+    }
+
+    private JsonRequestBody request(JsonObject fields, boolean withTools) {
+        return new JsonRequestBody(gson, fields, null, withTools);
+    }
+
+    private static JsonObject openAI(double temperature) {
+        JsonObject fields = new JsonObject();
+        fields.addProperty("model", "m");
+        fields.addProperty("temperature", temperature);
+        return fields;
+    }
+
+    private static JsonObject gemini(double temperature) {
+        JsonObject generationConfig = new JsonObject();
+        generationConfig.addProperty("temperature", temperature);
+        JsonObject fields = new JsonObject();
+        fields.add("generationConfig", generationConfig);
+        return fields;
+    }
+}
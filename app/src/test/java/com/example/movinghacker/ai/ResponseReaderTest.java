@@ -0,0 +1,105 @@
+package com.example.movinghacker.ai;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 非流式响应的增量解析：OpenAI和Gemini格式的内容、Function调用和用量
+ */
+public class ResponseReaderTest {
+
+    private final Gson gson = new Gson();
+    private final ResponseReader reader = new ResponseReader(gson);
+
+    @Test
+    public void readsOpenAIContentAndUsage() throws IOException {
+        AIResponse response = reader.readOpenAIResponse(json("{\"id\":\"x\",\"choices\":[{\"index\":0,"
+                + "\"message\":{\"role\":\"assistant\",\"content\":\"hello\"},\"finish_reason\":\"stop\"}],"
+                + "\"usage\":{\"prompt_tokens\":12,\"completion_tokens\":3,\"total_tokens\":15}}"));
+
+        assertEquals("hello", response.getContent());
+        assertEquals("stop", response.getFinishReason());
+        assertFalse(response.hasFunctionCalls());
+        assertEquals(12, response.getPromptTokens());
+        assertEquals(3, response.getCompletionTokens());
+    }
+
+    @Test
+    public void readsOpenAIToolCallsWithStringOrObjectArguments() throws IOException {
+        AIResponse response = reader.readOpenAIResponse(json("{\"choices\":[{\"message\":{\"content\":null,"
+                + "\"tool_calls\":[{\"id\":\"call_1\",\"type\":\"function\","
+                + "\"function\":{\"name\":\"read_file\",\"arguments\":\"{\\\"path\\\":\\\"a.txt\\\"}\"}},"
+                + "{\"id\":\"call_2\",\"type\":\"function\","
+                + "\"function\":{\"name\":\"list_files\",\"arguments\":{\"path\":\".\"}}}]},"
+                + "\"finish_reason\":\"tool_calls\"}]}"));
+
+        assertNull(response.getContent());
+        assertEquals(2, response.getFunctionCalls().size());
+        FunctionCall first = response.getFunctionCalls().get(0);
+        assertEquals("call_1", first.getId());
+        assertEquals("read_file", first.getName());
+        assertEquals("{\"path\":\"a.txt\"}", first.getArguments());
+        assertEquals("{\"path\":\".\"}", response.getFunctionCalls().get(1).getArguments());
+    }
+
+    @Test
+    public void readsLegacyOpenAIFunctionCall() throws IOException {
+        AIResponse response = reader.readOpenAIResponse(json("{\"choices\":[{\"message\":{"
+                + "\"function_call\":{\"name\":\"terminal_execute\",\"arguments\":\"{}\"}}}]}"));
+
+        assertEquals(1, response.getFunctionCalls().size());
+        assertEquals("terminal_execute", response.getFunctionCalls().get(0).getName());
+        assertEquals("stop", response.getFinishReason());
+    }
+
+    @Test
+    public void rejectsOpenAIResponseWithoutChoices() throws IOException {
+        try {
+            reader.readOpenAIResponse(json("{\"error\":{\"message\":\"bad\"}}"));
+            fail("expected failure");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("No choices"));
+        }
+    }
+
+    @Test
+    public void readsGeminiTextPartsAndFunctionCalls() throws IOException {
+        AIResponse response = reader.readGeminiResponse(json("{\"candidates\":[{\"content\":{\"parts\":["
+                + "{\"text\":\"line one\"},{\"text\":\"line two\"},"
+                + "{\"functionCall\":{\"name\":\"read_file\",\"args\":{\"path\":\"b.txt\"}}}]},"
+                + "\"finishReason\":\"STOP\"}],"
+                + "\"usageMetadata\":{\"promptTokenCount\":7,\"candidatesTokenCount\":2}}"));
+
+        assertEquals("line one\nline two", response.getContent());
+        assertEquals("STOP", response.getFinishReason());
+        assertEquals(1, response.getFunctionCalls().size());
+        assertEquals("{\"path\":\"b.txt\"}", response.getFunctionCalls().get(0).getArguments());
+        assertEquals(7, response.getPromptTokens());
+        assertEquals(2, response.getCompletionTokens());
+    }
+
+    @Test
+    public void rejectsGeminiCandidateWithoutParts() throws IOException {
+        try {
+            reader.readGeminiResponse(json("{\"candidates\":[{\"content\":{\"role\":\"model\"}}]}"));
+            fail("expected failure");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("parts"));
+        }
+    }
+
+    private static JsonReader json(String text) {
+        return new JsonReader(new StringReader(text));
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.movinghacker.ai;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 流式分片的组装：文本增量、按index拼接的工具调用参数、用量和结束原因
+ */
+public class StreamAccumulatorTest {
+
+    private final Gson gson = new Gson();
+
+    @Test
+    public void accumulatesOpenAIDeltasAndToolCallFragments() {
+        List<String> deltas = new ArrayList<>();
+        StreamAccumulator accumulator = new StreamAccumulator(gson, deltas::add);
+        accumulator.acceptOpenAIChunk(chunk("{\"choices\":[{\"delta\":{\"content\":\"Hel\"}}]}"));
+        accumulator.acceptOpenAIChunk(chunk("{\"choices\":[{\"delta\":{\"content\":\"lo\"}}]}"));
+        accumulator.acceptOpenAIChunk(chunk("{\"choices\":[{\"delta\":{\"tool_calls\":[{\"index\":0,"
+                + "\"id\":\"call_1\",\"function\":{\"name\":\"read_file\",\"arguments\":\"{\\\"pa\"}}]}}]}"));
+        accumulator.acceptOpenAIChunk(chunk("{\"choices\":[{\"delta\":{\"tool_calls\":[{\"index\":0,"
+                + "\"function\":{\"arguments\":\"th\\\":\\\"a\\\"}\"}}]}}]}"));
+        accumulator.acceptOpenAIChunk(chunk("{\"choices\":[{\"delta\":{\"tool_calls\":[{\"index\":1,"
+                + "\"id\":\"call_2\",\"function\":{\"name\":\"list_files\"}}]},\"finish_reason\":\"tool_calls\"}]}"));
+        accumulator.acceptOpenAIChunk(chunk("{\"choices\":[],\"usage\":{\"prompt_tokens\":9,\"completion_tokens\":4}}"));
+
+        AIResponse response = accumulator.build();
+        assertEquals("Hello", response.getContent());
+        assertEquals(2, deltas.size());
+        assertEquals("tool_calls", response.getFinishReason());
+        assertEquals(2, response.getFunctionCalls().size());
+        assertEquals("call_1", response.getFunctionCalls().get(0).getId());
+        assertEquals("{\"path\":\"a\"}", response.getFunctionCalls().get(0).getArguments());
+        // 没有参数分片时补空对象
+        assertEquals("{}", response.getFunctionCalls().get(1).getArguments());
+        assertEquals(9, response.getPromptTokens());
+        assertEquals(4, response.getCompletionTokens());
+    }
+
+    @Test
+    public void accumulatesGeminiChunks() {
+        StreamAccumulator accumulator = new StreamAccumulator(gson, null);
+        accumulator.acceptGeminiChunk(chunk("{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"foo \"}]}}],"
+                + "\"usageMetadata\":{\"promptTokenCount\":5,\"candidatesTokenCount\":1}}"));
+        accumulator.acceptGeminiChunk(chunk("{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"bar\"},"
+                + "{\"functionCall\":{\"name\":\"list_files\"}}]},\"finishReason\":\"STOP\"}],"
+                + "\"usageMetadata\":{\"promptTokenCount\":5,\"candidatesTokenCount\":3}}"));
+
+        AIResponse response = accumulator.build();
+        assertEquals("foo bar", response.getContent());
+        assertEquals("STOP", response.getFinishReason());
+        assertEquals(1, response.getFunctionCalls().size());
+        assertEquals("{}", response.getFunctionCalls().get(0).getArguments());
+        assertEquals(3, response.getCompletionTokens());
+    }
+
+    @Test
+    public void defaultsFinishReasonToStop() {
+        StreamAccumulator accumulator = new StreamAccumulator(gson, null);
+        accumulator.acceptOpenAIChunk(chunk("{\"choices\":[{\"delta\":{\"content\":\"x\"}}]}"));
+        assertEquals("stop", accumulator.build().getFinishReason());
+    }
+
+    private static JsonObject chunk(String text) {
+        return JsonParser.parseString(text).getAsJsonObject();
+    }
+}
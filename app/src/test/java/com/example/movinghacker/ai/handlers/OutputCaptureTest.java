@@ -0,0 +1,93 @@
+package com.example.movinghacker.ai.handlers;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 有上限的输出捕获：保留开头和结尾、统计省略字节、截断点对齐UTF-8字符
+ */
+public class OutputCaptureTest {
+
+    @Test
+    public void keepsSmallOutputVerbatim() throws IOException {
+        OutputCapture capture = new OutputCapture(16, 16);
+        capture.readFrom(stream("hello\nworld\n"));
+
+        assertEquals("hello\nworld\n", capture.toText());
+        assertFalse(capture.isTruncated());
+        assertEquals(12, capture.getTotalBytes());
+    }
+
+    @Test
+    public void fillsHeadThenTailWithoutTruncating() {
+        OutputCapture capture = new OutputCapture(4, 4);
+        write(capture, "abcdefgh");
+
+        assertFalse(capture.isTruncated());
+        assertEquals("abcdefgh", capture.toText());
+    }
+
+    @Test
+    public void keepsHeadAndTailOfLargeOutput() {
+        OutputCapture capture = new OutputCapture(4, 4);
+        write(capture, "HEAD");
+        for (int i = 0; i < 100; i++) {
+            write(capture, "middle");
+        }
+        write(capture, "TAIL");
+
+        assertTrue(capture.isTruncated());
+        assertEquals(608, capture.getTotalBytes());
+        assertEquals(600, capture.getOmittedBytes());
+        String text = capture.toText();
+        assertTrue(text.startsWith("HEAD\n"));
+        assertTrue(text.endsWith("\nTAIL"));
+        assertTrue(text.contains("600 of 608 bytes omitted"));
+    }
+
+    @Test
+    public void ringBufferWrapsAcrossSmallWrites() {
+        OutputCapture capture = new OutputCapture(0, 5);
+        for (char c = 'a'; c <= 'z'; c++) {
+            write(capture, String.valueOf(c));
+        }
+        assertTrue(capture.toText().endsWith("vwxyz"));
+    }
+
+    @Test
+    public void alignsCutsToUtf8Boundaries() {
+        // 每个汉字3字节，开头和结尾的缓冲都放不下整数个字符
+        OutputCapture capture = new OutputCapture(4, 4);
+        write(capture, "一二三四五六七八九十");
+
+        String text = capture.toText();
+        assertTrue(text.startsWith("一\n"));
+        assertTrue(text.endsWith("\n十"));
+        assertFalse(text.contains("�"));
+        assertTrue(text.contains("24 of 30 bytes omitted"));
+    }
+
+    @Test
+    public void reportsEmpty() {
+        OutputCapture capture = new OutputCapture();
+        assertTrue(capture.isEmpty());
+        write(capture, "x");
+        assertFalse(capture.isEmpty());
+    }
+
+    private static void write(OutputCapture capture, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        capture.write(bytes, 0, bytes.length);
+    }
+
+    private static ByteArrayInputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
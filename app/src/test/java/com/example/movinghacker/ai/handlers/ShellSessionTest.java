@@ -0,0 +1,121 @@
+package com.example.movinghacker.ai.handlers;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 常驻Shell的结束行切分：输出、退出码、当前目录，以及状态在多次调用之间保留
+ * 在宿主机的/bin/sh上运行，只使用Shell内建命令（PATH指向设备上的目录）
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+public class ShellSessionTest {
+
+    private static final String SHELL = "/bin/sh";
+    private static final long TIMEOUT_MS = 10_000;
+
+    private File home;
+    private ShellSession session;
+
+    @Before
+    public void setUp() throws IOException {
+        Assume.assumeTrue("No host shell", new File(SHELL).canExecute());
+        home = Files.createTempDirectory("shell-session").toFile();
+        session = new ShellSession("test", home.getAbsolutePath(), SHELL);
+    }
+
+    @After
+    public void tearDown() {
+        if (session != null) {
+            session.close();
+        }
+        if (home != null) {
+            new File(home, "sub").delete();
+            home.delete();
+        }
+    }
+
+    @Test
+    public void splitsOutputAtSentinel() throws Exception {
+        ShellSession.Result result = session.execute("echo hello; echo world", null, TIMEOUT_MS);
+
+        assertEquals("hello\nworld\n", result.capture.toText());
+        assertEquals(0, result.exitCode);
+        assertEquals(home.getCanonicalPath(), new File(result.directory).getCanonicalPath());
+        assertFalse(result.exited);
+    }
+
+    @Test
+    public void outputWithoutTrailingNewlineKeepsItsBytes() throws Exception {
+        ShellSession.Result result = session.execute("printf 'no newline'", null, TIMEOUT_MS);
+        assertEquals("no newline", result.capture.toText());
+    }
+
+    @Test
+    public void reportsExitCodeAndContinues() throws Exception {
+        assertEquals(3, session.execute("(exit 3)", null, TIMEOUT_MS).exitCode);
+        ShellSession.Result next = session.execute("echo still here", null, TIMEOUT_MS);
+        assertEquals("still here\n", next.capture.toText());
+        assertEquals(2, session.getCommandCount());
+    }
+
+    @Test
+    public void keepsDirectoryAndVariablesBetweenCommands() throws Exception {
+        assertTrue(new File(home, "sub").mkdir());
+        session.execute("cd sub && export GREETING=hi", null, TIMEOUT_MS);
+        ShellSession.Result result = session.execute("echo $GREETING", null, TIMEOUT_MS);
+
+        assertEquals("hi\n", result.capture.toText());
+        assertEquals("sub", new File(result.directory).getName());
+    }
+
+    @Test
+    public void changesToRequestedDirectoryFirst() throws Exception {
+        assertTrue(new File(home, "sub").mkdir());
+        ShellSession.Result result = session.execute("pwd", new File(home, "sub").getAbsolutePath(), TIMEOUT_MS);
+        assertEquals("sub", new File(result.capture.toText().trim()).getName());
+    }
+
+    @Test
+    public void largeOutputAcrossReadsIsCapturedInOrder() throws Exception {
+        ShellSession.Result result = session.execute(
+                "i=0; while [ $i -lt 5000 ]; do echo line$i; i=$((i+1)); done", null, TIMEOUT_MS);
+
+        assertTrue(result.capture.isTruncated());
+        assertTrue(result.capture.toText().startsWith("line0\nline1\n"));
+        assertTrue(result.capture.toText().endsWith("line4998\nline4999\n"));
+        assertEquals(0, result.exitCode);
+    }
+
+    @Test
+    public void exitEndsSession() throws Exception {
+        ShellSession.Result result = session.execute("exit 7", null, TIMEOUT_MS);
+
+        assertTrue(result.exited);
+        assertEquals(7, result.exitCode);
+        assertFalse(session.isAlive());
+        assertNull(session.execute("echo never", null, TIMEOUT_MS));
+    }
+
+    @Test
+    public void timeoutClosesSession() throws Exception {
+        ShellSession.Result result = session.execute("while :; do :; done", null, 200);
+
+        assertTrue(result.timedOut);
+        assertFalse(session.isAlive());
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.movinghacker.terminal;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 回滚历史的环形存储：追加和淘汰只移动起点、复用行对象，调整尺寸不逐行处理历史
+ */
+public class ScreenBufferTest {
+
+    @Test
+    public void noisyOutputStaysBoundedAndReusesRows() {
+        TerminalEmulator emulator = new TerminalEmulator(80, 24, 500);
+        StringBuilder chunk = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            chunk.append("I/ActivityManager( 1234): line ").append(i).append("\r\n");
+        }
+        for (int i = 0; i < 1000; i++) {
+            emulator.append(chunk.toString());
+        }
+
+        ScreenBuffer buffer = emulator.getScreenBuffer();
+        assertEquals(500, buffer.getScrollbackRows());
+        assertEquals(100_000 - 23, buffer.getScrollCounter());
+
+        // 历史满后淘汰的行对象被复用，继续输出不再分配新行
+        Set<TerminalRow> before = rowsOf(buffer);
+        assertEquals(buffer.getTotalRows(), before.size());
+        emulator.append(chunk.toString());
+        assertEquals(before, rowsOf(buffer));
+        assertEquals("I/ActivityManager( 1234): line 99", buffer.screenRow(22).getText());
+    }
+
+    @Test
+    public void evictedRowsLeaveScrollbackInOrder() {
+        TerminalEmulator emulator = new TerminalEmulator(20, 2, 3);
+        for (int i = 0; i < 10; i++) {
+            emulator.append("row" + i + "\r\n");
+        }
+
+        ScreenBuffer buffer = emulator.getScreenBuffer();
+        assertEquals("row6", buffer.getRow(0).getText());
+        assertEquals("row7", buffer.getRow(1).getText());
+        assertEquals("row8", buffer.getRow(2).getText());
+        assertEquals("row9", buffer.screenRow(0).getText());
+    }
+
+    @Test
+    public void resizeKeepsScrollbackRowsUntouched() {
+        TerminalEmulator emulator = new TerminalEmulator(40, 3, 100);
+        for (int i = 0; i < 20; i++) {
+            emulator.append("history line " + i + "\r\n");
+        }
+        ScreenBuffer buffer = emulator.getScreenBuffer();
+        TerminalRow first = buffer.getRow(0);
+        int version = first.getVersion();
+
+        emulator.resize(60, 3);
+
+        assertSame(first, buffer.getRow(0));
+        assertEquals(version, first.getVersion());
+        assertEquals(40, first.getColumns());
+        for (int y = 0; y < buffer.getRows(); y++) {
+            assertEquals(60, buffer.screenRow(y).getColumns());
+        }
+        assertTrue(emulator.getTranscript().startsWith("history line 0\nhistory line 1\n"));
+
+        // 复用到屏幕底部的旧行按当前宽度调整
+        for (int i = 0; i < 200; i++) {
+            emulator.append("x\r\n");
+        }
+        for (int y = 0; y < buffer.getRows(); y++) {
+            assertEquals(60, buffer.screenRow(y).getColumns());
+        }
+    }
+
+    private static Set<TerminalRow> rowsOf(ScreenBuffer buffer) {
+        Set<TerminalRow> rows = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < buffer.getTotalRows(); i++) {
+            rows.add(buffer.getRow(i));
+        }
+        return rows;
+    }
+}
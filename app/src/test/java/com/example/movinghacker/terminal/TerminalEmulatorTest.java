@@ -0,0 +1,195 @@
+package com.example.movinghacker.terminal;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 终端模拟器的状态机解析和屏幕缓冲：光标移动、擦除、样式、自动换行、回滚历史、备用屏幕和调整尺寸
+ */
+public class TerminalEmulatorTest {
+
+    @Test
+    public void writesTextAndMovesCursor() {
+        TerminalEmulator emulator = new TerminalEmulator(20, 5);
+        emulator.append("hello\r\nworld");
+
+        assertEquals("hello", line(emulator, 0));
+        assertEquals("world", line(emulator, 1));
+        assertEquals(5, emulator.getCursorX());
+        assertEquals(1, emulator.getCursorY());
+    }
+
+    @Test
+    public void newLineModeReturnsToColumnZero() {
+        TerminalEmulator emulator = new TerminalEmulator(20, 5);
+        emulator.setNewLineMode(true);
+        emulator.append("ab\ncd");
+
+        assertEquals("cd", line(emulator, 1));
+        assertEquals(2, emulator.getCursorX());
+    }
+
+    @Test
+    public void csiPositionsAndErases() {
+        TerminalEmulator emulator = new TerminalEmulator(10, 3);
+        emulator.append("0123456789\u001b[2;3HX\u001b[1;5H\u001b[K");
+
+        assertEquals("0123", line(emulator, 0));
+        assertEquals("  X", line(emulator, 1));
+
+        emulator.append("\u001b[2J");
+        assertEquals("", line(emulator, 0));
+        assertEquals("", line(emulator, 1));
+    }
+
+    @Test
+    public void sgrSetsStyleAndResets() {
+        TerminalEmulator emulator = new TerminalEmulator(10, 2);
+        emulator.append("\u001b[1;31mA\u001b[0mB");
+
+        TerminalRow row = emulator.getScreenBuffer().screenRow(0);
+        long bold = row.getStyle(0);
+        assertEquals(1, TextStyle.foreground(bold));
+        assertTrue((TextStyle.flags(bold) & TextStyle.BOLD) != 0);
+        assertEquals(TextStyle.DEFAULT, row.getStyle(1));
+    }
+
+    @Test
+    public void wrapsAtLastColumnAndJoinsTranscript() {
+        TerminalEmulator emulator = new TerminalEmulator(5, 3);
+        emulator.append("abcdefg");
+
+        assertEquals("abcde", line(emulator, 0));
+        assertEquals("fg", line(emulator, 1));
+        assertTrue(emulator.getScreenBuffer().screenRow(0).isWrapped());
+        assertEquals("abcdefg", emulator.getTranscript());
+    }
+
+    @Test
+    public void wideCharacterTakesTwoCells() {
+        TerminalEmulator emulator = new TerminalEmulator(10, 2);
+        emulator.append("中a");
+
+        assertEquals(3, emulator.getCursorX());
+        assertEquals("中a", line(emulator, 0));
+    }
+
+    @Test
+    public void scrolledLinesEnterScrollback() {
+        TerminalEmulator emulator = new TerminalEmulator(10, 3, 100);
+        for (int i = 0; i < 10; i++) {
+            emulator.append("line" + i + "\r\n");
+        }
+
+        ScreenBuffer buffer = emulator.getScreenBuffer();
+        assertEquals(8, buffer.getScrollbackRows());
+        assertEquals(8, buffer.getScrollCounter());
+        assertEquals("line0", buffer.getRow(0).getText());
+        assertEquals("line8", line(emulator, 0));
+        assertTrue(emulator.getTranscript().startsWith("line0\nline1\n"));
+    }
+
+    @Test
+    public void scrollbackIsBoundedButCounterKeepsCounting() {
+        TerminalEmulator emulator = new TerminalEmulator(10, 2, 5);
+        for (int i = 0; i < 20; i++) {
+            emulator.append("line" + i + "\r\n");
+        }
+
+        ScreenBuffer buffer = emulator.getScreenBuffer();
+        assertEquals(5, buffer.getScrollbackRows());
+        assertEquals(19, buffer.getScrollCounter());
+        assertEquals("line14", buffer.getRow(0).getText());
+    }
+
+    @Test
+    public void clearDropsScrollbackAndResetsCounter() {
+        TerminalEmulator emulator = new TerminalEmulator(10, 3, 100);
+        for (int i = 0; i < 10; i++) {
+            emulator.append("line" + i + "\r\n");
+        }
+        emulator.append("$ ");
+        emulator.clear();
+
+        ScreenBuffer buffer = emulator.getScreenBuffer();
+        assertEquals(0, buffer.getScrollbackRows());
+        assertEquals(0, buffer.getScrollCounter());
+        assertEquals("$", line(emulator, 0));
+        assertEquals(0, emulator.getCursorY());
+    }
+
+    @Test
+    public void alternateScreenRestoresMainScreen() {
+        TerminalEmulator emulator = new TerminalEmulator(10, 3);
+        emulator.append("main");
+        emulator.append("\u001b[?1049h");
+
+        assertTrue(emulator.isAlternateScreen());
+        assertEquals("", line(emulator, 0));
+        emulator.append("full screen");
+
+        emulator.append("\u001b[?1049l");
+        assertFalse(emulator.isAlternateScreen());
+        assertEquals("main", line(emulator, 0));
+        assertEquals(4, emulator.getCursorX());
+    }
+
+    @Test
+    public void surrogatePairAcrossChunkBoundaryIsJoined() {
+        TerminalEmulator emulator = new TerminalEmulator(5000, 2);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 4095; i++) {
+            text.append('a');
+        }
+        // 代理对的高位在第4096个字符，低位落到下一块
+        text.append("😀");
+        emulator.append(text.toString());
+
+        TerminalRow row = emulator.getScreenBuffer().screenRow(0);
+        assertEquals(0x1F600, row.getCodePoint(4095));
+    }
+
+    @Test
+    public void sequenceSplitAcrossAppendsIsParsed() {
+        TerminalEmulator emulator = new TerminalEmulator(10, 3);
+        emulator.append("ab\u001b[");
+        emulator.append("2;1Hc");
+
+        assertEquals("ab", line(emulator, 0));
+        assertEquals("c", line(emulator, 1));
+    }
+
+    @Test
+    public void answersCursorPositionQuery() {
+        TerminalEmulator emulator = new TerminalEmulator(10, 3);
+        List<String> replies = new ArrayList<>();
+        emulator.setClient(replies::add);
+        emulator.append("\u001b[2;4H\u001b[6n");
+
+        assertEquals(1, replies.size());
+        assertEquals("\u001b[2;4R", replies.get(0));
+    }
+
+    @Test
+    public void resizeKeepsCursorRowAndTruncatesColumns() {
+        TerminalEmulator emulator = new TerminalEmulator(10, 4, 100);
+        emulator.append("one\r\ntwo\r\nthree\r\nfour");
+        emulator.resize(3, 2);
+
+        assertEquals(3, emulator.getColumns());
+        assertEquals(2, emulator.getRows());
+        assertEquals("fou", line(emulator, emulator.getCursorY()));
+        assertTrue(emulator.getCursorX() < 3);
+        assertTrue(emulator.getTranscript().startsWith("one\n"));
+    }
+
+    private static String line(TerminalEmulator emulator, int y) {
+        return emulator.getScreenBuffer().screenRow(y).getText();
+    }
+}